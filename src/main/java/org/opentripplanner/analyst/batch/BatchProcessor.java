@@ -14,6 +14,10 @@
 package org.opentripplanner.analyst.batch;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.TimeZone;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
@@ -52,6 +56,15 @@ public class BatchProcessor {
     private Accumulator accumulator;
     private int logThrottleSeconds = 4;    
     private int searchCutoffSeconds = -1;
+
+    /**
+     * When the prototype request is a plain walking request that the sweep can answer (see
+     * {@link MultiOriginStreetSearch#canHandle}), compute groups of nearby origins in a single
+     * {@link MultiOriginStreetSearch} sweep rather than running one full search per origin. Other
+     * requests always use one search per origin. The sweep ignores turn costs, so its times can
+     * be slightly shorter. Best combined with a search cutoff.
+     */
+    private boolean multiOriginStreetSearch = false;
     
     /**
      * Empirical results for a 4-core processor (with 8 fake hyperthreading cores):
@@ -80,6 +93,10 @@ public class BatchProcessor {
         this.searchCutoffSeconds = minutes * 60;
     }
 
+    public void setMultiOriginStreetSearch(boolean multiOriginStreetSearch) {
+        this.multiOriginStreetSearch = multiOriginStreetSearch;
+    }
+
     /*
     public static void main(String[] args) throws IOException {
         org.springframework.core.io.Resource appContextResource;
@@ -131,9 +148,13 @@ public class BatchProcessor {
         }
         startTime = System.currentTimeMillis();
         int nTasks = 0;
-        for (Individual oi : origins) { // using filtered iterator
-            ecs.submit(new BatchAnalystTask(nTasks, oi), null);
-            ++nTasks;
+        if (multiOriginStreetSearch && MultiOriginStreetSearch.canHandle(prototypeRoutingRequest)) {
+            nTasks = submitMultiOriginTasks(ecs);
+        } else {
+            for (Individual oi : origins) { // using filtered iterator
+                ecs.submit(new BatchAnalystTask(nTasks, oi), null);
+                ++nTasks;
+            }
         }
         LOG.info("created {} tasks.", nTasks);
         int nCompleted = 0;
@@ -189,6 +210,61 @@ public class BatchProcessor {
         return false;
     }
     
+    /**
+     * Link the origins into the graph, sort them along a space-filling curve so that each group
+     * covers a compact area, and submit one task per group of up to
+     * {@link MultiOriginStreetSearch#MAX_ORIGINS} origins.
+     * @return the number of tasks submitted.
+     */
+    private int submitMultiOriginTasks(CompletionService<Void> ecs) {
+        linkIntoGraph(origins);
+        final List<Individual> linked = new ArrayList<Individual>();
+        final List<Integer> indexes = new ArrayList<Integer>();
+        int i = 0;
+        for (Individual oi : origins) { // using filtered iterator, indexes as in the per-origin case
+            if (oi.sample != null) {
+                linked.add(oi);
+                indexes.add(i);
+            }
+            ++i;
+        }
+        List<Integer> order = new ArrayList<Integer>(linked.size());
+        for (int k = 0; k < linked.size(); k++) {
+            order.add(k);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                long za = MultiOriginStreetSearch.zOrder(linked.get(a).lon, linked.get(a).lat);
+                long zb = MultiOriginStreetSearch.zOrder(linked.get(b).lon, linked.get(b).lat);
+                return za < zb ? -1 : (za == zb ? 0 : 1);
+            }
+        });
+        int nTasks = 0;
+        for (int start = 0; start < order.size(); start += MultiOriginStreetSearch.MAX_ORIGINS) {
+            int end = Math.min(start + MultiOriginStreetSearch.MAX_ORIGINS, order.size());
+            int[] groupIndexes = new int[end - start];
+            Individual[] groupOrigins = new Individual[end - start];
+            for (int k = start; k < end; k++) {
+                groupIndexes[k - start] = indexes.get(order.get(k));
+                groupOrigins[k - start] = linked.get(order.get(k));
+            }
+            ecs.submit(new MultiOriginTask(groupIndexes, groupOrigins), null);
+            ++nTasks;
+        }
+        LOG.info("grouped {} linked origins into {} multi-origin street searches.", linked.size(), nTasks);
+        return nTasks;
+    }
+
+    /** Build a request with a routing context that is not bound to any particular origin. */
+    private RoutingRequest buildMultiOriginRequest() {
+        RoutingRequest req = prototypeRoutingRequest.clone();
+        req.setDateTime(date, time, timeZone);
+        req.batch = true;
+        req.setDummyRoutingContext(graphService.getRouter(req.routerId).graph);
+        return req;
+    }
+
     private RoutingRequest buildRequest(Individual i) {
         RoutingRequest req = prototypeRoutingRequest.clone();
         req.setDateTime(date, time, timeZone);
@@ -253,23 +329,64 @@ public class BatchProcessor {
                 // ResultSet should be a local to avoid memory leak
                 ResultSet results = ResultSet.forTravelTimes(destinations, spt);
                 req.cleanup();
-                switch (mode) {
-                case ACCUMULATE:
-                    synchronized (aggregateResultSet) {
-                        accumulator.accumulate(oi.input, results, aggregateResultSet);
-                    }
-                    break;
-                case AGGREGATE:
-                    aggregateResultSet.results[i] = aggregator.computeAggregate(results);
-                    break;
-                default:
-                    String subName = outputPath.replace("{}", String.format("%d_%s", i, oi.label));
-                    results.writeAppropriateFormat(subName);
-                }
-                    
+                processResults(i, oi, results);
             }
         }        
-    }    
+    }
+
+    /**
+     * Travel times for a group of nearby origins computed in a single street search sweep.
+     * Each worker thread keeps its own search, so edge costs are evaluated once per thread.
+     */
+    private class MultiOriginTask implements Runnable {
+
+        protected final int[] indexes;
+        protected final Individual[] ois;
+
+        public MultiOriginTask(int[] indexes, Individual[] ois) {
+            this.indexes = indexes;
+            this.ois = ois;
+        }
+
+        @Override
+        public void run() {
+            Sample[] samples = new Sample[ois.length];
+            for (int k = 0; k < ois.length; k++) {
+                samples[k] = ois[k].sample;
+            }
+            MultiOriginStreetSearch.Result result = multiOriginSearches.get().search(samples);
+            for (int k = 0; k < ois.length; k++) {
+                ResultSet results = ResultSet.forTravelTimes(destinations, result, k);
+                processResults(indexes[k], ois[k], results);
+            }
+        }
+    }
+
+    private final ThreadLocal<MultiOriginStreetSearch> multiOriginSearches =
+            new ThreadLocal<MultiOriginStreetSearch>() {
+        @Override
+        protected MultiOriginStreetSearch initialValue() {
+            int cutoff = searchCutoffSeconds > 0 ? searchCutoffSeconds : Integer.MAX_VALUE;
+            return new MultiOriginStreetSearch(buildMultiOriginRequest(), cutoff);
+        }
+    };
+
+    /** Accumulate, aggregate or save the results for origin number i, in the worker thread. */
+    private void processResults(int i, Individual oi, ResultSet results) {
+        switch (mode) {
+        case ACCUMULATE:
+            synchronized (aggregateResultSet) {
+                accumulator.accumulate(oi.input, results, aggregateResultSet);
+            }
+            break;
+        case AGGREGATE:
+            aggregateResultSet.results[i] = aggregator.computeAggregate(results);
+            break;
+        default:
+            String subName = outputPath.replace("{}", String.format("%d_%s", i, oi.label));
+            results.writeAppropriateFormat(subName);
+        }
+    }
     
 }
 
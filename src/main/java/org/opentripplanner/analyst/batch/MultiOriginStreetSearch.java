@@ -0,0 +1,263 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.analyst.batch;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.opentripplanner.analyst.core.Sample;
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.routing.core.OptimizeType;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+
+/**
+ * Computes street travel times from up to 64 origins in a single sweep, instead of running one
+ * full search per origin. Each vertex carries one time per origin plus a 64-bit mask of the
+ * origins whose time has improved since the vertex was last expanded. Expanding a vertex relaxes
+ * its edges for all of those origins at once, so neighbouring origins whose searches cover the
+ * same streets share the queue operations, edge iteration and edge cost evaluation.
+ *
+ * The sweep minimizes travel time, while the per-origin searches it replaces minimize weight. The
+ * traversal time of each edge is evaluated once from a fresh state and cached, so nothing that
+ * depends on the path so far (walk distance limits, switching between riding and walking a bike)
+ * is taken into account. It is therefore only used for walking searches in which weight is
+ * proportional to time: no walk distance limit, no wheelchair, and the same reluctance on stairs
+ * as elsewhere; see {@link #canHandle}. Even then it does not model turn costs, which the
+ * per-origin searches add to both time and weight, so its times can be a few seconds per turn
+ * shorter, and its paths can differ where turn costs would have made another path cheaper.
+ * Origins are seeded at the two ends of the edge they were sampled on, using the sample's walk
+ * times.
+ *
+ * An instance caches edge costs and is not thread-safe: use one per worker thread.
+ */
+public class MultiOriginStreetSearch {
+
+    /** The number of origins that can share a sweep, i.e. the width of the improvement mask. */
+    public static final int MAX_ORIGINS = 64;
+
+    private static final int NOT_COMPUTED = -2;
+
+    private static final int UNTRAVERSABLE = -1;
+
+    private final RoutingRequest options;
+
+    private final int cutoffSeconds;
+
+    private final TObjectIntMap<Edge> edgeTimes =
+            new TObjectIntHashMap<Edge>(100000, 0.5f, NOT_COMPUTED);
+
+    /**
+     * @param options a request with a routing context, used to evaluate edge traversal times.
+     * @param cutoffSeconds no times greater than this will be recorded. A cutoff bounds the
+     *        memory used by each sweep, which holds one time per origin for every reached vertex.
+     */
+    public MultiOriginStreetSearch(RoutingRequest options, int cutoffSeconds) {
+        this.options = options;
+        this.cutoffSeconds = cutoffSeconds;
+    }
+
+    /**
+     * @return true if minimizing the time of each edge gives the same paths as minimizing weight
+     *         for the given request, apart from turn costs.
+     */
+    public static boolean canHandle(RoutingRequest options) {
+        TraverseModeSet modes = options.modes;
+        return modes.getWalk() && !modes.getBicycle() && !modes.getDriving() && !modes.isTransit()
+                && !options.allowBikeRental && !options.parkAndRide && !options.kissAndRide
+                && !options.bikeParkAndRide && !options.wheelchairAccessible
+                && options.maxWalkDistance == Double.MAX_VALUE
+                && options.optimize == OptimizeType.QUICK
+                && options.stairsReluctance == options.walkReluctance;
+    }
+
+    /** The times at one vertex, one per origin, and the origins to propagate from it. */
+    private static class Label {
+        final Vertex vertex;
+        final int[] times;
+        long improved = 0;
+
+        Label(Vertex vertex, int nOrigins) {
+            this.vertex = vertex;
+            this.times = new int[nOrigins];
+            Arrays.fill(times, Integer.MAX_VALUE);
+        }
+
+        /** @return the lowest time among the improved origins, which is the queue key. */
+        int minImprovedTime() {
+            int min = Integer.MAX_VALUE;
+            long mask = improved;
+            while (mask != 0) {
+                int o = Long.numberOfTrailingZeros(mask);
+                mask &= mask - 1;
+                if (times[o] < min)
+                    min = times[o];
+            }
+            return min;
+        }
+    }
+
+    /** Travel times from each origin of one sweep. */
+    public static class Result {
+
+        private final Map<Vertex, Label> labels;
+
+        private Result(Map<Vertex, Label> labels) {
+            this.labels = labels;
+        }
+
+        /** @return the time in seconds from the given origin to the vertex, or -1 if unreached. */
+        public int getTime(int origin, Vertex vertex) {
+            Label label = labels.get(vertex);
+            if (label == null || label.times[origin] == Integer.MAX_VALUE)
+                return -1;
+            return label.times[origin];
+        }
+
+        /**
+         * Evaluate a destination sample for the given origin, in the same way as
+         * {@link Sample#eval(org.opentripplanner.routing.spt.ShortestPathTree)}.
+         * @return the travel time in seconds, or Long.MAX_VALUE if the sample was not reached.
+         */
+        public long eval(int origin, Sample s) {
+            long m0 = Long.MAX_VALUE;
+            long m1 = Long.MAX_VALUE;
+            int t0 = getTime(origin, s.v0);
+            int t1 = getTime(origin, s.v1);
+            if (t0 >= 0)
+                m0 = t0 + s.t0;
+            if (t1 >= 0)
+                m1 = t1 + s.t1;
+            return (m0 < m1) ? m0 : m1;
+        }
+    }
+
+    /**
+     * Run one sweep from the given origins. Origins may be null (e.g. not linked to the graph), in
+     * which case nothing will be reached from them.
+     */
+    public Result search(Sample[] origins) {
+        int nOrigins = origins.length;
+        if (nOrigins > MAX_ORIGINS) {
+            throw new IllegalArgumentException("At most " + MAX_ORIGINS + " origins per search.");
+        }
+        Map<Vertex, Label> labels = new IdentityHashMap<Vertex, Label>();
+        BinHeap<Label> queue = new BinHeap<Label>();
+        for (int o = 0; o < nOrigins; o++) {
+            Sample s = origins[o];
+            if (s == null)
+                continue;
+            seed(labels, queue, nOrigins, s.v0, o, s.t0);
+            seed(labels, queue, nOrigins, s.v1, o, s.t1);
+        }
+        while (!queue.empty()) {
+            Label label = queue.extract_min();
+            long improved = label.improved;
+            // Stale queue entry: this label was already expanded for all its improvements.
+            if (improved == 0)
+                continue;
+            label.improved = 0;
+            Vertex vertex = label.vertex;
+            Collection<Edge> edges = options.arriveBy ? vertex.getIncoming() : vertex.getOutgoing();
+            for (Edge edge : edges) {
+                int edgeTime = edgeTime(edge);
+                if (edgeTime == UNTRAVERSABLE)
+                    continue;
+                Vertex next = options.arriveBy ? edge.getFromVertex() : edge.getToVertex();
+                Label nextLabel = null;
+                long nextImproved = 0;
+                long mask = improved;
+                while (mask != 0) {
+                    int o = Long.numberOfTrailingZeros(mask);
+                    mask &= mask - 1;
+                    int t = label.times[o] + edgeTime;
+                    if (t > cutoffSeconds)
+                        continue;
+                    if (nextLabel == null) {
+                        nextLabel = labels.get(next);
+                        if (nextLabel == null) {
+                            nextLabel = new Label(next, nOrigins);
+                            labels.put(next, nextLabel);
+                        }
+                    }
+                    if (t < nextLabel.times[o]) {
+                        nextLabel.times[o] = t;
+                        nextImproved |= 1L << o;
+                    }
+                }
+                if (nextImproved != 0) {
+                    nextLabel.improved |= nextImproved;
+                    queue.insert(nextLabel, nextLabel.minImprovedTime());
+                }
+            }
+        }
+        return new Result(labels);
+    }
+
+    private void seed(Map<Vertex, Label> labels, BinHeap<Label> queue, int nOrigins, Vertex v,
+            int origin, int time) {
+        if (v == null || time > cutoffSeconds)
+            return;
+        Label label = labels.get(v);
+        if (label == null) {
+            label = new Label(v, nOrigins);
+            labels.put(v, label);
+        }
+        if (time < label.times[origin]) {
+            label.times[origin] = time;
+            label.improved |= 1L << origin;
+            queue.insert(label, label.minImprovedTime());
+        }
+    }
+
+    /**
+     * @return the time in seconds to traverse the given edge in the search direction, or
+     *         UNTRAVERSABLE. Evaluated once per edge from a fresh state and then cached.
+     */
+    private int edgeTime(Edge edge) {
+        int time = edgeTimes.get(edge);
+        if (time == NOT_COMPUTED) {
+            Vertex start = options.arriveBy ? edge.getToVertex() : edge.getFromVertex();
+            State s1 = edge.traverse(new State(start, options));
+            time = (s1 == null) ? UNTRAVERSABLE : (int) s1.getElapsedTimeSeconds();
+            edgeTimes.put(edge, time);
+        }
+        return time;
+    }
+
+    /**
+     * Compute a key that orders locations along a Z-order (Morton) curve, so that sorting origins
+     * by it and cutting the list into groups of {@link #MAX_ORIGINS} yields spatially compact
+     * groups whose searches overlap as much as possible.
+     */
+    public static long zOrder(double lon, double lat) {
+        long x = (long) ((lon + 180) / 360 * (1L << 31));
+        long y = (long) ((lat + 90) / 180 * (1L << 31));
+        long z = 0;
+        for (int b = 0; b < 31; b++) {
+            z |= ((x >> b) & 1L) << (2 * b);
+            z |= ((y >> b) & 1L) << (2 * b + 1);
+        }
+        return z;
+    }
+
+}
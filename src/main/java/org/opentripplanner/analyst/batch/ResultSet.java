@@ -44,6 +44,26 @@ public class ResultSet {
         return new ResultSet(population, results);
     }
     
+    /** Travel times to the population from one origin of a {@link MultiOriginStreetSearch}. */
+    public static ResultSet forTravelTimes(Population population,
+            MultiOriginStreetSearch.Result searchResult, int origin) {
+        double[] results = new double[population.size()];
+        int i = 0;
+        for (Individual indiv : population) {
+            Sample s = indiv.sample;
+            long t = Long.MAX_VALUE;
+            if (s == null)
+                t = -2;
+            else
+                t = searchResult.eval(origin, s);
+            if (t == Long.MAX_VALUE)
+                t = -1;
+            results[i] = t;
+            i++;
+        }
+        return new ResultSet(population, results);
+    }
+
     public ResultSet(Population population, double[] results) {
         this.population = population;
         this.results = results;
@@ -8,6 +8,12 @@ import javax.ws.rs.ext.Provider;
 public class OTPExceptionMapper implements ExceptionMapper<Exception> {
 
     public Response toResponse(Exception ex) {
+        if (ex instanceof ParameterException) {
+            // The client's fault, not the server's
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity(ex.getMessage())
+                    .type("text/plain").build();
+        }
         // Show the exception in the server log
         ex.printStackTrace();
         // Return the short form message to the client
@@ -25,5 +25,10 @@ public class ParameterException extends Exception {
     public ParameterException(Message message) {
         this.message = message;
     }
+
+    @Override
+    public String getMessage() {
+        return message.get();
+    }
     
 }
@@ -29,6 +29,7 @@ import org.opentripplanner.api.parameter.QualifiedModeSetSequence;
 import org.opentripplanner.routing.core.OptimizeType;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.request.BannedStopSet;
+import org.opentripplanner.routing.spt.DominanceFunction;
 import org.opentripplanner.standalone.OTPServer;
 import org.opentripplanner.standalone.Router;
 import org.slf4j.Logger;
@@ -250,6 +251,12 @@ public abstract class RoutingResource {
     /** If true, goal direction is turned off and a full path tree is built (specify only once) */
     @DefaultValue("false") @QueryParam("batch") protected List<Boolean> batch;
 
+    /**
+     * The rule used to prune codominant states at each vertex: hopeful (the default), transit,
+     * pareto, minimumWeight or earliestArrival.
+     */
+    @DefaultValue("") @QueryParam("dominanceFunction") protected List<String> dominanceFunction;
+
     /** A transit stop required to be the first stop in the search (AgencyId_StopId) */
     @DefaultValue("") @QueryParam("startTransitStopId") protected List<String> startTransitStopId;
 
@@ -301,6 +308,13 @@ public abstract class RoutingResource {
      */
     @QueryParam("disableRemainingWeightHeuristic")
     protected List<Boolean> disableRemainingWeightHeuristic;
+
+    /**
+     * If true, the debug output includes counts of the states, edges and boardings examined by the search. This
+     * costs a little time, so it should only be used for tuning.
+     */
+    @QueryParam("searchStats")
+    protected List<Boolean> searchStats;
     
     /* 
      * somewhat ugly bug fix: the graphService is only needed here for fetching per-graph time zones. 
@@ -431,6 +445,14 @@ public abstract class RoutingResource {
             request.transferPenalty = (get(transferPenalty, n, request.transferPenalty));
         }
         request.batch = (get(batch, n, new Boolean(request.batch)));
+        String dominanceFunctionName = get(dominanceFunction, n, "");
+        if (!dominanceFunctionName.isEmpty()) {
+            try {
+                request.dominanceFunction = DominanceFunction.forName(dominanceFunctionName);
+            } catch (IllegalArgumentException e) {
+                throw new ParameterException(Message.BOGUS_PARAMETER);
+            }
+        }
         request.setOptimize(opt);
         /* Temporary code to get bike/car parking and renting working. */
         modes.get(0).applyToRequest(request);
@@ -482,6 +504,8 @@ public abstract class RoutingResource {
 
         request.disableRemainingWeightHeuristic = (get(disableRemainingWeightHeuristic, n,
                 request.disableRemainingWeightHeuristic));
+
+        request.searchStats = get(searchStats, n, request.searchStats);
         
         String localeSpec = get(locale, n, "en");
         String[] localeSpecParts = localeSpec.split("_");
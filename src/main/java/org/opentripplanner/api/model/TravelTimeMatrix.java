@@ -0,0 +1,78 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.api.model;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Travel times and related quantities between every origin and every destination of a matrix request. Rows are origins
+ * and columns are destinations, in the order they were given.
+ */
+public class TravelTimeMatrix {
+
+    /** Value of all cells whose destination could not be reached from the origin. */
+    public static final int UNREACHABLE = -1;
+
+    /** Travel time in seconds. */
+    public int[][] durations;
+
+    /** Distance walked in metres, rounded. */
+    public int[][] walkDistances;
+
+    /** Number of transfers, i.e. boardings after the first one. */
+    public int[][] transfers;
+
+    public TravelTimeMatrix() { }
+
+    public TravelTimeMatrix(int nOrigins, int nDestinations) {
+        durations = new int[nOrigins][nDestinations];
+        walkDistances = new int[nOrigins][nDestinations];
+        transfers = new int[nOrigins][nDestinations];
+        for (int i = 0; i < nOrigins; i++) {
+            clearRow(i);
+        }
+    }
+
+    /** Mark every destination as unreachable from the given origin. */
+    private void clearRow(int origin) {
+        Arrays.fill(durations[origin], UNREACHABLE);
+        Arrays.fill(walkDistances[origin], UNREACHABLE);
+        Arrays.fill(transfers[origin], UNREACHABLE);
+    }
+
+    /**
+     * Write the matrix in a compact binary form: the number of origins and destinations, then the durations, walk
+     * distances and transfers, each in row-major order. All values are big-endian 32-bit integers.
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        int nOrigins = durations.length;
+        int nDestinations = nOrigins == 0 ? 0 : durations[0].length;
+        data.writeInt(nOrigins);
+        data.writeInt(nDestinations);
+        for (int[][] values : new int[][][] { durations, walkDistances, transfers }) {
+            for (int[] row : values) {
+                for (int value : row) {
+                    data.writeInt(value);
+                }
+            }
+        }
+        data.flush();
+    }
+
+}
@@ -19,6 +19,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.opentripplanner.api.common.Message;
+import org.opentripplanner.api.common.ParameterException;
 import org.opentripplanner.api.common.LocationNotAccessible;
 import org.opentripplanner.routing.error.GraphNotFoundException;
 import org.opentripplanner.routing.error.PathNotFoundException;
@@ -57,7 +58,11 @@ public class PlannerError {
 
     public PlannerError(Exception e) {
         this();
-        message = messages.get(e.getClass());
+        if (e instanceof ParameterException) {
+            message = ((ParameterException) e).message;
+        } else {
+            message = messages.get(e.getClass());
+        }
         if (message == null) {
             LOG.error("exception planning trip: ", e);
             message = Message.SYSTEM_ERROR;
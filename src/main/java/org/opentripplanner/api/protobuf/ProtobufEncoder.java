@@ -0,0 +1,246 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.api.protobuf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A minimal protocol buffer encoder writing into a growable byte array, used to produce messages
+ * without generated message classes, and without building a tree of message objects before
+ * writing them (e.g. the vector tiles of the inspector, with one message per edge). The API
+ * responses described in otp.proto are built with the generated {@link OtpProtos} instead.
+ *
+ * Embedded messages and packed fields are length-delimited, and their length is only known once
+ * their content has been written. {@link #startMessage} therefore remembers where the content
+ * begins and {@link #endMessage} inserts the length in front of it, moving the content up by the
+ * one to five bytes needed. Nesting is shallow in practice, so this costs much less than
+ * encoding each embedded message into its own buffer.
+ *
+ * The write methods taking boxed values skip the field when the value is null.
+ */
+public class ProtobufEncoder {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int WIRETYPE_VARINT = 0;
+    private static final int WIRETYPE_FIXED64 = 1;
+    private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+
+    private byte[] buf;
+
+    private int pos = 0;
+
+    /** Start positions of the content of the currently open embedded messages. */
+    private int[] starts = new int[8];
+
+    private int depth = 0;
+
+    public ProtobufEncoder() {
+        this(4096);
+    }
+
+    public ProtobufEncoder(int initialCapacity) {
+        buf = new byte[initialCapacity];
+    }
+
+    /* Embedded messages and packed fields */
+
+    public void startMessage(int field) {
+        writeTag(field, WIRETYPE_LENGTH_DELIMITED);
+        if (depth == starts.length) {
+            starts = Arrays.copyOf(starts, depth * 2);
+        }
+        starts[depth++] = pos;
+    }
+
+    public void endMessage() {
+        if (depth == 0) {
+            throw new IllegalStateException("No embedded message to end.");
+        }
+        int start = starts[--depth];
+        int length = pos - start;
+        int lengthSize = varintSize(length);
+        ensureCapacity(lengthSize);
+        System.arraycopy(buf, start, buf, start + lengthSize, length);
+        pos = start;
+        writeVarint(length);
+        pos += length;
+    }
+
+    /** Packed repeated fields are written like embedded messages, without a tag per value. */
+    public void startPacked(int field) {
+        startMessage(field);
+    }
+
+    public void endPacked() {
+        endMessage();
+    }
+
+    /** Write one value of a packed repeated sint32 field. */
+    public void writePackedSInt32(int value) {
+        writeVarint(zigZag(value));
+    }
+
+    /** Write one value of a packed repeated uint32 field. Negative values stand for values of 2^31 and above. */
+    public void writePackedUInt32(int value) {
+        writeVarint(value);
+    }
+
+    /* Scalar fields */
+
+    public void writeInt32(int field, int value) {
+        writeTag(field, WIRETYPE_VARINT);
+        // Negative int32 values are sign-extended to 64 bits, as the protobuf library does.
+        writeVarint((long) value);
+    }
+
+    public void writeInt32(int field, Integer value) {
+        if (value != null) writeInt32(field, value.intValue());
+    }
+
+    public void writeUInt32(int field, int value) {
+        writeTag(field, WIRETYPE_VARINT);
+        writeVarint(value);
+    }
+
+    public void writeInt64(int field, long value) {
+        writeTag(field, WIRETYPE_VARINT);
+        writeVarint(value);
+    }
+
+    public void writeInt64(int field, Long value) {
+        if (value != null) writeInt64(field, value.longValue());
+    }
+
+    public void writeSInt32(int field, int value) {
+        writeTag(field, WIRETYPE_VARINT);
+        writeVarint(zigZag(value));
+    }
+
+    public void writeSInt32(int field, Integer value) {
+        if (value != null) writeSInt32(field, value.intValue());
+    }
+
+    public void writeSInt64(int field, long value) {
+        writeTag(field, WIRETYPE_VARINT);
+        writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    public void writeBool(int field, boolean value) {
+        writeTag(field, WIRETYPE_VARINT);
+        writeRawByte(value ? 1 : 0);
+    }
+
+    public void writeBool(int field, Boolean value) {
+        if (value != null) writeBool(field, value.booleanValue());
+    }
+
+    public void writeDouble(int field, double value) {
+        writeTag(field, WIRETYPE_FIXED64);
+        long bits = Double.doubleToRawLongBits(value);
+        ensureCapacity(8);
+        for (int i = 0; i < 8; i++) {
+            buf[pos++] = (byte) (bits >>> (8 * i));
+        }
+    }
+
+    public void writeDouble(int field, Double value) {
+        if (value != null) writeDouble(field, value.doubleValue());
+    }
+
+    public void writeString(int field, String value) {
+        if (value == null) return;
+        byte[] bytes = value.getBytes(UTF_8);
+        writeTag(field, WIRETYPE_LENGTH_DELIMITED);
+        writeVarint(bytes.length);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buf, pos, bytes.length);
+        pos += bytes.length;
+    }
+
+    /* Output */
+
+    /** @return the number of bytes written so far. */
+    public int size() {
+        return pos;
+    }
+
+    public byte[] toByteArray() {
+        checkComplete();
+        return Arrays.copyOf(buf, pos);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        checkComplete();
+        out.write(buf, 0, pos);
+    }
+
+    /* Wire format */
+
+    private void checkComplete() {
+        if (depth != 0) {
+            throw new IllegalStateException(depth + " embedded messages were not ended.");
+        }
+    }
+
+    private void writeTag(int field, int wireType) {
+        writeVarint((field << 3) | wireType);
+    }
+
+    /** Write the given value as an unsigned 32 bit varint. */
+    private void writeVarint(int value) {
+        ensureCapacity(5);
+        while ((value & ~0x7F) != 0) {
+            buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+    }
+
+    private void writeVarint(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+    }
+
+    private void writeRawByte(int value) {
+        ensureCapacity(1);
+        buf[pos++] = (byte) value;
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int varintSize(int value) {
+        if ((value & (0xffffffff << 7)) == 0) return 1;
+        if ((value & (0xffffffff << 14)) == 0) return 2;
+        if ((value & (0xffffffff << 21)) == 0) return 3;
+        if ((value & (0xffffffff << 28)) == 0) return 4;
+        return 5;
+    }
+
+    private void ensureCapacity(int n) {
+        if (pos + n > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+        }
+    }
+
+}
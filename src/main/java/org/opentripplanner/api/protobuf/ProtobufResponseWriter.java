@@ -0,0 +1,661 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.api.protobuf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import javax.ws.rs.NotAcceptableException;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.opentripplanner.api.model.AgencyAndIdSerializer;
+import org.opentripplanner.api.model.Itinerary;
+import org.opentripplanner.api.model.Leg;
+import org.opentripplanner.api.model.Note;
+import org.opentripplanner.api.model.Place;
+import org.opentripplanner.api.model.TripPlan;
+import org.opentripplanner.api.model.WalkStep;
+import org.opentripplanner.api.model.error.PlannerError;
+import org.opentripplanner.api.resource.DebugOutput;
+import org.opentripplanner.api.resource.Response;
+import org.opentripplanner.api.resource.SearchStats;
+import org.opentripplanner.common.model.P2;
+import org.opentripplanner.index.model.PatternShort;
+import org.opentripplanner.index.model.RouteShort;
+import org.opentripplanner.index.model.StopShort;
+import org.opentripplanner.index.model.StopTimesInPattern;
+import org.opentripplanner.index.model.TripTimeShort;
+import org.opentripplanner.profile.DCFareCalculator;
+import org.opentripplanner.profile.Option;
+import org.opentripplanner.profile.ProfileResponse;
+import org.opentripplanner.profile.Segment;
+import org.opentripplanner.profile.Stats;
+import org.opentripplanner.profile.StreetSegment;
+import org.opentripplanner.routing.alertpatch.Alert;
+import org.opentripplanner.routing.alertpatch.TranslatedString;
+import org.opentripplanner.routing.core.Fare;
+import org.opentripplanner.routing.core.Money;
+import org.opentripplanner.util.model.EncodedPolylineBean;
+
+import com.google.protobuf.Message;
+
+/**
+ * Writes trip plans, profile routing results and the index API lists of stops, routes, patterns
+ * and stop times as protocol buffers, when the client asks for {@value #APPLICATION_X_PROTOBUF}.
+ * The messages are defined in otp.proto, which is found next to this class on the classpath and
+ * documents the delta encoding of coordinates and times used to keep them small. The message
+ * classes in {@link OtpProtos} are generated from it.
+ *
+ * Resource methods opt in by listing {@link #APPLICATION_X_PROTOBUF_Q} in their @Produces
+ * annotation. The index API returns plain lists, whose element type can only be checked once the
+ * entity is known: a list of any other type (e.g. the time surfaces of an analyst profile request)
+ * raises a NotAcceptableException before anything is written.
+ */
+@Provider
+@Produces(ProtobufResponseWriter.APPLICATION_X_PROTOBUF)
+public class ProtobufResponseWriter implements MessageBodyWriter<Object> {
+
+    public static final String APPLICATION_X_PROTOBUF = "application/x-protobuf";
+
+    public static final MediaType APPLICATION_X_PROTOBUF_TYPE =
+            new MediaType("application", "x-protobuf");
+
+    /**
+     * Lower quality than JSON, so that clients accepting anything (e.g. browsers) still get JSON.
+     * Protocol buffers must be asked for explicitly.
+     */
+    public static final String APPLICATION_X_PROTOBUF_Q = APPLICATION_X_PROTOBUF + ";qs=0.5";
+
+    /** Places and stops are in micro-degrees. */
+    private static final double COORDINATE_FACTOR = 1e6;
+
+    /** Elevation profiles are in decimetres. */
+    private static final double ELEVATION_FACTOR = 10;
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations,
+            MediaType mediaType) {
+        return APPLICATION_X_PROTOBUF_TYPE.isCompatible(mediaType)
+                && (Response.class.isAssignableFrom(type)
+                        || ProfileResponse.class.isAssignableFrom(type)
+                        || Collection.class.isAssignableFrom(type));
+    }
+
+    @Override
+    public long getSize(Object entity, Class<?> type, Type genericType, Annotation[] annotations,
+            MediaType mediaType) {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(Object entity, Class<?> type, Type genericType, Annotation[] annotations,
+            MediaType mediaType, MultivaluedMap<String, Object> httpHeaders,
+            OutputStream entityStream) throws IOException {
+        toMessage(entity).writeTo(entityStream);
+    }
+
+    /**
+     * Convert the given entity to the matching message of otp.proto.
+     * @throws NotAcceptableException if there is no protocol buffer message for this entity.
+     */
+    public static Message toMessage(Object entity) {
+        if (entity instanceof Response) {
+            return planResponse((Response) entity);
+        } else if (entity instanceof ProfileResponse) {
+            OtpProtos.ProfileResponse.Builder builder = OtpProtos.ProfileResponse.newBuilder();
+            for (Option option : ((ProfileResponse) entity).options) {
+                builder.addOptions(option(option));
+            }
+            return builder.build();
+        } else if (entity instanceof Collection) {
+            return list((Collection<?>) entity);
+        } else {
+            throw new NotAcceptableException();
+        }
+    }
+
+    /* Trip planner */
+
+    private static OtpProtos.PlanResponse planResponse(Response response) {
+        OtpProtos.PlanResponse.Builder builder = OtpProtos.PlanResponse.newBuilder();
+        if (response.requestParameters != null) {
+            for (Map.Entry<String, String> e : response.requestParameters.entrySet()) {
+                OtpProtos.Parameter.Builder parameter = OtpProtos.Parameter.newBuilder();
+                if (e.getKey() != null) parameter.setKey(e.getKey());
+                if (e.getValue() != null) parameter.setValue(e.getValue());
+                builder.addRequestParameters(parameter);
+            }
+        }
+        if (response.getPlan() != null) {
+            builder.setPlan(tripPlan(response.getPlan()));
+        }
+        PlannerError error = response.getError();
+        if (error != null) {
+            OtpProtos.PlannerError.Builder e = OtpProtos.PlannerError.newBuilder();
+            e.setId(error.id);
+            if (error.msg != null) e.setMsg(error.msg);
+            if (error.message != null) e.setMessage(error.message.name());
+            if (error.getMissing() != null) e.addAllMissing(error.getMissing());
+            e.setNoPath(error.getNoPath());
+            builder.setError(e);
+        }
+        if (response.debugOutput != null) {
+            builder.setDebugOutput(debugOutput(response.debugOutput));
+        }
+        return builder.build();
+    }
+
+    private static OtpProtos.DebugOutput debugOutput(DebugOutput debug) {
+        OtpProtos.DebugOutput.Builder builder = OtpProtos.DebugOutput.newBuilder();
+        builder.setPrecalculationTime(debug.precalculationTime);
+        builder.setPathCalculationTime(debug.pathCalculationTime);
+        if (debug.pathTimes != null) builder.addAllPathTimes(debug.pathTimes);
+        builder.setRenderingTime(debug.renderingTime);
+        builder.setTotalTime(debug.totalTime);
+        builder.setTimedOut(debug.timedOut);
+        builder.setStatesVisited(debug.statesVisited);
+        SearchStats stats = debug.searchStats;
+        if (stats != null) {
+            OtpProtos.SearchStats.Builder s = OtpProtos.SearchStats.newBuilder();
+            s.setStatesCreated(stats.statesCreated);
+            s.setStatesPrunedByHeuristic(stats.statesPrunedByHeuristic);
+            s.setStatesPrunedByLimits(stats.statesPrunedByLimits);
+            s.setStatesDominatedOnArrival(stats.statesDominatedOnArrival);
+            s.setStatesDominatedInQueue(stats.statesDominatedInQueue);
+            s.setMaxQueueSize(stats.maxQueueSize);
+            s.setHeuristicEvaluations(stats.heuristicEvaluations);
+            s.setBoardingsAttempted(stats.boardingsAttempted);
+            s.setBoardingsSuccessful(stats.boardingsSuccessful);
+            for (Map.Entry<String, Long> e : stats.getEdgeTraversals().entrySet()) {
+                s.addEdgeTraversals(OtpProtos.EdgeTraversals.newBuilder()
+                        .setEdgeClass(e.getKey()).setCount(e.getValue()));
+            }
+            builder.setSearchStats(s);
+        }
+        return builder.build();
+    }
+
+    private static OtpProtos.TripPlan tripPlan(TripPlan plan) {
+        OtpProtos.TripPlan.Builder builder = OtpProtos.TripPlan.newBuilder();
+        long date = 0;
+        if (plan.date != null) {
+            builder.setDate(plan.date.getTime());
+            date = plan.date.getTime() / 1000;
+        }
+        if (plan.from != null) builder.setFrom(place(plan.from, 0, 0, date));
+        if (plan.to != null) builder.setTo(place(plan.to, 0, 0, date));
+        if (plan.itinerary != null) {
+            for (Itinerary itinerary : plan.itinerary) {
+                builder.addItineraries(itinerary(itinerary, date));
+            }
+        }
+        return builder.build();
+    }
+
+    private static OtpProtos.Itinerary itinerary(Itinerary itinerary, long date) {
+        OtpProtos.Itinerary.Builder builder = OtpProtos.Itinerary.newBuilder();
+        long start = date;
+        if (itinerary.startTime != null) {
+            start = seconds(itinerary.startTime);
+            builder.setStartTime(start - date);
+        }
+        if (itinerary.endTime != null) {
+            builder.setEndTime((int) (seconds(itinerary.endTime) - start));
+        }
+        if (itinerary.duration != null) builder.setDuration(itinerary.duration);
+        builder.setWalkTime(itinerary.walkTime);
+        builder.setTransitTime(itinerary.transitTime);
+        builder.setWaitingTime(itinerary.waitingTime);
+        if (itinerary.walkDistance != null) builder.setWalkDistance(itinerary.walkDistance);
+        builder.setWalkLimitExceeded(itinerary.walkLimitExceeded);
+        if (itinerary.elevationLost != null) builder.setElevationLost(itinerary.elevationLost);
+        if (itinerary.elevationGained != null) builder.setElevationGained(itinerary.elevationGained);
+        if (itinerary.transfers != null) builder.setTransfers(itinerary.transfers);
+        if (itinerary.fare != null && itinerary.fare.fare != null) {
+            for (Map.Entry<Fare.FareType, Money> e : itinerary.fare.fare.entrySet()) {
+                OtpProtos.Fare.Builder fare = OtpProtos.Fare.newBuilder();
+                fare.setType(e.getKey().name());
+                Money money = e.getValue();
+                if (money.getCurrency() != null) {
+                    fare.setCurrency(money.getCurrency().getCurrencyCode());
+                }
+                fare.setCents(money.getCents());
+                builder.addFare(fare);
+            }
+        }
+        if (itinerary.legs != null) {
+            for (Leg leg : itinerary.legs) {
+                builder.addLegs(leg(leg, start));
+            }
+        }
+        builder.setTooSloped(itinerary.tooSloped);
+        return builder.build();
+    }
+
+    private static OtpProtos.Leg leg(Leg leg, long itineraryStart) {
+        OtpProtos.Leg.Builder builder = OtpProtos.Leg.newBuilder();
+        long start = itineraryStart;
+        if (leg.startTime != null) {
+            start = seconds(leg.startTime);
+            builder.setStartTime((int) (start - itineraryStart));
+        }
+        if (leg.endTime != null) {
+            builder.setEndTime((int) (seconds(leg.endTime) - start));
+        }
+        builder.setDepartureDelay(leg.departureDelay);
+        builder.setArrivalDelay(leg.arrivalDelay);
+        if (leg.realTime != null) builder.setRealTime(leg.realTime);
+        if (leg.isNonExactFrequency != null) builder.setIsNonExactFrequency(leg.isNonExactFrequency);
+        if (leg.headway != null) builder.setHeadway(leg.headway);
+        if (leg.distance != null) builder.setDistance(leg.distance);
+        if (leg.pathway != null) builder.setPathway(leg.pathway);
+        if (leg.mode != null) builder.setMode(leg.mode);
+        if (leg.route != null) builder.setRoute(leg.route);
+        if (leg.agencyName != null) builder.setAgencyName(leg.agencyName);
+        if (leg.agencyUrl != null) builder.setAgencyUrl(leg.agencyUrl);
+        builder.setAgencyTimeZoneOffset(leg.agencyTimeZoneOffset);
+        if (leg.routeColor != null) builder.setRouteColor(leg.routeColor);
+        if (leg.routeType != null) builder.setRouteType(leg.routeType);
+        if (leg.routeId != null) builder.setRouteId(leg.routeId);
+        if (leg.routeTextColor != null) builder.setRouteTextColor(leg.routeTextColor);
+        if (leg.interlineWithPreviousLeg != null) {
+            builder.setInterlineWithPreviousLeg(leg.interlineWithPreviousLeg);
+        }
+        if (leg.tripShortName != null) builder.setTripShortName(leg.tripShortName);
+        if (leg.tripBlockId != null) builder.setTripBlockId(leg.tripBlockId);
+        if (leg.headsign != null) builder.setHeadsign(leg.headsign);
+        if (leg.agencyId != null) builder.setAgencyId(leg.agencyId);
+        if (leg.tripId != null) builder.setTripId(leg.tripId);
+        if (leg.serviceDate != null) builder.setServiceDate(leg.serviceDate);
+        if (leg.from != null) builder.setFrom(place(leg.from, 0, 0, start));
+        if (leg.to != null) builder.setTo(place(leg.to, 0, 0, start));
+        // Reference for the delta-encoded coordinates of the stops and steps
+        int fromLon = leg.from == null ? 0 : microDegrees(leg.from.lon);
+        int fromLat = leg.from == null ? 0 : microDegrees(leg.from.lat);
+        if (leg.stop != null) {
+            int lon = fromLon;
+            int lat = fromLat;
+            for (Place stop : leg.stop) {
+                builder.addIntermediateStops(place(stop, lon, lat, start));
+                lon = microDegrees(stop.lon);
+                lat = microDegrees(stop.lat);
+            }
+        }
+        builder.addAllGeometry(geometry(leg.legGeometry));
+        if (leg.walkSteps != null) {
+            int lon = fromLon;
+            int lat = fromLat;
+            for (WalkStep step : leg.walkSteps) {
+                builder.addSteps(walkStep(step, lon, lat));
+                lon = microDegrees(step.lon);
+                lat = microDegrees(step.lat);
+            }
+        }
+        if (leg.notes != null) {
+            for (Note note : leg.notes) {
+                if (note.text != null) builder.addNotes(note.text);
+            }
+        }
+        if (leg.alerts != null) {
+            for (Alert alert : leg.alerts) {
+                builder.addAlerts(alert(alert));
+            }
+        }
+        if (leg.routeShortName != null) builder.setRouteShortName(leg.routeShortName);
+        if (leg.routeLongName != null) builder.setRouteLongName(leg.routeLongName);
+        if (leg.boardRule != null) builder.setBoardRule(leg.boardRule);
+        if (leg.alightRule != null) builder.setAlightRule(leg.alightRule);
+        if (leg.rentedBike != null) builder.setRentedBike(leg.rentedBike);
+        return builder.build();
+    }
+
+    /**
+     * Convert a place with its coordinates relative to (refLon, refLat) in micro-degrees and its
+     * times relative to refTime in seconds.
+     */
+    private static OtpProtos.Place place(Place place, int refLon, int refLat, long refTime) {
+        OtpProtos.Place.Builder builder = OtpProtos.Place.newBuilder();
+        if (place.name != null) builder.setName(place.name);
+        if (place.stopId != null) builder.setStopId(agencyAndId(place.stopId));
+        if (place.stopCode != null) builder.setStopCode(place.stopCode);
+        if (place.platformCode != null) builder.setPlatformCode(place.platformCode);
+        if (place.lon != null) builder.setLon(microDegrees(place.lon) - refLon);
+        if (place.lat != null) builder.setLat(microDegrees(place.lat) - refLat);
+        if (place.arrival != null) builder.setArrival((int) (seconds(place.arrival) - refTime));
+        if (place.departure != null) {
+            builder.setDeparture((int) (seconds(place.departure) - refTime));
+        }
+        if (place.orig != null) builder.setOrig(place.orig);
+        if (place.zoneId != null) builder.setZoneId(place.zoneId);
+        if (place.stopIndex != null) builder.setStopIndex(place.stopIndex);
+        if (place.stopSequence != null) builder.setStopSequence(place.stopSequence);
+        return builder.build();
+    }
+
+    /** Convert a walk step with its coordinates relative to (refLon, refLat) in micro-degrees. */
+    private static OtpProtos.WalkStep walkStep(WalkStep step, int refLon, int refLat) {
+        OtpProtos.WalkStep.Builder builder = OtpProtos.WalkStep.newBuilder();
+        builder.setDistance(step.distance);
+        if (step.relativeDirection != null) {
+            builder.setRelativeDirection(
+                    OtpProtos.RelativeDirection.valueOf(step.relativeDirection.name()));
+        }
+        if (step.streetName != null) builder.setStreetName(step.streetName);
+        if (step.absoluteDirection != null) {
+            builder.setAbsoluteDirection(
+                    OtpProtos.AbsoluteDirection.valueOf(step.absoluteDirection.name()));
+        }
+        if (step.exit != null) builder.setExit(step.exit);
+        if (step.stayOn != null) builder.setStayOn(step.stayOn);
+        if (step.area != null) builder.setArea(step.area);
+        if (step.bogusName != null) builder.setBogusName(step.bogusName);
+        builder.setLon(microDegrees(step.lon) - refLon);
+        builder.setLat(microDegrees(step.lat) - refLat);
+        List<P2<Double>> elevation = step.getElevation();
+        if (elevation != null) {
+            int distance = 0;
+            int height = 0;
+            for (P2<Double> point : elevation) {
+                int d = (int) Math.round(point.first * ELEVATION_FACTOR);
+                int h = (int) Math.round(point.second * ELEVATION_FACTOR);
+                builder.addElevation(d - distance);
+                builder.addElevation(h - height);
+                distance = d;
+                height = h;
+            }
+        }
+        if (step.alerts != null) {
+            for (Alert alert : step.alerts) {
+                builder.addAlerts(alert(alert));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Return the deltas of an encoded polyline, for a packed sint32 field. The polyline is already
+     * a sequence of zig-zag encoded deltas, so this only reads their base-64 text form, without
+     * decoding the points.
+     */
+    private static List<Integer> geometry(EncodedPolylineBean polyline) {
+        List<Integer> geometry = new ArrayList<Integer>();
+        if (polyline == null || polyline.getPoints() == null) return geometry;
+        String points = polyline.getPoints();
+        int value = 0;
+        int shift = 0;
+        for (int i = 0; i < points.length(); i++) {
+            int chunk = points.charAt(i) - 63;
+            value |= (chunk & 0x1f) << shift;
+            shift += 5;
+            if (chunk < 0x20) {
+                // The polyline encoding of a signed value is the same as protobuf's zig-zag.
+                geometry.add((value & 1) != 0 ? ~(value >>> 1) : (value >>> 1));
+                value = 0;
+                shift = 0;
+            }
+        }
+        return geometry;
+    }
+
+    private static OtpProtos.Alert alert(Alert alert) {
+        OtpProtos.Alert.Builder builder = OtpProtos.Alert.newBuilder();
+        String header = someTranslation(alert.alertHeaderText);
+        if (header != null) builder.setHeader(header);
+        String description = someTranslation(alert.alertDescriptionText);
+        if (description != null) builder.setDescription(description);
+        String url = someTranslation(alert.alertUrl);
+        if (url != null) builder.setUrl(url);
+        if (alert.effectiveStartDate != null) {
+            builder.setEffectiveStartDate(alert.effectiveStartDate.getTime());
+        }
+        return builder.build();
+    }
+
+    /* Profile router */
+
+    private static OtpProtos.Option option(Option option) {
+        OtpProtos.Option.Builder builder = OtpProtos.Option.newBuilder();
+        if (option.transit != null) {
+            for (Segment segment : option.transit) {
+                builder.addTransit(segment(segment));
+            }
+        }
+        if (option.access != null) {
+            for (StreetSegment segment : option.access) {
+                builder.addAccess(streetSegment(segment));
+            }
+        }
+        if (option.egress != null) {
+            for (StreetSegment segment : option.egress) {
+                builder.addEgress(streetSegment(segment));
+            }
+        }
+        if (option.stats != null) builder.setStats(stats(option.stats));
+        if (option.summary != null) builder.setSummary(option.summary);
+        if (option.fares != null) {
+            for (DCFareCalculator.Fare fare : option.fares) {
+                OtpProtos.ProfileFare.Builder f = OtpProtos.ProfileFare.newBuilder();
+                if (fare.type != null) f.setType(fare.type.name());
+                f.setLow(fare.low);
+                f.setPeak(fare.peak);
+                f.setSenior(fare.senior);
+                f.setTransferReduction(fare.transferReduction);
+                builder.addFares(f);
+            }
+        }
+        return builder.build();
+    }
+
+    private static OtpProtos.Segment segment(Segment segment) {
+        OtpProtos.Segment.Builder builder = OtpProtos.Segment.newBuilder();
+        if (segment.from != null) builder.setFrom(segment.from);
+        if (segment.to != null) builder.setTo(segment.to);
+        builder.setWalkTime(segment.walkTime);
+        builder.setWalkDistance(segment.walkDistance);
+        if (segment.waitStats != null) builder.setWaitStats(stats(segment.waitStats));
+        if (segment.mode != null) builder.setMode(segment.mode.name());
+        if (segment.fromName != null) builder.setFromName(segment.fromName);
+        if (segment.toName != null) builder.setToName(segment.toName);
+        if (segment.rideStats != null) builder.setRideStats(stats(segment.rideStats));
+        if (segment.routes != null) {
+            for (RouteShort route : segment.routes) {
+                builder.addRoutes(route(route));
+            }
+        }
+        if (segment.segmentPatterns != null) {
+            for (Segment.SegmentPattern pattern : segment.segmentPatterns) {
+                OtpProtos.SegmentPattern.Builder p = OtpProtos.SegmentPattern.newBuilder();
+                if (pattern.patternId != null) p.setPatternId(pattern.patternId);
+                p.setFromIndex(pattern.fromIndex);
+                p.setToIndex(pattern.toIndex);
+                p.setNTrips(pattern.nTrips);
+                builder.addSegmentPatterns(p);
+            }
+        }
+        if (segment.startTime != null) builder.setStartTime(segment.startTime);
+        if (segment.endTime != null) builder.setEndTime(segment.endTime);
+        return builder.build();
+    }
+
+    private static OtpProtos.StreetSegment streetSegment(StreetSegment segment) {
+        OtpProtos.StreetSegment.Builder builder = OtpProtos.StreetSegment.newBuilder();
+        if (segment.mode != null) builder.setMode(segment.mode.name());
+        builder.setTime(segment.time);
+        builder.addAllGeometry(geometry(segment.geometry));
+        if (segment.walkSteps != null) {
+            int lon = 0;
+            int lat = 0;
+            for (WalkStep step : segment.walkSteps) {
+                builder.addWalkSteps(walkStep(step, lon, lat));
+                lon = microDegrees(step.lon);
+                lat = microDegrees(step.lat);
+            }
+        }
+        return builder.build();
+    }
+
+    private static OtpProtos.Stats stats(Stats stats) {
+        return OtpProtos.Stats.newBuilder().setMin(stats.min).setAvg(stats.avg)
+                .setMax(stats.max).setNum(stats.num).build();
+    }
+
+    /* Index API */
+
+    /**
+     * Convert a list returned by the index API to the list message of its element type. An empty
+     * list is an empty message whatever its type.
+     */
+    private static Message list(Collection<?> list) {
+        if (list.isEmpty()) return OtpProtos.StopList.getDefaultInstance();
+        Object first = list.iterator().next();
+        if (first instanceof StopShort) {
+            OtpProtos.StopList.Builder builder = OtpProtos.StopList.newBuilder();
+            int lon = 0;
+            int lat = 0;
+            for (Object element : list) {
+                StopShort stop = (StopShort) element;
+                OtpProtos.Stop.Builder s = OtpProtos.Stop.newBuilder();
+                if (stop.id != null) s.setId(agencyAndId(stop.id));
+                if (stop.name != null) s.setName(stop.name);
+                int stopLat = microDegrees(stop.lat);
+                int stopLon = microDegrees(stop.lon);
+                s.setLat(stopLat - lat);
+                s.setLon(stopLon - lon);
+                lat = stopLat;
+                lon = stopLon;
+                if (stop.cluster != null) s.setCluster(stop.cluster);
+                if (stop.dist != null) s.setDist(stop.dist);
+                builder.addStops(s);
+            }
+            return builder.build();
+        } else if (first instanceof RouteShort) {
+            OtpProtos.RouteList.Builder builder = OtpProtos.RouteList.newBuilder();
+            for (Object element : list) {
+                builder.addRoutes(route((RouteShort) element));
+            }
+            return builder.build();
+        } else if (first instanceof PatternShort) {
+            OtpProtos.PatternList.Builder builder = OtpProtos.PatternList.newBuilder();
+            for (Object element : list) {
+                builder.addPatterns(pattern((PatternShort) element));
+            }
+            return builder.build();
+        } else if (first instanceof StopTimesInPattern) {
+            OtpProtos.StopTimesInPatternList.Builder builder =
+                    OtpProtos.StopTimesInPatternList.newBuilder();
+            for (Object element : list) {
+                StopTimesInPattern stopTimes = (StopTimesInPattern) element;
+                OtpProtos.StopTimesInPattern.Builder s = OtpProtos.StopTimesInPattern.newBuilder();
+                if (stopTimes.pattern != null) s.setPattern(pattern(stopTimes.pattern));
+                if (stopTimes.times != null) s.addAllTimes(tripTimes(stopTimes.times));
+                builder.addStopTimes(s);
+            }
+            return builder.build();
+        } else if (first instanceof TripTimeShort) {
+            return OtpProtos.TripTimeList.newBuilder().addAllTimes(tripTimes(list)).build();
+        } else {
+            throw new NotAcceptableException();
+        }
+    }
+
+    private static OtpProtos.Route route(RouteShort route) {
+        OtpProtos.Route.Builder builder = OtpProtos.Route.newBuilder();
+        if (route.id != null) builder.setId(agencyAndId(route.id));
+        if (route.shortName != null) builder.setShortName(route.shortName);
+        if (route.longName != null) builder.setLongName(route.longName);
+        if (route.mode != null) builder.setMode(route.mode);
+        if (route.color != null) builder.setColor(route.color);
+        return builder.build();
+    }
+
+    private static OtpProtos.Pattern pattern(PatternShort pattern) {
+        OtpProtos.Pattern.Builder builder = OtpProtos.Pattern.newBuilder();
+        if (pattern.id != null) builder.setId(pattern.id);
+        if (pattern.desc != null) builder.setDesc(pattern.desc);
+        return builder.build();
+    }
+
+    /** Convert trip times with each time relative to the same time of the previous element. */
+    private static List<OtpProtos.TripTime> tripTimes(Collection<?> times) {
+        List<OtpProtos.TripTime> tripTimes = new ArrayList<OtpProtos.TripTime>(times.size());
+        int scheduledArrival = 0;
+        int scheduledDeparture = 0;
+        int realtimeArrival = 0;
+        int realtimeDeparture = 0;
+        for (Object element : times) {
+            TripTimeShort time = (TripTimeShort) element;
+            OtpProtos.TripTime.Builder builder = OtpProtos.TripTime.newBuilder();
+            if (time.stopId != null) builder.setStopId(agencyAndId(time.stopId));
+            if (time.scheduledArrival != TripTimeShort.UNDEFINED) {
+                builder.setScheduledArrival(time.scheduledArrival - scheduledArrival);
+                scheduledArrival = time.scheduledArrival;
+            }
+            if (time.scheduledDeparture != TripTimeShort.UNDEFINED) {
+                builder.setScheduledDeparture(time.scheduledDeparture - scheduledDeparture);
+                scheduledDeparture = time.scheduledDeparture;
+            }
+            if (time.realtimeArrival != TripTimeShort.UNDEFINED) {
+                builder.setRealtimeArrival(time.realtimeArrival - realtimeArrival);
+                realtimeArrival = time.realtimeArrival;
+            }
+            if (time.realtimeDeparture != TripTimeShort.UNDEFINED) {
+                builder.setRealtimeDeparture(time.realtimeDeparture - realtimeDeparture);
+                realtimeDeparture = time.realtimeDeparture;
+            }
+            builder.setArrivalDelay(time.arrivalDelay);
+            builder.setDepartureDelay(time.departureDelay);
+            builder.setTimepoint(time.timepoint);
+            if (time.serviceDay != 0) builder.setServiceDay(time.serviceDay);
+            if (time.tripId != null) builder.setTripId(agencyAndId(time.tripId));
+            if (time.realtime) builder.setRealtime(true);
+            tripTimes.add(builder.build());
+        }
+        return tripTimes;
+    }
+
+    /* Helpers */
+
+    private static long seconds(Calendar calendar) {
+        return calendar.getTimeInMillis() / 1000;
+    }
+
+    private static int microDegrees(double degrees) {
+        return (int) Math.round(degrees * COORDINATE_FACTOR);
+    }
+
+    private static int microDegrees(Double degrees) {
+        return degrees == null ? 0 : microDegrees(degrees.doubleValue());
+    }
+
+    private static String agencyAndId(AgencyAndId id) {
+        return id.getAgencyId() + AgencyAndIdSerializer.SEPARATOR + id.getId();
+    }
+
+    private static String someTranslation(TranslatedString string) {
+        return string == null ? null : string.getSomeTranslation();
+    }
+
+}
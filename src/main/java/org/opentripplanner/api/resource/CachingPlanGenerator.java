@@ -0,0 +1,277 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.api.resource;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opentripplanner.api.model.Itinerary;
+import org.opentripplanner.api.model.Leg;
+import org.opentripplanner.api.model.TripPlan;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.routing.alertpatch.AlertPatchIndex;
+import org.opentripplanner.routing.core.RoutingContext;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.edgetype.TimetableResolver;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.services.PathService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+
+/**
+ * A PlanGenerator that keeps recent trip plans, so that near-identical requests (the same endpoints at departure times
+ * a few seconds apart, or a client refreshing an itinerary) are answered without searching again.
+ *
+ * Requests are normalized before lookup: coordinates are rounded to about a metre, the departure or arrival time is
+ * moved to the edge of its time bucket, and all other options are compared field by field. Plans are searched at that
+ * normalized time, which is the end of the bucket for departures and its start for arrivals, so that a cached plan
+ * never leaves before or arrives after the time of any request in the same bucket. Requests with features that the
+ * normalized key does not describe (intermediate places, starting trips or stops, custom dominance functions) bypass
+ * the cache.
+ *
+ * Plans depend on the realtime timetable snapshot and on the alert patches in effect, so the whole cache is dropped
+ * whenever either of them changes. A graph reload replaces the Router and therefore this cache along with it.
+ */
+public class CachingPlanGenerator extends PlanGenerator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CachingPlanGenerator.class);
+
+    /** Coordinates are rounded to this many degrees, about one metre. */
+    private static final double COORDINATE_RESOLUTION = 1e-5;
+
+    /** Stand-in for the endpoints of normalized requests, which are compared separately. */
+    private static final GenericLocation NOWHERE = new GenericLocation();
+
+    /** Log the hit rate after this many lookups. */
+    private static final int LOG_INTERVAL = 1000;
+
+    private final Cache<PlanKey, TripPlan> cache;
+
+    private final int timeBucketSeconds;
+
+    private final AtomicLong lookups = new AtomicLong();
+
+    /** The realtime and alert state that all cached plans were computed against. Guarded by this. */
+    private TimetableResolver snapshot;
+    private AlertPatchIndex alertPatchIndex;
+
+    /**
+     * @param maxWeight the total size of the cached plans, counted in legs, walk steps and geometry points.
+     * @param timeBucketSeconds requests whose times fall within the same bucket of this many seconds share plans.
+     */
+    public CachingPlanGenerator(Graph graph, PathService pathService, long maxWeight, int timeBucketSeconds) {
+        super(graph, pathService);
+        this.timeBucketSeconds = Math.max(1, timeBucketSeconds);
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher(new PlanWeigher())
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public TripPlan generate(RoutingRequest options) {
+        if (!isCacheable(options)) {
+            return super.generate(options);
+        }
+        TimetableResolver currentSnapshot = currentTimetableSnapshot();
+        AlertPatchIndex currentAlerts = graph.getAlertPatchIndex();
+        invalidateIfStale(currentSnapshot, currentAlerts);
+
+        PlanKey key = new PlanKey(options, timeBucketSeconds);
+        TripPlan plan = cache.getIfPresent(key);
+        logStats();
+        if (plan != null) {
+            LOG.debug("Plan cache hit for {} to {}", options.from, options.to);
+            return plan;
+        }
+        long requestedTime = options.dateTime;
+        options.dateTime = key.dateTime;
+        try {
+            plan = super.generate(options);
+        } finally {
+            options.dateTime = requestedTime;
+        }
+
+        // Keep only complete plans computed against the state the cache reflects.
+        RoutingContext rctx = options.rctx;
+        if (plan == null || rctx == null || rctx.aborted || rctx.debugOutput.timedOut) {
+            return plan;
+        }
+        if (!options.ignoreRealtimeUpdates && rctx.timetableSnapshot != currentSnapshot) {
+            return plan;
+        }
+        synchronized (this) {
+            if (snapshot == currentSnapshot && alertPatchIndex == currentAlerts) {
+                cache.put(key, plan);
+            }
+        }
+        return plan;
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /** @return the number of plans currently cached. */
+    public long size() {
+        return cache.size();
+    }
+
+    private static boolean isCacheable(RoutingRequest options) {
+        return !options.batch
+                && options.from != null && options.to != null
+                && (options.intermediatePlaces == null || options.intermediatePlaces.isEmpty())
+                && options.startingTransitStopId == null
+                && options.startingTransitTripId == null
+                && options.dominanceFunction == null;
+    }
+
+    private TimetableResolver currentTimetableSnapshot() {
+        if (graph.timetableSnapshotSource == null) {
+            return null;
+        }
+        return graph.timetableSnapshotSource.getTimetableSnapshot();
+    }
+
+    private synchronized void invalidateIfStale(TimetableResolver currentSnapshot,
+            AlertPatchIndex currentAlerts) {
+        if (snapshot != currentSnapshot || alertPatchIndex != currentAlerts) {
+            if (cache.size() > 0) {
+                LOG.debug("Realtime data changed, dropping {} cached plans.", cache.size());
+            }
+            cache.invalidateAll();
+            snapshot = currentSnapshot;
+            alertPatchIndex = currentAlerts;
+        }
+    }
+
+    private void logStats() {
+        if (lookups.incrementAndGet() % LOG_INTERVAL == 0) {
+            CacheStats stats = cache.stats();
+            LOG.info("Plan cache: {} plans, hit rate {} over {} lookups, {} evicted.", cache.size(),
+                    String.format("%.2f", stats.hitRate()), stats.requestCount(), stats.evictionCount());
+        }
+    }
+
+    /** Describe a location independently of tiny variations in the coordinates given by clients. */
+    private static String normalizeLocation(GenericLocation location) {
+        StringBuilder sb = new StringBuilder();
+        if (location.name != null) {
+            sb.append(location.name);
+        }
+        sb.append('|');
+        if (location.hasCoordinate()) {
+            sb.append(Math.round(location.lat / COORDINATE_RESOLUTION)).append(',');
+            sb.append(Math.round(location.lng / COORDINATE_RESOLUTION));
+        } else {
+            sb.append(location.place);
+        }
+        if (location.hasHeading()) {
+            sb.append("|heading=").append(Math.round(location.heading));
+        }
+        if (location.hasEdgeId()) {
+            sb.append("|edge=").append(location.edgeId);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The normalized form of a request. The options are held as a copy of the request with the endpoints and time
+     * replaced, compared with RoutingRequest.equals(); fields that equals() does not consider are compared explicitly.
+     */
+    static class PlanKey {
+
+        private final String from;
+        private final String to;
+        private final long timeBucket;
+        /** The time at which plans for this key are searched. */
+        final long dateTime;
+        private final RoutingRequest options;
+        private final List<Object> extraOptions;
+        private final int hashCode;
+
+        PlanKey(RoutingRequest request, int timeBucketSeconds) {
+            from = normalizeLocation(request.from);
+            to = normalizeLocation(request.to);
+            // Round departures up and arrivals down, so the plan fits every request in the bucket.
+            if (request.arriveBy) {
+                timeBucket = request.dateTime / timeBucketSeconds;
+            } else {
+                timeBucket = (request.dateTime + timeBucketSeconds - 1) / timeBucketSeconds;
+            }
+            dateTime = timeBucket * timeBucketSeconds;
+            options = request.clone();
+            options.from = NOWHERE;
+            options.to = NOWHERE;
+            options.dateTime = dateTime;
+            options.rctx = null;
+            extraOptions = Arrays.<Object> asList(request.routerId, request.bannedStops,
+                    request.bannedStopsHard, request.bannedAgencies, request.preferredAgencies,
+                    request.unpreferredAgencies, request.showIntermediateStops, request.locale,
+                    request.softWalkLimiting, request.softPreTransitLimiting, request.walkingBike,
+                    request.heuristicWeight, request.allowBikeRental, request.bikeParkAndRide,
+                    request.parkAndRide, request.kissAndRide, request.longDistance);
+            hashCode = Objects.hashCode(from, to, timeBucket, extraOptions) * 31 + options.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PlanKey)) {
+                return false;
+            }
+            PlanKey other = (PlanKey) o;
+            return hashCode == other.hashCode
+                    && timeBucket == other.timeBucket
+                    && from.equals(other.from)
+                    && to.equals(other.to)
+                    && extraOptions.equals(other.extraOptions)
+                    && options.equals(other.options);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /** Weigh plans by the number of elements that make up their itineraries. */
+    private static class PlanWeigher implements Weigher<PlanKey, TripPlan> {
+        @Override
+        public int weigh(PlanKey key, TripPlan plan) {
+            int weight = 1;
+            for (Itinerary itinerary : plan.itinerary) {
+                for (Leg leg : itinerary.legs) {
+                    weight += 1;
+                    if (leg.walkSteps != null) {
+                        weight += leg.walkSteps.size();
+                    }
+                    if (leg.legGeometry != null) {
+                        weight += leg.legGeometry.getLength();
+                    }
+                }
+            }
+            return weight;
+        }
+    }
+
+}
@@ -50,6 +50,12 @@ public class DebugOutput {
     public long totalTime;
     public boolean timedOut;
 
+    /** The number of states taken off the priority queue, summed over all searches for this request. */
+    public long statesVisited;
+
+    /** Detailed search counters, null unless requested with RoutingRequest.searchStats. */
+    public SearchStats searchStats;
+
     /**
      * Record the time when we first began calculating a path for this request
      * (before any heuristic pre-calculation). Note that timings will not
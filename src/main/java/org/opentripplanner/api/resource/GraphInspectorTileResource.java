@@ -35,6 +35,7 @@ import org.opentripplanner.api.parameter.MIMEImageFormat;
 import static org.opentripplanner.api.resource.ServerInfo.Q;
 
 import org.opentripplanner.inspector.TileRenderer;
+import org.opentripplanner.inspector.VectorTileManager;
 import org.opentripplanner.standalone.OTPServer;
 import org.opentripplanner.standalone.Router;
 
@@ -105,6 +106,23 @@ public class GraphInspectorTileResource extends RoutingResource {
         return Response.ok(baos.toByteArray()).type(format.toString()).cacheControl(cc).build();
     }
 
+    /**
+     * Street edges as a Mapbox Vector Tile, with their permissions, bike safety and wheelchair accessibility as
+     * attributes, to be styled by the client. Tiles are empty below zoom level {@link VectorTileManager#MIN_ZOOM}.
+     */
+    @GET @Path("/vectortile/{z}/{x}/{y}.pbf")
+    @Produces(VectorTileManager.MEDIA_TYPE)
+    public Response vectorTileGet() {
+        Router router = otpServer.getRouter(routerId);
+        if (router.vectorTileManager == null || !VectorTileManager.isValidTile(z, x, y)) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        CacheControl cc = new CacheControl();
+        cc.setMaxAge(3600);
+        cc.setNoCache(false);
+        return Response.ok(router.vectorTileManager.getTile(z, x, y)).cacheControl(cc).build();
+    }
+
     /**
      * Gets all layer names
      * 
@@ -0,0 +1,169 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.api.resource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.ConnectionCallback;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.opentripplanner.api.common.RoutingResource;
+import org.opentripplanner.api.model.TravelTimeMatrix;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.standalone.OTPServer;
+import org.opentripplanner.standalone.Router;
+import org.opentripplanner.standalone.RoutingExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Travel times between many origins and many destinations in a single request, for dispatch and matching services
+ * that would otherwise call the plan resource once per pair. Origins are given as repeated fromPlace parameters and
+ * destinations as repeated toPlace parameters; all other parameters are those of the plan resource.
+ *
+ * The matrix is returned as JSON, or in the binary form described in {@link TravelTimeMatrix#write} when the client
+ * accepts application/octet-stream. Like trip plans, matrices are computed on the server's routing executor and are
+ * refused with 503 Service Unavailable when it is saturated.
+ */
+@Path("routers/{routerId}/matrix")
+public class Matrix extends RoutingResource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Matrix.class);
+
+    /** Limit on the number of origins times the number of destinations. */
+    private static final int MAX_CELLS = 1000000;
+
+    /** Destinations further than this many seconds away are reported as unreachable. */
+    @QueryParam("maxTimeSec")
+    @DefaultValue("7200")
+    private int maxTimeSec;
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public void getMatrix(@Context OTPServer otpServer, @Suspended AsyncResponse asyncResponse) {
+        compute(otpServer, asyncResponse, false);
+    }
+
+    @GET
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    public void getBinaryMatrix(@Context OTPServer otpServer, @Suspended AsyncResponse asyncResponse) {
+        compute(otpServer, asyncResponse, true);
+    }
+
+    private void compute(OTPServer otpServer, final AsyncResponse asyncResponse, final boolean binary) {
+        final RoutingRequest request;
+        final List<GenericLocation> origins = toLocations(fromPlace);
+        final List<GenericLocation> destinations = toLocations(toPlace);
+        final Router router;
+        try {
+            request = super.buildRequest();
+            router = otpServer.getRouter(request.routerId);
+        } catch (Exception e) {
+            asyncResponse.resume(badRequest(e.getMessage()));
+            return;
+        }
+        if (origins.isEmpty() || destinations.isEmpty()) {
+            asyncResponse.resume(badRequest("At least one fromPlace and one toPlace are required."));
+            return;
+        }
+        if ((long) origins.size() * destinations.size() > MAX_CELLS) {
+            asyncResponse.resume(badRequest("A matrix may have at most " + MAX_CELLS + " cells."));
+            return;
+        }
+
+        final RoutingExecutor executor = otpServer.routingExecutor;
+        request.searchAbortTime = executor.deadline();
+        final Future<?> future = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    TravelTimeMatrix matrix = router.matrixGenerator.generate(request, origins,
+                            destinations, maxTimeSec, executor);
+                    asyncResponse.resume(binary ? binaryResponse(matrix) : Response.ok(matrix).build());
+                } catch (Exception e) {
+                    LOG.warn("Error while computing travel time matrix: ", e);
+                    asyncResponse.resume(e);
+                }
+            }
+        });
+        if (future == null) {
+            asyncResponse.resume(Response.status(Status.SERVICE_UNAVAILABLE).header("Retry-After", 1).build());
+            return;
+        }
+        asyncResponse.register(new ConnectionCallback() {
+            @Override
+            public void onDisconnect(AsyncResponse disconnected) {
+                executor.cancel(future);
+                request.abortSearch();
+            }
+        });
+        if (executor.getTimeoutMillis() > 0) {
+            asyncResponse.setTimeoutHandler(new TimeoutHandler() {
+                @Override
+                public void handleTimeout(AsyncResponse timedOut) {
+                    executor.cancel(future);
+                    request.abortSearch();
+                    timedOut.resume(Response.status(Status.SERVICE_UNAVAILABLE).build());
+                }
+            });
+            // Searches stop at the deadline; leave time to return the rows that were completed.
+            asyncResponse.setTimeout(executor.getTimeoutMillis() * 2, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static List<GenericLocation> toLocations(List<String> places) {
+        List<GenericLocation> locations = Lists.newArrayList();
+        if (places != null) {
+            for (String place : places) {
+                locations.add(GenericLocation.fromOldStyleString(place));
+            }
+        }
+        return locations;
+    }
+
+    private static Response binaryResponse(final TravelTimeMatrix matrix) {
+        StreamingOutput output = new StreamingOutput() {
+            @Override
+            public void write(OutputStream out) throws IOException {
+                matrix.write(out);
+            }
+        };
+        return Response.ok(output, MediaType.APPLICATION_OCTET_STREAM).build();
+    }
+
+    private static Response badRequest(String message) {
+        return Response.status(Status.BAD_REQUEST).entity(message).type(MediaType.TEXT_PLAIN).build();
+    }
+
+}
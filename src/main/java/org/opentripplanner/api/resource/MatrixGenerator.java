@@ -0,0 +1,239 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.api.resource;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opentripplanner.api.model.TravelTimeMatrix;
+import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraversalRequirements;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.error.TransitTimesException;
+import org.opentripplanner.routing.error.VertexNotFoundException;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.impl.CandidateEdge;
+import org.opentripplanner.routing.impl.CandidateEdgeBundle;
+import org.opentripplanner.routing.impl.SPTServiceFactory;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.standalone.RoutingExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.linearref.LengthIndexedLine;
+
+/**
+ * Computes travel time matrices between many origins and many destinations. Instead of one point-to-point search per
+ * pair, it carries out one batch (one-to-many) search per origin and reads the times of all destinations from the
+ * resulting shortest path tree. When a matrix is computed on a routing thread, idle routing threads help with its
+ * searches, so a large matrix is spread over several threads without ever using more threads than routing allows.
+ *
+ * Origins are linked into the street network by the routing context of their search, as for a trip plan.
+ * Destinations are linked once for the whole matrix, without temporary edges: like an analyst Sample, each one is
+ * attached to the closest street edge, and the last stretch from either end of that edge is walked. For arrive-by
+ * requests the roles are swapped, with one search per destination.
+ */
+public class MatrixGenerator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MatrixGenerator.class);
+
+    private final Graph graph;
+
+    private final SPTServiceFactory sptServiceFactory;
+
+    public MatrixGenerator(Graph graph, SPTServiceFactory sptServiceFactory) {
+        this.graph = graph;
+        this.sptServiceFactory = sptServiceFactory;
+    }
+
+    /** Compute a matrix, carrying out all its searches on the calling thread. */
+    public TravelTimeMatrix generate(RoutingRequest prototype, List<GenericLocation> origins,
+            List<GenericLocation> destinations, int maxTimeSeconds) {
+        return generate(prototype, origins, destinations, maxTimeSeconds, null);
+    }
+
+    /**
+     * @param prototype the options shared by all searches. Its endpoints are ignored, and its searchAbortTime is
+     *        checked before each search so that the whole matrix can be abandoned.
+     * @param maxTimeSeconds searches are cut off at this duration; destinations further away are unreachable.
+     * @param routingExecutor the executor whose thread calls this method, or null. Searches are handed to its idle
+     *        threads, if any, while the calling thread carries out the rest. The calling thread only waits for
+     *        searches that have already started, so the matrix never holds more threads than the executor has.
+     */
+    public TravelTimeMatrix generate(final RoutingRequest prototype, List<GenericLocation> origins,
+            List<GenericLocation> destinations, int maxTimeSeconds, RoutingExecutor routingExecutor) {
+
+        final boolean arriveBy = prototype.arriveBy;
+        final List<GenericLocation> searchPoints = arriveBy ? destinations : origins;
+        List<GenericLocation> linkPoints = arriveBy ? origins : destinations;
+        final TravelTimeMatrix matrix = new TravelTimeMatrix(origins.size(), destinations.size());
+
+        final Link[] links = new Link[linkPoints.size()];
+        for (int i = 0; i < links.length; i++) {
+            links[i] = link(linkPoints.get(i), prototype);
+        }
+        final long maxTime = maxTimeSeconds;
+
+        // Each thread working on the matrix takes the next search point that nobody has taken yet.
+        final AtomicInteger nextPoint = new AtomicInteger();
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                for (int p = nextPoint.getAndIncrement(); p < searchPoints.size(); p = nextPoint.getAndIncrement()) {
+                    long abortTime = prototype.searchAbortTime;
+                    if (abortTime > 0 && System.currentTimeMillis() > abortTime) {
+                        return;
+                    }
+                    RoutingRequest request = prototype.clone();
+                    request.batch = true;
+                    request.rctx = null;
+                    if (arriveBy) {
+                        request.to = searchPoints.get(p);
+                    } else {
+                        request.from = searchPoints.get(p);
+                    }
+                    request.worstTime = request.dateTime + (arriveBy ? -maxTime : maxTime);
+                    search(request, p, links, matrix);
+                }
+            }
+        };
+
+        List<Future<?>> helpers = Lists.newArrayList();
+        if (routingExecutor != null) {
+            int nHelpers = Math.min(routingExecutor.getThreads(), searchPoints.size()) - 1;
+            for (int h = 0; h < nHelpers; h++) {
+                Future<?> helper = routingExecutor.submitIfIdle(worker);
+                if (helper == null) break;
+                helpers.add(helper);
+            }
+        }
+        try {
+            worker.run();
+        } finally {
+            // Stop the helpers from taking more points if this thread failed.
+            nextPoint.set(searchPoints.size());
+        }
+        // Helpers that have not started yet have nothing left to do; the others finish their last search.
+        for (Future<?> helper : helpers) {
+            if (routingExecutor.cancel(helper)) continue;
+            try {
+                helper.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        return matrix;
+    }
+
+    /** Run the search from (or to) one point and fill in its row (or column) of the matrix. */
+    private void search(RoutingRequest request, int point, Link[] links, TravelTimeMatrix matrix) {
+        try {
+            request.setRoutingContext(graph);
+            ShortestPathTree spt = sptServiceFactory.instantiate().getShortestPathTree(request, 0);
+            if (spt == null || request.rctx.aborted) {
+                return;
+            }
+            for (int l = 0; l < links.length; l++) {
+                Link link = links[l];
+                if (link == null) continue;
+                State best = null;
+                double bestDistance = 0;
+                long bestDuration = Long.MAX_VALUE;
+                for (int end = 0; end < 2; end++) {
+                    Vertex v = end == 0 ? link.v0 : link.v1;
+                    double distance = end == 0 ? link.d0 : link.d1;
+                    if (v == null) continue;
+                    List<? extends State> states = spt.getStates(v);
+                    if (states == null) continue;
+                    for (State s : states) {
+                        if (!s.isFinal()) continue;
+                        long duration = s.getElapsedTimeSeconds() + (long) (distance / request.walkSpeed);
+                        if (duration < bestDuration) {
+                            best = s;
+                            bestDuration = duration;
+                            bestDistance = distance;
+                        }
+                    }
+                }
+                if (best == null) continue;
+                int o = request.arriveBy ? l : point;
+                int d = request.arriveBy ? point : l;
+                matrix.durations[o][d] = (int) bestDuration;
+                matrix.walkDistances[o][d] = (int) Math.round(best.getWalkDistance() + bestDistance);
+                matrix.transfers[o][d] = Math.max(0, best.getNumBoardings() - 1);
+            }
+        } catch (VertexNotFoundException e) {
+            LOG.debug("Matrix point {} is not near any street.", point);
+        } catch (TransitTimesException e) {
+            LOG.debug("Matrix request is outside the dates covered by transit data.");
+        } finally {
+            if (request.rctx != null) {
+                request.cleanup();
+            }
+        }
+    }
+
+    /** Find the vertices a point is reached through, and the distance from each to the point. */
+    private Link link(GenericLocation location, RoutingRequest options) {
+        if (!location.hasCoordinate()) {
+            // a vertex label
+            Vertex v = location.place == null ? null : graph.getVertex(location.place);
+            return v == null ? null : new Link(v, 0, null, 0);
+        }
+        CandidateEdgeBundle bundle = graph.streetIndex.getClosestEdges(location,
+                new TraversalRequirements(options));
+        if (bundle == null || bundle.best == null) {
+            return null;
+        }
+        CandidateEdge candidate = bundle.best;
+        StreetEdge edge = candidate.edge;
+        Coordinate point = location.getCoordinate();
+        Coordinate onEdge = candidate.nearestPointOnEdge;
+        double offset = SphericalDistanceLibrary.getInstance().distance(point, onEdge);
+        LengthIndexedLine line = new LengthIndexedLine(edge.getGeometry());
+        double length = line.getEndIndex();
+        double fraction = length > 0 ? line.project(onEdge) / length : 0;
+        double along = fraction * edge.getDistance();
+        return new Link(edge.getFromVertex(), offset + along, edge.getToVertex(),
+                offset + edge.getDistance() - along);
+    }
+
+    /** A point attached to one or two vertices of the street network. */
+    private static class Link {
+        final Vertex v0;
+        final double d0;
+        final Vertex v1;
+        final double d1;
+
+        Link(Vertex v0, double d0, Vertex v1, double d1) {
+            this.v0 = v0;
+            this.d0 = d0;
+            this.v1 = v1;
+            this.d1 = d1;
+        }
+    }
+
+}
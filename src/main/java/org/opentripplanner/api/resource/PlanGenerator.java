@@ -31,7 +31,6 @@ import org.opentripplanner.api.model.RelativeDirection;
 import org.opentripplanner.api.model.TripPlan;
 import org.opentripplanner.api.model.WalkStep;
 import org.opentripplanner.common.geometry.DirectionUtils;
-import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.common.geometry.PackedCoordinateSequence;
 import org.opentripplanner.common.model.P2;
 import org.opentripplanner.routing.alertpatch.Alert;
@@ -63,12 +62,13 @@ import org.opentripplanner.routing.vertextype.ExitVertex;
 import org.opentripplanner.routing.vertextype.OnboardDepartVertex;
 import org.opentripplanner.routing.vertextype.TransitVertex;
 import org.opentripplanner.util.PolylineEncoder;
+import org.opentripplanner.util.model.EncodedPolylineBean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.geom.LineString;
 import org.opentripplanner.routing.edgetype.PathwayEdge;
 
 public class PlanGenerator {
@@ -268,27 +268,25 @@ public class PlanGenerator {
     }
 
     /**
-     * Generate a {@link CoordinateArrayListSequence} based on an {@link Edge} array.
+     * Encode the geometry of an {@link Edge} array as a polyline. The points are read from each
+     * edge's coordinate sequence directly, so no intermediate LineString is built for the leg.
      *
      * @param edges The array of input edges
-     * @return The coordinates of the points on the edges
+     * @return The encoded points of the edges
      */
-    private static CoordinateArrayListSequence makeCoordinates(Edge[] edges) {
-        CoordinateArrayListSequence coordinates = new CoordinateArrayListSequence();
+    private static EncodedPolylineBean makePolyline(Edge[] edges) {
+        PolylineEncoder.Builder polyline = new PolylineEncoder.Builder();
 
         for (Edge edge : edges) {
-            LineString geometry = edge.getGeometry();
+            CoordinateSequence coordinates = edge.getCoordinateSequence();
 
-            if (geometry != null) {
-                if (coordinates.size() == 0) {
-                    coordinates.extend(geometry.getCoordinates());
-                } else {
-                    coordinates.extend(geometry.getCoordinates(), 1); // Avoid duplications
-                }
+            if (coordinates != null) {
+                // Avoid duplicating the point shared with the previous edge
+                polyline.addPoints(coordinates, polyline.size() == 0 ? 0 : 1);
             }
         }
 
-        return coordinates;
+        return polyline.build();
     }
 
     /**
@@ -382,10 +380,7 @@ public class PlanGenerator {
 
         if (leg.isTransitLeg()) addRealTimeData(leg, states);
 
-        CoordinateArrayListSequence coordinates = makeCoordinates(edges);
-        Geometry geometry = GeometryUtils.getGeometryFactory().createLineString(coordinates);
-
-        leg.legGeometry = PolylineEncoder.createEncodings(geometry);
+        leg.legGeometry = makePolyline(edges);
 
         leg.interlineWithPreviousLeg = states[0].getBackEdge() instanceof PatternInterlineDwell;
 
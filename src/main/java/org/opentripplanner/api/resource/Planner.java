@@ -12,13 +12,22 @@
  along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package org.opentripplanner.api.resource;
 
+import static org.opentripplanner.api.protobuf.ProtobufResponseWriter.APPLICATION_X_PROTOBUF_Q;
 import static org.opentripplanner.api.resource.ServerInfo.Q;
 
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.ConnectionCallback;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.container.TimeoutHandler;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.UriInfo;
 
 import org.opentripplanner.api.common.RoutingResource;
@@ -27,6 +36,8 @@ import org.opentripplanner.api.model.error.PlannerError;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.standalone.OTPServer;
 import org.opentripplanner.standalone.Router;
+import org.opentripplanner.standalone.RoutingExecutor;
+import org.opentripplanner.util.monitoring.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,12 +59,93 @@ public class Planner extends RoutingResource {
 
     private static final Logger LOG = LoggerFactory.getLogger(Planner.class);
 
+    /**
+     * Extra time given to the search after the request deadline, so that itineraries found before the deadline can
+     * still be rendered and returned rather than being replaced by a 503 response.
+     */
+    private static final long TIMEOUT_GRACE_MILLIS = 2000;
+
     // We inject info about the incoming request so we can include the incoming query
     // parameters in the outgoing response. This is a TriMet requirement.
     // Jersey uses @Context to inject internal types and @InjectParam or @Resource for DI objects.
+    /**
+     * The request is parsed on the HTTP worker thread, then the search is handed over to the server's
+     * {@link RoutingExecutor} and the HTTP thread is released. If the routing queue is full the client receives 503
+     * Service Unavailable straight away. The search is abandoned when the client disconnects or the request times out.
+     */
     @GET
-    @Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML + Q, MediaType.TEXT_XML + Q })
-    public Response getItineraries(@Context OTPServer otpServer, @Context UriInfo uriInfo) {
+    @Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML + Q, MediaType.TEXT_XML + Q,
+            APPLICATION_X_PROTOBUF_Q })
+    public void getItinerariesAsync(@Context final OTPServer otpServer, @Context UriInfo uriInfo,
+            @Suspended final AsyncResponse asyncResponse) {
+
+        // create response object, containing a copy of all request parameters
+        final Response response = new Response(uriInfo);
+        final RoutingRequest request;
+        try {
+            // fill in request from query parameters via shared superclass method, on this thread since the
+            // parameters are injected into this request-scoped resource
+            request = super.buildRequest();
+        } catch (Exception e) {
+            response.setError(new PlannerError(e));
+            asyncResponse.resume(response);
+            return;
+        }
+
+        final RoutingExecutor executor = otpServer.routingExecutor;
+        request.searchAbortTime = executor.deadline();
+        final Future<?> future = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (request.searchAbortTime > 0 && System.currentTimeMillis() > request.searchAbortTime) {
+                    // The request spent all its time in the queue; don't start a search nobody will wait for.
+                    asyncResponse.resume(serviceUnavailable());
+                    return;
+                }
+                asyncResponse.resume(plan(otpServer, request, response));
+            }
+        });
+        if (future == null) {
+            asyncResponse.resume(serviceUnavailable());
+            return;
+        }
+
+        asyncResponse.register(new ConnectionCallback() {
+            @Override
+            public void onDisconnect(AsyncResponse disconnected) {
+                LOG.debug("Client disconnected, abandoning trip planning request.");
+                executor.cancel(future);
+                request.abortSearch();
+            }
+        });
+        if (executor.getTimeoutMillis() > 0) {
+            asyncResponse.setTimeoutHandler(new TimeoutHandler() {
+                @Override
+                public void handleTimeout(AsyncResponse timedOut) {
+                    executor.cancel(future);
+                    request.abortSearch();
+                    timedOut.resume(serviceUnavailable());
+                }
+            });
+            asyncResponse.setTimeout(executor.getTimeoutMillis() + TIMEOUT_GRACE_MILLIS,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Plan a trip synchronously on the calling thread. */
+    public Response getItineraries(OTPServer otpServer, UriInfo uriInfo) {
+        Response response = new Response(uriInfo);
+        RoutingRequest request;
+        try {
+            request = super.buildRequest();
+        } catch (Exception e) {
+            response.setError(new PlannerError(e));
+            return response;
+        }
+        return plan(otpServer, request, response);
+    }
+
+    private Response plan(OTPServer otpServer, RoutingRequest request, Response response) {
 
         /*
          * TODO: add Lang / Locale parameter, and thus get localized content (Messages & more...)
@@ -63,13 +155,13 @@ public class Planner extends RoutingResource {
          *       out so it's used here too...
          */
         
-        // create response object, containing a copy of all request parameters
-        Response response = new Response(uriInfo);
-        RoutingRequest request = null;
+        long startTime = System.nanoTime();
+        if (otpServer.slowSearchMillis > 0) {
+            request.searchStats = true;
+        }
+        Router router = null;
         try {
-            // fill in request from query parameters via shared superclass method
-            request = super.buildRequest();
-            Router router = otpServer.getRouter(request.routerId);
+            router = otpServer.getRouter(request.routerId);
             TripPlan plan = router.planGenerator.generate(request);
             response.setPlan(plan);
         } catch (Exception e) {
@@ -78,12 +170,64 @@ public class Planner extends RoutingResource {
                 LOG.warn("Error while planning path: ", e);
             response.setError(error);
         } finally {
-            if (request != null) {
+            if (request.rctx != null) {
                 response.debugOutput = request.rctx.debugOutput;
                 request.cleanup(); // TODO verify that this is being done on Analyst web services
-            }       
+            }
+            // Requests for unknown routers are not counted, so clients cannot create arbitrary labels.
+            long elapsedNanos = System.nanoTime() - startTime;
+            if (router != null) {
+                recordMetrics(otpServer.metrics, router.id, response, elapsedNanos);
+            }
+            if (otpServer.slowSearchMillis > 0 && elapsedNanos / 1000000 > otpServer.slowSearchMillis) {
+                DebugOutput debugOutput = response.debugOutput;
+                LOG.info("Slow trip planning request ({} ms) from {} to {}: visited={} {}", elapsedNanos / 1000000,
+                        request.from, request.to, debugOutput == null ? 0 : debugOutput.statesVisited,
+                        debugOutput == null ? null : debugOutput.searchStats);
+            }
         }
         return response;
     }
 
+    /**
+     * Record the latency of a request, and when a search was actually run (i.e. not for cache hits) the time spent
+     * in each phase of the search and the number of states it visited.
+     */
+    private static void recordMetrics(MetricsRegistry metrics, String routerId, Response response,
+            long elapsedNanos) {
+        metrics.counter("otp_plan_requests_total", "Trip planning requests.",
+                "router", routerId).inc();
+        if (response.getError() != null) {
+            metrics.counter("otp_plan_errors_total", "Trip planning requests that returned an error.",
+                    "router", routerId).inc();
+        }
+        metrics.histogram("otp_plan_duration_seconds", "Time taken to plan a trip, including cache hits.",
+                1e-6, "router", routerId).record(elapsedNanos / 1000);
+        DebugOutput debugOutput = response.debugOutput;
+        if (debugOutput == null) {
+            return;
+        }
+        if (debugOutput.timedOut) {
+            metrics.counter("otp_plan_timeouts_total", "Searches that timed out.",
+                    "router", routerId).inc();
+        }
+        metrics.histogram("otp_search_states_visited", "States visited per trip planning request.",
+                1, "router", routerId).record(debugOutput.statesVisited);
+        if (response.getPlan() != null) {
+            recordPhase(metrics, routerId, "precalculation", debugOutput.precalculationTime);
+            recordPhase(metrics, routerId, "path", debugOutput.pathCalculationTime);
+            recordPhase(metrics, routerId, "rendering", debugOutput.renderingTime);
+        }
+    }
+
+    private static void recordPhase(MetricsRegistry metrics, String routerId, String phase, long millis) {
+        metrics.histogram("otp_plan_phase_duration_seconds", "Time spent in each phase of a trip planning search.",
+                1e-3, "router", routerId, "phase", phase).record(millis);
+    }
+
+    private static javax.ws.rs.core.Response serviceUnavailable() {
+        return javax.ws.rs.core.Response.status(Status.SERVICE_UNAVAILABLE)
+                .header("Retry-After", 1).build();
+    }
+
 }
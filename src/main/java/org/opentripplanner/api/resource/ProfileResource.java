@@ -1,5 +1,7 @@
 package org.opentripplanner.api.resource;
 
+import static org.opentripplanner.api.protobuf.ProtobufResponseWriter.APPLICATION_X_PROTOBUF_Q;
+
 import java.util.List;
 
 import javax.ws.rs.DefaultValue;
@@ -44,7 +46,7 @@ public class ProfileResource {
     }
 
     @GET
-    @Produces({ MediaType.APPLICATION_JSON })
+    @Produces({ MediaType.APPLICATION_JSON, APPLICATION_X_PROTOBUF_Q })
     public Response profileRoute (
             @QueryParam("from")  LatLon from,
             @QueryParam("to")    LatLon to,
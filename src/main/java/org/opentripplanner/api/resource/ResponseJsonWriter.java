@@ -0,0 +1,327 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.api.resource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.Calendar;
+import java.util.Date;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.opentripplanner.api.model.AgencyAndIdSerializer;
+import org.opentripplanner.api.model.Itinerary;
+import org.opentripplanner.api.model.Leg;
+import org.opentripplanner.api.model.Place;
+import org.opentripplanner.api.model.TripPlan;
+import org.opentripplanner.api.model.WalkStep;
+import org.opentripplanner.util.model.EncodedPolylineBean;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Writes trip planner responses as JSON directly onto the response stream with a Jackson
+ * JsonGenerator, instead of letting Jersey hand them to the reflective Jackson ObjectMapper.
+ *
+ * Itineraries, legs, walk steps and places make up nearly all of a response (a long bike
+ * itinerary can have hundreds of steps), so those are written field by field here. The rarer and
+ * smaller parts of a response (fares, alerts, notes, elevation profiles, errors and debug output)
+ * are still handed to the ObjectMapper. The output must remain identical to what the
+ * ObjectMapper from {@link org.opentripplanner.api.model.JSONObjectMapperProvider} produces: null
+ * fields are skipped and the JSON field names are the ones declared in the model classes. When a
+ * field is added to one of these model classes it must also be added here; ResponseJsonWriterTest
+ * compares the output byte for byte and fails on any property the ObjectMapper would write but
+ * this class does not.
+ */
+@Provider
+@Produces(MediaType.APPLICATION_JSON)
+public class ResponseJsonWriter implements MessageBodyWriter<Response> {
+
+    /** Used for the parts of the response that are not written by hand. */
+    private final ObjectWriter delegate;
+
+    private final ObjectMapper mapper;
+
+    public ResponseJsonWriter(ObjectMapper mapper) {
+        this.mapper = mapper;
+        // The delegate is called many times per response, do not flush the stream each time.
+        this.delegate = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations,
+            MediaType mediaType) {
+        return Response.class.isAssignableFrom(type)
+                && MediaType.APPLICATION_JSON_TYPE.isCompatible(mediaType);
+    }
+
+    @Override
+    public long getSize(Response response, Class<?> type, Type genericType,
+            Annotation[] annotations, MediaType mediaType) {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(Response response, Class<?> type, Type genericType,
+            Annotation[] annotations, MediaType mediaType,
+            MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream)
+            throws IOException {
+        JsonGenerator gen = mapper.getFactory().createGenerator(entityStream, JsonEncoding.UTF8);
+        // The container owns the entity stream.
+        gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        try {
+            write(gen, response);
+        } finally {
+            gen.close();
+        }
+    }
+
+    /** Write the given response as a single JSON object. */
+    public void write(JsonGenerator gen, Response response) throws IOException {
+        gen.writeStartObject();
+        writeObjectField(gen, "requestParameters", response.requestParameters);
+        if (response.getPlan() != null) {
+            gen.writeFieldName("plan");
+            writeTripPlan(gen, response.getPlan());
+        }
+        writeObjectField(gen, "error", response.getError());
+        writeObjectField(gen, "debugOutput", response.debugOutput);
+        gen.writeEndObject();
+    }
+
+    private void writeTripPlan(JsonGenerator gen, TripPlan plan) throws IOException {
+        gen.writeStartObject();
+        writeDateField(gen, "date", plan.date);
+        writePlaceField(gen, "from", plan.from);
+        writePlaceField(gen, "to", plan.to);
+        if (plan.itinerary != null) {
+            gen.writeArrayFieldStart("itineraries");
+            for (Itinerary itinerary : plan.itinerary) {
+                writeItinerary(gen, itinerary);
+            }
+            gen.writeEndArray();
+        }
+        gen.writeEndObject();
+    }
+
+    private void writeItinerary(JsonGenerator gen, Itinerary itinerary) throws IOException {
+        gen.writeStartObject();
+        writeNumberField(gen, "duration", itinerary.duration);
+        writeCalendarField(gen, "startTime", itinerary.startTime);
+        writeCalendarField(gen, "endTime", itinerary.endTime);
+        gen.writeNumberField("walkTime", itinerary.walkTime);
+        gen.writeNumberField("transitTime", itinerary.transitTime);
+        gen.writeNumberField("waitingTime", itinerary.waitingTime);
+        writeNumberField(gen, "walkDistance", itinerary.walkDistance);
+        gen.writeBooleanField("walkLimitExceeded", itinerary.walkLimitExceeded);
+        writeNumberField(gen, "elevationLost", itinerary.elevationLost);
+        writeNumberField(gen, "elevationGained", itinerary.elevationGained);
+        writeNumberField(gen, "transfers", itinerary.transfers);
+        writeObjectField(gen, "fare", itinerary.fare);
+        if (itinerary.legs != null) {
+            gen.writeArrayFieldStart("legs");
+            for (Leg leg : itinerary.legs) {
+                writeLeg(gen, leg);
+            }
+            gen.writeEndArray();
+        }
+        gen.writeBooleanField("tooSloped", itinerary.tooSloped);
+        gen.writeEndObject();
+    }
+
+    private void writeLeg(JsonGenerator gen, Leg leg) throws IOException {
+        gen.writeStartObject();
+        writeCalendarField(gen, "startTime", leg.startTime);
+        writeCalendarField(gen, "endTime", leg.endTime);
+        gen.writeNumberField("departureDelay", leg.departureDelay);
+        gen.writeNumberField("arrivalDelay", leg.arrivalDelay);
+        writeBooleanField(gen, "realTime", leg.realTime);
+        writeBooleanField(gen, "isNonExactFrequency", leg.isNonExactFrequency);
+        writeNumberField(gen, "headway", leg.headway);
+        writeNumberField(gen, "distance", leg.distance);
+        writeBooleanField(gen, "pathway", leg.pathway);
+        writeStringField(gen, "mode", leg.mode);
+        writeStringField(gen, "route", leg.route);
+        writeStringField(gen, "agencyName", leg.agencyName);
+        writeStringField(gen, "agencyUrl", leg.agencyUrl);
+        gen.writeNumberField("agencyTimeZoneOffset", leg.agencyTimeZoneOffset);
+        writeStringField(gen, "routeColor", leg.routeColor);
+        writeNumberField(gen, "routeType", leg.routeType);
+        writeStringField(gen, "routeId", leg.routeId);
+        writeStringField(gen, "routeTextColor", leg.routeTextColor);
+        writeBooleanField(gen, "interlineWithPreviousLeg", leg.interlineWithPreviousLeg);
+        writeStringField(gen, "tripShortName", leg.tripShortName);
+        writeStringField(gen, "tripBlockId", leg.tripBlockId);
+        writeStringField(gen, "headsign", leg.headsign);
+        writeStringField(gen, "agencyId", leg.agencyId);
+        writeStringField(gen, "tripId", leg.tripId);
+        writeStringField(gen, "serviceDate", leg.serviceDate);
+        writePlaceField(gen, "from", leg.from);
+        writePlaceField(gen, "to", leg.to);
+        if (leg.legGeometry != null) {
+            EncodedPolylineBean geometry = leg.legGeometry;
+            gen.writeObjectFieldStart("legGeometry");
+            writeStringField(gen, "points", geometry.getPoints());
+            writeStringField(gen, "levels", geometry.getLevels());
+            gen.writeNumberField("length", geometry.getLength());
+            gen.writeEndObject();
+        }
+        writeObjectField(gen, "notes", leg.notes);
+        writeObjectField(gen, "alerts", leg.alerts);
+        writeStringField(gen, "routeShortName", leg.routeShortName);
+        writeStringField(gen, "routeLongName", leg.routeLongName);
+        writeStringField(gen, "boardRule", leg.boardRule);
+        writeStringField(gen, "alightRule", leg.alightRule);
+        writeBooleanField(gen, "rentedBike", leg.rentedBike);
+        gen.writeNumberField("duration", leg.getDuration());
+        writeBooleanField(gen, "transitLeg", leg.isTransitLeg());
+        // The ObjectMapper writes the properties renamed with @JsonProperty after the others.
+        if (leg.walkSteps != null) {
+            gen.writeArrayFieldStart("steps");
+            for (WalkStep step : leg.walkSteps) {
+                writeWalkStep(gen, step);
+            }
+            gen.writeEndArray();
+        }
+        if (leg.stop != null) {
+            gen.writeArrayFieldStart("intermediateStops");
+            for (Place place : leg.stop) {
+                writePlace(gen, place);
+            }
+            gen.writeEndArray();
+        }
+        gen.writeEndObject();
+    }
+
+    private void writeWalkStep(JsonGenerator gen, WalkStep step) throws IOException {
+        gen.writeStartObject();
+        gen.writeNumberField("distance", step.distance);
+        if (step.relativeDirection != null) {
+            gen.writeStringField("relativeDirection", step.relativeDirection.name());
+        }
+        writeStringField(gen, "streetName", step.streetName);
+        if (step.absoluteDirection != null) {
+            gen.writeStringField("absoluteDirection", step.absoluteDirection.name());
+        }
+        writeStringField(gen, "exit", step.exit);
+        writeBooleanField(gen, "stayOn", step.stayOn);
+        writeBooleanField(gen, "area", step.area);
+        writeBooleanField(gen, "bogusName", step.bogusName);
+        gen.writeNumberField("lon", step.lon);
+        gen.writeNumberField("lat", step.lat);
+        writeObjectField(gen, "elevation", step.getElevation());
+        writeObjectField(gen, "alerts", step.alerts);
+        gen.writeEndObject();
+    }
+
+    private void writePlaceField(JsonGenerator gen, String name, Place place) throws IOException {
+        if (place != null) {
+            gen.writeFieldName(name);
+            writePlace(gen, place);
+        }
+    }
+
+    private void writePlace(JsonGenerator gen, Place place) throws IOException {
+        gen.writeStartObject();
+        writeStringField(gen, "name", place.name);
+        if (place.stopId != null) {
+            // Same format as AgencyAndIdSerializer
+            AgencyAndId stopId = place.stopId;
+            gen.writeStringField("stopId",
+                    stopId.getAgencyId() + AgencyAndIdSerializer.SEPARATOR + stopId.getId());
+        }
+        writeStringField(gen, "stopCode", place.stopCode);
+        writeStringField(gen, "platformCode", place.platformCode);
+        writeNumberField(gen, "lon", place.lon);
+        writeNumberField(gen, "lat", place.lat);
+        writeCalendarField(gen, "arrival", place.arrival);
+        writeCalendarField(gen, "departure", place.departure);
+        writeStringField(gen, "orig", place.orig);
+        writeStringField(gen, "zoneId", place.zoneId);
+        writeNumberField(gen, "stopIndex", place.stopIndex);
+        writeNumberField(gen, "stopSequence", place.stopSequence);
+        gen.writeEndObject();
+    }
+
+    /* The helpers below skip null values, like the NON_NULL inclusion of the ObjectMapper. */
+
+    private void writeObjectField(JsonGenerator gen, String name, Object value) throws IOException {
+        if (value != null) {
+            gen.writeFieldName(name);
+            delegate.writeValue(gen, value);
+        }
+    }
+
+    private static void writeStringField(JsonGenerator gen, String name, String value)
+            throws IOException {
+        if (value != null) {
+            gen.writeStringField(name, value);
+        }
+    }
+
+    private static void writeBooleanField(JsonGenerator gen, String name, Boolean value)
+            throws IOException {
+        if (value != null) {
+            gen.writeBooleanField(name, value);
+        }
+    }
+
+    private static void writeNumberField(JsonGenerator gen, String name, Integer value)
+            throws IOException {
+        if (value != null) {
+            gen.writeNumberField(name, value);
+        }
+    }
+
+    private static void writeNumberField(JsonGenerator gen, String name, Long value)
+            throws IOException {
+        if (value != null) {
+            gen.writeNumberField(name, value);
+        }
+    }
+
+    private static void writeNumberField(JsonGenerator gen, String name, Double value)
+            throws IOException {
+        if (value != null) {
+            gen.writeNumberField(name, value);
+        }
+    }
+
+    /** Dates and calendars are written as milliseconds since the epoch, as Jackson does by default. */
+    private static void writeCalendarField(JsonGenerator gen, String name, Calendar value)
+            throws IOException {
+        if (value != null) {
+            gen.writeNumberField(name, value.getTimeInMillis());
+        }
+    }
+
+    private static void writeDateField(JsonGenerator gen, String name, Date value)
+            throws IOException {
+        if (value != null) {
+            gen.writeNumberField(name, value.getTime());
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.api.resource;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.edgetype.TransitBoardAlight;
+import org.opentripplanner.routing.graph.Edge;
+
+/**
+ * Counts of what the searches for one request did, for tuning search parameters and heuristics.
+ * These are only collected when {@link org.opentripplanner.routing.core.RoutingRequest#searchStats}
+ * is set, and are summed over all the searches carried out for a request.
+ *
+ * The fields are plain longs: the searches for one request run on one thread at a time.
+ */
+public class SearchStats {
+
+    /** States produced by traversing edges, before any pruning. */
+    public long statesCreated;
+
+    /** States dropped because the remaining weight heuristic found the target unreachable from them. */
+    public long statesPrunedByHeuristic;
+
+    /** States dropped because their estimated weight or their time exceeded the request limits. */
+    public long statesPrunedByLimits;
+
+    /** States rejected by the shortest path tree because an existing state dominated them. */
+    public long statesDominatedOnArrival;
+
+    /** States taken off the queue that had been dominated after they were enqueued. */
+    public long statesDominatedInQueue;
+
+    /** The largest number of states in the priority queue at any time. */
+    public int maxQueueSize;
+
+    /** Calls to the remaining weight heuristic. */
+    public long heuristicEvaluations;
+
+    /** Traversals of boarding edges, whether or not a trip could be boarded. */
+    public long boardingsAttempted;
+
+    /** Traversals of boarding edges that boarded a trip. */
+    public long boardingsSuccessful;
+
+    private final Map<Class<?>, long[]> edgeTraversals = new IdentityHashMap<Class<?>, long[]>();
+
+    /** Record one traversal of an edge, given the first state it produced or null if it led nowhere. */
+    public void traversed(Edge edge, State result) {
+        long[] count = edgeTraversals.get(edge.getClass());
+        if (count == null) {
+            count = new long[1];
+            edgeTraversals.put(edge.getClass(), count);
+        }
+        count[0]++;
+        if (edge instanceof TransitBoardAlight && ((TransitBoardAlight) edge).boarding) {
+            boardingsAttempted++;
+            if (result != null) {
+                boardingsSuccessful++;
+            }
+        }
+    }
+
+    public void enqueued(int queueSize) {
+        if (queueSize > maxQueueSize) {
+            maxQueueSize = queueSize;
+        }
+    }
+
+    /** @return the number of traversals of each class of edge, by simple class name. */
+    public SortedMap<String, Long> getEdgeTraversals() {
+        SortedMap<String, Long> traversals = new TreeMap<String, Long>();
+        for (Map.Entry<Class<?>, long[]> entry : edgeTraversals.entrySet()) {
+            traversals.put(entry.getKey().getSimpleName(), entry.getValue()[0]);
+        }
+        return traversals;
+    }
+
+    @Override
+    public String toString() {
+        return "created=" + statesCreated
+                + " prunedByHeuristic=" + statesPrunedByHeuristic
+                + " prunedByLimits=" + statesPrunedByLimits
+                + " dominatedOnArrival=" + statesDominatedOnArrival
+                + " dominatedInQueue=" + statesDominatedInQueue
+                + " maxQueueSize=" + maxQueueSize
+                + " heuristicEvaluations=" + heuristicEvaluations
+                + " boardings=" + boardingsSuccessful + "/" + boardingsAttempted
+                + " edges=" + getEdgeTraversals();
+    }
+
+}
@@ -16,22 +16,29 @@ package org.opentripplanner.api.resource;
 import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.StringWriter;
 import java.nio.charset.Charset;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
 import org.opentripplanner.common.MavenVersion;
+import org.opentripplanner.standalone.OTPServer;
+import org.opentripplanner.standalone.RoutingExecutor;
 
 @Path("/")
 @XmlRootElement 
 public class ServerInfo {
     static final String Q = ";qs=0.5";
+
+    static final String PROMETHEUS_TEXT = "text/plain; version=0.0.4; charset=utf-8";
     
     private static final ServerInfo SERVER_INFO = new ServerInfo();
 
@@ -40,6 +47,24 @@ public class ServerInfo {
     public static ServerInfo getServerInfo() {
         return SERVER_INFO;
     }    
+
+    /** Queue depth and thread usage of the trip planner, for monitoring and load balancer health checks. */
+    @GET
+    @Path("routing")
+    @Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML + Q, MediaType.TEXT_XML + Q })
+    public static RoutingExecutor.Status getRoutingStatus(@Context OTPServer otpServer) {
+        return otpServer.routingExecutor.getStatus();
+    }
+
+    /** Latencies, queue sizes, cache and realtime statistics in the Prometheus text format, for monitoring. */
+    @GET
+    @Path("metrics")
+    @Produces(PROMETHEUS_TEXT)
+    public static String getMetrics(@Context OTPServer otpServer) throws IOException {
+        StringWriter writer = new StringWriter();
+        otpServer.metrics.write(writer);
+        return writer.toString();
+    }
     
     /* Fields must be public or have a public getter to be auto-serialized to JSON;
     they are annotated with @XmlElement to be serialized to XML elements (as opposed to attributes).
@@ -104,6 +104,7 @@ public class SurfaceResource extends RoutingResource {
             req.setRoutingContext(router.graph);
         	
             EarliestArrivalSPTService sptService = new EarliestArrivalSPTService();
+            sptService.setQueueFactory(router.batchQueueFactory);
             sptService.maxDuration = (60 * cutoffMinutes);
             ShortestPathTree spt = sptService.getShortestPathTree(req);
             req.cleanup();
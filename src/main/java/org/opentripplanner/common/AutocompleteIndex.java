@@ -0,0 +1,370 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common;
+
+import java.io.Serializable;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.regex.Pattern;
+
+import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-memory type-ahead index of the names of stops and street intersections. Every word of a
+ * query is matched as a prefix of a word of a name, so "mai 2" finds "Main St & 2nd Ave".
+ *
+ * Names are split into words that are lower-cased and stripped of accents. The distinct words are
+ * kept in one sorted array, so the words beginning with a prefix form a contiguous range that is
+ * found by binary search, and each word has a sorted list of the names containing it. A query
+ * walks the names of its rarest word and checks its other words by comparing word numbers, so no
+ * strings are compared once the ranges are known. Matches are ranked by how exactly they match,
+ * by category, and by distance when the client gives its location.
+ *
+ * The index holds only arrays of strings and primitives. It is built by the graph builder and
+ * saved with the graph, so a server does not need to build anything on startup.
+ */
+public class AutocompleteIndex implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(AutocompleteIndex.class);
+
+    private static final Pattern ACCENTS = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    public static enum Category { STOP, CORNER; }
+
+    private static final Category[] CATEGORIES = Category.values();
+
+    /* One element per name, in the order the names were added. */
+    private final String[] names;
+    private final byte[] categories;
+    private final float[] lats;
+    private final float[] lons;
+
+    /** The words of name i are word numbers nameWords[nameWordStart[i]] until nameWordStart[i + 1]. */
+    private final int[] nameWordStart;
+    private final int[] nameWords;
+
+    /** All distinct words, sorted. */
+    private final String[] words;
+
+    /** The names containing word w are postings[postingStart[w]] until postingStart[w + 1], ascending. */
+    private final int[] postingStart;
+    private final int[] postings;
+
+    AutocompleteIndex(List<Entry> entries) {
+        int n = entries.size();
+        names = new String[n];
+        categories = new byte[n];
+        lats = new float[n];
+        lons = new float[n];
+        nameWordStart = new int[n + 1];
+
+        // Number the distinct words in sorted order, and count the names containing each.
+        Map<String, int[]> wordCounts = new HashMap<String, int[]>();
+        int nWords = 0;
+        for (Entry entry : entries) {
+            for (String word : entry.words) {
+                int[] count = wordCounts.get(word);
+                if (count == null) {
+                    count = new int[2];
+                    wordCounts.put(word, count);
+                }
+                count[0]++;
+            }
+            nWords += entry.words.length;
+        }
+        words = wordCounts.keySet().toArray(new String[wordCounts.size()]);
+        Arrays.sort(words);
+        postingStart = new int[words.length + 1];
+        for (int w = 0; w < words.length; w++) {
+            int[] count = wordCounts.get(words[w]);
+            postingStart[w + 1] = postingStart[w] + count[0];
+            count[1] = w;
+        }
+
+        nameWords = new int[nWords];
+        postings = new int[nWords];
+        int[] postingEnd = Arrays.copyOf(postingStart, words.length);
+        for (int i = 0; i < n; i++) {
+            Entry entry = entries.get(i);
+            names[i] = entry.name;
+            categories[i] = (byte) entry.category.ordinal();
+            lats[i] = (float) entry.lat;
+            lons[i] = (float) entry.lon;
+            int start = nameWordStart[i];
+            for (int j = 0; j < entry.words.length; j++) {
+                int w = wordCounts.get(entry.words[j])[1];
+                nameWords[start + j] = w;
+                postings[postingEnd[w]++] = i;
+            }
+            nameWordStart[i + 1] = start + entry.words.length;
+        }
+    }
+
+    /**
+     * Index the stops and intersections of the given graph. Intersections are found by examining
+     * the street vertices in parallel on the given number of threads.
+     */
+    public static AutocompleteIndex build(Graph graph, int threads) {
+        long startTime = System.currentTimeMillis();
+        final List<Vertex> vertices = new ArrayList<Vertex>(graph.getVertices());
+        int nTasks = Math.max(1, threads);
+        int chunkSize = (vertices.size() + nTasks - 1) / nTasks;
+        List<Callable<List<Entry>>> tasks = new ArrayList<Callable<List<Entry>>>();
+        for (int start = 0; start < vertices.size(); start += chunkSize) {
+            final List<Vertex> chunk = vertices.subList(start, Math.min(vertices.size(), start + chunkSize));
+            tasks.add(new Callable<List<Entry>>() {
+                @Override
+                public List<Entry> call() {
+                    List<Entry> entries = new ArrayList<Entry>();
+                    for (Vertex v : chunk) {
+                        Entry entry = makeEntry(v);
+                        if (entry != null) {
+                            entries.add(entry);
+                        }
+                    }
+                    return entries;
+                }
+            });
+        }
+        List<Entry> entries = new ArrayList<Entry>();
+        ParallelTasks.InOrder<List<Entry>> results = ParallelTasks.inOrder(tasks, nTasks,
+                tasks.size(), "building the autocomplete index");
+        try {
+            // Several vertices may represent one intersection; keep one entry per name and place.
+            Set<String> seen = new HashSet<String>();
+            while (results.hasNext()) {
+                for (Entry entry : results.next()) {
+                    String key = entry.category + entry.name + Math.round(entry.lat * 1000)
+                            + ',' + Math.round(entry.lon * 1000);
+                    if (seen.add(key)) {
+                        entries.add(entry);
+                    }
+                }
+            }
+        } finally {
+            results.close();
+        }
+        AutocompleteIndex index = new AutocompleteIndex(entries);
+        LOG.info("Built autocomplete index of {} names and {} words in {} msec", index.names.length,
+                index.words.length, System.currentTimeMillis() - startTime);
+        return index;
+    }
+
+    private static Entry makeEntry(Vertex v) {
+        if (v instanceof TransitStop) {
+            TransitStop stop = (TransitStop) v;
+            String name = stop.getStop().getName();
+            if (name == null) return null;
+            return new Entry(name, Category.STOP, stop.getLat(), stop.getLon());
+        }
+        if (!(v instanceof StreetVertex)) return null;
+        // TODO score based on OSM street type, using intersection nodes instead of vertices.
+        String mainStreet = null;
+        String crossStreet = null;
+        for (Edge e : v.getOutgoing()) {
+            if (!(e instanceof StreetEdge)) continue;
+            String name = e.getName();
+            if (name == null) continue;
+            if (mainStreet == null) mainStreet = name;
+            else if (!name.equals(mainStreet)) crossStreet = name;
+        }
+        if (mainStreet == null || crossStreet == null) return null;
+        // Order the two streets so that both vertices of a two-way intersection get the same name.
+        if (mainStreet.compareTo(crossStreet) > 0) {
+            String tmp = mainStreet;
+            mainStreet = crossStreet;
+            crossStreet = tmp;
+        }
+        return new Entry(mainStreet + " & " + crossStreet, Category.CORNER, v.getLat(), v.getLon());
+    }
+
+    /**
+     * Return the best matches for the given query, nearest first among equally good matches when
+     * lat and lon are not null.
+     */
+    public List<Result> query(String queryString, Double lat, Double lon, int limit) {
+        List<Result> results = new ArrayList<Result>();
+        String[] terms = tokenize(queryString == null ? "" : queryString);
+        if (terms.length == 0 || limit <= 0) {
+            return results;
+        }
+        // The range of word numbers that each term is a prefix of.
+        int[] from = new int[terms.length];
+        int[] to = new int[terms.length];
+        int rarest = 0;
+        int rarestCount = Integer.MAX_VALUE;
+        for (int t = 0; t < terms.length; t++) {
+            from[t] = lowerBound(terms[t]);
+            to[t] = lowerBound(terms[t] + Character.MAX_VALUE);
+            int count = postingStart[to[t]] - postingStart[from[t]];
+            if (count == 0) {
+                return results;
+            }
+            if (count < rarestCount) {
+                rarest = t;
+                rarestCount = count;
+            }
+        }
+
+        int[] best = new int[limit];
+        double[] bestScores = new double[limit];
+        int nBest = 0;
+        for (int w = from[rarest]; w < to[rarest]; w++) {
+            for (int p = postingStart[w]; p < postingStart[w + 1]; p++) {
+                int name = postings[p];
+                double score = score(name, w, terms, from, to, rarest, lat, lon);
+                if (Double.isNaN(score) || (nBest == limit && score <= bestScores[nBest - 1])) {
+                    continue;
+                }
+                // Insert into the best matches, which are sorted by descending score.
+                int i = nBest < limit ? nBest++ : limit - 1;
+                while (i > 0 && bestScores[i - 1] < score) {
+                    best[i] = best[i - 1];
+                    bestScores[i] = bestScores[i - 1];
+                    i--;
+                }
+                best[i] = name;
+                bestScores[i] = score;
+            }
+        }
+        for (int i = 0; i < nBest; i++) {
+            Result result = new Result();
+            result.lat = lats[best[i]];
+            result.lng = lons[best[i]];
+            result.description = CATEGORIES[categories[best[i]]].name().toLowerCase() + " " + names[best[i]];
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * @return the score of the given name, found through word w of the rarest term, or NaN if it
+     *         does not match all terms or has already been found through another word.
+     */
+    private double score(int name, int w, String[] terms, int[] from, int[] to, int rarest,
+            Double lat, Double lon) {
+        int start = nameWordStart[name];
+        int end = nameWordStart[name + 1];
+        // A name containing several words with the rarest prefix is only scored for the first one.
+        for (int i = start; i < end; i++) {
+            if (nameWords[i] >= from[rarest] && nameWords[i] < w) return Double.NaN;
+        }
+        double score = 0;
+        for (int t = 0; t < terms.length; t++) {
+            boolean matched = false;
+            for (int i = start; i < end; i++) {
+                int word = nameWords[i];
+                if (word < from[t] || word >= to[t]) continue;
+                matched = true;
+                if (words[word].length() == terms[t].length()) {
+                    score += 2; // a whole word
+                    break;
+                }
+            }
+            if (!matched) return Double.NaN;
+        }
+        if (nameWords[start] >= from[0] && nameWords[start] < to[0]) {
+            score += 1; // the name begins with the query
+        }
+        if (categories[name] == Category.STOP.ordinal()) {
+            score += 1;
+        }
+        score -= 0.1 * (end - start); // prefer shorter names
+        if (lat != null && lon != null) {
+            double km = SphericalDistanceLibrary.getInstance().fastDistance(lat, lon, lats[name],
+                    lons[name]) / 1000;
+            score -= Math.log1p(km);
+        }
+        return score;
+    }
+
+    /** @return the index of the first word that is not less than the given key. */
+    private int lowerBound(String key) {
+        int lo = 0;
+        int hi = words.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (words[mid].compareTo(key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Split a name or query into lower case words without accents. */
+    static String[] tokenize(String text) {
+        String plain = ACCENTS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        List<String> tokens = new ArrayList<String>();
+        for (String token : SEPARATORS.split(plain.toLowerCase(Locale.ROOT))) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    /** A name to be indexed. */
+    static class Entry {
+        final String name;
+        final Category category;
+        final double lat;
+        final double lon;
+        final String[] words;
+
+        Entry(String name, Category category, double lat, double lon) {
+            this.name = name;
+            this.category = category;
+            this.lat = lat;
+            this.lon = lon;
+            // A word repeated in a name (as in "1st Ave & 1st St") is indexed once.
+            Set<String> distinct = new LinkedHashSet<String>(Arrays.asList(tokenize(name)));
+            this.words = distinct.toArray(new String[distinct.size()]);
+        }
+    }
+
+    /** This class matches the structure of the Geocoder responses expected by the OTP client. */
+    public static class Result {
+        public double lat;
+        public double lng;
+        public String description;
+    }
+
+}
@@ -13,6 +13,8 @@
 
 package org.opentripplanner.common;
 
+import gnu.trove.list.array.TIntArrayList;
+
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -21,19 +23,22 @@ import java.util.Set;
 
 import org.opentripplanner.util.MapUtils;
 
-/** basic union-find data structure with path compression */
+/**
+ * basic union-find data structure with path compression. Each entry of sets is either the index of
+ * the parent of a set element, or, for the root of a set, minus the size of the set.
+ */
 public class DisjointSet<T> {
 
-    ArrayList<Integer> sets = new ArrayList<Integer>();
+    TIntArrayList sets = new TIntArrayList();
     HashMap<T, Integer> setMapping = new HashMap<T, Integer>();
     
     public DisjointSet() {}
     
     public int union(T element1, T element2) {
-        Integer p1 = find(element1);
-        Integer p2 = find(element2);
+        int p1 = find(element1);
+        int p2 = find(element2);
         
-        if (p1.equals(p2)) {
+        if (p1 == p2) {
             return p1;
         }
         
@@ -75,14 +80,18 @@ public class DisjointSet<T> {
         return new ArrayList<Set<T>>(out.values());
     }
 
+    /** Find the root of the set containing element i, pointing every element on the way at it. */
     private int compact(int i) {
-        int key = sets.get(i);
-        if (key < 0) {
-            return i;
+        int root = i;
+        while (sets.get(root) >= 0) {
+            root = sets.get(root);
+        }
+        while (i != root) {
+            int next = sets.get(i);
+            sets.set(i, root);
+            i = next;
         }
-        int j = compact(key);
-        sets.set(i, j);
-        return j;
+        return root;
     }
 
     public int size(int component) {
@@ -0,0 +1,159 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs work on a fixed pool of threads that only lives as long as the work itself. With a single
+ * thread the work runs on the calling thread, so callers need no separate serial code path.
+ * Failures are rethrown on the calling thread: unchecked exceptions as they are, checked ones
+ * wrapped in a RuntimeException.
+ */
+public class ParallelTasks {
+
+    private ParallelTasks() {}
+
+    /**
+     * Run the given worker once on each of the given number of threads and wait for all of them
+     * to finish. The workers usually claim their work from a shared counter.
+     * 
+     * @param description what the work does, e.g. "sampling elevations", for error messages.
+     */
+    public static void runOnThreads(int threads, Runnable worker, String description) {
+        if (threads <= 1) {
+            worker.run();
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>(threads);
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(worker));
+            }
+            for (Future<?> future : futures) {
+                get(future, description);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Run the given tasks on the given number of threads, and return their results in task order.
+     * At most <code>window</code> tasks are started ahead of the result being read, which bounds
+     * the memory held by results that have not been consumed yet. The returned iterator must be
+     * closed once it is no longer needed, so that the threads are stopped.
+     * 
+     * @param description what the tasks do, e.g. "reading GTFS", for error messages.
+     */
+    public static <T> InOrder<T> inOrder(List<? extends Callable<T>> tasks, int threads,
+            int window, String description) {
+        return new InOrder<T>(tasks, threads, window, description);
+    }
+
+    /** The results of a list of tasks, in task order. */
+    public static class InOrder<T> implements Iterator<T> {
+
+        private final List<Callable<T>> tasks;
+
+        private final int window;
+
+        private final String description;
+
+        private final ExecutorService executor;
+
+        private final Deque<Future<T>> pending = new ArrayDeque<Future<T>>();
+
+        /** The index of the next task to start, and of the next result to return. */
+        private int nextTask = 0, nextResult = 0;
+
+        private InOrder(List<? extends Callable<T>> tasks, int threads, int window,
+                String description) {
+            this.tasks = new ArrayList<Callable<T>>(tasks);
+            this.window = Math.max(1, window);
+            this.description = description;
+            int nThreads = Math.min(threads, tasks.size());
+            this.executor = nThreads > 1 ? Executors.newFixedThreadPool(nThreads) : null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextResult < tasks.size();
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (executor == null) {
+                Callable<T> task = tasks.set(nextResult++, null);
+                try {
+                    return task.call();
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new RuntimeException("Failed while " + description, e);
+                }
+            }
+            while (nextTask < tasks.size() && nextTask < nextResult + window) {
+                // Drop the task once started so that its results can be released after use.
+                pending.add(executor.submit(tasks.set(nextTask++, null)));
+            }
+            nextResult++;
+            return get(pending.poll(), description);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("remove");
+        }
+
+        /** Stop the threads, cancelling any tasks whose results have not been read. */
+        public void close() {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private static <T> T get(Future<T> future, String description) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while " + description, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException("Failed while " + description, cause);
+        }
+    }
+}
@@ -13,15 +13,23 @@
 
 package org.opentripplanner.common;
 
+import gnu.trove.iterator.TIntIntIterator;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+
 import java.io.File;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.opentripplanner.common.geometry.Subgraph;
 import org.opentripplanner.graph_builder.annotation.GraphConnectivity;
@@ -38,6 +46,7 @@ import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.opentripplanner.routing.vertextype.TransitVertex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,8 +58,22 @@ public class StreetUtils {
     private static Logger LOG = LoggerFactory.getLogger(StreetUtils.class);
     private static int islandCounter = 0;
 
+    /** The number of vertices whose neighbors a thread finds at a time. Tests lower it. */
+    static int neighborChunkSize = 1000;
+
     public static void pruneFloatingIslands(Graph graph, int maxIslandSize, 
             int islandWithStopMaxSize, String islandLogName) {
+        pruneFloatingIslands(graph, maxIslandSize, islandWithStopMaxSize, islandLogName, 1);
+    }
+
+    /**
+     * Find the walkable connected components of the street network and remove the small ones. The
+     * edges are traversed on the given number of threads; the components are then found with a
+     * union-find pass, and vertex sets are only built for the islands that are pruned (or for all
+     * of them if an island log is requested).
+     */
+    public static void pruneFloatingIslands(Graph graph, int maxIslandSize, 
+            int islandWithStopMaxSize, String islandLogName, int threads) {
         LOG.debug("pruning");
         PrintWriter islandLog = null;
         if (islandLogName != null && !islandLogName.isEmpty()) {
@@ -64,93 +87,129 @@ public class StreetUtils {
         if (islandLog != null) {
             islandLog.printf("%s\t%s\t%s\t%s\t%s\n","id","stopCount", "streetCount","wkt" ,"hadRemoved");
         }
-        Map<Vertex, Subgraph> subgraphs = new HashMap<Vertex, Subgraph>();
-        Map<Vertex, ArrayList<Vertex>> neighborsForVertex = new HashMap<Vertex, ArrayList<Vertex>>();
-
-//        RoutingRequest options = new RoutingRequest(new TraverseModeSet(TraverseMode.WALK, TraverseMode.TRANSIT));
-        RoutingRequest options = new RoutingRequest(new TraverseModeSet(TraverseMode.WALK));
 
+        List<Vertex> streetVertices = new ArrayList<Vertex>();
         for (Vertex gv : graph.getVertices()) {
-            if (!(gv instanceof StreetVertex)) {
-                continue;
+            if (gv instanceof StreetVertex) {
+                streetVertices.add(gv);
             }
-            State s0 = new State(gv, options);
-            for (Edge e : gv.getOutgoing()) {
-                Vertex in = gv;
-                if (!(e instanceof StreetEdge || e instanceof StreetTransitLink || 
-                      e instanceof ElevatorEdge || e instanceof FreeEdge)) {
-                    continue;
-                }
-                State s1 = e.traverse(s0);
-                if (s1 == null) {
-                    continue;
-                }
-                Vertex out = s1.getVertex();
-
-                ArrayList<Vertex> vertexList = neighborsForVertex.get(in);
-                if (vertexList == null) {
-                    vertexList = new ArrayList<Vertex>();
-                    neighborsForVertex.put(in, vertexList);
-                }
-                vertexList.add(out);
+        }
+        Vertex[][] neighbors = findWalkableNeighbors(streetVertices, threads);
 
-                vertexList = neighborsForVertex.get(out);
-                if (vertexList == null) {
-                    vertexList = new ArrayList<Vertex>();
-                    neighborsForVertex.put(out, vertexList);
+        /* every vertex that can be walked to or from, in a stable order */
+        List<Vertex> members = new ArrayList<Vertex>();
+        Set<Vertex> otherMembers = new HashSet<Vertex>();
+        DisjointSet<Vertex> components = new DisjointSet<Vertex>();
+        for (int i = 0; i < neighbors.length; i++) {
+            Vertex in = streetVertices.get(i);
+            for (Vertex out : neighbors[i]) {
+                components.union(in, out);
+                if (!(out instanceof StreetVertex) && otherMembers.add(out)) {
+                    members.add(out);
                 }
-                vertexList.add(in);
+            }
+        }
+        for (Vertex v : streetVertices) {
+            if (components.exists(v)) {
+                members.add(v);
             }
         }
 
-        ArrayList<Subgraph> islands = new ArrayList<Subgraph>();
-        /* associate each node with a subgraph */
-        for (Vertex gv : graph.getVertices()) {
-            if (!(gv instanceof StreetVertex)) {
-                continue;
+        /* count the street and stop vertices of each component */
+        TIntIntMap streetCount = new TIntIntHashMap();
+        TIntIntMap stopCount = new TIntIntHashMap();
+        for (Vertex v : members) {
+            int component = components.find(v);
+            if (v instanceof TransitVertex) {
+                stopCount.adjustOrPutValue(component, 1, 1);
+            } else {
+                streetCount.adjustOrPutValue(component, 1, 1);
             }
-            Vertex vertex = gv;
-            if (subgraphs.containsKey(vertex)) {
-                continue;
+        }
+        LOG.info(streetCount.size() + " sub graphs found");
+
+        /* decide which components to remove: all tiny subgraphs and large subgraphs without stops */
+        TIntSet pruned = new TIntHashSet();
+        for (TIntIntIterator it = streetCount.iterator(); it.hasNext();) {
+            it.advance();
+            int maxSize = stopCount.get(it.key()) > 0 ? islandWithStopMaxSize : maxIslandSize;
+            if (it.value() < maxSize) {
+                pruned.add(it.key());
             }
-            if (!neighborsForVertex.containsKey(vertex)) {
+        }
+
+        /* only build vertex sets for the components that are needed */
+        Map<Integer, Subgraph> islands = new LinkedHashMap<Integer, Subgraph>();
+        for (Vertex v : members) {
+            int component = components.find(v);
+            if (islandLog == null && !pruned.contains(component)) {
                 continue;
             }
-            Subgraph subgraph = computeConnectedSubgraph(neighborsForVertex, vertex);
-            if (subgraph != null){
-                for (Iterator<Vertex> vIter = subgraph.streetIterator(); vIter.hasNext();) {
-                    Vertex subnode = vIter.next();
-                    subgraphs.put(subnode, subgraph);
-                }
-                islands.add(subgraph);
+            Subgraph island = islands.get(component);
+            if (island == null) {
+                island = new Subgraph();
+                islands.put(component, island);
             }
+            island.addVertex(v);
         }
-        LOG.info(islands.size() + " sub graphs found");
-        /* remove all tiny subgraphs and large subgraphs without stops */
-        for (Subgraph island : islands) {
-            boolean hadRemoved = false;
-            if(island.stopSize() > 0){
-            //for islands with stops
-                if (island.streetSize() < islandWithStopMaxSize) {
-                    depedestrianizeOrRemove(graph, island);
-                    hadRemoved = true;
-                }
-            }else{
-            //for islands without stops
-                if (island.streetSize() < maxIslandSize) {
-                    depedestrianizeOrRemove(graph, island);
-                    hadRemoved = true;
-                }
+        for (Map.Entry<Integer, Subgraph> entry : islands.entrySet()) {
+            boolean hadRemoved = pruned.contains(entry.getKey());
+            if (hadRemoved) {
+                depedestrianizeOrRemove(graph, entry.getValue());
             }
             if (islandLog != null) {
-                WriteNodesInSubGraph(island, islandLog, hadRemoved);
+                WriteNodesInSubGraph(entry.getValue(), islandLog, hadRemoved);
             }
         }
+        LOG.info("Pruned {} sub graphs", pruned.size());
         if (graph.removeEdgelessVertices() > 0) {
             LOG.warn("Removed edgeless vertices after pruning islands");
         }
     }
 
+    /**
+     * @return for each of the given vertices, the vertices reached by walking its outgoing street,
+     *         link, elevator and free edges.
+     */
+    private static Vertex[][] findWalkableNeighbors(final List<Vertex> vertices, int threads) {
+        final Vertex[][] neighbors = new Vertex[vertices.size()][];
+        final AtomicInteger nextChunk = new AtomicInteger();
+        ParallelTasks.runOnThreads(threads, new Runnable() {
+            @Override
+            public void run() {
+                int start;
+                while ((start = nextChunk.getAndAdd(neighborChunkSize)) < vertices.size()) {
+                    findWalkableNeighbors(vertices, neighbors, start,
+                            Math.min(start + neighborChunkSize, vertices.size()));
+                }
+            }
+        }, "finding street islands");
+        return neighbors;
+    }
+
+    private static void findWalkableNeighbors(List<Vertex> vertices, Vertex[][] neighbors,
+            int start, int end) {
+        // Each thread uses its own request, since traversal may cache things in it.
+        RoutingRequest options = new RoutingRequest(new TraverseModeSet(TraverseMode.WALK));
+        List<Vertex> found = new ArrayList<Vertex>();
+        for (int i = start; i < end; i++) {
+            Vertex gv = vertices.get(i);
+            State s0 = new State(gv, options);
+            for (Edge e : gv.getOutgoing()) {
+                if (!(e instanceof StreetEdge || e instanceof StreetTransitLink || 
+                      e instanceof ElevatorEdge || e instanceof FreeEdge)) {
+                    continue;
+                }
+                State s1 = e.traverse(s0);
+                if (s1 != null) {
+                    found.add(s1.getVertex());
+                }
+            }
+            neighbors[i] = found.toArray(new Vertex[found.size()]);
+            found.clear();
+        }
+    }
+
     private static void depedestrianizeOrRemove(Graph graph, Subgraph island) {
         //iterate over the street vertex of the subgraph
         for (Iterator<Vertex> vIter = island.streetIterator(); vIter.hasNext();) {
@@ -193,25 +252,6 @@ public class StreetUtils {
         LOG.debug(graph.addBuilderAnnotation(new GraphConnectivity(island.getRepresentativeVertex(), island.streetSize())));
     }
 
-    private static Subgraph computeConnectedSubgraph(
-            Map<Vertex, ArrayList<Vertex>> neighborsForVertex, Vertex startVertex) {
-        Subgraph subgraph = new Subgraph();
-        Queue<Vertex> q = new LinkedList<Vertex>();
-        q.add(startVertex);
-        while (!q.isEmpty()) {
-            Vertex vertex = q.poll();
-            for (Vertex neighbor : neighborsForVertex.get(vertex)) {
-                if (!subgraph.contains(neighbor)) {
-                    subgraph.addVertex(neighbor);
-                    q.add(neighbor);
-                }
-            }
-        }
-        return subgraph;
-//        if(subgraph.size()>1) return subgraph;
-//        return null;
-    }
-
     private static void WriteNodesInSubGraph(Subgraph subgraph, PrintWriter islandLog, boolean hadRemoved){
         Geometry convexHullGeom = subgraph.getConvexHull();
         if (convexHullGeom != null && !(convexHullGeom instanceof Polygon)) {
@@ -174,6 +174,44 @@ public final class CompactLineString implements Serializable {
         return out;
     }
 
+    /**
+     * Same as {@link #uncompactLineString}, but return the coordinates as a packed sequence rather
+     * than a LineString. This skips the allocation of one Coordinate per point (and of the reversed
+     * copy of the geometry), which matters when the caller only wants to walk the points once, e.g.
+     * to encode an itinerary polyline. The points are always given from A to B.
+     */
+    public static PackedCoordinateSequence uncompactCoordinates(double xa, double ya, double xb,
+            double yb, int[] coords, boolean reverse) {
+        int size = coords == null ? 2 : (coords.length / 2) + 2;
+        double[] c = new double[size * 2];
+        double x0 = reverse ? xb : xa;
+        double y0 = reverse ? yb : ya;
+        double x1 = reverse ? xa : xb;
+        double y1 = reverse ? ya : yb;
+        // When reversed, the points are stored from B to A: fill the array from the end.
+        int i0 = reverse ? size - 1 : 0;
+        int di = reverse ? -1 : 1;
+        c[i0 * 2] = x0;
+        c[i0 * 2 + 1] = y0;
+        if (coords != null) {
+            int oix = (int) Math.round(x0 * FIXED_FLOAT_MULT);
+            int oiy = (int) Math.round(y0 * FIXED_FLOAT_MULT);
+            for (int i = 1; i < size - 1; i++) {
+                int ix = oix + coords[(i - 1) * 2];
+                int iy = oiy + coords[(i - 1) * 2 + 1];
+                int j = i0 + i * di;
+                c[j * 2] = ix / FIXED_FLOAT_MULT;
+                c[j * 2 + 1] = iy / FIXED_FLOAT_MULT;
+                oix = ix;
+                oiy = iy;
+            }
+        }
+        int in = i0 + (size - 1) * di;
+        c[in * 2] = x1;
+        c[in * 2 + 1] = y1;
+        return new PackedCoordinateSequence.Double(c, 2);
+    }
+
     /**
      * Same as the other version, but in a var-len int packed form (Dlugosz coding).
      * 
@@ -0,0 +1,40 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common.pqueue;
+
+/**
+ * A min-priority queue of search states or other elements. There is no decrease-key operation:
+ * searches insert a new element instead and discard stale ones as they come out of the queue.
+ */
+public interface OTPPriorityQueue<T> {
+
+    int size();
+
+    boolean empty();
+
+    /** @return the key of the minimum element. Throws IllegalStateException if the queue is empty. */
+    double peek_min_key();
+
+    /** @return the minimum element, or null if the queue is empty. */
+    T peek_min();
+
+    void insert(T e, double p);
+
+    /** @return the minimum element after removing it, or null if the queue is empty. */
+    T extract_min();
+
+    /** Empty the queue in one operation. */
+    void reset();
+
+}
@@ -11,22 +11,14 @@
  You should have received a copy of the GNU General Public License
  along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 
-package org.opentripplanner.util.monitoring;
+package org.opentripplanner.common.pqueue;
 
-
-/** 
- * A singleton factory for getting a monitoring store.
- * @author novalis
- *
+/**
+ * Creates priority queues, so that a search algorithm can be configured with a queue
+ * implementation suited to its keys (see {@link BinHeap#FACTORY} and {@link RadixHeap#FACTORY}).
  */
-public class MonitoringStoreFactory {
+public interface OTPPriorityQueueFactory {
 
-    private static MonitoringStore store;
+    <T> OTPPriorityQueue<T> create(int initialSize);
 
-    public static synchronized MonitoringStore getStore() {
-        if (store == null) {
-            store = new MonitoringStore();
-        }
-        return store;
-    }
 }
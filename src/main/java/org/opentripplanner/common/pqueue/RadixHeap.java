@@ -0,0 +1,163 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common.pqueue;
+
+import java.util.Arrays;
+
+/**
+ * A radix heap: a monotone priority queue over non-negative integer keys. Elements are kept in
+ * 65 buckets according to the highest bit in which their key differs from the last extracted
+ * key. Insertion is O(1) and extraction is amortized O(log C) where C is the key range, with no
+ * comparisons between elements other than within a single bucket when it is redistributed.
+ *
+ * This is suitable for searches whose keys are whole seconds and never decrease, such as
+ * earliest-arrival and batch (non goal-directed) searches. Keys are truncated to integers, so
+ * elements whose keys differ by less than one unit come out in arbitrary order. The queue is
+ * monotone: a key smaller than the last extracted key is treated as equal to it, and negative
+ * keys are treated as zero.
+ */
+public class RadixHeap<T> implements OTPPriorityQueue<T> {
+
+    private static final int N_BUCKETS = 65;
+
+    public static final OTPPriorityQueueFactory FACTORY = new OTPPriorityQueueFactory() {
+        @Override
+        public <T> OTPPriorityQueue<T> create(int initialSize) {
+            return new RadixHeap<T>();
+        }
+    };
+
+    private final Object[][] elems = new Object[N_BUCKETS][];
+
+    private final long[][] keys = new long[N_BUCKETS][];
+
+    private final int[] bucketSizes = new int[N_BUCKETS];
+
+    /** The last extracted key, which is also a lower bound on all keys in the queue. */
+    private long last = 0;
+
+    private int size = 0;
+
+    public RadixHeap() {
+        for (int b = 0; b < N_BUCKETS; b++) {
+            elems[b] = new Object[4];
+            keys[b] = new long[4];
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean empty() {
+        return size <= 0;
+    }
+
+    @Override
+    public double peek_min_key() {
+        if (size <= 0)
+            throw new IllegalStateException("An empty queue does not have a minimum key.");
+        pullMinimum();
+        return last;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T peek_min() {
+        if (size <= 0)
+            return null;
+        pullMinimum();
+        return (T) elems[0][bucketSizes[0] - 1];
+    }
+
+    @Override
+    public void insert(T e, double p) {
+        long key = (long) p;
+        if (key < last)
+            key = last;
+        add(bucketFor(key), e, key);
+        size += 1;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T extract_min() {
+        if (size <= 0)
+            return null;
+        pullMinimum();
+        int i = --bucketSizes[0];
+        T e = (T) elems[0][i];
+        elems[0][i] = null;
+        size -= 1;
+        return e;
+    }
+
+    @Override
+    public void reset() {
+        for (int b = 0; b < N_BUCKETS; b++) {
+            Arrays.fill(elems[b], 0, bucketSizes[b], null);
+            bucketSizes[b] = 0;
+        }
+        size = 0;
+        last = 0;
+    }
+
+    /** Bucket 0 holds keys equal to last; bucket b holds keys whose highest bit differing from last is b - 1. */
+    private int bucketFor(long key) {
+        return key == last ? 0 : 64 - Long.numberOfLeadingZeros(key ^ last);
+    }
+
+    private void add(int b, Object e, long key) {
+        int n = bucketSizes[b];
+        if (n == elems[b].length) {
+            elems[b] = Arrays.copyOf(elems[b], n * 2);
+            keys[b] = Arrays.copyOf(keys[b], n * 2);
+        }
+        elems[b][n] = e;
+        keys[b][n] = key;
+        bucketSizes[b] = n + 1;
+    }
+
+    /**
+     * Ensure that bucket 0 is non-empty (the queue must not be empty). When it is empty, the first
+     * non-empty bucket is emptied: its smallest key becomes the new last key, and its elements all
+     * move to strictly lower buckets. Each element can move down at most 64 times in total.
+     */
+    private void pullMinimum() {
+        if (bucketSizes[0] > 0)
+            return;
+        int b = 1;
+        while (bucketSizes[b] == 0)
+            b++;
+        Object[] bucketElems = elems[b];
+        long[] bucketKeys = keys[b];
+        int n = bucketSizes[b];
+        long min = bucketKeys[0];
+        for (int i = 1; i < n; i++) {
+            if (bucketKeys[i] < min)
+                min = bucketKeys[i];
+        }
+        last = min;
+        // Buckets below b are all empty, and every element of bucket b now goes to a lower bucket,
+        // so we can empty bucket b before redistributing without overwriting anything.
+        bucketSizes[b] = 0;
+        for (int i = 0; i < n; i++) {
+            add(bucketFor(bucketKeys[i]), bucketElems[i], bucketKeys[i]);
+            bucketElems[i] = null;
+        }
+    }
+
+}
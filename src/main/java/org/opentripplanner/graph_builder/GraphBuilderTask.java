@@ -15,11 +15,27 @@ package org.opentripplanner.graph_builder;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.opentripplanner.common.AutocompleteIndex;
 import org.opentripplanner.graph_builder.services.GraphBuilder;
+import org.opentripplanner.graph_builder.services.IndependentGraphBuilder;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Graph.LoadLevel;
@@ -34,6 +50,21 @@ public class GraphBuilderTask implements Runnable {
 
     private List<GraphBuilder> _graphBuilders = new ArrayList<GraphBuilder>();
 
+    /** The builders that produce the street layer of the graph. They run before all other builders. */
+    private List<GraphBuilder> _streetGraphBuilders = new ArrayList<GraphBuilder>();
+
+    /** The input files read by the street graph builders. */
+    private List<File> _streetInputs = new ArrayList<File>();
+
+    /**
+     * If set, the graph produced by the street graph builders is saved to this file, together with a
+     * description of their input files in a file of the same name with ".inputs" appended. Later
+     * builds whose street inputs are unchanged load the saved street graph instead of running the
+     * street graph builders again, so only transit is rebuilt on top of it. Options of the street
+     * graph builders are not recorded; delete the file after changing them.
+     */
+    public File streetGraphFile;
+
     private File graphFile;
     
     private boolean _alwaysRebuild = true;
@@ -47,6 +78,19 @@ public class GraphBuilderTask implements Runnable {
     /** Should the graph be serialized to disk after being created or not? */
     public boolean serializeGraph = true;
 
+    /**
+     * The number of threads used to build the graph. With more than one thread, each
+     * {@link IndependentGraphBuilder} runs concurrently against its own staged graph, which is
+     * merged into the main graph at that builder's position in the list. All other builders still
+     * run in list order on the main graph.
+     */
+    public int threads = 1;
+
+    private final List<StageStats> stageStats = Collections.synchronizedList(new ArrayList<StageStats>());
+
+    /** The number of stages currently running, used to decide when heap peaks can be reset. */
+    private final AtomicInteger runningStages = new AtomicInteger();
+
     public void addGraphBuilder(GraphBuilder loader) {
         _graphBuilders.add(loader);
     }
@@ -55,6 +99,14 @@ public class GraphBuilderTask implements Runnable {
         _graphBuilders = graphLoaders;
     }
 
+    public void addStreetGraphBuilder(GraphBuilder builder) {
+        _streetGraphBuilders.add(builder);
+    }
+
+    public void setStreetInputs(List<File> streetInputs) {
+        _streetInputs = streetInputs;
+    }
+
     public void setAlwaysRebuild(boolean alwaysRebuild) {
         _alwaysRebuild = alwaysRebuild;
     }
@@ -116,7 +168,9 @@ public class GraphBuilderTask implements Runnable {
         //check prerequisites
         ArrayList<String> provided = new ArrayList<String>();
         boolean bad = false;
-        for (GraphBuilder builder : _graphBuilders) {
+        List<GraphBuilder> allBuilders = new ArrayList<GraphBuilder>(_streetGraphBuilders);
+        allBuilders.addAll(_graphBuilders);
+        for (GraphBuilder builder : allBuilders) {
             List<String> prerequisites = builder.getPrerequisites();
             for (String prereq : prerequisites) {
                 if (!provided.contains(prereq)) {
@@ -132,14 +186,23 @@ public class GraphBuilderTask implements Runnable {
             throw new RuntimeException("Prerequisites unsatisfied");
 
         //check inputs
-        for (GraphBuilder builder : _graphBuilders) {
+        for (GraphBuilder builder : allBuilders) {
             builder.checkInputs();
         }
         
         HashMap<Class<?>, Object> extra = new HashMap<Class<?>, Object>();
-        for (GraphBuilder load : _graphBuilders)
-            load.buildGraph(graph, extra);
+        buildStreets(extra);
+        if (threads > 1) {
+            buildStaged(extra);
+        } else {
+            for (GraphBuilder load : _graphBuilders)
+                runStage(load, graph, extra);
+        }
+        for (StageStats stats : stageStats) {
+            LOG.info(stats.toString());
+        }
 
+        graph.autocompleteIndex = AutocompleteIndex.build(graph, threads);
         graph.summarizeBuilderAnnotations();
         if (serializeGraph) {
             try {
@@ -154,4 +217,175 @@ public class GraphBuilderTask implements Runnable {
         long endTime = System.currentTimeMillis();
         LOG.info(String.format("Graph building took %.1f minutes.", (endTime - startTime) / 1000 / 60.0));
     }
+
+    /** @return the timings of the builders that have run so far, in order of completion. */
+    public List<StageStats> getStageStats() {
+        synchronized (stageStats) {
+            return new ArrayList<StageStats>(stageStats);
+        }
+    }
+
+    /**
+     * Run the street graph builders, or load their result from {@link #streetGraphFile} if it was
+     * saved by an earlier build from the same inputs.
+     */
+    private void buildStreets(HashMap<Class<?>, Object> extra) {
+        if (_streetGraphBuilders.isEmpty())
+            return;
+        String inputs = describeStreetInputs();
+        File inputsFile = null;
+        if (streetGraphFile != null) {
+            inputsFile = new File(streetGraphFile.getPath() + ".inputs");
+            if (streetGraphFile.exists() && inputsFile.exists()) {
+                try {
+                    if (inputs.equals(Files.toString(inputsFile, Charsets.UTF_8))) {
+                        LOG.info("Street inputs are unchanged, reusing street graph {}", streetGraphFile);
+                        Graph streetGraph = Graph.load(streetGraphFile, LoadLevel.DEBUG);
+                        // The indexes built on load know nothing of the transit that is about to be added.
+                        streetGraph.index = null;
+                        streetGraph.streetIndex = null;
+                        graph = streetGraph;
+                        return;
+                    }
+                    LOG.info("Street inputs have changed, rebuilding street graph {}", streetGraphFile);
+                } catch (Exception e) {
+                    LOG.warn("Could not reuse street graph {}, rebuilding it: {}", streetGraphFile, e.toString());
+                }
+            }
+        }
+        for (GraphBuilder builder : _streetGraphBuilders)
+            runStage(builder, graph, extra);
+        if (streetGraphFile != null) {
+            // Remove the old description first, so that a failed save can never be mistaken for a current one.
+            inputsFile.delete();
+            try {
+                graph.save(streetGraphFile);
+                Files.write(inputs, inputsFile, Charsets.UTF_8);
+            } catch (IOException e) {
+                LOG.warn("Could not save street graph {}: {}", streetGraphFile, e.toString());
+            }
+        }
+    }
+
+    /**
+     * @return a description of the street graph builders and their input files, which changes
+     *         whenever an input file is modified. The graph file itself records the OTP version.
+     */
+    private String describeStreetInputs() {
+        StringBuilder sb = new StringBuilder();
+        for (GraphBuilder builder : _streetGraphBuilders) {
+            sb.append(builder.getClass().getName()).append('\n');
+        }
+        for (File file : _streetInputs) {
+            sb.append(file.getAbsolutePath()).append(' ').append(file.length()).append(' ')
+                    .append(file.lastModified()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Start every independent builder on its own staged graph, then walk the builder list in order,
+     * merging each staged graph when its builder is reached and running the other builders on the
+     * main graph in between. The result is the same as running the builders in sequence, but slow
+     * input parsing (e.g. OSM and GTFS) overlaps.
+     */
+    private void buildStaged(HashMap<Class<?>, Object> extra) {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Map<GraphBuilder, Future<StagedGraph>> stagedGraphs = new HashMap<GraphBuilder, Future<StagedGraph>>();
+        try {
+            for (final GraphBuilder builder : _graphBuilders) {
+                if (builder instanceof IndependentGraphBuilder && builder.getPrerequisites().isEmpty()) {
+                    stagedGraphs.put(builder, executor.submit(new Callable<StagedGraph>() {
+                        @Override
+                        public StagedGraph call() {
+                            StagedGraph staged = new StagedGraph(new Graph(graph));
+                            runStage(builder, staged.graph, staged.extra);
+                            return staged;
+                        }
+                    }));
+                }
+            }
+            LOG.info("Started {} graph builders on staged graphs with {} threads.", stagedGraphs.size(), threads);
+            for (GraphBuilder builder : _graphBuilders) {
+                Future<StagedGraph> future = stagedGraphs.get(builder);
+                if (future == null) {
+                    runStage(builder, graph, extra);
+                    continue;
+                }
+                StagedGraph staged;
+                try {
+                    staged = future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while waiting for " + builder, e);
+                } catch (ExecutionException e) {
+                    throw new RuntimeException("Graph builder " + builder + " failed", e.getCause());
+                }
+                LOG.info("Merging graph built by {}", builder);
+                graph.merge(staged.graph);
+                extra.putAll(staged.extra);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void runStage(GraphBuilder builder, Graph target, HashMap<Class<?>, Object> extra) {
+        StageStats stats = new StageStats(builder.getClass().getSimpleName());
+        if (runningStages.getAndIncrement() == 0) {
+            // No other stage is running, so the heap peaks can be attributed to this stage alone.
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP && pool.isValid())
+                    pool.resetPeakUsage();
+            }
+        }
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        boolean cpuTime = threadBean.isCurrentThreadCpuTimeSupported();
+        long startCpu = cpuTime ? threadBean.getCurrentThreadCpuTime() : 0;
+        long startTime = System.currentTimeMillis();
+        try {
+            builder.buildGraph(target, extra);
+        } finally {
+            stats.wallMillis = System.currentTimeMillis() - startTime;
+            stats.cpuMillis = cpuTime ? (threadBean.getCurrentThreadCpuTime() - startCpu) / 1000000 : -1;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP && pool.isValid())
+                    stats.peakHeapBytes += pool.getPeakUsage().getUsed();
+            }
+            runningStages.decrementAndGet();
+            stageStats.add(stats);
+        }
+    }
+
+    /** A graph and extra-information map that one builder writes into before they are merged. */
+    private static class StagedGraph {
+        final Graph graph;
+        final HashMap<Class<?>, Object> extra = new HashMap<Class<?>, Object>();
+        StagedGraph(Graph graph) {
+            this.graph = graph;
+        }
+    }
+
+    /**
+     * Resource usage of one graph builder. CPU time only counts the thread that ran the builder, and
+     * is -1 if the JVM cannot measure it. The heap peak is the sum of the peaks of the heap memory
+     * pools, so it is an upper bound; when stages overlap it covers all of them.
+     */
+    public static class StageStats {
+        public final String name;
+        public long wallMillis;
+        public long cpuMillis;
+        public long peakHeapBytes;
+
+        StageStats(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            String cpu = cpuMillis < 0 ? "n/a" : String.format("%.1f s", cpuMillis / 1000.0);
+            return String.format("%s: %.1f s wall, %s CPU, %d MB peak heap", name,
+                    wallMillis / 1000.0, cpu, peakHeapBytes / (1024 * 1024));
+        }
+    }
 }
@@ -14,8 +14,10 @@
 package org.opentripplanner.graph_builder.impl;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.collect.Iterables;
+import org.opentripplanner.common.ParallelTasks;
 import org.opentripplanner.common.geometry.DistanceLibrary;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
 import org.opentripplanner.graph_builder.annotation.StopNotLinkedForTransfers;
@@ -43,6 +45,9 @@ public class DirectTransferGenerator implements GraphBuilder {
 
     int maxDuration = 60 * 10;
 
+    /** The number of threads running searches from stops concurrently. */
+    public int threads = 1;
+
     DistanceLibrary distanceLibrary = SphericalDistanceLibrary.getInstance();
 
     public List<String> provides() {
@@ -62,21 +67,48 @@ public class DirectTransferGenerator implements GraphBuilder {
         }
 
         /* The linker will use streets if they are available, or straight-line distance otherwise. */
-        NearbyStopFinder nearbyStopFinder = new NearbyStopFinder(graph, maxDuration);
+        final NearbyStopFinder nearbyStopFinder = new NearbyStopFinder(graph, maxDuration);
         if (nearbyStopFinder.useStreets) {
             LOG.info("Creating direct transfer edges between stops using the street network from OSM...");
         } else {
             LOG.info("Creating direct transfer edges between stops using straight line distance (not streets)...");
         }
 
-        int nTransfersTotal = 0;
-        int nLinkableStops = 0;
-
+        /* Skip stops that are entrances to stations or whose entrances are coded separately */
+        final List<TransitStop> stops = new ArrayList<TransitStop>();
         for (TransitStop ts0 : Iterables.filter(graph.getVertices(), TransitStop.class)) {
+            if (ts0.isStreetLinkable()) stops.add(ts0);
+        }
 
-            /* Skip stops that are entrances to stations or whose entrances are coded separately */
-            if (!ts0.isStreetLinkable()) continue;
-            nLinkableStops += 1;
+        /*
+         * Search from each stop, on several threads if allowed. No edges are added to the graph while
+         * the searches are running, as other threads may be traversing the same vertices. Each
+         * worker takes the next unclaimed stop, so threads that hit quick searches take more stops.
+         */
+        final List<Collection<NearbyStopFinder.StopAtDistance>> nearbyStops =
+                new ArrayList<Collection<NearbyStopFinder.StopAtDistance>>(
+                        Collections.<Collection<NearbyStopFinder.StopAtDistance>>nCopies(stops.size(), null));
+        final AtomicInteger nextStop = new AtomicInteger();
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                for (int i = nextStop.getAndIncrement(); i < stops.size(); i = nextStop.getAndIncrement()) {
+                    nearbyStops.set(i, nearbyStopFinder.findNearbyStopsConsideringPatterns(stops.get(i)));
+                }
+            }
+        };
+        int nThreads = Math.min(threads, stops.size());
+        if (nThreads > 1) {
+            // Search from the first stop alone, so that lazily initialized structures (spatial index,
+            // calendar service, time zone) are built before any searches run concurrently.
+            nearbyStops.set(0, nearbyStopFinder.findNearbyStopsConsideringPatterns(stops.get(0)));
+            nextStop.set(1);
+        }
+        ParallelTasks.runOnThreads(nThreads, worker, "generating transfers");
+
+        int nTransfersTotal = 0;
+        for (int i = 0; i < stops.size(); i++) {
+            TransitStop ts0 = stops.get(i);
             LOG.debug("Linking stop '{}' {}", ts0.getStop(), ts0);
 
             /* Determine the set of stops that are already reachable via other pathways or transfers */
@@ -92,7 +124,7 @@ public class DirectTransferGenerator implements GraphBuilder {
 
             /* Make transfers to each nearby stop that is the closest stop on some trip pattern. */
             int n = 0;
-            for (NearbyStopFinder.StopAtDistance sd : nearbyStopFinder.findNearbyStopsConsideringPatterns(ts0)) {
+            for (NearbyStopFinder.StopAtDistance sd : nearbyStops.get(i)) {
                 /* Skip the origin stop, loop transfers are not needed. */
                 if (sd.tstop == ts0 || pathwayDestinations.contains(sd.tstop)) continue;
                 new SimpleTransfer(ts0, sd.tstop, sd.dist, sd.geom);
@@ -104,7 +136,7 @@ public class DirectTransferGenerator implements GraphBuilder {
             }
             nTransfersTotal += n;
         }
-        LOG.info("Done connecting stops to one another. Created a total of {} transfers from {} stops.", nTransfersTotal, nLinkableStops);
+        LOG.info("Done connecting stops to one another. Created a total of {} transfers from {} stops.", nTransfersTotal, stops.size());
         graph.hasDirectTransfers = true;
     }
 
@@ -24,6 +24,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import org.onebusaway.csv_entities.EntityHandler;
 import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
@@ -43,9 +44,10 @@ import org.onebusaway.gtfs.serialization.GtfsReader;
 import org.onebusaway.gtfs.services.GenericMutableDao;
 import org.onebusaway.gtfs.services.GtfsMutableRelationalDao;
 import org.opentripplanner.calendar.impl.MultiCalendarServiceImpl;
+import org.opentripplanner.common.ParallelTasks;
 import org.opentripplanner.graph_builder.model.GtfsBundle;
 import org.opentripplanner.graph_builder.model.GtfsBundles;
-import org.opentripplanner.graph_builder.services.GraphBuilder;
+import org.opentripplanner.graph_builder.services.IndependentGraphBuilder;
 import org.opentripplanner.gtfs.BikeAccess;
 import org.opentripplanner.gtfs.GtfsContext;
 import org.opentripplanner.gtfs.GtfsLibrary;
@@ -58,14 +60,12 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.Sets;
 
-public class GtfsGraphBuilderImpl implements GraphBuilder {
+public class GtfsGraphBuilderImpl implements IndependentGraphBuilder {
 
     private static final Logger LOG = LoggerFactory.getLogger(GtfsGraphBuilderImpl.class);
 
     private GtfsBundles _gtfsBundles;
 
-    EntityHandler counter = new EntityCounter();
-
     private FareServiceFactory _fareServiceFactory;
 
     /** will be applied to all bundles which do not have the cacheDirectory property set */
@@ -78,6 +78,14 @@ public class GtfsGraphBuilderImpl implements GraphBuilder {
 
     int nextAgencyId = 1; // used for generating agency IDs to resolve ID conflicts
 
+    /**
+     * The number of threads used to read the bundles and to build their trip patterns. With one
+     * thread each bundle is read and built before the next one is read, so only one bundle is held
+     * in memory at a time. With more threads, up to that many bundles are read ahead of the one
+     * being built, and all of them are held in memory together.
+     */
+    public int threads = 1;
+
     /**
      * Construct and set bundles all at once. 
      * TODO why is there a wrapper class around a list of GTFS files?
@@ -131,38 +139,18 @@ public class GtfsGraphBuilderImpl implements GraphBuilder {
         GtfsStopContext stopContext = new GtfsStopContext();
         
         try {
-            for (GtfsBundle gtfsBundle : _gtfsBundles.getBundles()) {
-                // apply global defaults to individual GTFSBundles (if globals have been set) 
-                if (cacheDirectory != null && gtfsBundle.cacheDirectory == null)
-                    gtfsBundle.cacheDirectory = cacheDirectory;
-                if (useCached != null && gtfsBundle.useCached == null)
-                    gtfsBundle.useCached = useCached;
-                GtfsMutableRelationalDao dao = new GtfsRelationalDaoImpl();
-                GtfsContext context = GtfsLibrary.createContext(dao, service);
-                GTFSPatternHopFactory hf = new GTFSPatternHopFactory(context);
-                hf.setStopContext(stopContext);
-                hf.setFareServiceFactory(_fareServiceFactory);
-                hf.setMaxStopToShapeSnapDistance(gtfsBundle.getMaxStopToShapeSnapDistance());
-
-                loadBundle(gtfsBundle, graph, dao);
-
-                CalendarServiceDataFactoryImpl csfactory = new CalendarServiceDataFactoryImpl();
-                csfactory.setGtfsDao(dao);
-                CalendarServiceData data = csfactory.createData();
-                service.addData(data, dao);
-
-                hf.setDefaultStreetToStopTime(gtfsBundle.getDefaultStreetToStopTime());
-                hf.run(graph);
-
-                if (gtfsBundle.doesTransfersTxtDefineStationPaths()) {
-                    hf.createTransfersTxtTransfers();
-                }
-                if (gtfsBundle.linkStopsToParentStations) {
-                    hf.linkStopsToParentStations(graph);
-                } 
-                if (gtfsBundle.parentStationTransfers) {
-                    hf.createParentStationTransfers();
+            List<BundleReader> readers = createReaders();
+            if (threads <= 1 || readers.size() < 2) {
+                for (int i = 0; i < readers.size(); i++) {
+                    BundleReader reader = readers.get(i);
+                    // Agency IDs of later bundles depend on those of earlier bundles.
+                    reader.readAgencies();
+                    reader.call();
+                    buildBundle(reader, graph, service, stopContext);
+                    readers.set(i, null); // release the DAO before reading the next bundle
                 }
+            } else {
+                readAhead(readers, graph, service, stopContext);
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -181,84 +169,172 @@ public class GtfsGraphBuilderImpl implements GraphBuilder {
      * Private Methods
      ****/
 
-    private void loadBundle(GtfsBundle gtfsBundle, Graph graph, GtfsMutableRelationalDao dao)
-            throws IOException {
+    private void buildBundle(BundleReader bundleReader, Graph graph, MultiCalendarServiceImpl service,
+            GtfsStopContext stopContext) {
+        GtfsBundle gtfsBundle = bundleReader.gtfsBundle;
+        GtfsMutableRelationalDao dao = bundleReader.dao;
+        GtfsContext context = GtfsLibrary.createContext(dao, service);
+        GTFSPatternHopFactory hf = new GTFSPatternHopFactory(context);
+        hf.setStopContext(stopContext);
+        hf.setFareServiceFactory(_fareServiceFactory);
+        hf.setMaxStopToShapeSnapDistance(gtfsBundle.getMaxStopToShapeSnapDistance());
+        hf.setThreads(threads);
+
+        CalendarServiceDataFactoryImpl csfactory = new CalendarServiceDataFactoryImpl();
+        csfactory.setGtfsDao(dao);
+        CalendarServiceData data = csfactory.createData();
+        service.addData(data, dao);
+
+        hf.setDefaultStreetToStopTime(gtfsBundle.getDefaultStreetToStopTime());
+        hf.run(graph);
+
+        if (gtfsBundle.doesTransfersTxtDefineStationPaths()) {
+            hf.createTransfersTxtTransfers();
+        }
+        if (gtfsBundle.linkStopsToParentStations) {
+            hf.linkStopsToParentStations(graph);
+        } 
+        if (gtfsBundle.parentStationTransfers) {
+            hf.createParentStationTransfers();
+        }
+    }
+
+    /** Create a reader for each bundle, applying the global defaults to the bundles. */
+    private List<BundleReader> createReaders() throws IOException {
+        List<BundleReader> readers = new ArrayList<BundleReader>();
+        for (GtfsBundle gtfsBundle : _gtfsBundles.getBundles()) {
+            // apply global defaults to individual GTFSBundles (if globals have been set) 
+            if (cacheDirectory != null && gtfsBundle.cacheDirectory == null)
+                gtfsBundle.cacheDirectory = cacheDirectory;
+            if (useCached != null && gtfsBundle.useCached == null)
+                gtfsBundle.useCached = useCached;
+            readers.add(new BundleReader(gtfsBundle));
+        }
+        return readers;
+    }
+
+    /**
+     * Read the bundles on several threads while building them in bundle order on this one. The
+     * agencies are read first, one bundle after the other, because agency ID conflicts are resolved
+     * in bundle order. At most {@link #threads} bundles are read ahead of the one being built, which
+     * bounds the number of DAOs held in memory at once.
+     */
+    private void readAhead(List<BundleReader> readers, Graph graph, MultiCalendarServiceImpl service,
+            GtfsStopContext stopContext) throws IOException {
+        for (BundleReader reader : readers) {
+            reader.readAgencies();
+        }
+        ParallelTasks.InOrder<Void> read = ParallelTasks.inOrder(readers, threads, threads,
+                "reading GTFS");
+        try {
+            for (int i = 0; i < readers.size(); i++) {
+                read.next();
+                buildBundle(readers.get(i), graph, service, stopContext);
+                readers.set(i, null); // release the DAO
+            }
+        } finally {
+            read.close();
+        }
+    }
+
+    /** Reads a single GTFS bundle into a DAO of its own. */
+    private class BundleReader implements Callable<Void> {
+
+        final GtfsBundle gtfsBundle;
+
+        final GtfsMutableRelationalDao dao = new GtfsRelationalDaoImpl();
 
-        StoreImpl store = new StoreImpl(dao);
-        store.open();
-        LOG.info("reading {}", gtfsBundle.toString());
+        private final StoreImpl store = new StoreImpl(dao);
 
-        GtfsReader reader = new GtfsReader();
-        reader.setInputSource(gtfsBundle.getCsvInputSource());
-        reader.setEntityStore(store);
-        reader.setInternStrings(true);
+        private final GtfsReader reader = new GtfsReader();
 
-        if (LOG.isDebugEnabled())
-            reader.addEntityHandler(counter);
+        BundleReader(GtfsBundle gtfsBundle) throws IOException {
+            this.gtfsBundle = gtfsBundle;
+            store.open();
+            LOG.info("reading {}", gtfsBundle.toString());
 
-        if (gtfsBundle.getDefaultBikesAllowed())
-            reader.addEntityHandler(new EntityBikeability(true));
+            reader.setInputSource(gtfsBundle.getCsvInputSource());
+            reader.setEntityStore(store);
+            reader.setInternStrings(true);
 
-        for (Class<?> entityClass : reader.getEntityClasses()) {
-            LOG.info("reading entities: " + entityClass.getName());
-            reader.readEntities(entityClass);
+            if (LOG.isDebugEnabled())
+                reader.addEntityHandler(new EntityCounter());
+
+            if (gtfsBundle.getDefaultBikesAllowed())
+                reader.addEntityHandler(new EntityBikeability(true));
+        }
+
+        /**
+         * Read the agencies of this bundle, renaming any whose ID was already used by a previous
+         * bundle. This must be called for each bundle in turn, before any of them is read further.
+         */
+        void readAgencies() throws IOException {
+            LOG.info("reading entities: " + Agency.class.getName());
+            reader.readEntities(Agency.class);
             store.flush();
-            // NOTE that agencies are first in the list and read before all other entity types, so it is effective to
-            // set the agencyId here. Each feed ("bundle") is loaded by a separate reader, so there is no risk of
+            // Each feed ("bundle") is loaded by a separate reader, so there is no risk of
             // agency mappings accumulating.
-            if (entityClass == Agency.class) {
-                String defaultAgencyId = null;
-                for (Agency agency : reader.getAgencies()) {
-                    String agencyId = agency.getId();
-                    LOG.info("This Agency has the ID {}", agencyId);
-                    // Somehow, when the agency's id field is missing, OBA replaces it with the agency's name.
-                    // TODO Figure out how and why this is happening.
-                    if (agencyId == null || agencyIdsSeen.contains(agencyId)) {
-                        // Loop in case generated name is already in use.
-                        String generatedAgencyId = null;
-                        while (generatedAgencyId == null || agencyIdsSeen.contains(generatedAgencyId)) {
-                            generatedAgencyId = "F" + nextAgencyId;
-                            nextAgencyId++;
-                        }
-                        LOG.warn("The agency ID '{}' was already seen, or I think it's bad. Replacing with '{}'.", agencyId, generatedAgencyId);
-                        reader.addAgencyIdMapping(agencyId, generatedAgencyId); // NULL key should work
-                        agency.setId(generatedAgencyId);
-                        agencyId = generatedAgencyId;
+            String defaultAgencyId = null;
+            for (Agency agency : reader.getAgencies()) {
+                String agencyId = agency.getId();
+                LOG.info("This Agency has the ID {}", agencyId);
+                // Somehow, when the agency's id field is missing, OBA replaces it with the agency's name.
+                // TODO Figure out how and why this is happening.
+                if (agencyId == null || agencyIdsSeen.contains(agencyId)) {
+                    // Loop in case generated name is already in use.
+                    String generatedAgencyId = null;
+                    while (generatedAgencyId == null || agencyIdsSeen.contains(generatedAgencyId)) {
+                        generatedAgencyId = "F" + nextAgencyId;
+                        nextAgencyId++;
                     }
-                    if (agencyId != null) agencyIdsSeen.add(agencyId);
-                    if (defaultAgencyId == null) defaultAgencyId = agencyId;
+                    LOG.warn("The agency ID '{}' was already seen, or I think it's bad. Replacing with '{}'.", agencyId, generatedAgencyId);
+                    reader.addAgencyIdMapping(agencyId, generatedAgencyId); // NULL key should work
+                    agency.setId(generatedAgencyId);
+                    agencyId = generatedAgencyId;
                 }
-                reader.setDefaultAgencyId(defaultAgencyId); // not sure this is a good idea, setting it to the first-of-many IDs.
+                if (agencyId != null) agencyIdsSeen.add(agencyId);
+                if (defaultAgencyId == null) defaultAgencyId = agencyId;
             }
+            reader.setDefaultAgencyId(defaultAgencyId); // not sure this is a good idea, setting it to the first-of-many IDs.
         }
 
-        for (ShapePoint shapePoint : store.getAllEntitiesForType(ShapePoint.class)) {
-            shapePoint.getShapeId().setAgencyId(reader.getDefaultAgencyId());
-        }
-        for (Route route : store.getAllEntitiesForType(Route.class)) {
-            route.getId().setAgencyId(reader.getDefaultAgencyId());
-        }
-        for (Stop stop : store.getAllEntitiesForType(Stop.class)) {
-            stop.getId().setAgencyId(reader.getDefaultAgencyId());
-        }
-        for (Trip trip : store.getAllEntitiesForType(Trip.class)) {
-            trip.getId().setAgencyId(reader.getDefaultAgencyId());
-        }
-        for (ServiceCalendar serviceCalendar : store.getAllEntitiesForType(ServiceCalendar.class)) {
-            serviceCalendar.getServiceId().setAgencyId(reader.getDefaultAgencyId());
-        }
-        for (ServiceCalendarDate serviceCalendarDate : store.getAllEntitiesForType(ServiceCalendarDate.class)) {
-            serviceCalendarDate.getServiceId().setAgencyId(reader.getDefaultAgencyId());
-        }
-        for (FareAttribute fareAttribute : store.getAllEntitiesForType(FareAttribute.class)) {
-            fareAttribute.getId().setAgencyId(reader.getDefaultAgencyId());
-        }
-        for (Pathway pathway : store.getAllEntitiesForType(Pathway.class)) {
-            pathway.getId().setAgencyId(reader.getDefaultAgencyId());
+        /** Read all entities other than the agencies, which must already have been read. */
+        @Override
+        public Void call() throws IOException {
+            for (Class<?> entityClass : reader.getEntityClasses()) {
+                if (entityClass == Agency.class)
+                    continue;
+                LOG.info("reading entities: " + entityClass.getName());
+                reader.readEntities(entityClass);
+                store.flush();
+            }
+            for (ShapePoint shapePoint : store.getAllEntitiesForType(ShapePoint.class)) {
+                shapePoint.getShapeId().setAgencyId(reader.getDefaultAgencyId());
+            }
+            for (Route route : store.getAllEntitiesForType(Route.class)) {
+                route.getId().setAgencyId(reader.getDefaultAgencyId());
+            }
+            for (Stop stop : store.getAllEntitiesForType(Stop.class)) {
+                stop.getId().setAgencyId(reader.getDefaultAgencyId());
+            }
+            for (Trip trip : store.getAllEntitiesForType(Trip.class)) {
+                trip.getId().setAgencyId(reader.getDefaultAgencyId());
+            }
+            for (ServiceCalendar serviceCalendar : store.getAllEntitiesForType(ServiceCalendar.class)) {
+                serviceCalendar.getServiceId().setAgencyId(reader.getDefaultAgencyId());
+            }
+            for (ServiceCalendarDate serviceCalendarDate : store.getAllEntitiesForType(ServiceCalendarDate.class)) {
+                serviceCalendarDate.getServiceId().setAgencyId(reader.getDefaultAgencyId());
+            }
+            for (FareAttribute fareAttribute : store.getAllEntitiesForType(FareAttribute.class)) {
+                fareAttribute.getId().setAgencyId(reader.getDefaultAgencyId());
+            }
+            for (Pathway pathway : store.getAllEntitiesForType(Pathway.class)) {
+                pathway.getId().setAgencyId(reader.getDefaultAgencyId());
+            }
+            store.close();
+            return null;
         }
-
-        store.close();
-
     }
 
     private class StoreImpl implements GenericMutableDao {
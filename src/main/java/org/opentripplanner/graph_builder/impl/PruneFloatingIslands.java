@@ -52,6 +52,9 @@ public class PruneFloatingIslands implements GraphBuilder {
      */
     private String islandLogFile;
 
+    /** The number of threads used to traverse the street network when looking for islands. */
+    public int threads = 1;
+
     private TransitToStreetNetworkGraphBuilderImpl transitToStreetNetwork;
 
     public List<String> provides() {
@@ -72,7 +75,7 @@ public class PruneFloatingIslands implements GraphBuilder {
         LOG.info("Pruning isolated islands in street network");
         
         StreetUtils.pruneFloatingIslands(graph, islandWithoutStopsMaxSize, 
-                islandWithStopsMaxSize, islandLogFile);
+                islandWithStopsMaxSize, islandLogFile, threads);
         if (transitToStreetNetwork == null) {
             LOG.debug("TransitToStreetNetworkGraphBuilder was not provided to PruneFloatingIslands. Not attempting to reconnect stops.");
         } else {
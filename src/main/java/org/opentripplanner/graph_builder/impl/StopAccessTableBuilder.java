@@ -0,0 +1,98 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.impl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.opentripplanner.graph_builder.services.GraphBuilder;
+import org.opentripplanner.routing.algorithm.EarliestArrivalSPTService;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.StopAccessTable;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Iterables;
+
+/**
+ * {@link GraphBuilder} module that precomputes a {@link StopAccessTable}, recording for every street
+ * vertex the transit stops within walking distance. It runs one reverse walk search per stop, so it
+ * must be run after the stops have been linked to the street network.
+ */
+public class StopAccessTableBuilder implements GraphBuilder {
+
+    private static Logger LOG = LoggerFactory.getLogger(StopAccessTableBuilder.class);
+
+    /** The maximum walking distance from a street vertex to a stop, in meters. */
+    public int radiusMeters = 1000;
+
+    public List<String> provides() {
+        return Arrays.asList("stop access");
+    }
+
+    public List<String> getPrerequisites() {
+        return Arrays.asList("street to transit");
+    }
+
+    @Override
+    public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+        LOG.info("Building stop access table with radius {} meters...", radiusMeters);
+        EarliestArrivalSPTService sptService = new EarliestArrivalSPTService();
+        // Walk at one meter per second so that elapsed seconds bound the distance walked.
+        sptService.maxDuration = radiusMeters;
+        StopAccessTable.Builder builder = new StopAccessTable.Builder(radiusMeters);
+        int nStops = 0;
+        for (TransitStop stop : Iterables.filter(graph.getVertices(), TransitStop.class)) {
+            if (!stop.isStreetLinkable()) continue;
+            RoutingRequest rr = new RoutingRequest(TraverseMode.WALK);
+            rr.walkSpeed = 1.0;
+            rr.clampInitialWait = 0L;
+            // Search backward from the stop to find the distance from each vertex to the stop.
+            rr.setArriveBy(true);
+            rr.setRoutingContext(graph, null, stop);
+            ShortestPathTree spt = sptService.getShortestPathTree(rr);
+            if (spt != null) {
+                for (State state : spt.getAllStates()) {
+                    Vertex v = state.getVertex();
+                    if (v instanceof StreetVertex && state.getWalkDistance() <= radiusMeters) {
+                        builder.add(v, stop, (int) Math.ceil(state.getWalkDistance()));
+                    }
+                }
+            }
+            rr.cleanup();
+            nStops += 1;
+            if (nStops % 1000 == 0) {
+                LOG.info("Searched around {} stops", nStops);
+            }
+        }
+        StopAccessTable table = builder.build();
+        graph.putService(StopAccessTable.class, table);
+        LOG.info("Done building stop access table: {} stops, {} street vertices, {} entries.",
+                nStops, table.countVertices(), table.countEntries());
+    }
+
+    @Override
+    public void checkInputs() {
+        // No inputs
+    }
+
+}
@@ -19,6 +19,9 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.media.jai.InterpolationBilinear;
 
@@ -26,11 +29,13 @@ import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.Interpolator2D;
 import org.geotools.geometry.DirectPosition2D;
 import org.opengis.coverage.Coverage;
+import org.opentripplanner.common.ParallelTasks;
 import org.opentripplanner.common.geometry.DistanceLibrary;
 import org.opentripplanner.common.geometry.PackedCoordinateSequence;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
 import org.opentripplanner.common.pqueue.BinHeap;
 import org.opentripplanner.graph_builder.annotation.ElevationFlattened;
+import org.opentripplanner.graph_builder.annotation.GraphBuilderAnnotation;
 import org.opentripplanner.graph_builder.impl.extra_elevation_data.ElevationPoint;
 import org.opentripplanner.graph_builder.services.GraphBuilder;
 import org.opentripplanner.graph_builder.services.ned.ElevationGridCoverageFactory;
@@ -60,8 +65,6 @@ public class ElevationGraphBuilderImpl implements GraphBuilder {
 
     private ElevationGridCoverageFactory gridCoverageFactory;
 
-    private Coverage coverage;
-
     /**
      * The distance between samples in meters. Defaults to 10m, the approximate resolution of 1/3
      * arc-second NED data.
@@ -70,6 +73,18 @@ public class ElevationGraphBuilderImpl implements GraphBuilder {
 
     private DistanceLibrary distanceLibrary = SphericalDistanceLibrary.getInstance();
 
+    /**
+     * Edges are sampled in square tiles of this size, so that each thread reads elevations from a
+     * compact area of the raster at a time.
+     */
+    private static final double TILE_SIZE_DEGREES = 0.05;
+
+    /**
+     * The number of threads sampling elevations. Each thread uses its own interpolator, as
+     * GeoTools interpolators cannot be shared efficiently between threads.
+     */
+    public int threads = 1;
+
     public ElevationGraphBuilderImpl() { /* This makes me a "bean" */ };
     
     public ElevationGraphBuilderImpl(ElevationGridCoverageFactory factory) {
@@ -95,30 +110,58 @@ public class ElevationGraphBuilderImpl implements GraphBuilder {
     @Override
     public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
         gridCoverageFactory.setGraph(graph);
-        Coverage gridCov = gridCoverageFactory.getGridCoverage();
+        final Coverage gridCov = gridCoverageFactory.getGridCoverage();
 
-        // If gridCov is a GridCoverage2D, apply a bilinear interpolator. Otherwise, just use the
-        // coverage as is (note: UnifiedGridCoverages created by NEDGridCoverageFactoryImpl handle
-        // interpolation internally)
-        coverage = (gridCov instanceof GridCoverage2D) ? Interpolator2D.create(
-                (GridCoverage2D) gridCov, new InterpolationBilinear()) : gridCov;
         log.info("setting street elevation profiles from NED data...");
-        List<StreetEdge> edgesWithElevation = new ArrayList<StreetEdge>();
-        int nProcessed = 0;
-        int nTotal = graph.countEdges();
+        List<StreetWithElevationEdge> edges = new ArrayList<StreetWithElevationEdge>();
         for (Vertex gv : graph.getVertices()) {
             for (Edge ee : gv.getOutgoing()) {
                 if (ee instanceof StreetWithElevationEdge) {
-                    StreetWithElevationEdge edgeWithElevation = (StreetWithElevationEdge) ee;
-                    processEdge(graph, edgeWithElevation);
-                    if (edgeWithElevation.getElevationProfile() != null && !edgeWithElevation.isElevationFlattened()) {
-                        edgesWithElevation.add(edgeWithElevation);
+                    edges.add((StreetWithElevationEdge) ee);
+                }
+            }
+        }
+        final List<List<StreetWithElevationEdge>> tiles = groupByTile(edges);
+        final List<List<GraphBuilderAnnotation>> annotationsForTile = new ArrayList<List<GraphBuilderAnnotation>>();
+        for (int i = 0; i < tiles.size(); i++) {
+            annotationsForTile.add(new ArrayList<GraphBuilderAnnotation>());
+        }
+        final int nTotal = edges.size();
+        final AtomicInteger nProcessed = new AtomicInteger();
+        final AtomicInteger nextTile = new AtomicInteger();
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                Coverage coverage = interpolate(gridCov);
+                for (int t = nextTile.getAndIncrement(); t < tiles.size(); t = nextTile.getAndIncrement()) {
+                    for (StreetWithElevationEdge edge : tiles.get(t)) {
+                        processEdge(coverage, edge, annotationsForTile.get(t));
+                        int n = nProcessed.incrementAndGet();
+                        if (n % 50000 == 0)
+                            log.info("set elevation on {}/{} edges", n, nTotal);
                     }
-                    nProcessed += 1;
-                    if (nProcessed % 50000 == 0)
-                        log.info("set elevation on {}/{} edges", nProcessed, nTotal);
                 }
             }
+        };
+
+        int nThreads = Math.min(threads, tiles.size());
+        if (nThreads > 1 && !(gridCov instanceof GridCoverage2D
+                || (gridCov instanceof UnifiedGridCoverage && ((UnifiedGridCoverage) gridCov).isGridded()))) {
+            log.warn("Cannot sample a {} on several threads, using one thread.", gridCov.getClass().getSimpleName());
+            nThreads = 1;
+        }
+        ParallelTasks.runOnThreads(nThreads, worker, "sampling elevations");
+        for (List<GraphBuilderAnnotation> annotations : annotationsForTile) {
+            for (GraphBuilderAnnotation annotation : annotations) {
+                graph.addBuilderAnnotation(annotation);
+            }
+        }
+
+        List<StreetEdge> edgesWithElevation = new ArrayList<StreetEdge>();
+        for (StreetWithElevationEdge edgeWithElevation : edges) {
+            if (edgeWithElevation.getElevationProfile() != null && !edgeWithElevation.isElevationFlattened()) {
+                edgesWithElevation.add(edgeWithElevation);
+            }
         }
 
         @SuppressWarnings("unchecked")
@@ -126,6 +169,39 @@ public class ElevationGraphBuilderImpl implements GraphBuilder {
         assignMissingElevations(graph, edgesWithElevation, extraElevation);
     }
 
+    /**
+     * Prepare the coverage for sampling by one thread. If gridCov is a GridCoverage2D, apply a
+     * new bilinear interpolator. UnifiedGridCoverages created by NEDGridCoverageFactoryImpl handle
+     * interpolation internally, so they are copied with new interpolators. Any other coverage is
+     * used as is.
+     */
+    private static Coverage interpolate(Coverage gridCov) {
+        if (gridCov instanceof GridCoverage2D) {
+            return Interpolator2D.create((GridCoverage2D) gridCov, new InterpolationBilinear());
+        } else if (gridCov instanceof UnifiedGridCoverage && ((UnifiedGridCoverage) gridCov).isGridded()) {
+            return ((UnifiedGridCoverage) gridCov).withNewInterpolators();
+        }
+        return gridCov;
+    }
+
+    /** Group the edges into square tiles by the location of their start vertex. */
+    private static List<List<StreetWithElevationEdge>> groupByTile(List<StreetWithElevationEdge> edges) {
+        Map<Long, List<StreetWithElevationEdge>> edgesForTile = new TreeMap<Long, List<StreetWithElevationEdge>>();
+        for (StreetWithElevationEdge edge : edges) {
+            Vertex v = edge.getFromVertex();
+            long tileX = (long) Math.floor(v.getX() / TILE_SIZE_DEGREES);
+            long tileY = (long) Math.floor(v.getY() / TILE_SIZE_DEGREES);
+            Long key = (tileY << 32) + tileX;
+            List<StreetWithElevationEdge> tile = edgesForTile.get(key);
+            if (tile == null) {
+                tile = new ArrayList<StreetWithElevationEdge>();
+                edgesForTile.put(key, tile);
+            }
+            tile.add(edge);
+        }
+        return new ArrayList<List<StreetWithElevationEdge>>(edgesForTile.values());
+    }
+
     class ElevationRepairState {
         /* This uses an intuitionist approach to elevation inspection */
         public StreetEdge backEdge;
@@ -324,10 +400,12 @@ public class ElevationGraphBuilderImpl implements GraphBuilder {
     /**
      * Processes a single street edge, creating and assigning the elevation profile.
      * 
+     * @param coverage the interpolated elevation coverage of the calling thread
      * @param ee the street edge
-     * @param graph the graph (used only for error handling)
+     * @param annotations receives any annotations, to be added to the graph later
      */
-    private void processEdge(Graph graph, StreetWithElevationEdge ee) {
+    private void processEdge(Coverage coverage, StreetWithElevationEdge ee,
+            List<GraphBuilderAnnotation> annotations) {
         if (ee.getElevationProfile() != null) {
             return; /* already set up */
         }
@@ -344,7 +422,7 @@ public class ElevationGraphBuilderImpl implements GraphBuilder {
         }
 
         // initial sample (x = 0)
-        coordList.add(new Coordinate(0, getElevation(coords[0])));
+        coordList.add(new Coordinate(0, getElevation(coverage, coords[0])));
 
         // loop for edge-internal samples
         for (double x = distanceBetweenSamplesM; x < edgeLenM; x += distanceBetweenSamplesM) {
@@ -354,11 +432,11 @@ public class ElevationGraphBuilderImpl implements GraphBuilder {
             }
 
             Coordinate internal = getPointAlongEdge(coords, edgeLenM, x / edgeLenM);
-            coordList.add(new Coordinate(x, getElevation(internal)));
+            coordList.add(new Coordinate(x, getElevation(coverage, internal)));
         }
 
         // final sample (x = edge length)
-        coordList.add(new Coordinate(edgeLenM, getElevation(coords[coords.length - 1])));
+        coordList.add(new Coordinate(edgeLenM, getElevation(coverage, coords[coords.length - 1])));
 
         // construct the PCS
         Coordinate coordArr[] = new Coordinate[coordList.size()];
@@ -366,7 +444,9 @@ public class ElevationGraphBuilderImpl implements GraphBuilder {
                 coordList.toArray(coordArr));
 
         if(ee.setElevationProfile(elevPCS, false)) {
-            log.trace(graph.addBuilderAnnotation(new ElevationFlattened(ee)));
+            GraphBuilderAnnotation annotation = new ElevationFlattened(ee);
+            annotations.add(annotation);
+            log.trace(annotation.getMessage());
         }
     }
 
@@ -418,21 +498,23 @@ public class ElevationGraphBuilderImpl implements GraphBuilder {
     /**
      * Method for retrieving the elevation at a given Coordinate.
      * 
+     * @param coverage the coverage to sample
      * @param c the coordinate (NAD83)
      * @return elevation in meters
      */
-    private double getElevation(Coordinate c) {
-        return getElevation(c.x, c.y);
+    private double getElevation(Coverage coverage, Coordinate c) {
+        return getElevation(coverage, c.x, c.y);
     }
 
     /**
      * Method for retrieving the elevation at a given (x, y) pair.
      * 
+     * @param coverage the coverage to sample
      * @param x the query longitude (NAD83)
      * @param y the query latitude (NAD83)
      * @return elevation in meters
      */
-    private double getElevation(double x, double y) {
+    private double getElevation(Coverage coverage, double x, double y) {
         double values[] = new double[1];
         try {
             coverage.evaluate(new DirectPosition2D(x, y), values);
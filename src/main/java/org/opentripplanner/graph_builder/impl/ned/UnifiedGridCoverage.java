@@ -16,8 +16,11 @@ package org.opentripplanner.graph_builder.impl.ned;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.media.jai.InterpolationBilinear;
+
 import org.geotools.coverage.AbstractCoverage;
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.Interpolator2D;
 import org.geotools.geometry.GeneralEnvelope;
 import org.opengis.coverage.CannotEvaluateException;
 import org.opengis.coverage.Coverage;
@@ -105,4 +108,39 @@ public class UnifiedGridCoverage extends AbstractCoverage {
         regions.add(regionCoverage);
     }
 
+    /** @return true if all regions are grid coverages, so that {@link #withNewInterpolators()} can copy them. */
+    public boolean isGridded() {
+        for (Coverage region : regions) {
+            if (!(region instanceof GridCoverage2D)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Make a copy of this coverage in which each region has its own bilinear interpolator, so that
+     * several threads can sample elevations at the same time. The rasters and vertical datums
+     * themselves are shared.
+     * @throws IllegalStateException if a region is not a grid coverage (see {@link #isGridded()}).
+     */
+    public UnifiedGridCoverage withNewInterpolators() {
+        UnifiedGridCoverage copy = null;
+        for (Coverage region : regions) {
+            if (!(region instanceof GridCoverage2D)) {
+                throw new IllegalStateException("Cannot copy the interpolator of a "
+                        + region.getClass().getSimpleName() + " region.");
+            }
+            GridCoverage2D source = (GridCoverage2D) region;
+            if (source instanceof Interpolator2D && source.getSources().get(0) instanceof GridCoverage2D) {
+                source = (GridCoverage2D) source.getSources().get(0);
+            }
+            GridCoverage2D interpolated = Interpolator2D.create(source, new InterpolationBilinear());
+            if (copy == null) {
+                copy = new UnifiedGridCoverage(getName(), interpolated, datums);
+            } else {
+                copy.add(interpolated);
+            }
+        }
+        return copy;
+    }
+
 }
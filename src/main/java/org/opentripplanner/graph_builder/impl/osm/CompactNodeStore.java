@@ -0,0 +1,187 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.graph_builder.impl.osm;
+
+import gnu.trove.iterator.TLongIntIterator;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.opentripplanner.openstreetmap.model.OSMNode;
+
+/**
+ * A memory-compact replacement for the map of OSM nodes held by {@link OSMDatabase}. Instead of
+ * one OSMNode object (plus boxed key, hash entry and tag map) per node, each node occupies a slot
+ * in a few primitive arrays:
+ * <ul>
+ * <li>a primitive hash index from OSM ID to slot number,</li>
+ * <li>latitude and longitude as fixed-point ints in units of 1e-7 degrees, which is the precision
+ * OSM itself stores coordinates at,</li>
+ * <li>tags as pairs of codes into a dictionary of strings shared by all nodes, stored
+ * contiguously for all slots with one offset per slot.</li>
+ * </ul>
+ * 
+ * OSMNode objects are materialized on each call to {@link #get}, so callers must not rely on
+ * object identity (OSMNode equality is defined on the ID) and changes made to a returned node are
+ * not stored. Nodes cannot be removed. Putting a node with an existing ID replaces it, leaving the
+ * old slot unused.
+ */
+public class CompactNodeStore extends AbstractMap<Long, OSMNode> {
+
+    private static final double FIXED_FACTOR = 1e7;
+
+    private static final int NO_SLOT = -1;
+
+    private final TLongIntMap slotForId = new TLongIntHashMap(1000, 0.5f, 0, NO_SLOT);
+
+    private int[] fixedLat = new int[1024];
+
+    private int[] fixedLon = new int[1024];
+
+    /** Slot i has its tags in tagCodes from tagStart[i] (inclusive) to tagStart[i + 1]. */
+    private int[] tagStart = new int[1025];
+
+    /** Alternating key and value codes into the string dictionary. */
+    private final TIntArrayList tagCodes = new TIntArrayList();
+
+    private final TObjectIntMap<String> codeForString = new TObjectIntHashMap<String>(1000, 0.5f,
+            NO_SLOT);
+
+    private final List<String> strings = new ArrayList<String>();
+
+    private int nSlots = 0;
+
+    @Override
+    public OSMNode put(Long id, OSMNode node) {
+        OSMNode previous = get(id);
+        if (nSlots == fixedLat.length) {
+            int newLength = nSlots * 2;
+            fixedLat = Arrays.copyOf(fixedLat, newLength);
+            fixedLon = Arrays.copyOf(fixedLon, newLength);
+            tagStart = Arrays.copyOf(tagStart, newLength + 1);
+        }
+        int slot = nSlots++;
+        fixedLat[slot] = toFixed(node.lat);
+        fixedLon[slot] = toFixed(node.lon);
+        Map<String, String> tags = node.getTags();
+        if (tags != null) {
+            for (Map.Entry<String, String> tag : tags.entrySet()) {
+                tagCodes.add(encode(tag.getKey()));
+                tagCodes.add(encode(tag.getValue()));
+            }
+        }
+        tagStart[slot + 1] = tagCodes.size();
+        slotForId.put(id, slot);
+        return previous;
+    }
+
+    @Override
+    public OSMNode get(Object id) {
+        if (!(id instanceof Long)) {
+            return null;
+        }
+        long nodeId = (Long) id;
+        int slot = slotForId.get(nodeId);
+        if (slot == NO_SLOT) {
+            return null;
+        }
+        return materialize(nodeId, slot);
+    }
+
+    @Override
+    public boolean containsKey(Object id) {
+        return id instanceof Long && slotForId.containsKey((Long) id);
+    }
+
+    @Override
+    public int size() {
+        return slotForId.size();
+    }
+
+    /** @return the number of distinct tag keys and values stored. */
+    public int getDictionarySize() {
+        return strings.size();
+    }
+
+    @Override
+    public Set<Map.Entry<Long, OSMNode>> entrySet() {
+        return new AbstractSet<Map.Entry<Long, OSMNode>>() {
+            @Override
+            public Iterator<Map.Entry<Long, OSMNode>> iterator() {
+                final TLongIntIterator it = slotForId.iterator();
+                return new Iterator<Map.Entry<Long, OSMNode>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<Long, OSMNode> next() {
+                        it.advance();
+                        return new SimpleImmutableEntry<Long, OSMNode>(it.key(), materialize(
+                                it.key(), it.value()));
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return slotForId.size();
+            }
+        };
+    }
+
+    private OSMNode materialize(long id, int slot) {
+        OSMNode node = new OSMNode();
+        node.setId(id);
+        node.lat = fixedLat[slot] / FIXED_FACTOR;
+        node.lon = fixedLon[slot] / FIXED_FACTOR;
+        for (int i = tagStart[slot]; i < tagStart[slot + 1]; i += 2) {
+            node.addTag(strings.get(tagCodes.get(i)), strings.get(tagCodes.get(i + 1)));
+        }
+        return node;
+    }
+
+    private int encode(String s) {
+        int code = codeForString.get(s);
+        if (code == NO_SLOT) {
+            code = strings.size();
+            strings.add(s);
+            codeForString.put(s, code);
+        }
+        return code;
+    }
+
+    private static int toFixed(double degrees) {
+        return (int) Math.round(degrees * FIXED_FACTOR);
+    }
+
+}
@@ -44,6 +44,7 @@ import org.opentripplanner.openstreetmap.model.OSMTag;
 import org.opentripplanner.openstreetmap.model.OSMWay;
 import org.opentripplanner.openstreetmap.model.OSMWithTags;
 import org.opentripplanner.openstreetmap.services.OpenStreetMapContentHandler;
+import org.opentripplanner.osm.NodeTracker;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.core.TraverseModeSet;
 import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
@@ -65,7 +66,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
     private static Logger LOG = LoggerFactory.getLogger(OSMDatabase.class);
 
     /* Map of all nodes used in ways/areas keyed by their OSM ID */
-    private Map<Long, OSMNode> nodesById = new HashMap<Long, OSMNode>();
+    private Map<Long, OSMNode> nodesById;
 
     /* Map of all bike-rental nodes, keyed by their OSM ID */
     private Map<Long, OSMNode> bikeRentalNodes = new HashMap<Long, OSMNode>();
@@ -103,10 +104,10 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
     private Set<Long> areaWayIds = new HashSet<Long>();
 
     /* Set of all node IDs of kept ways. Needed to mark which nodes to keep in stage 3. */
-    private Set<Long> waysNodeIds = new HashSet<Long>();
+    private NodeTracker waysNodeIds = new NodeTracker();
 
     /* Set of all node IDs of kept areas. Needed to mark which nodes to keep in stage 3. */
-    private Set<Long> areaNodeIds = new HashSet<Long>();
+    private NodeTracker areaNodeIds = new NodeTracker();
 
     /* Track which vertical level each OSM way belongs to, for building elevators etc. */
     private Map<OSMWithTags, OSMLevel> wayLevels = new HashMap<OSMWithTags, OSMLevel>();
@@ -139,6 +140,23 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
      */
     public boolean noZeroLevels = true;
 
+    public OSMDatabase() {
+        this(false);
+    }
+
+    /**
+     * @param compactNodes if true, store nodes in a {@link CompactNodeStore} rather than as
+     *        individual objects. This uses much less memory for large extracts, at the cost of
+     *        creating a new OSMNode on each lookup.
+     */
+    public OSMDatabase(boolean compactNodes) {
+        if (compactNodes) {
+            nodesById = new CompactNodeStore();
+        } else {
+            nodesById = new HashMap<Long, OSMNode>();
+        }
+    }
+
     public OSMNode getNode(Long nodeId) {
         return nodesById.get(nodeId);
     }
@@ -604,13 +622,15 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
         }
     }
 
-    private void markNodesForKeeping(Collection<OSMWay> osmWays, Set<Long> nodeSet) {
+    private void markNodesForKeeping(Collection<OSMWay> osmWays, NodeTracker nodeSet) {
         for (Iterator<OSMWay> it = osmWays.iterator(); it.hasNext();) {
             OSMWay way = it.next();
             // Since the way is kept, update nodes-with-neighbors
             List<Long> nodes = way.getNodeRefs();
             if (nodes.size() > 1) {
-                nodeSet.addAll(nodes);
+                for (Long node : nodes) {
+                    nodeSet.add(node);
+                }
             }
         }
     }
@@ -36,7 +36,7 @@ import org.opentripplanner.graph_builder.annotation.ParkAndRideUnlinked;
 import org.opentripplanner.graph_builder.annotation.StreetCarSpeedZero;
 import org.opentripplanner.graph_builder.impl.extra_elevation_data.ElevationPoint;
 import org.opentripplanner.graph_builder.services.DefaultStreetEdgeFactory;
-import org.opentripplanner.graph_builder.services.GraphBuilder;
+import org.opentripplanner.graph_builder.services.IndependentGraphBuilder;
 import org.opentripplanner.graph_builder.services.StreetEdgeFactory;
 import org.opentripplanner.graph_builder.services.osm.CustomNamer;
 import org.opentripplanner.openstreetmap.model.OSMLevel;
@@ -90,7 +90,7 @@ import com.vividsolutions.jts.geom.LineString;
 /**
  * Builds a street graph from OpenStreetMap data.
  */
-public class OpenStreetMapGraphBuilderImpl implements GraphBuilder {
+public class OpenStreetMapGraphBuilderImpl implements IndependentGraphBuilder {
 
     private static Logger LOG = LoggerFactory.getLogger(OpenStreetMapGraphBuilderImpl.class);
 
@@ -145,6 +145,15 @@ public class OpenStreetMapGraphBuilderImpl implements GraphBuilder {
      */
     public boolean staticBikeParkAndRide = false;
 
+    /**
+     * Whether the OSM nodes should be held in a compact primitive store while building, which
+     * greatly reduces memory use for large extracts.
+     */
+    public boolean compactNodeStore = false;
+
+    /** The number of threads used to compute the visibility graphs of walkable areas. */
+    public int threads = 1;
+
     public List<String> provides() {
         return Arrays.asList("streets", "turns");
     }
@@ -188,7 +197,7 @@ public class OpenStreetMapGraphBuilderImpl implements GraphBuilder {
 
     @Override
     public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
-        OSMDatabase osmdb = new OSMDatabase();
+        OSMDatabase osmdb = new OSMDatabase(compactNodeStore);
         Handler handler = new Handler(graph, osmdb);
         for (OpenStreetMapProvider provider : _providers) {
             LOG.info("Gathering OSM from provider: " + provider);
@@ -414,9 +423,8 @@ public class OpenStreetMapGraphBuilderImpl implements GraphBuilder {
             List<AreaGroup> areaGroups = groupAreas(osmdb.getWalkableAreas());
             WalkableAreaBuilder walkableAreaBuilder = new WalkableAreaBuilder(graph, osmdb,
                     wayPropertySet, edgeFactory, this);
-            for (AreaGroup group : areaGroups) {
-                walkableAreaBuilder.build(group);
-            }
+            walkableAreaBuilder.threads = threads;
+            walkableAreaBuilder.build(areaGroups);
             
             // running a request caches the timezone; we need to clear it now so that when agencies are loaded
             // the graph time zone is set to the agency time zone.
@@ -13,14 +13,20 @@
 
 package org.opentripplanner.graph_builder.impl.osm;
 
+import gnu.trove.list.array.TIntArrayList;
+
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.opentripplanner.common.ParallelTasks;
 import org.opentripplanner.common.geometry.DistanceLibrary;
 import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
@@ -53,6 +59,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineString;
@@ -61,6 +68,8 @@ import com.vividsolutions.jts.geom.MultiLineString;
 import com.vividsolutions.jts.geom.MultiPolygon;
 import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
 
 /**
  * Theoretically, it is not correct to build the visibility graph on the joined polygon of areas
@@ -82,8 +91,17 @@ public class WalkableAreaBuilder {
 
     private final int MAX_AREA_NODES = 500;
 
+    /**
+     * Each visibility point is only linked to this many of the points it can see, the nearest
+     * ones, so the number of edges in an area grows linearly with its number of points.
+     */
+    private static final int MAX_VISIBLE_NEIGHBORS = 20;
+
     private static final double VISIBILITY_EPSILON = 0.000000001;
 
+    /** The number of threads used to compute the visibility graphs of area groups. */
+    public int threads = 1;
+
     private Graph graph;
 
     private OSMDatabase osmdb;
@@ -108,92 +126,273 @@ public class WalkableAreaBuilder {
         this.__handler = __handler;
     }
 
+    /**
+     * Build the visibility graphs of all the given area groups. The visibility computations, which
+     * do not touch the graph, run on {@link #threads} threads; the edges are then created one group
+     * at a time in list order, so the resulting graph does not depend on the number of threads.
+     */
+    public void build(List<AreaGroup> groups) {
+        final List<AreaGroup> groupList = new ArrayList<AreaGroup>(groups);
+        final List<List<RingVisibility>> visibility = new ArrayList<List<RingVisibility>>(
+                Collections.<List<RingVisibility>> nCopies(groupList.size(), null));
+        if (threads > 1 && groupList.size() > 1) {
+            final AtomicInteger nextGroup = new AtomicInteger();
+            ParallelTasks.runOnThreads(Math.min(threads, groupList.size()), new Runnable() {
+                @Override
+                public void run() {
+                    int g;
+                    while ((g = nextGroup.getAndIncrement()) < groupList.size()) {
+                        visibility.set(g, computeVisibility(groupList.get(g)));
+                    }
+                }
+            }, "computing area visibility");
+        }
+        for (int g = 0; g < groupList.size(); g++) {
+            List<RingVisibility> groupVisibility = visibility.get(g);
+            if (groupVisibility == null) {
+                groupVisibility = computeVisibility(groupList.get(g));
+            }
+            build(groupList.get(g), groupVisibility);
+            visibility.set(g, null);
+        }
+    }
+
     public void build(AreaGroup group) {
-        Set<OSMNode> startingNodes = new HashSet<OSMNode>();
-        Set<Vertex> startingVertices = new HashSet<Vertex>();
-        Set<Edge> edges = new HashSet<Edge>();
+        build(group, computeVisibility(group));
+    }
+
+    /**
+     * The part of building one outermost ring of an area group that only depends on geometry: which
+     * areas lie inside the ring, which nodes are visibility points, and which pairs of them can
+     * see each other. Computing it does not modify the graph, so it can be done concurrently.
+     */
+    private static class RingVisibility {
+        final Ring ring;
+        final List<Area> containedAreas = new ArrayList<Area>();
+        final Set<OSMNode> startingNodes = new HashSet<OSMNode>();
+        final List<OSMNode> visibilityNodes = new ArrayList<OSMNode>();
+        /**
+         * Pairs of indexes into visibilityNodes that see each other, flattened; null if the ring
+         * is too complicated or invalid, in which case only its boundary edges are created.
+         */
+        TIntArrayList visiblePairs;
+
+        RingVisibility(Ring ring) {
+            this.ring = ring;
+        }
+    }
 
-        // create polygon and accumulate nodes for area
+    private List<RingVisibility> computeVisibility(AreaGroup group) {
+        List<RingVisibility> result = new ArrayList<RingVisibility>(group.outermostRings.size());
         for (Ring ring : group.outermostRings) {
+            result.add(computeVisibility(group, ring));
+        }
+        return result;
+    }
 
-            AreaEdgeList edgeList = new AreaEdgeList();
-            // the points corresponding to concave or hole vertices
-            // or those linked to ways
-            ArrayList<VLPoint> visibilityPoints = new ArrayList<VLPoint>();
-            ArrayList<OSMNode> visibilityNodes = new ArrayList<OSMNode>();
-            HashSet<P2<OSMNode>> alreadyAddedEdges = new HashSet<P2<OSMNode>>();
-            // we need to accumulate visibility points from all contained areas
-            // inside this ring, but only for shared nodes; we don't care about
-            // convexity, which we'll handle for the grouped area only.
+    private RingVisibility computeVisibility(AreaGroup group, Ring ring) {
+        RingVisibility result = new RingVisibility(ring);
+        // the points corresponding to concave or hole vertices
+        // or those linked to ways
+        ArrayList<VLPoint> visibilityPoints = new ArrayList<VLPoint>();
+        Set<VLPoint> visibilityPointSet = new HashSet<VLPoint>();
+        List<OSMNode> visibilityNodes = result.visibilityNodes;
+        // the ring segments that get an edge of their own, which the visibility graph need not repeat
+        Set<P2<OSMNode>> ringSegments = new HashSet<P2<OSMNode>>();
+        // we need to accumulate visibility points from all contained areas
+        // inside this ring, but only for shared nodes; we don't care about
+        // convexity, which we'll handle for the grouped area only.
+        Polygon ringPolygon = ring.toJtsPolygon();
+        for (Area area : group.areas) {
+            if (!ringPolygon.contains(area.toJTSMultiPolygon())) {
+                continue;
+            }
+            result.containedAreas.add(area);
+
+            // Add stops from public transit relations into the area
+            Collection<OSMNode> nodes = osmdb.getStopsInArea(area.parent);
+            if (nodes != null) {
+                for (OSMNode node : nodes) {
+                    addtoVisibilityAndStartSets(result.startingNodes, visibilityPoints,
+                            visibilityPointSet, visibilityNodes, node);
+                }
+            }
 
-            // we also want to fill in the edges of this area anyway, because we can,
-            // and to avoid the numerical problems that they tend to cause
-            for (Area area : group.areas) {
-                if (!ring.toJtsPolygon().contains(area.toJTSMultiPolygon())) {
+            for (Ring outerRing : area.outermostRings) {
+                addRingSegments(outerRing, ringSegments);
+                for (OSMNode node : outerRing.nodes) {
+                    addtoVisibilityAndStartSets(result.startingNodes, visibilityPoints,
+                            visibilityPointSet, visibilityNodes, node);
+                }
+                for (Ring innerRing : outerRing.holes) {
+                    addRingSegments(innerRing, ringSegments);
+                    for (OSMNode node : innerRing.nodes) {
+                        addtoVisibilityAndStartSets(result.startingNodes, visibilityPoints,
+                                visibilityPointSet, visibilityNodes, node);
+                    }
+                }
+            }
+        }
+        Set<OSMNode> visibilityNodeSet = new HashSet<OSMNode>(visibilityNodes);
+        List<OSMNode> nodes = new ArrayList<OSMNode>();
+        List<VLPoint> vertices = new ArrayList<VLPoint>();
+        accumulateRingNodes(ring, nodes, vertices);
+        VLPolygon polygon = makeStandardizedVLPolygon(vertices, nodes, false);
+        accumulateVisibilityPoints(ring.nodes, polygon, visibilityPoints, visibilityNodes,
+                visibilityNodeSet, false);
+
+        ArrayList<VLPolygon> polygons = new ArrayList<VLPolygon>();
+        polygons.add(polygon);
+        // holes
+        for (Ring innerRing : ring.holes) {
+            ArrayList<OSMNode> holeNodes = new ArrayList<OSMNode>();
+            vertices = new ArrayList<VLPoint>();
+            accumulateRingNodes(innerRing, holeNodes, vertices);
+            VLPolygon hole = makeStandardizedVLPolygon(vertices, holeNodes, true);
+            accumulateVisibilityPoints(innerRing.nodes, hole, visibilityPoints, visibilityNodes,
+                    visibilityNodeSet, true);
+            nodes.addAll(holeNodes);
+            polygons.add(hole);
+        }
+
+        Environment areaEnv = new Environment(polygons);
+        // FIXME: temporary hard limit on size of
+        // areas to prevent way explosion
+        if (visibilityPoints.size() > MAX_AREA_NODES) {
+            LOG.warn("Area " + group.getSomeOSMObject() + " is too complicated ("
+                    + visibilityPoints.size() + " > " + MAX_AREA_NODES);
+            return result;
+        }
+
+        if (!areaEnv.is_valid(VISIBILITY_EPSILON)) {
+            LOG.warn("Area " + group.getSomeOSMObject() + " is not epsilon-valid (epsilon = "
+                    + VISIBILITY_EPSILON + ")");
+            return result;
+        }
+
+        // Visibility is symmetric, so each pair is only tested from the visibility polygon of its
+        // first node. Nodes outside the envelope of that polygon are rejected before any
+        // geometry is built, and the remaining sight lines are tested against a prepared polygon.
+        GeometryFactory geometryFactory = GeometryUtils.getGeometryFactory();
+        TIntArrayList visiblePairs = new TIntArrayList();
+        for (int i = 0; i < visibilityNodes.size(); ++i) {
+            OSMNode nodeI = visibilityNodes.get(i);
+            VisibilityPolygon visibilityPolygon = new VisibilityPolygon(
+                    visibilityPoints.get(i), areaEnv, VISIBILITY_EPSILON);
+            Polygon poly = toJTSPolygon(visibilityPolygon);
+            Envelope envelope = poly.getEnvelopeInternal();
+            PreparedGeometry preparedPoly = PreparedGeometryFactory.prepare(poly);
+            Coordinate coordI = new Coordinate(nodeI.lon, nodeI.lat);
+            for (int j = i + 1; j < visibilityNodes.size(); ++j) {
+                OSMNode nodeJ = visibilityNodes.get(j);
+                if (!envelope.contains(nodeJ.lon, nodeJ.lat))
+                    continue;
+                if (ringSegments.contains(new P2<OSMNode>(nodeI, nodeJ))
+                        || ringSegments.contains(new P2<OSMNode>(nodeJ, nodeI)))
                     continue;
+                LineString line = geometryFactory.createLineString(new Coordinate[] { coordI,
+                        new Coordinate(nodeJ.lon, nodeJ.lat) });
+                if (preparedPoly.contains(line)) {
+                    visiblePairs.add(i);
+                    visiblePairs.add(j);
                 }
+            }
+        }
+        result.visiblePairs = nearestPairs(visibilityNodes, visiblePairs, result.startingNodes);
+        return result;
+    }
 
-                // Add stops from public transit relations into the area
-                Collection<OSMNode> nodes = osmdb.getStopsInArea(area.parent);
-                if (nodes != null) {
-                    for (OSMNode node : nodes) {
-                        addtoVisibilityAndStartSets(startingNodes, visibilityPoints,
-                                visibilityNodes, node);
-                    }
+    /**
+     * Bound the number of edges of an area. A pair that can see each other is only kept if one
+     * of its nodes is among the {@link #MAX_VISIBLE_NEIGHBORS} nearest visible nodes of the other,
+     * or if both are starting nodes. Pairs of starting nodes are always kept, because the edges
+     * that survive pruning are the ones on shortest paths between starting nodes.
+     */
+    private TIntArrayList nearestPairs(List<OSMNode> nodes, TIntArrayList pairs,
+            Set<OSMNode> startingNodes) {
+        int nPairs = pairs.size() / 2;
+        final double[] lengths = new double[nPairs];
+        TIntArrayList[] incidentPairs = new TIntArrayList[nodes.size()];
+        boolean bounded = true;
+        for (int p = 0; p < nPairs; p++) {
+            OSMNode a = nodes.get(pairs.get(2 * p));
+            OSMNode b = nodes.get(pairs.get(2 * p + 1));
+            lengths[p] = distanceLibrary.fastDistance(a.lat, a.lon, b.lat, b.lon);
+            for (int end = 0; end < 2; end++) {
+                int node = pairs.get(2 * p + end);
+                if (incidentPairs[node] == null)
+                    incidentPairs[node] = new TIntArrayList();
+                incidentPairs[node].add(p);
+                if (incidentPairs[node].size() > MAX_VISIBLE_NEIGHBORS)
+                    bounded = false;
+            }
+        }
+        if (bounded)
+            return pairs;
+
+        boolean[] keep = new boolean[nPairs];
+        for (TIntArrayList incident : incidentPairs) {
+            if (incident == null)
+                continue;
+            Integer[] nearest = new Integer[incident.size()];
+            for (int k = 0; k < nearest.length; k++)
+                nearest[k] = incident.get(k);
+            Arrays.sort(nearest, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer p1, Integer p2) {
+                    return Double.compare(lengths[p1], lengths[p2]);
                 }
+            });
+            for (int k = 0; k < nearest.length && k < MAX_VISIBLE_NEIGHBORS; k++)
+                keep[nearest[k]] = true;
+        }
+        TIntArrayList kept = new TIntArrayList();
+        for (int p = 0; p < nPairs; p++) {
+            int i = pairs.get(2 * p);
+            int j = pairs.get(2 * p + 1);
+            if (keep[p] || (startingNodes.contains(nodes.get(i))
+                    && startingNodes.contains(nodes.get(j)))) {
+                kept.add(i);
+                kept.add(j);
+            }
+        }
+        return kept;
+    }
 
+    private void addRingSegments(Ring ring, Set<P2<OSMNode>> ringSegments) {
+        for (int i = 0; i < ring.nodes.size(); ++i) {
+            ringSegments.add(new P2<OSMNode>(ring.nodes.get(i),
+                    ring.nodes.get((i + 1) % ring.nodes.size())));
+        }
+    }
+
+    /** Create the edges of an area group from its precomputed visibility, and prune them. */
+    private void build(AreaGroup group, List<RingVisibility> visibility) {
+        Set<Vertex> startingVertices = new HashSet<Vertex>();
+        Set<Edge> edges = new HashSet<Edge>();
+
+        for (RingVisibility ringVisibility : visibility) {
+            Ring ring = ringVisibility.ring;
+            AreaEdgeList edgeList = new AreaEdgeList();
+            HashSet<P2<OSMNode>> alreadyAddedEdges = new HashSet<P2<OSMNode>>();
+
+            // we also want to fill in the edges of this area anyway, because we can,
+            // and to avoid the numerical problems that they tend to cause
+            for (Area area : ringVisibility.containedAreas) {
                 for (Ring outerRing : area.outermostRings) {
                     for (int i = 0; i < outerRing.nodes.size(); ++i) {
-                        OSMNode node = outerRing.nodes.get(i);
                         createEdgesForRingSegment(edges, edgeList, area, outerRing, i,
                                 alreadyAddedEdges);
-                        addtoVisibilityAndStartSets(startingNodes, visibilityPoints,
-                                visibilityNodes, node);
                     }
                     for (Ring innerRing : outerRing.holes) {
                         for (int j = 0; j < innerRing.nodes.size(); ++j) {
-                            OSMNode node = innerRing.nodes.get(j);
                             createEdgesForRingSegment(edges, edgeList, area, innerRing, j,
                                     alreadyAddedEdges);
-                            addtoVisibilityAndStartSets(startingNodes, visibilityPoints,
-                                    visibilityNodes, node);
                         }
                     }
                 }
             }
-            List<OSMNode> nodes = new ArrayList<OSMNode>();
-            List<VLPoint> vertices = new ArrayList<VLPoint>();
-            accumulateRingNodes(ring, nodes, vertices);
-            VLPolygon polygon = makeStandardizedVLPolygon(vertices, nodes, false);
-            accumulateVisibilityPoints(ring.nodes, polygon, visibilityPoints, visibilityNodes,
-                    false);
-
-            ArrayList<VLPolygon> polygons = new ArrayList<VLPolygon>();
-            polygons.add(polygon);
-            // holes
-            for (Ring innerRing : ring.holes) {
-                ArrayList<OSMNode> holeNodes = new ArrayList<OSMNode>();
-                vertices = new ArrayList<VLPoint>();
-                accumulateRingNodes(innerRing, holeNodes, vertices);
-                VLPolygon hole = makeStandardizedVLPolygon(vertices, holeNodes, true);
-                accumulateVisibilityPoints(innerRing.nodes, hole, visibilityPoints,
-                        visibilityNodes, true);
-                nodes.addAll(holeNodes);
-                polygons.add(hole);
-            }
-
-            Environment areaEnv = new Environment(polygons);
-            // FIXME: temporary hard limit on size of
-            // areas to prevent way explosion
-            if (visibilityPoints.size() > MAX_AREA_NODES) {
-                LOG.warn("Area " + group.getSomeOSMObject() + " is too complicated ("
-                        + visibilityPoints.size() + " > " + MAX_AREA_NODES);
-                continue;
-            }
-
-            if (!areaEnv.is_valid(VISIBILITY_EPSILON)) {
-                LOG.warn("Area " + group.getSomeOSMObject() + " is not epsilon-valid (epsilon = "
-                        + VISIBILITY_EPSILON + ")");
+            if (ringVisibility.visiblePairs == null) {
                 continue;
             }
 
@@ -202,38 +401,26 @@ public class WalkableAreaBuilder {
             createNamedAreas(edgeList, ring, group.areas);
 
             OSMWithTags areaEntity = group.getSomeOSMObject();
-
-            for (int i = 0; i < visibilityNodes.size(); ++i) {
-                OSMNode nodeI = visibilityNodes.get(i);
-                VisibilityPolygon visibilityPolygon = new VisibilityPolygon(
-                        visibilityPoints.get(i), areaEnv, VISIBILITY_EPSILON);
-                Polygon poly = toJTSPolygon(visibilityPolygon);
-                for (int j = 0; j < visibilityNodes.size(); ++j) {
-                    OSMNode nodeJ = visibilityNodes.get(j);
-                    P2<OSMNode> nodePair = new P2<OSMNode>(nodeI, nodeJ);
-                    if (alreadyAddedEdges.contains(nodePair))
-                        continue;
-
-                    IntersectionVertex startEndpoint = __handler.getVertexForOsmNode(nodeI,
-                            areaEntity);
-                    IntersectionVertex endEndpoint = __handler.getVertexForOsmNode(nodeJ,
-                            areaEntity);
-
-                    Coordinate[] coordinates = new Coordinate[] { startEndpoint.getCoordinate(),
-                            endEndpoint.getCoordinate() };
-                    GeometryFactory geometryFactory = GeometryUtils.getGeometryFactory();
-                    LineString line = geometryFactory.createLineString(coordinates);
-                    if (poly.contains(line)) {
-
-                        createSegments(nodeI, nodeJ, startEndpoint, endEndpoint, group.areas,
-                                edgeList, edges);
-                        if (startingNodes.contains(nodeI)) {
-                            startingVertices.add(startEndpoint);
-                        }
-                        if (startingNodes.contains(nodeJ)) {
-                            startingVertices.add(endEndpoint);
-                        }
-                    }
+            List<OSMNode> visibilityNodes = ringVisibility.visibilityNodes;
+            // every visibility point gets a vertex, even one that sees no other point
+            for (OSMNode node : visibilityNodes) {
+                __handler.getVertexForOsmNode(node, areaEntity);
+            }
+            TIntArrayList visiblePairs = ringVisibility.visiblePairs;
+            for (int p = 0; p < visiblePairs.size(); p += 2) {
+                OSMNode nodeI = visibilityNodes.get(visiblePairs.get(p));
+                OSMNode nodeJ = visibilityNodes.get(visiblePairs.get(p + 1));
+                IntersectionVertex startEndpoint = __handler.getVertexForOsmNode(nodeI,
+                        areaEntity);
+                IntersectionVertex endEndpoint = __handler.getVertexForOsmNode(nodeJ,
+                        areaEntity);
+                createSegments(nodeI, nodeJ, startEndpoint, endEndpoint, group.areas,
+                        edgeList, edges);
+                if (ringVisibility.startingNodes.contains(nodeI)) {
+                    startingVertices.add(startEndpoint);
+                }
+                if (ringVisibility.startingNodes.contains(nodeJ)) {
+                    startingVertices.add(endEndpoint);
                 }
             }
         }
@@ -300,12 +487,13 @@ public class WalkableAreaBuilder {
     }
 
     private void addtoVisibilityAndStartSets(Set<OSMNode> startingNodes,
-            ArrayList<VLPoint> visibilityPoints, ArrayList<OSMNode> visibilityNodes, OSMNode node) {
+            List<VLPoint> visibilityPoints, Set<VLPoint> visibilityPointSet,
+            List<OSMNode> visibilityNodes, OSMNode node) {
         if (osmdb.isNodeBelongsToWay(node.getId())
                 || osmdb.isNodeSharedByMultipleAreas(node.getId()) || node.isStop()) {
             startingNodes.add(node);
             VLPoint point = new VLPoint(node.lon, node.lat);
-            if (!visibilityPoints.contains(point)) {
+            if (visibilityPointSet.add(point)) {
                 visibilityPoints.add(point);
                 visibilityNodes.add(node);
             }
@@ -520,7 +708,8 @@ public class WalkableAreaBuilder {
     }
 
     private void accumulateVisibilityPoints(List<OSMNode> nodes, VLPolygon polygon,
-            List<VLPoint> visibilityPoints, List<OSMNode> visibilityNodes, boolean hole) {
+            List<VLPoint> visibilityPoints, List<OSMNode> visibilityNodes,
+            Set<OSMNode> visibilityNodeSet, boolean hole) {
         int n = polygon.vertices.size();
         for (int i = 0; i < n; ++i) {
             OSMNode curNode = nodes.get(i);
@@ -533,7 +722,7 @@ public class WalkableAreaBuilder {
                 // if the point is concave. Note that the sign is reversed because
                 // visilibity is either ccw or latitude-major
 
-                if (!visibilityNodes.contains(curNode)) {
+                if (visibilityNodeSet.add(curNode)) {
                     visibilityPoints.add(cur);
                     visibilityNodes.add(curNode);
                 }
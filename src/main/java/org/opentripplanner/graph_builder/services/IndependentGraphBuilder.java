@@ -0,0 +1,26 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.services;
+
+/**
+ * A {@link GraphBuilder} with no prerequisites that only adds to the graph it is given and never
+ * reads anything other builders have put there. Such a builder can be run against an empty staged
+ * graph concurrently with other builders, and its output merged into the main graph afterward.
+ * 
+ * The provides/prerequisites metadata alone is not enough to decide this, since some builders read
+ * data they do not declare as a prerequisite.
+ */
+public interface IndependentGraphBuilder extends GraphBuilder {
+
+}
@@ -0,0 +1,356 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.onebusaway.gtfs.services.calendar.CalendarService;
+import org.opentripplanner.index.model.StopTimesInPattern;
+import org.opentripplanner.index.model.TripTimeShort;
+import org.opentripplanner.routing.core.ServiceDay;
+import org.opentripplanner.routing.edgetype.Timetable;
+import org.opentripplanner.routing.edgetype.TimetableResolver;
+import org.opentripplanner.routing.edgetype.TripPattern;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.trippattern.FrequencyEntry;
+import org.opentripplanner.routing.trippattern.TripTimes;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * The scheduled departures at each stop, sorted by time so that a departure board can find the next departures
+ * with a binary search instead of scanning every trip of every pattern serving the stop.
+ *
+ * The departures of a stop are partitioned by service code. On a given service day only the partitions of the
+ * services running that day are searched, and the cursors of all those partitions (for yesterday, today and
+ * tomorrow) are merged in time order. Realtime updates are applied at query time by resolving the updated
+ * timetable of each candidate departure in the given snapshot, so the index itself never changes after it is
+ * built.
+ *
+ * Frequency-based trips are expanded into individual departures.
+ */
+public class DepartureIndex {
+
+    /**
+     * How far before the requested time we look for scheduled departures when realtime data is available, so
+     * that delayed vehicles are still shown. Vehicles running early are not looked for past the last departure
+     * returned.
+     */
+    public static final int MAX_DELAY = 60 * 60;
+
+    private final Map<Stop, StopDepartures> departuresForStop = Maps.newHashMap();
+
+    private final Graph graph;
+
+    /** The service days around the date of the last query. Replaced as a whole when the date changes. */
+    private volatile ServiceDays serviceDays;
+
+    public DepartureIndex(Graph graph, Collection<TripPattern> patterns) {
+        this.graph = graph;
+        Map<Stop, List<Departure>> departures = Maps.newHashMap();
+        for (TripPattern pattern : patterns) {
+            Timetable table = pattern.scheduledTimetable;
+            Stop[] stops = pattern.stopPattern.stops;
+            for (int s = 0; s < stops.length; s++) {
+                List<Departure> list = departures.get(stops[s]);
+                if (list == null) {
+                    list = Lists.newArrayList();
+                    departures.put(stops[s], list);
+                }
+                for (int t = 0; t < table.tripTimes.size(); t++) {
+                    TripTimes tt = table.tripTimes.get(t);
+                    // Trips whose service ID is not in the calendar never run.
+                    if (tt.serviceCode < 0) continue;
+                    list.add(new Departure(tt.serviceCode, tt.getScheduledDepartureTime(s), pattern, s, t));
+                }
+                // Frequency entries are referred to by negative indexes.
+                for (int f = 0; f < table.frequencyEntries.size(); f++) {
+                    FrequencyEntry freq = table.frequencyEntries.get(f);
+                    if (freq.tripTimes.serviceCode < 0) continue;
+                    int offset = freq.tripTimes.getScheduledDepartureTime(s)
+                            - freq.tripTimes.getScheduledDepartureTime(0);
+                    for (int time = freq.startTime; time < freq.endTime; time += freq.headway) {
+                        list.add(new Departure(freq.tripTimes.serviceCode, time + offset, pattern, s, -1 - f));
+                    }
+                }
+            }
+        }
+        for (Map.Entry<Stop, List<Departure>> entry : departures.entrySet()) {
+            if (entry.getValue().isEmpty()) continue;
+            departuresForStop.put(entry.getKey(), new StopDepartures(entry.getValue()));
+        }
+    }
+
+    /** @return the number of departures indexed at the given stop, on all service days. */
+    public int size(Stop stop) {
+        StopDepartures departures = departuresForStop.get(stop);
+        return departures == null ? 0 : departures.times.length;
+    }
+
+    /**
+     * Find the next departures from the given stop, grouped by pattern. Within each pattern the departures are
+     * in order of (updated) departure time, and the patterns are in order of their first departure.
+     *
+     * @param startTime the time in seconds since the epoch after which departures are wanted.
+     * @param numberOfDepartures the maximum number of departures returned, for all patterns combined.
+     * @param snapshot the realtime updates to apply, or null to return only scheduled times.
+     */
+    public List<StopTimesInPattern> stopTimesForStop(Stop stop, long startTime, int numberOfDepartures,
+            TimetableResolver snapshot) {
+        StopDepartures departures = departuresForStop.get(stop);
+        if (departures == null || numberOfDepartures <= 0) {
+            return Collections.emptyList();
+        }
+        // Delayed vehicles can only be shown when there are updates.
+        int lookBehind = snapshot == null ? 0 : MAX_DELAY;
+        List<Cursor> cursors = Lists.newArrayList();
+        for (ServiceDay serviceDay : getServiceDays(startTime)) {
+            int time = serviceDay.secondsSinceMidnight(startTime) - lookBehind;
+            for (int p = 0; p < departures.serviceCodes.length; p++) {
+                if ( ! serviceDay.serviceRunning(departures.serviceCodes[p])) continue;
+                Cursor cursor = new Cursor(departures, p, serviceDay, time);
+                if (cursor.hasNext()) cursors.add(cursor);
+            }
+        }
+        // A max-heap of the best departures found so far, with the latest one on top.
+        PriorityQueue<Result> best = new PriorityQueue<Result>(numberOfDepartures, Result.LATEST_FIRST);
+        while (true) {
+            Cursor next = null;
+            for (Cursor cursor : cursors) {
+                if (cursor.hasNext() && (next == null || cursor.nextTime() < next.nextTime())) {
+                    next = cursor;
+                }
+            }
+            if (next == null) break;
+            // Departures are visited in scheduled order, so once the scheduled time is past the worst departure
+            // kept, only vehicles running early could still improve on it.
+            if (best.size() == numberOfDepartures && next.nextTime() > best.peek().time) break;
+            Result result = next.resolve(snapshot);
+            next.position++;
+            if (result == null || result.time < startTime) continue;
+            if (best.size() < numberOfDepartures) {
+                best.add(result);
+            } else if (result.time < best.peek().time) {
+                best.poll();
+                best.add(result);
+            }
+        }
+        Result[] results = best.toArray(new Result[best.size()]);
+        Arrays.sort(results, Collections.reverseOrder(Result.LATEST_FIRST));
+        Map<TripPattern, StopTimesInPattern> timesForPattern = Maps.newLinkedHashMap();
+        for (Result result : results) {
+            StopTimesInPattern times = timesForPattern.get(result.pattern);
+            if (times == null) {
+                times = new StopTimesInPattern(result.pattern);
+                timesForPattern.put(result.pattern, times);
+            }
+            TripTimeShort time = new TripTimeShort(result.tripTimes, result.stopIndex, stop);
+            time.serviceDay = result.serviceDay.time(0);
+            time.tripId = result.tripTimes.trip.getId();
+            time.realtime = ! result.tripTimes.isScheduled();
+            times.times.add(time);
+        }
+        return new ArrayList<StopTimesInPattern>(timesForPattern.values());
+    }
+
+    /**
+     * The service days before, on and after the date of the given time, as in
+     * {@link org.opentripplanner.routing.core.RoutingContext}. Departure boards almost always ask about the
+     * current time, so the service days of the last date asked about are kept.
+     */
+    private ServiceDay[] getServiceDays(long time) {
+        CalendarService calendarService = graph.getCalendarService();
+        if (calendarService == null) {
+            return new ServiceDay[0];
+        }
+        Calendar c = Calendar.getInstance(graph.getTimeZone());
+        c.setTime(new Date(time * 1000));
+        ServiceDate serviceDate = new ServiceDate(c);
+        ServiceDays cached = serviceDays;
+        if (cached != null && cached.serviceDate.equals(serviceDate)) {
+            return cached.days;
+        }
+        List<ServiceDay> days = Lists.newArrayList();
+        for (String agency : graph.getAgencyIds()) {
+            for (ServiceDate date : new ServiceDate[] { serviceDate.previous(), serviceDate, serviceDate.next() }) {
+                ServiceDay day = new ServiceDay(graph, date, calendarService, agency);
+                if ( ! days.contains(day)) days.add(day);
+            }
+        }
+        cached = new ServiceDays(serviceDate, days.toArray(new ServiceDay[days.size()]));
+        serviceDays = cached;
+        return cached.days;
+    }
+
+    private static class ServiceDays {
+        final ServiceDate serviceDate;
+        final ServiceDay[] days;
+        ServiceDays(ServiceDate serviceDate, ServiceDay[] days) {
+            this.serviceDate = serviceDate;
+            this.days = days;
+        }
+    }
+
+    /** One scheduled departure, only used while building the index. */
+    private static class Departure implements Comparable<Departure> {
+        final int serviceCode;
+        final int time;
+        final TripPattern pattern;
+        final int stopIndex;
+        final int trip;
+        Departure(int serviceCode, int time, TripPattern pattern, int stopIndex, int trip) {
+            this.serviceCode = serviceCode;
+            this.time = time;
+            this.pattern = pattern;
+            this.stopIndex = stopIndex;
+            this.trip = trip;
+        }
+        @Override
+        public int compareTo(Departure other) {
+            if (serviceCode != other.serviceCode) return serviceCode < other.serviceCode ? -1 : 1;
+            return time < other.time ? -1 : (time == other.time ? 0 : 1);
+        }
+    }
+
+    /**
+     * The departures at one stop in parallel arrays, sorted by service code and then by scheduled departure
+     * time. The departures of the i-th service code are in [partitionStart[i], partitionStart[i + 1]).
+     */
+    private static class StopDepartures {
+        final int[] serviceCodes;
+        final int[] partitionStart;
+        final int[] times;
+        final TripPattern[] patterns;
+        final int[] stopIndexes;
+        /** Index of the TripTimes in the pattern's timetable, or -1 - index of the FrequencyEntry. */
+        final int[] trips;
+
+        StopDepartures(List<Departure> departures) {
+            Collections.sort(departures);
+            int n = departures.size();
+            times = new int[n];
+            patterns = new TripPattern[n];
+            stopIndexes = new int[n];
+            trips = new int[n];
+            int[] codes = new int[n];
+            int[] starts = new int[n + 1];
+            int nPartitions = 0;
+            for (int i = 0; i < n; i++) {
+                Departure departure = departures.get(i);
+                if (nPartitions == 0 || codes[nPartitions - 1] != departure.serviceCode) {
+                    codes[nPartitions] = departure.serviceCode;
+                    starts[nPartitions++] = i;
+                }
+                times[i] = departure.time;
+                patterns[i] = departure.pattern;
+                stopIndexes[i] = departure.stopIndex;
+                trips[i] = departure.trip;
+            }
+            starts[nPartitions] = n;
+            serviceCodes = Arrays.copyOf(codes, nPartitions);
+            partitionStart = Arrays.copyOf(starts, nPartitions + 1);
+        }
+    }
+
+    /** The position of a query in one partition of a stop's departures, on one service day. */
+    private static class Cursor {
+        final StopDepartures departures;
+        final ServiceDay serviceDay;
+        final int end;
+        int position;
+
+        /** Position the cursor on the first departure at or after the given time. */
+        Cursor(StopDepartures departures, int partition, ServiceDay serviceDay, int time) {
+            this.departures = departures;
+            this.serviceDay = serviceDay;
+            int start = departures.partitionStart[partition];
+            end = departures.partitionStart[partition + 1];
+            int low = start, high = end;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (departures.times[mid] < time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            position = low;
+        }
+
+        boolean hasNext() {
+            return position < end;
+        }
+
+        /** @return the scheduled time of the next departure, in seconds since the epoch. */
+        long nextTime() {
+            return serviceDay.time(departures.times[position]);
+        }
+
+        /** @return the next departure with any realtime updates applied, or null if it was canceled. */
+        Result resolve(TimetableResolver snapshot) {
+            TripPattern pattern = departures.patterns[position];
+            int stopIndex = departures.stopIndexes[position];
+            int trip = departures.trips[position];
+            TripTimes tripTimes;
+            if (trip < 0) {
+                FrequencyEntry freq = pattern.scheduledTimetable.frequencyEntries.get(-1 - trip);
+                tripTimes = freq.materialize(stopIndex, departures.times[position], true);
+            } else {
+                Timetable table = pattern.scheduledTimetable;
+                if (snapshot != null) {
+                    // Updated timetables have the same trips in the same order as the scheduled one.
+                    table = snapshot.resolve(pattern, serviceDay.getServiceDate());
+                }
+                tripTimes = table.getTripTimes(trip);
+            }
+            int time = tripTimes.getDepartureTime(stopIndex);
+            if (time < 0) return null;
+            return new Result(serviceDay.time(time), pattern, stopIndex, tripTimes, serviceDay);
+        }
+    }
+
+    private static class Result {
+        static final Comparator<Result> LATEST_FIRST = new Comparator<Result>() {
+            @Override
+            public int compare(Result r1, Result r2) {
+                return r1.time > r2.time ? -1 : (r1.time == r2.time ? 0 : 1);
+            }
+        };
+        final long time;
+        final TripPattern pattern;
+        final int stopIndex;
+        final TripTimes tripTimes;
+        final ServiceDay serviceDay;
+        Result(long time, TripPattern pattern, int stopIndex, TripTimes tripTimes, ServiceDay serviceDay) {
+            this.time = time;
+            this.pattern = pattern;
+            this.stopIndex = stopIndex;
+            this.tripTimes = tripTimes;
+            this.serviceDay = serviceDay;
+        }
+    }
+
+}
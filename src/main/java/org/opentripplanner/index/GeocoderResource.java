@@ -1,10 +1,11 @@
 package org.opentripplanner.index;
 
-import org.opentripplanner.common.LuceneIndex;
-import org.opentripplanner.routing.graph.GraphIndex;
+import org.opentripplanner.common.AutocompleteIndex;
+import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.standalone.OTPServer;
 import org.opentripplanner.standalone.Router;
 
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
@@ -22,23 +23,30 @@ import javax.ws.rs.core.Response;
 @Produces(MediaType.APPLICATION_JSON)
 public class GeocoderResource {
 
-    private final LuceneIndex index;
+    private static final int MAX_RESULTS = 100;
+
+    private final AutocompleteIndex index;
 
     public GeocoderResource (@Context OTPServer otpServer, @PathParam("routerId") String routerId) {
         Router router = otpServer.getRouter(routerId);
-        GraphIndex graphIndex = router.graph.index;
-        synchronized (graphIndex) {
-            if (graphIndex.luceneIndex == null) {
-                // Synchronously lazy-initialize the Lucene index
-                graphIndex.luceneIndex = new LuceneIndex(graphIndex, otpServer.basePath, false);
+        Graph graph = router.graph;
+        synchronized (graph.index) {
+            if (graph.autocompleteIndex == null) {
+                // Graphs built before the index existed: synchronously lazy-initialize it
+                graph.autocompleteIndex = AutocompleteIndex.build(graph, Runtime.getRuntime().availableProcessors());
             }
-            index = graphIndex.luceneIndex;
+            index = graph.autocompleteIndex;
         }
     }
 
+    /**
+     * Stops and intersections whose names contain words beginning with each word of the query. When lat and lon
+     * are given, nearer places are preferred.
+     */
     @GET
-    public Response textSearch (@QueryParam("query") String query) {
-        return Response.status(Response.Status.OK).entity(index.query(query)).build();
+    public Response textSearch (@QueryParam("query") String query, @QueryParam("lat") Double lat,
+            @QueryParam("lon") Double lon, @QueryParam("limit") @DefaultValue("10") int limit) {
+        return Response.status(Response.Status.OK).entity(index.query(query, lat, lon, Math.min(limit, MAX_RESULTS))).build();
     }
 
 }
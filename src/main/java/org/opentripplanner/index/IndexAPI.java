@@ -13,10 +13,13 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 
 package org.opentripplanner.index;
 
+import static org.opentripplanner.api.protobuf.ProtobufResponseWriter.APPLICATION_X_PROTOBUF_Q;
+
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
@@ -66,6 +69,7 @@ public class IndexAPI {
     @SuppressWarnings("unused")
     private static final Logger LOG = LoggerFactory.getLogger(IndexAPI.class);
     private static final double MAX_STOP_SEARCH_RADIUS = 5000;
+    private static final int MAX_DEPARTURES = 100;
     private static final DistanceLibrary distanceLibrary = SphericalDistanceLibrary.getInstance();
     private static final String MSG_404 = "FOUR ZERO FOUR";
     private static final String MSG_400 = "FOUR HUNDRED";
@@ -122,6 +126,7 @@ public class IndexAPI {
 
    /** Return a list of all stops within a circle around the given coordinate. */
    @GET
+   @Produces({ MediaType.APPLICATION_JSON, APPLICATION_X_PROTOBUF_Q })
    @Path("/stops")
    public Response getStopsInRadius (
            @QueryParam("minLat") Double minLat,
@@ -174,6 +179,7 @@ public class IndexAPI {
    }
 
    @GET
+   @Produces({ MediaType.APPLICATION_JSON, APPLICATION_X_PROTOBUF_Q })
    @Path("/stops/{stopId}/routes")
    public Response getRoutesForStop (@PathParam("stopId") String stopId) {
        Stop stop = index.stopForId.get(GtfsLibrary.convertIdFromString(stopId));
@@ -186,6 +192,7 @@ public class IndexAPI {
    }
 
    @GET
+   @Produces({ MediaType.APPLICATION_JSON, APPLICATION_X_PROTOBUF_Q })
    @Path("/stops/{stopId}/patterns")
    public Response getPatternsForStop (@PathParam("stopId") String stopIdString) {
        AgencyAndId id = GtfsLibrary.convertIdFromString(stopIdString);
@@ -195,18 +202,28 @@ public class IndexAPI {
        return Response.status(Status.OK).entity(PatternShort.list(patterns)).build();
    }
 
-    /** Return upcoming vehicle arrival/departure times at the given stop. */
+    /**
+     * Return upcoming vehicle arrival/departure times at the given stop.
+     * @param startTime seconds since the epoch, defaults to now.
+     * @param numberOfDepartures the number of departures to return, for all patterns combined.
+     */
     @GET
+    @Produces({ MediaType.APPLICATION_JSON, APPLICATION_X_PROTOBUF_Q })
     @Path("/stops/{stopId}/stoptimes")
-    public Response getStoptimesForStop (@PathParam("stopId") String stopIdString) {
+    public Response getStoptimesForStop (@PathParam("stopId") String stopIdString,
+            @QueryParam("startTime") Long startTime,
+            @QueryParam("numberOfDepartures") @DefaultValue("10") int numberOfDepartures) {
         Stop stop = index.stopForId.get(GtfsLibrary.convertIdFromString(stopIdString));
         if (stop == null) return Response.status(Status.NOT_FOUND).entity(MSG_404).build();
-        return Response.status(Status.OK).entity(index.stopTimesForStop(stop)).build();
+        if (startTime == null) startTime = System.currentTimeMillis() / 1000;
+        numberOfDepartures = Math.min(numberOfDepartures, MAX_DEPARTURES);
+        return Response.status(Status.OK).entity(index.stopTimesForStop(stop, startTime, numberOfDepartures)).build();
     }
 
    /** Return a list of all routes in the graph. */
    // with repeated hasStop parameters, replaces old routesBetweenStops
    @GET
+   @Produces({ MediaType.APPLICATION_JSON, APPLICATION_X_PROTOBUF_Q })
    @Path("/routes")
    public Response getRoutes (@QueryParam("hasStop") List<String> stopIds) {
        Collection<Route> routes = index.routeForId.values();
@@ -242,6 +259,7 @@ public class IndexAPI {
 
    /** Return all stop patterns used by trips on the given route. */
    @GET
+   @Produces({ MediaType.APPLICATION_JSON, APPLICATION_X_PROTOBUF_Q })
    @Path("/routes/{routeId}/patterns")
    public Response getPatternsForRoute (@PathParam("routeId") String routeIdString) {
        AgencyAndId routeId = GtfsLibrary.convertIdFromString(routeIdString);
@@ -256,6 +274,7 @@ public class IndexAPI {
 
    /** Return all stops in any pattern on a given route. */
    @GET
+   @Produces({ MediaType.APPLICATION_JSON, APPLICATION_X_PROTOBUF_Q })
    @Path("/routes/{routeId}/stops")
    public Response getStopsForRoute (@PathParam("routeId") String routeIdString) {
        AgencyAndId routeId = GtfsLibrary.convertIdFromString(routeIdString);
@@ -307,6 +326,7 @@ public class IndexAPI {
    }
 
    @GET
+   @Produces({ MediaType.APPLICATION_JSON, APPLICATION_X_PROTOBUF_Q })
    @Path("/trips/{tripId}/stops")
    public Response getStopsForTrip (@PathParam("tripId") String tripIdString) {
        AgencyAndId tripId = GtfsLibrary.convertIdFromString(tripIdString);
@@ -335,6 +355,7 @@ public class IndexAPI {
     }
 
     @GET
+   @Produces({ MediaType.APPLICATION_JSON, APPLICATION_X_PROTOBUF_Q })
    @Path("/trips/{tripId}/stoptimes")
    public Response getStoptimesForTrip (@PathParam("tripId") String tripIdString) {
        AgencyAndId tripId = GtfsLibrary.convertIdFromString(tripIdString);
@@ -349,6 +370,7 @@ public class IndexAPI {
    }
 
    @GET
+   @Produces({ MediaType.APPLICATION_JSON, APPLICATION_X_PROTOBUF_Q })
    @Path("/patterns")
    public Response getPatterns () {
        Collection<TripPattern> patterns = index.patternForId.values();
@@ -379,6 +401,7 @@ public class IndexAPI {
    }
 
    @GET
+   @Produces({ MediaType.APPLICATION_JSON, APPLICATION_X_PROTOBUF_Q })
    @Path("/patterns/{patternId}/stops")
    public Response getStopsForPattern (@PathParam("patternId") String patternIdString) {
        // Pattern names are graph-unique because we made them that way (did not read them from GTFS).
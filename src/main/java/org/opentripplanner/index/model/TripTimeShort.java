@@ -21,6 +21,11 @@ public class TripTimeShort {
     public int arrivalDelay = UNDEFINED ;
     public int departureDelay = UNDEFINED ;
     public boolean timepoint = false;
+    /** Midnight of the service day in seconds since the epoch, when the times are on a known day. */
+    public long serviceDay = 0;
+    public AgencyAndId tripId;
+    /** True if realtime updates have been applied to the times of this trip. */
+    public boolean realtime = false;
 
     /**
      * This is stop-specific, so the index i is a stop index, not a hop index.
@@ -0,0 +1,436 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.inspector;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.opentripplanner.api.protobuf.ProtobufEncoder;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Serve the street edges of a graph as Mapbox Vector Tiles (version 2 of the specification), with
+ * the attributes shown by the raster inspector layers, so that the client can style them in any of
+ * those ways without asking the server to render anything.
+ *
+ * Each tile holds a single layer named "streets" with one line feature per street edge, whose ID
+ * is the edge ID, and the attributes name, permission, bikeSafety, wheelchair, maxSlope and back.
+ *
+ * Encoded tiles are cached. At the lower zoom levels the edge geometries are simplified to the
+ * resolution of the level, dropping edges shorter than half a pixel. The simplification of a level
+ * is computed for all edges the first time one of its tiles is requested, and kept for later
+ * tiles. Above {@link #MAX_SIMPLIFIED_ZOOM} edges are shown with their full geometry.
+ *
+ * @see GraphInspectorTileResource
+ */
+public class VectorTileManager {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VectorTileManager.class);
+
+    public static final String MEDIA_TYPE = "application/vnd.mapbox-vector-tile";
+
+    public static final String LAYER_NAME = "streets";
+
+    /** Below this zoom level tiles are empty: a city's streets are neither useful nor cheap at that scale. */
+    public static final int MIN_ZOOM = 13;
+
+    public static final int MAX_ZOOM = 22;
+
+    static final int MAX_SIMPLIFIED_ZOOM = 16;
+
+    /** The size of a tile in tile coordinates. */
+    static final int EXTENT = 4096;
+
+    /** Half a pixel of a 256 pixel tile, in tile coordinates. */
+    static final int TOLERANCE = EXTENT / 512;
+
+    /** Include edges just outside the tile, so that lines are not cut off at the tile border. */
+    private static final int BUFFER = 64;
+
+    private static final long CACHE_BYTES = 64 * 1024 * 1024;
+
+    static final String[] KEYS = { "name", "permission", "bikeSafety", "wheelchair", "maxSlope", "back" };
+
+    /* Mapbox Vector Tile field numbers */
+    private static final int TILE_LAYERS = 3;
+    private static final int LAYER_NAME_FIELD = 1;
+    private static final int LAYER_FEATURES = 2;
+    private static final int LAYER_KEYS = 3;
+    private static final int LAYER_VALUES = 4;
+    private static final int LAYER_EXTENT = 5;
+    private static final int LAYER_VERSION = 15;
+    private static final int FEATURE_ID = 1;
+    private static final int FEATURE_TAGS = 2;
+    private static final int FEATURE_TYPE = 3;
+    private static final int FEATURE_GEOMETRY = 4;
+    private static final int VALUE_STRING = 1;
+    private static final int VALUE_DOUBLE = 3;
+    private static final int VALUE_BOOL = 7;
+    private static final int GEOM_TYPE_LINESTRING = 2;
+    private static final int COMMAND_MOVE_TO = 1;
+    private static final int COMMAND_LINE_TO = 2;
+
+    private static final byte[] EMPTY_TILE = new byte[0];
+
+    private static final Comparator<Edge> BY_ID = new Comparator<Edge>() {
+        @Override
+        public int compare(Edge e1, Edge e2) {
+            return e1.getId() < e2.getId() ? -1 : (e1.getId() == e2.getId() ? 0 : 1);
+        }
+    };
+
+    private final Graph graph;
+
+    private final Cache<Long, byte[]> tiles;
+
+    /** The simplified geometries for each zoom level up to MAX_SIMPLIFIED_ZOOM, built on demand. Guarded by this. */
+    private final Level[] levels = new Level[MAX_SIMPLIFIED_ZOOM + 1];
+
+    public VectorTileManager(Graph graph) {
+        this.graph = graph;
+        this.tiles = CacheBuilder.newBuilder()
+                .maximumWeight(CACHE_BYTES)
+                .weigher(new Weigher<Long, byte[]>() {
+                    @Override
+                    public int weigh(Long key, byte[] tile) {
+                        return tile.length;
+                    }
+                })
+                .build();
+    }
+
+    /** @return true if x, y and z designate an existing tile. */
+    public static boolean isValidTile(int z, int x, int y) {
+        return z >= 0 && z <= MAX_ZOOM && x >= 0 && y >= 0 && x < (1 << z) && y < (1 << z);
+    }
+
+    /** @return the encoded tile, which is empty below MIN_ZOOM. */
+    public byte[] getTile(int z, int x, int y) {
+        if (!isValidTile(z, x, y)) {
+            throw new IllegalArgumentException("No tile " + z + "/" + x + "/" + y);
+        }
+        if (z < MIN_ZOOM) {
+            return EMPTY_TILE;
+        }
+        Long key = ((long) z << 56) | ((long) x << 28) | y;
+        byte[] tile = tiles.getIfPresent(key);
+        if (tile == null) {
+            long start = System.currentTimeMillis();
+            tile = encodeTile(z, x, y);
+            LOG.debug("Encoded vector tile {}/{}/{} ({} bytes) in {} ms", z, x, y, tile.length,
+                    System.currentTimeMillis() - start);
+            tiles.put(key, tile);
+        }
+        return tile;
+    }
+
+    byte[] encodeTile(int z, int x, int y) {
+        Level level = z <= MAX_SIMPLIFIED_ZOOM ? getLevel(z) : null;
+        List<StreetEdge> edges = edgesInTile(z, x, y);
+
+        ProtobufEncoder encoder = new ProtobufEncoder();
+        encoder.startMessage(TILE_LAYERS);
+        encoder.writeUInt32(LAYER_VERSION, 2);
+        encoder.writeString(LAYER_NAME_FIELD, LAYER_NAME);
+        Map<Object, Integer> valueIndex = new HashMap<Object, Integer>();
+        List<Object> values = new ArrayList<Object>();
+        int[] tags = new int[KEYS.length * 2];
+        int[] coords = new int[64];
+        for (StreetEdge edge : edges) {
+            int[] world = null;
+            if (level != null) {
+                if (level.hidden.get(edge.getId())) continue;
+                world = level.simplified.get(edge.getId());
+            }
+            // Convert to tile coordinates, dropping points that fall on the previous one.
+            int n = 0;
+            if (world != null) {
+                if (coords.length < world.length) {
+                    coords = new int[world.length];
+                }
+                for (int i = 0; i < world.length; i += 2) {
+                    n = addPoint(coords, n, world[i] - x * EXTENT, world[i + 1] - y * EXTENT);
+                }
+            } else {
+                CoordinateSequence points = edge.getCoordinateSequence();
+                if (coords.length < points.size() * 2) {
+                    coords = new int[points.size() * 2];
+                }
+                for (int i = 0; i < points.size(); i++) {
+                    n = addPoint(coords, n,
+                            (int) Math.round((lonToTile(points.getX(i), z) - x) * EXTENT),
+                            (int) Math.round((latToTile(points.getY(i), z) - y) * EXTENT));
+                }
+            }
+            if (n < 4) continue;
+
+            int nTags = 0;
+            Object[] attributes = attributes(edge);
+            for (int k = 0; k < attributes.length; k++) {
+                Object value = attributes[k];
+                if (value == null) continue;
+                Integer index = valueIndex.get(value);
+                if (index == null) {
+                    index = values.size();
+                    valueIndex.put(value, index);
+                    values.add(value);
+                }
+                tags[nTags++] = k;
+                tags[nTags++] = index;
+            }
+
+            encoder.startMessage(LAYER_FEATURES);
+            encoder.writeInt64(FEATURE_ID, edge.getId());
+            encoder.startPacked(FEATURE_TAGS);
+            for (int i = 0; i < nTags; i++) {
+                encoder.writePackedUInt32(tags[i]);
+            }
+            encoder.endPacked();
+            encoder.writeUInt32(FEATURE_TYPE, GEOM_TYPE_LINESTRING);
+            encoder.startPacked(FEATURE_GEOMETRY);
+            encoder.writePackedUInt32(command(COMMAND_MOVE_TO, 1));
+            encoder.writePackedSInt32(coords[0]);
+            encoder.writePackedSInt32(coords[1]);
+            encoder.writePackedUInt32(command(COMMAND_LINE_TO, n / 2 - 1));
+            for (int i = 2; i < n; i += 2) {
+                encoder.writePackedSInt32(coords[i] - coords[i - 2]);
+                encoder.writePackedSInt32(coords[i + 1] - coords[i - 1]);
+            }
+            encoder.endPacked();
+            encoder.endMessage();
+        }
+        for (String key : KEYS) {
+            encoder.writeString(LAYER_KEYS, key);
+        }
+        for (Object value : values) {
+            encoder.startMessage(LAYER_VALUES);
+            if (value instanceof String) {
+                encoder.writeString(VALUE_STRING, (String) value);
+            } else if (value instanceof Double) {
+                encoder.writeDouble(VALUE_DOUBLE, (Double) value);
+            } else {
+                encoder.writeBool(VALUE_BOOL, (Boolean) value);
+            }
+            encoder.endMessage();
+        }
+        encoder.writeUInt32(LAYER_EXTENT, EXTENT);
+        encoder.endMessage();
+        return encoder.toByteArray();
+    }
+
+    /** @return the street edges near the given tile, in ID order so that tiles are reproducible. */
+    private List<StreetEdge> edgesInTile(int z, int x, int y) {
+        double buffer = (double) BUFFER / EXTENT;
+        Envelope envelope = new Envelope(tileToLon(x - buffer, z), tileToLon(x + 1 + buffer, z),
+                tileToLat(y + 1 + buffer, z), tileToLat(y - buffer, z));
+        Set<StreetEdge> edges = new HashSet<StreetEdge>();
+        for (Edge e : graph.streetIndex.getEdgesForEnvelope(envelope)) {
+            if (e instanceof StreetEdge) {
+                edges.add((StreetEdge) e);
+            }
+        }
+        List<StreetEdge> sorted = new ArrayList<StreetEdge>(edges);
+        Collections.sort(sorted, BY_ID);
+        return sorted;
+    }
+
+    /** @return the attribute values of an edge, in the order of KEYS, null where not applicable. */
+    private static Object[] attributes(StreetEdge edge) {
+        return new Object[] {
+            edge.getName(),
+            edge.getPermission().name(),
+            round(edge.getBicycleSafetyFactor()),
+            edge.isWheelchairAccessible(),
+            edge.getMaxSlope() > 0 ? round(edge.getMaxSlope()) : null,
+            edge.isBack()
+        };
+    }
+
+    /** Round to two decimals, so that similar edges share values in the tile's value table. */
+    private static Double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    /**
+     * Append a point to the coordinates unless it is the same as the previous one.
+     * @return the new number of coordinates
+     */
+    private static int addPoint(int[] coords, int n, int x, int y) {
+        if (n > 0 && x == coords[n - 2] && y == coords[n - 1]) {
+            return n;
+        }
+        coords[n] = x;
+        coords[n + 1] = y;
+        return n + 2;
+    }
+
+    private static int command(int id, int count) {
+        return (id & 0x7) | (count << 3);
+    }
+
+    private synchronized Level getLevel(int z) {
+        if (levels[z] == null) {
+            long start = System.currentTimeMillis();
+            levels[z] = new Level(graph.getStreetEdges(), z);
+            LOG.info("Simplified street geometries for zoom level {} in {} ms: {} edges hidden, {} simplified",
+                    z, System.currentTimeMillis() - start, levels[z].hidden.cardinality(),
+                    levels[z].simplified.size());
+        }
+        return levels[z];
+    }
+
+    /**
+     * The simplification of all street edges at one zoom level. Edges whose geometry is not changed
+     * are not stored.
+     */
+    static class Level {
+
+        /** The IDs of edges that are too small to be seen at this level. */
+        final BitSet hidden = new BitSet();
+
+        /** Simplified geometries in world coordinates (see {@link #project}) by edge ID. */
+        final TIntObjectHashMap<int[]> simplified = new TIntObjectHashMap<int[]>();
+
+        Level(Iterable<StreetEdge> edges, int z) {
+            for (StreetEdge edge : edges) {
+                int[] world = project(edge.getCoordinateSequence(), z);
+                int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE;
+                int minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+                for (int i = 0; i < world.length; i += 2) {
+                    minX = Math.min(minX, world[i]);
+                    maxX = Math.max(maxX, world[i]);
+                    minY = Math.min(minY, world[i + 1]);
+                    maxY = Math.max(maxY, world[i + 1]);
+                }
+                if (maxX - minX < TOLERANCE && maxY - minY < TOLERANCE) {
+                    hidden.set(edge.getId());
+                    continue;
+                }
+                int[] simple = simplify(world, TOLERANCE);
+                if (simple.length < world.length) {
+                    simplified.put(edge.getId(), simple);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the coordinates of the given points in the tile coordinates of the whole world at
+     *         zoom level z: tile (x, y) spans x * EXTENT to (x + 1) * EXTENT. Only valid up to
+     *         zoom level 18, beyond which the coordinates overflow an int, so it is only used for
+     *         the simplified levels.
+     */
+    static int[] project(CoordinateSequence points, int z) {
+        int[] world = new int[points.size() * 2];
+        for (int i = 0; i < points.size(); i++) {
+            world[2 * i] = (int) Math.round(lonToTile(points.getX(i), z) * EXTENT);
+            world[2 * i + 1] = (int) Math.round(latToTile(points.getY(i), z) * EXTENT);
+        }
+        return world;
+    }
+
+    /**
+     * Douglas-Peucker simplification of a line given as alternating x and y coordinates.
+     * @return the points of the line that are kept, always including the first and the last.
+     */
+    static int[] simplify(int[] line, double tolerance) {
+        int nPoints = line.length / 2;
+        if (nPoints <= 2) {
+            return line;
+        }
+        boolean[] keep = new boolean[nPoints];
+        keep[0] = keep[nPoints - 1] = true;
+        int[] stack = new int[2 * nPoints];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = nPoints - 1;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            double ax = line[2 * first], ay = line[2 * first + 1];
+            double dx = line[2 * last] - ax, dy = line[2 * last + 1] - ay;
+            double length = Math.sqrt(dx * dx + dy * dy);
+            int farthest = -1;
+            double maxDistance = tolerance;
+            for (int i = first + 1; i < last; i++) {
+                double px = line[2 * i] - ax, py = line[2 * i + 1] - ay;
+                double distance = length == 0 ? Math.sqrt(px * px + py * py)
+                        : Math.abs(px * dy - py * dx) / length;
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    farthest = i;
+                }
+            }
+            if (farthest >= 0) {
+                keep[farthest] = true;
+                stack[top++] = first;
+                stack[top++] = farthest;
+                stack[top++] = farthest;
+                stack[top++] = last;
+            }
+        }
+        int kept = 0;
+        for (boolean k : keep) {
+            if (k) kept++;
+        }
+        int[] simple = new int[2 * kept];
+        int j = 0;
+        for (int i = 0; i < nPoints; i++) {
+            if (keep[i]) {
+                simple[j++] = line[2 * i];
+                simple[j++] = line[2 * i + 1];
+            }
+        }
+        return simple;
+    }
+
+    /* Web Mercator tile arithmetic */
+
+    static double lonToTile(double lon, int z) {
+        return (lon + 180) / 360 * (1 << z);
+    }
+
+    static double latToTile(double lat, int z) {
+        double rad = Math.toRadians(lat);
+        return (1 - Math.log(Math.tan(rad) + 1 / Math.cos(rad)) / Math.PI) / 2 * (1 << z);
+    }
+
+    static double tileToLon(double x, int z) {
+        return x / (1 << z) * 360 - 180;
+    }
+
+    static double tileToLat(double y, int z) {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * y / (1 << z)))));
+    }
+
+}
@@ -22,10 +22,24 @@ public class AnyFileBasedOpenStreetMapProviderImpl implements OpenStreetMapProvi
 
     private File _path;
 
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private boolean bufferWays = false;
+
     public void setPath(File path) {
         _path = path;
     }
 
+    /** @see BinaryFileBasedOpenStreetMapProviderImpl#setThreads(int) */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /** @see BinaryFileBasedOpenStreetMapProviderImpl#setBufferWays(boolean) */
+    public void setBufferWays(boolean bufferWays) {
+        this.bufferWays = bufferWays;
+    }
+
     public AnyFileBasedOpenStreetMapProviderImpl (File file) {
         this.setPath(file);
     }
@@ -38,6 +52,8 @@ public class AnyFileBasedOpenStreetMapProviderImpl implements OpenStreetMapProvi
             if (_path.getName().endsWith(".pbf")) {
                 BinaryFileBasedOpenStreetMapProviderImpl p = new BinaryFileBasedOpenStreetMapProviderImpl();
                 p.setPath(_path);
+                p.setThreads(threads);
+                p.setBufferWays(bufferWays);
                 p.readOSM(handler);
             } else {
                 StreamedFileBasedOpenStreetMapProviderImpl p = new StreamedFileBasedOpenStreetMapProviderImpl();
@@ -13,18 +13,28 @@
 
 package org.opentripplanner.openstreetmap.impl;
 
+import static org.opentripplanner.openstreetmap.impl.BinaryOpenStreetMapParser.NODES;
+import static org.opentripplanner.openstreetmap.impl.BinaryOpenStreetMapParser.RELATIONS;
+import static org.opentripplanner.openstreetmap.impl.BinaryOpenStreetMapParser.WAYS;
+
+import org.opentripplanner.openstreetmap.model.OSMNode;
+import org.opentripplanner.openstreetmap.model.OSMRelation;
+import org.opentripplanner.openstreetmap.model.OSMWay;
 import org.opentripplanner.openstreetmap.services.OpenStreetMapContentHandler;
 import org.opentripplanner.openstreetmap.services.OpenStreetMapProvider;
 
 import java.io.File;
-import java.io.FileInputStream;
-
-import crosby.binary.file.BlockInputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Parser for the OpenStreetMap PBF format. Parses files in three passes:
  * First the relations, then the ways, then the nodes are also loaded.
  *
+ * Blocks are inflated and decoded on several threads, and after the first pass only the blocks
+ * containing ways or nodes are decoded again. With bufferWays set, the ways are kept in memory
+ * during the first pass and the second pass over the file is skipped.
+ *
  * @see http://wiki.openstreetmap.org/wiki/PBF_Format
  * @see org.opentripplanner.openstreetmap.services.graph_builder.services.osm.OpenStreetMapContentHandler#biPhase
  * @since 0.4
@@ -33,31 +43,50 @@ public class BinaryFileBasedOpenStreetMapProviderImpl implements OpenStreetMapPr
 
     private File _path;
 
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private boolean bufferWays = false;
+
     public void readOSM(OpenStreetMapContentHandler handler) {
         try {
-            BinaryOpenStreetMapParser parser = new BinaryOpenStreetMapParser(handler);
-
-            FileInputStream input = new FileInputStream(_path);
-            parser.setParseNodes(false);
-            parser.setParseWays(false);
-            (new BlockInputStream(input, parser)).process();
-            handler.doneFirstPhaseRelations();
-
-            input = new FileInputStream(_path);
-            parser.setParseRelations(false);
-            parser.setParseWays(true);
-            (new BlockInputStream(input, parser)).process();
-            handler.doneSecondPhaseWays();
-
-            input = new FileInputStream(_path);
-            parser.setParseNodes(true);
-            parser.setParseWays(false);
-            (new BlockInputStream(input, parser)).process();
+            ParallelBlockDecoder decoder = new ParallelBlockDecoder(_path, threads);
+            if (bufferWays) {
+                WayBuffer buffer = new WayBuffer(handler);
+                decoder.pass(RELATIONS | WAYS, buffer);
+                handler.doneFirstPhaseRelations();
+                for (OSMWay way : buffer.ways) {
+                    handler.addWay(way);
+                }
+                buffer.ways.clear();
+                handler.doneSecondPhaseWays();
+            } else {
+                decoder.pass(RELATIONS, handler);
+                handler.doneFirstPhaseRelations();
+
+                decoder.pass(WAYS, handler);
+                handler.doneSecondPhaseWays();
+            }
+
+            decoder.pass(NODES, handler);
             handler.doneThirdPhaseNodes();
         } catch (Exception ex) {
             throw new IllegalStateException("error loading OSM from path " + _path, ex);        }
     }
 
+    /** Set the number of threads used to inflate and decode blocks. Defaults to the number of processors. */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Keep all ways in memory while reading relations, so that the file is read twice rather than
+     * three times. This is faster but holds every way in the file, routable or not, until the
+     * relations have been loaded.
+     */
+    public void setBufferWays(boolean bufferWays) {
+        this.bufferWays = bufferWays;
+    }
+
     public void setPath(File path) {
         _path = path;
     }
@@ -66,6 +95,45 @@ public class BinaryFileBasedOpenStreetMapProviderImpl implements OpenStreetMapPr
         return "BinaryFileBasedOpenStreetMapProviderImpl(" + _path + ")";
     }
 
+    /** Passes relations through to the handler, holding back the ways until all relations are in. */
+    private static class WayBuffer implements OpenStreetMapContentHandler {
+
+        private final OpenStreetMapContentHandler handler;
+
+        final List<OSMWay> ways = new ArrayList<OSMWay>();
+
+        WayBuffer(OpenStreetMapContentHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void addNode(OSMNode node) {
+            handler.addNode(node);
+        }
+
+        @Override
+        public void addWay(OSMWay way) {
+            ways.add(way);
+        }
+
+        @Override
+        public void addRelation(OSMRelation relation) {
+            handler.addRelation(relation);
+        }
+
+        @Override
+        public void doneFirstPhaseRelations() {
+        }
+
+        @Override
+        public void doneSecondPhaseWays() {
+        }
+
+        @Override
+        public void doneThirdPhaseNodes() {
+        }
+    }
+
     @Override
     public void checkInputs() {
         if (!_path.canRead()) {
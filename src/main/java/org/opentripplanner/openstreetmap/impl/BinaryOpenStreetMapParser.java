@@ -16,9 +16,9 @@ package org.opentripplanner.openstreetmap.impl;
 import org.opentripplanner.openstreetmap.services.OpenStreetMapContentHandler;
 import org.opentripplanner.openstreetmap.model.*;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import crosby.binary.BinaryParser;
 import crosby.binary.Osmformat;
@@ -29,14 +29,31 @@ import crosby.binary.Osmformat;
  * @since 0.4
  */
 public class BinaryOpenStreetMapParser extends BinaryParser {
+
+    /* Flags for getContents(). */
+    public static final int NODES = 1;
+    public static final int WAYS = 2;
+    public static final int RELATIONS = 4;
+
     private OpenStreetMapContentHandler _handler;
     private boolean _parseWays = true;
     private boolean _parseRelations = true;
     private boolean _parseNodes = true;
-    private Map<String, String> stringTable = new HashMap<String, String>();
+    private final ConcurrentMap<String, String> stringTable;
+    private int contents = 0;
 
     public BinaryOpenStreetMapParser(OpenStreetMapContentHandler handler) {
+        this(handler, new ConcurrentHashMap<String, String>());
+    }
+
+    /**
+     * @param stringTable the table used to intern tag strings. It may be shared by parsers decoding
+     *        different blocks in different threads.
+     */
+    public BinaryOpenStreetMapParser(OpenStreetMapContentHandler handler,
+            ConcurrentMap<String, String> stringTable) {
         _handler = handler;
+        this.stringTable = stringTable;
     }
 
     // The strings are already being pulled from a string table in the PBF file,
@@ -44,12 +61,16 @@ public class BinaryOpenStreetMapParser extends BinaryParser {
     // String.intern grinds to a halt on large PBF files (as it did on GTFS import), so 
     // we implement our own. 
     public String internalize(String s) {
-        String fromTable = stringTable.get(s);
-        if (fromTable == null) {
-            stringTable.put(s, s);
-            return s;
-        } 
-        return fromTable;
+        String fromTable = stringTable.putIfAbsent(s, s);
+        return fromTable == null ? s : fromTable;
+    }
+
+    /**
+     * @return the kinds of entity (a combination of the NODES, WAYS and RELATIONS flags) found in
+     *         the blocks parsed so far, including the kinds that were not selected for parsing.
+     */
+    public int getContents() {
+        return contents;
     }
 
     public void complete() {
@@ -58,6 +79,9 @@ public class BinaryOpenStreetMapParser extends BinaryParser {
 
     @Override
     protected void parseNodes(List<Osmformat.Node> nodes) {
+        if (!nodes.isEmpty()) {
+            contents |= NODES;
+        }
         if(!_parseNodes) {
             return;
         }
@@ -87,6 +111,9 @@ public class BinaryOpenStreetMapParser extends BinaryParser {
         long lastId = 0, lastLat = 0, lastLon = 0;
         int j = 0; // Index into the keysvals array.
 
+        if (nodes.getIdCount() > 0) {
+            contents |= NODES;
+        }
         if(!_parseNodes) {
             return;
         }
@@ -128,6 +155,9 @@ public class BinaryOpenStreetMapParser extends BinaryParser {
 
     @Override
     protected void parseWays(List<Osmformat.Way> ways) {
+        if (!ways.isEmpty()) {
+            contents |= WAYS;
+        }
         if(!_parseWays) {
             return;
         }
@@ -160,6 +190,9 @@ public class BinaryOpenStreetMapParser extends BinaryParser {
 
     @Override
     protected void parseRelations(List<Osmformat.Relation> rels) {
+        if (!rels.isEmpty()) {
+            contents |= RELATIONS;
+        }
         if(!_parseRelations) {
             return;
         }
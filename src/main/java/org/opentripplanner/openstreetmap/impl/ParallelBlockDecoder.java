@@ -0,0 +1,287 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.openstreetmap.impl;
+
+import static org.opentripplanner.openstreetmap.impl.BinaryOpenStreetMapParser.NODES;
+import static org.opentripplanner.openstreetmap.impl.BinaryOpenStreetMapParser.RELATIONS;
+import static org.opentripplanner.openstreetmap.impl.BinaryOpenStreetMapParser.WAYS;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.opentripplanner.openstreetmap.model.OSMNode;
+import org.opentripplanner.openstreetmap.model.OSMRelation;
+import org.opentripplanner.openstreetmap.model.OSMWay;
+import org.opentripplanner.openstreetmap.services.OpenStreetMapContentHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.Futures;
+
+import crosby.binary.Fileformat;
+import crosby.binary.Osmformat;
+
+/**
+ * Reads the blocks of a PBF file in one thread, inflates and decodes them on a pool of worker
+ * threads, and hands the decoded entities to an OpenStreetMapContentHandler on the calling thread
+ * in file order, so the handler sees exactly what the single-threaded BlockInputStream would
+ * deliver. All workers intern tag strings through one shared table.
+ *
+ * The first pass over a file records which kinds of entity each block holds. Later passes skip the
+ * blocks that hold nothing they need without inflating them, so the way and node passes only
+ * decompress the way and node blocks.
+ */
+class ParallelBlockDecoder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelBlockDecoder.class);
+
+    private final File path;
+
+    private final int threads;
+
+    private final ConcurrentMap<String, String> stringTable = new ConcurrentHashMap<String, String>();
+
+    /** The BinaryOpenStreetMapParser content flags of each block, filled in by the first pass. */
+    private final TIntArrayList blockContents = new TIntArrayList();
+
+    private boolean blockContentsKnown = false;
+
+    ParallelBlockDecoder(File path, int threads) {
+        this.path = path;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Read the whole file, passing the entities of the selected kinds to the handler in file order.
+     * @param kinds a combination of the BinaryOpenStreetMapParser NODES, WAYS and RELATIONS flags.
+     */
+    void pass(final int kinds, OpenStreetMapContentHandler handler) throws IOException {
+        final ExecutorService workers = Executors.newFixedThreadPool(threads);
+        // Bounds the number of blocks held in memory while waiting to be handed over in order.
+        final BlockingQueue<Future<DecodedBlock>> decoded =
+                new ArrayBlockingQueue<Future<DecodedBlock>>(threads * 2);
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Future<DecodedBlock> end = Futures.immediateFuture(null);
+                try {
+                    readBlocks(kinds, workers, decoded);
+                } catch (InterruptedException e) {
+                    return; // the consumer has given up
+                } catch (Throwable t) {
+                    end = Futures.immediateFailedFuture(t);
+                }
+                try {
+                    decoded.put(end);
+                } catch (InterruptedException e) {
+                    // the consumer has given up
+                }
+            }
+        }, "PBF reader " + path.getName());
+        reader.start();
+        int nBlocks = 0;
+        try {
+            while (true) {
+                DecodedBlock block = decoded.take().get();
+                if (block == null) break;
+                if (!blockContentsKnown) {
+                    while (blockContents.size() <= block.index) blockContents.add(0);
+                    blockContents.set(block.index, block.contents);
+                }
+                block.deliverTo(handler);
+                nBlocks += 1;
+            }
+            blockContentsKnown = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading " + path, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IllegalStateException("Error decoding PBF block", e.getCause());
+        } finally {
+            reader.interrupt();
+            workers.shutdownNow();
+        }
+        LOG.debug("Decoded {} blocks of {} with {} threads.", nBlocks, path, threads);
+    }
+
+    /** Runs on the reader thread: read each needed blob and queue a decoding task for it. */
+    private void readBlocks(final int kinds, ExecutorService workers,
+            BlockingQueue<Future<DecodedBlock>> decoded) throws IOException, InterruptedException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 1 << 16));
+        try {
+            for (int index = 0; ; index++) {
+                int headerSize;
+                try {
+                    headerSize = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] headerBytes = new byte[headerSize];
+                in.readFully(headerBytes);
+                Fileformat.BlobHeader header = Fileformat.BlobHeader.parseFrom(headerBytes);
+                final String type = header.getType();
+                boolean needed;
+                if (type.equals("OSMHeader")) {
+                    needed = true;
+                } else if (type.equals("OSMData")) {
+                    needed = !blockContentsKnown || index >= blockContents.size()
+                            || (blockContents.get(index) & kinds) != 0;
+                } else {
+                    LOG.debug("Skipping block of unknown type {}", type);
+                    needed = false;
+                }
+                if (!needed) {
+                    skipFully(in, header.getDatasize());
+                    continue;
+                }
+                final byte[] blob = new byte[header.getDatasize()];
+                in.readFully(blob);
+                final int blockIndex = index;
+                decoded.put(workers.submit(new Callable<DecodedBlock>() {
+                    @Override
+                    public DecodedBlock call() throws IOException {
+                        return decode(blockIndex, type, blob, kinds);
+                    }
+                }));
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void skipFully(DataInputStream in, int n) throws IOException {
+        while (n > 0) {
+            int skipped = in.skipBytes(n);
+            if (skipped <= 0) throw new EOFException("Truncated PBF block");
+            n -= skipped;
+        }
+    }
+
+    /** Runs on a worker thread: inflate one blob and parse the selected kinds of entity. */
+    private DecodedBlock decode(int index, String type, byte[] blobBytes, int kinds) throws IOException {
+        byte[] data = inflate(Fileformat.Blob.parseFrom(blobBytes));
+        DecodedBlock block = new DecodedBlock(index);
+        BinaryOpenStreetMapParser parser = new BinaryOpenStreetMapParser(block, stringTable);
+        parser.setParseNodes((kinds & NODES) != 0);
+        parser.setParseWays((kinds & WAYS) != 0);
+        parser.setParseRelations((kinds & RELATIONS) != 0);
+        if (type.equals("OSMHeader")) {
+            parser.parse(Osmformat.HeaderBlock.parseFrom(data));
+        } else {
+            parser.parse(Osmformat.PrimitiveBlock.parseFrom(data));
+            block.contents = parser.getContents();
+        }
+        return block;
+    }
+
+    private static byte[] inflate(Fileformat.Blob blob) throws IOException {
+        if (blob.hasRaw()) {
+            return blob.getRaw().toByteArray();
+        }
+        if (!blob.hasZlibData()) {
+            throw new IOException("Unsupported PBF blob compression.");
+        }
+        byte[] data = new byte[blob.getRawSize()];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(blob.getZlibData().toByteArray());
+            int length = 0;
+            while (length < data.length && !inflater.finished()) {
+                int n = inflater.inflate(data, length, data.length - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                length += n;
+            }
+            if (length != data.length) {
+                throw new IOException("PBF blob does not match its declared size.");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt PBF blob.", e);
+        } finally {
+            inflater.end();
+        }
+        return data;
+    }
+
+    /** The entities decoded from one block, buffered until it is that block's turn. */
+    private static class DecodedBlock implements OpenStreetMapContentHandler {
+
+        final int index;
+
+        int contents;
+
+        final List<OSMNode> nodes = new ArrayList<OSMNode>();
+
+        final List<OSMWay> ways = new ArrayList<OSMWay>();
+
+        final List<OSMRelation> relations = new ArrayList<OSMRelation>();
+
+        DecodedBlock(int index) {
+            this.index = index;
+        }
+
+        void deliverTo(OpenStreetMapContentHandler handler) {
+            for (OSMRelation relation : relations) handler.addRelation(relation);
+            for (OSMWay way : ways) handler.addWay(way);
+            for (OSMNode node : nodes) handler.addNode(node);
+        }
+
+        @Override
+        public void addNode(OSMNode node) {
+            nodes.add(node);
+        }
+
+        @Override
+        public void addWay(OSMWay way) {
+            ways.add(way);
+        }
+
+        @Override
+        public void addRelation(OSMRelation relation) {
+            relations.add(relation);
+        }
+
+        @Override
+        public void doneFirstPhaseRelations() {
+        }
+
+        @Override
+        public void doneSecondPhaseWays() {
+        }
+
+        @Override
+        public void doneThirdPhaseNodes() {
+        }
+    }
+
+}
@@ -25,6 +25,22 @@ public class OSMNode extends OSMWithTags {
         return "osm node " + id;
     }
 
+    /**
+     * Nodes are equal when they have the same OSM ID, so that nodes read back from a
+     * CompactNodeStore can be used as map keys like the original objects.
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof OSMNode))
+            return false;
+        return ((OSMNode) other).id == id;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (id ^ (id >>> 32));
+    }
+
     /**
      * Returns the capacity of this node if defined, or 0.
      * 
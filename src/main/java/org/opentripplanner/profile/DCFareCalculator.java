@@ -456,7 +456,7 @@ public class DCFareCalculator {
 
     }
     
-    enum RideType {
+    public enum RideType {
         METRO_RAIL,
         METRO_BUS_LOCAL,
         METRO_BUS_EXPRESS,
@@ -1,6 +1,8 @@
 package org.opentripplanner.profile;
 
 import com.google.common.collect.*;
+import gnu.trove.iterator.TObjectIntIterator;
+import gnu.trove.map.TObjectIntMap;
 import org.onebusaway.gtfs.model.Stop;
 import org.opentripplanner.analyst.TimeSurface;
 import org.opentripplanner.api.resource.SimpleIsochrone;
@@ -16,6 +18,7 @@ import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.edgetype.TripPattern;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.StopAccessTable;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.opentripplanner.routing.vertextype.TransitStop;
@@ -451,6 +454,14 @@ public class ProfileRouter {
         long worstElapsedTimeSeconds = maxAccessTime * 60; // convert from minutes to seconds
         if (dest) worstElapsedTimeSeconds *= -1;
         rr.worstTime = (rr.dateTime + worstElapsedTimeSeconds);
+        // Analyst mode never renders the access paths, so walk access can come from the precomputed
+        // table when the graph has one that covers the requested walk time.
+        StopAccessTable accessTable = graph.getService(StopAccessTable.class);
+        if (mode == TraverseMode.WALK && request.analyst && !dest && accessTable != null
+                && maxAccessTime * 60 * request.walkSpeed <= accessTable.radiusMeters) {
+            routingContexts.add(rr.rctx);
+            return findClosestStops(accessTable, rr.rctx.origin, maxAccessTime * 60);
+        }
         // Note that the (forward) search is intentionally unlimited so it will reach the destination
         // on-street, even though only transit boarding locations closer than req.streetDist will be used.
         GenericAStar astar = new GenericAStar();
@@ -463,6 +474,27 @@ public class ProfileRouter {
         return visitor.stopClustersFound.values();
     }
 
+    /** Look up the stops within walking distance of the origin vertex in a precomputed table. */
+    private Collection<StopAtDistance> findClosestStops(StopAccessTable accessTable, Vertex origin,
+            int maxTimeSeconds) {
+        Map<StopCluster, StopAtDistance> stopClustersFound = Maps.newHashMap();
+        TObjectIntMap<TransitStop> distances = accessTable.getNearbyStops(origin,
+                maxTimeSeconds * request.walkSpeed);
+        for (TObjectIntIterator<TransitStop> it = distances.iterator(); it.hasNext(); ) {
+            it.advance();
+            StopCluster cluster = graph.index.stopClusterForStop.get(it.key().getStop());
+            if (cluster == null) continue;
+            int etime = (int) (it.value() / request.walkSpeed);
+            StopAtDistance sd = stopClustersFound.get(cluster);
+            // record only the closest stop in each cluster
+            if (sd == null || etime < sd.etime) {
+                stopClustersFound.put(cluster, new StopAtDistance(cluster, TraverseMode.WALK, etime));
+            }
+        }
+        LOG.info("Found {} stop clusters in the stop access table.", stopClustersFound.size());
+        return stopClustersFound.values();
+    }
+
     static class StopFinderTraverseVisitor implements TraverseVisitor {
         TraverseMode mode;
         int minTravelTimeSeconds = 0;
@@ -13,7 +13,7 @@ import org.opentripplanner.routing.trippattern.TripTimes;
  * num may be 0 if there are no observations.
  * num will become 1 when adding a scalar or another Stats.
  */
-class Stats implements Cloneable {
+public class Stats implements Cloneable {
     
     public int min = 0;
     public int avg = 0;
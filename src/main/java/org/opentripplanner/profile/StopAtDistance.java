@@ -25,6 +25,16 @@ public class StopAtDistance implements Comparable<StopAtDistance> {
     public int etime;
     public State state;
 
+    /**
+     * Make a StopAtDistance for a stop whose elapsed time was found without a search, e.g. from a
+     * precomputed table. The path to the stop is unknown, so the state is null.
+     */
+    public StopAtDistance (StopCluster stop, TraverseMode mode, int etime) {
+        this.stop = stop;
+        this.mode = mode;
+        this.etime = etime;
+    }
+
     /** @param state a state at a TransitStop */
     public StopAtDistance (State state) {
         this.state = state;
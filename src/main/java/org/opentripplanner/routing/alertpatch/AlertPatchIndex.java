@@ -0,0 +1,80 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.alertpatch;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.opentripplanner.routing.graph.Edge;
+
+/**
+ * An immutable snapshot of the alert patches attached to each edge of a graph. A new snapshot is
+ * built whenever the set of patches changes and is then swapped into the graph as a whole, so
+ * readers (e.g. itinerary generation, which looks up every edge of every itinerary) never need to
+ * take a lock.
+ *
+ * A BitSet over edge IDs allows the common case of an edge without any alerts to be answered
+ * without a hash lookup.
+ */
+public final class AlertPatchIndex {
+
+    private static final AlertPatch[] NO_PATCHES = new AlertPatch[0];
+
+    public static final AlertPatchIndex EMPTY = new AlertPatchIndex();
+
+    /** The IDs of all edges that have at least one patch. */
+    private final BitSet edgesWithPatches;
+
+    private final Map<Edge, AlertPatch[]> patchesForEdge;
+
+    private AlertPatchIndex() {
+        this.edgesWithPatches = new BitSet();
+        this.patchesForEdge = new HashMap<Edge, AlertPatch[]>(0);
+    }
+
+    /**
+     * Build a snapshot from the given mutable map. The map and its sets are copied, so they may be
+     * modified freely once this constructor returns.
+     */
+    public AlertPatchIndex(Map<Edge, Set<AlertPatch>> alertPatches) {
+        this.edgesWithPatches = new BitSet();
+        this.patchesForEdge = new HashMap<Edge, AlertPatch[]>(alertPatches.size());
+        for (Map.Entry<Edge, Set<AlertPatch>> entry : alertPatches.entrySet()) {
+            Set<AlertPatch> patches = entry.getValue();
+            if (patches.isEmpty()) continue;
+            Edge edge = entry.getKey();
+            patchesForEdge.put(edge, patches.toArray(new AlertPatch[patches.size()]));
+            edgesWithPatches.set(edge.getId());
+        }
+    }
+
+    /**
+     * @return the patches attached to the given edge. The returned array is shared between callers
+     *         and must not be modified. It is empty (never null) when there are no patches.
+     */
+    public AlertPatch[] getAlertPatches(Edge edge) {
+        if (edge == null || !edgesWithPatches.get(edge.getId())) {
+            return NO_PATCHES;
+        }
+        AlertPatch[] patches = patchesForEdge.get(edge);
+        return patches == null ? NO_PATCHES : patches;
+    }
+
+    public boolean isEmpty() {
+        return patchesForEdge.isEmpty();
+    }
+
+}
@@ -16,6 +16,8 @@ package org.opentripplanner.routing.algorithm;
 import java.util.Collection;
 
 import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.common.pqueue.OTPPriorityQueue;
+import org.opentripplanner.common.pqueue.OTPPriorityQueueFactory;
 import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
@@ -39,6 +41,8 @@ public class EarliestArrivalSPTService implements SPTService {
 
     public int maxDuration = 60 * 60 * 2;
 
+    private OTPPriorityQueueFactory queueFactory = BinHeap.FACTORY;
+
     @Override
     public ShortestPathTree getShortestPathTree(RoutingRequest req) {
         return getShortestPathTree(req, -1, null); // negative timeout means no timeout
@@ -72,7 +76,7 @@ public class EarliestArrivalSPTService implements SPTService {
         State initialState = new State(options);
         spt.add(initialState);
 
-        BinHeap<State> pq = new BinHeap<State>();
+        OTPPriorityQueue<State> pq = queueFactory.create(1000);
         pq.insert(initialState, 0);
 
         while (!pq.empty()) {
@@ -95,6 +99,15 @@ public class EarliestArrivalSPTService implements SPTService {
         return spt;
     }
 
+    /**
+     * Set the priority queue implementation. Queue keys are whole seconds of active time, so a
+     * monotone integer queue such as {@link org.opentripplanner.common.pqueue.RadixHeap#FACTORY}
+     * can be used here without loss of exactness.
+     */
+    public void setQueueFactory(OTPPriorityQueueFactory queueFactory) {
+        this.queueFactory = queueFactory;
+    }
+
     // Move this into State
     private boolean isWorstTimeExceeded(State v, RoutingRequest opt) {
         if (opt.arriveBy)
@@ -16,7 +16,10 @@ package org.opentripplanner.routing.algorithm;
 import java.util.Collection;
 import java.util.List;
 
+import org.opentripplanner.api.resource.SearchStats;
 import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.common.pqueue.OTPPriorityQueue;
+import org.opentripplanner.common.pqueue.OTPPriorityQueueFactory;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
 import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHeuristic;
@@ -28,8 +31,6 @@ import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.services.SPTService;
 import org.opentripplanner.routing.spt.*;
 import org.opentripplanner.util.DateUtils;
-import org.opentripplanner.util.monitoring.MonitoringStore;
-import org.opentripplanner.util.monitoring.MonitoringStoreFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,14 +42,18 @@ import com.beust.jcommander.internal.Lists;
 public class GenericAStar implements SPTService { // maybe this should be wrapped in a component SPT service 
 
     private static final Logger LOG = LoggerFactory.getLogger(GenericAStar.class);
-    // FIXME this is not really a factory, it's a way to fake a global variable. This should be stored at the OTPServer level.
-    private static final MonitoringStore store = MonitoringStoreFactory.getStore();
     private static final double OVERSEARCH_MULTIPLIER = 4.0;
 
     private boolean verbose = false;
 
     private TraverseVisitor traverseVisitor;
 
+    /**
+     * The kind of priority queue used for batch searches. Goal-directed searches always use a
+     * binary heap, because they stop at the target and need exact (fractional) key ordering.
+     */
+    private OTPPriorityQueueFactory batchQueueFactory = BinHeap.FACTORY;
+
     enum RunStatus {
         RUNNING, STOPPED
     }
@@ -58,7 +63,7 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
 
         public State u;
         public ShortestPathTree spt;
-        BinHeap<State> pq;
+        OTPPriorityQueue<State> pq;
         RemainingWeightHeuristic heuristic;
         public RoutingContext rctx;
         public int nVisited;
@@ -68,6 +73,8 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
         private SearchTerminationStrategy terminationStrategy;
         public Vertex u_vertex;
         Double foundPathWeight = null;
+        /** Null unless the request asked for search statistics, so that counting costs a single check. */
+        SearchStats stats;
 
         public RunState(RoutingRequest options, SearchTerminationStrategy terminationStrategy) {
             this.options = options;
@@ -99,6 +106,7 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
 
         runState = new RunState( options, terminationStrategy );
         runState.rctx = options.getRoutingContext();
+        runState.stats = runState.rctx.debugOutput.searchStats;
         // TODO this is a hackish way of communicating which mode we are in (since search mode is currently server-wide)
         runState.spt = options.longDistance ?
                 new WeightOnlyShortestPathTree(runState.options) : new MultiShortestPathTree(runState.options);
@@ -123,7 +131,8 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
         // reaching its target. 
         int initialSize = runState.rctx.graph.getVertices().size();
         initialSize = (int) Math.ceil(2 * (Math.sqrt((double) initialSize + 1)));
-        runState.pq = new BinHeap<State>(initialSize);
+        OTPPriorityQueueFactory queueFactory = options.batch ? batchQueueFactory : BinHeap.FACTORY;
+        runState.pq = queueFactory.create(initialSize);
         runState.pq.insert(initialState, 0);
 
 //        options = options.clone();
@@ -155,6 +164,7 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
         if (!runState.spt.visit(runState.u)) {
             // state has been dominated since it was added to the priority queue, so it is
             // not in any optimal path. drop it on the floor and try the next one.
+            if (runState.stats != null) runState.stats.statesDominatedInQueue++;
             return false;
         }
         
@@ -170,12 +180,17 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
         runState.nVisited += 1;
         
         Collection<Edge> edges = runState.options.arriveBy ? runState.u_vertex.getIncoming() : runState.u_vertex.getOutgoing();
+        SearchStats stats = runState.stats;
         for (Edge edge : edges) {
 
+            State result = edge.traverse(runState.u);
+            if (stats != null) stats.traversed(edge, result);
+
             // Iterate over traversal results. When an edge leads nowhere (as indicated by
             // returning NULL), the iteration is over. TODO Use this to board multiple trips.
-            for (State v = edge.traverse(runState.u); v != null; v = v.getNextResult()) {
+            for (State v = result; v != null; v = v.getNextResult()) {
                 // Could be: for (State v : traverseEdge...)
+                if (stats != null) stats.statesCreated++;
 
                 if (traverseVisitor != null) {
                     traverseVisitor.visitEdge(edge, v);
@@ -188,8 +203,18 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
                 // lbs.getWeightDelta(), v.getWeightDelta(), edge);
                 // }
 
+                // Check the time limit first, so that states beyond it cost no heuristic evaluation
+                if (isWorstTimeExceeded(v, runState.options)) {
+                    // too much time to get here
+                    if (verbose)
+                        System.out.println("         too much time to reach, not enqueued. time = " + v.getTimeSeconds());
+                    if (stats != null) stats.statesPrunedByLimits++;
+                    continue;
+                }
+
                 double remaining_w = computeRemainingWeight(runState.heuristic, v, runState.rctx.target, runState.options);
                 if (remaining_w < 0 || Double.isInfinite(remaining_w) ) {
+                    if (stats != null) stats.statesPrunedByHeuristic++;
                     continue;
                 }
                 double estimate = v.getWeight() + remaining_w * runState.options.heuristicWeight;
@@ -206,12 +231,7 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
                     // too expensive to get here
                     if (verbose)
                         System.out.println("         too expensive to reach, not enqueued. estimated weight = " + estimate);
-                    continue;
-                }
-                if (isWorstTimeExceeded(v, runState.options)) {
-                    // too much time to get here
-                    if (verbose)
-                        System.out.println("         too much time to reach, not enqueued. time = " + v.getTimeSeconds());
+                    if (stats != null) stats.statesPrunedByLimits++;
                     continue;
                 }
                 
@@ -222,7 +242,10 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
                         traverseVisitor.visitEnqueue(v);
                     
                     runState.pq.insert(v, estimate);
-                } 
+                    if (stats != null) stats.enqueued(runState.pq.size());
+                } else if (stats != null) {
+                    stats.statesDominatedOnArrival++;
+                }
             }
         }
         
@@ -235,6 +258,7 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
             /*
              * Terminate based on timeout?
              */
+            abortTime = earliestAbortTime(abortTime, runState.rctx);
             if (abortTime < Long.MAX_VALUE  && System.currentTimeMillis() > abortTime) {
                 LOG.warn("Search timeout. origin={} target={}", runState.rctx.origin, runState.rctx.target);
                 // Rather than returning null to indicate that the search was aborted/timed out,
@@ -294,32 +318,35 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
     public ShortestPathTree getShortestPathTree(RoutingRequest options, double relTimeoutSeconds,
             SearchTerminationStrategy terminationStrategy) {
         ShortestPathTree spt = null;
-        long abortTime = DateUtils.absoluteTimeout(relTimeoutSeconds);
+        long abortTime = earliestAbortTime(DateUtils.absoluteTimeout(relTimeoutSeconds), options.rctx);
 
         startSearch (options, terminationStrategy, abortTime);
 
         if (runState != null) {
             runSearch(abortTime);
             spt = runState.spt;
+            if (options.rctx != null) {
+                options.rctx.debugOutput.statesVisited += runState.nVisited;
+            }
         }
-        
-        storeMemory();
         return spt;
     }
 
-    private void storeMemory() {
-        if (store.isMonitoring("memoryUsed")) {
-            System.gc();
-            long memoryUsed = Runtime.getRuntime().totalMemory() -
-                    Runtime.getRuntime().freeMemory();
-            store.setLongMax("memoryUsed", memoryUsed);
-        }
+    /**
+     * Apply the request-wide deadline of the routing context, which is also used to cancel a search from another
+     * thread, on top of the timeout of this individual search.
+     */
+    private static long earliestAbortTime(long abortTime, RoutingContext rctx) {
+        if (rctx == null) return abortTime;
+        long searchAbortTime = rctx.searchAbortTime;
+        return (searchAbortTime > 0 && searchAbortTime < abortTime) ? searchAbortTime : abortTime;
     }
 
     private double computeRemainingWeight(final RemainingWeightHeuristic heuristic, State v,
             Vertex target, RoutingRequest options) {
         // actually, the heuristic could figure this out from the TraverseOptions.
         // set private member back=options.isArriveBy() on initial weight computation.
+        if (runState.stats != null) runState.stats.heuristicEvaluations++;
         if (options.arriveBy) {
             return heuristic.computeReverseWeight(v, target);
         } else {
@@ -337,4 +364,12 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
     public void setTraverseVisitor(TraverseVisitor traverseVisitor) {
         this.traverseVisitor = traverseVisitor;
     }
+
+    /**
+     * Set the priority queue implementation for batch searches, e.g. {@link
+     * org.opentripplanner.common.pqueue.RadixHeap#FACTORY} for O(1) insertion on integer keys.
+     */
+    public void setBatchQueueFactory(OTPPriorityQueueFactory batchQueueFactory) {
+        this.batchQueueFactory = batchQueueFactory;
+    }
 }
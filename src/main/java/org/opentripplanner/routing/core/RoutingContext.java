@@ -21,6 +21,7 @@ import org.onebusaway.gtfs.model.Stop;
 import org.onebusaway.gtfs.model.calendar.ServiceDate;
 import org.onebusaway.gtfs.services.calendar.CalendarService;
 import org.opentripplanner.api.resource.DebugOutput;
+import org.opentripplanner.api.resource.SearchStats;
 import org.opentripplanner.common.geometry.DistanceLibrary;
 import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
@@ -113,9 +114,9 @@ public class RoutingContext implements Cloneable {
      * The search will be aborted if it is still running after this time (in milliseconds since the epoch). A negative or zero value implies no limit.
      * This provides an absolute timeout, whereas the maxComputationTime is relative to the beginning of an individual search. While the two might
      * seem equivalent, we trigger search retries in various places where it is difficult to update relative timeout value. The earlier of the two
-     * timeouts is applied.
+     * timeouts is applied. It may be moved earlier by another thread to cancel a running search.
      */
-    public long searchAbortTime = 0;
+    public volatile long searchAbortTime = 0;
 
     public PathParser[] pathParsers = new PathParser[] {};
 
@@ -220,7 +221,11 @@ public class RoutingContext implements Cloneable {
         }
         this.opt = routingRequest;
         this.graph = graph;
+        this.searchAbortTime = routingRequest.searchAbortTime;
         this.debugOutput.startedCalculating();
+        if (routingRequest.searchStats) {
+            this.debugOutput.searchStats = new SearchStats();
+        }
 
         // the graph's snapshot may be frequently updated.
         // Grab a reference to ensure a coherent view of the timetables throughout this search.
@@ -37,6 +37,7 @@ import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.request.BannedStopSet;
+import org.opentripplanner.routing.spt.DominanceFunction;
 import org.opentripplanner.util.DateUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -361,6 +362,13 @@ public class RoutingRequest implements Cloneable, Serializable {
      */
     public boolean disableRemainingWeightHeuristic = false;
 
+    /**
+     * If true, count what the searches for this request do (states created, pruned and dominated, edges
+     * traversed, boardings...) and return the counts in the debug output. Plans served from the plan
+     * cache carry no counts.
+     */
+    public boolean searchStats = false;
+
     /**
      * The routing context used to actually carry out this search. It is important to build States from TraverseOptions rather than RoutingContexts,
      * and just keep a reference to the context in the TraverseOptions, rather than using RoutingContexts for everything because in some testing and
@@ -374,6 +382,12 @@ public class RoutingRequest implements Cloneable, Serializable {
      */
     public RoutingContext rctx;
 
+    /**
+     * An absolute deadline for all the searches carried out for this request, in milliseconds since the epoch. Zero
+     * means no deadline. It is copied into {@link RoutingContext#searchAbortTime} when the routing context is created.
+     */
+    public volatile long searchAbortTime = 0;
+
     /** A transit stop that this trip must start from */
     public AgencyAndId startingTransitStopId;
     
@@ -402,6 +416,12 @@ public class RoutingRequest implements Cloneable, Serializable {
     /* Whether we are in "long-distance mode". This is currently a server-wide setting, but it could be made per-request. */
     public boolean longDistance = false;
 
+    /**
+     * The rule used to decide which states can be dropped at each vertex in a multi-state search.
+     * Null means the default {@link DominanceFunction.Hopeful} rule.
+     */
+    public DominanceFunction dominanceFunction = null;
+
     /* CONSTRUCTORS */
 
     /** Constructor for options; modes defaults to walk and transit */
@@ -830,6 +850,8 @@ public class RoutingRequest implements Cloneable, Serializable {
         if (rctx == null) {
             // graphService.getGraph(routerId)
             this.rctx = new RoutingContext(this, graph);
+            // the search may have been aborted by another thread while the context was being built
+            this.rctx.searchAbortTime = searchAbortTime;
             // check after back reference is established, to allow temp edge cleanup on exceptions
             this.rctx.check();
         } else {
@@ -994,6 +1016,18 @@ public class RoutingRequest implements Cloneable, Serializable {
         return hashCode;
     }
 
+    /**
+     * Stop any search being carried out for this request as soon as possible, e.g. because the client has gone away.
+     * This may be called from any thread. Searches that are already running return the paths found so far.
+     */
+    public void abortSearch() {
+        searchAbortTime = 1;
+        RoutingContext context = rctx;
+        if (context != null) {
+            context.searchAbortTime = 1;
+        }
+    }
+
     /** Tear down any routing context (remove temporary edges from edge lists) */
     public void cleanup() {
         if (this.rctx == null)
@@ -51,6 +51,11 @@ public class TransferTable implements Serializable {
     public boolean hasPreferredTransfers() {
         return preferredTransfers;
     }
+
+    /** @return true if no transfers have been added to this table. */
+    public boolean isEmpty() {
+        return table.isEmpty();
+    }
     
     /**
      * Get the transfer time that should be used when transferring from a trip to another trip.
@@ -23,6 +23,7 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import org.apache.commons.math3.util.FastMath;
 import org.onebusaway.gtfs.model.Agency;
@@ -37,6 +38,7 @@ import org.onebusaway.gtfs.model.Transfer;
 import org.onebusaway.gtfs.model.Trip;
 import org.onebusaway.gtfs.services.GtfsRelationalDao;
 import org.onebusaway.gtfs.services.calendar.CalendarService;
+import org.opentripplanner.common.ParallelTasks;
 import org.opentripplanner.common.geometry.DistanceLibrary;
 import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.common.geometry.PackedCoordinateSequence;
@@ -66,6 +68,7 @@ import org.opentripplanner.routing.impl.OnBoardDepartServiceImpl;
 import org.opentripplanner.routing.services.FareService;
 import org.opentripplanner.routing.services.FareServiceFactory;
 import org.opentripplanner.routing.services.OnBoardDepartService;
+import org.opentripplanner.routing.trippattern.Deduplicator;
 import org.opentripplanner.routing.trippattern.FrequencyEntry;
 import org.opentripplanner.routing.trippattern.TripTimes;
 import org.opentripplanner.routing.vertextype.TransitStation;
@@ -292,6 +295,11 @@ public class GTFSPatternHopFactory {
 
     private int defaultStreetToStopTime;
 
+    /** Number of trips handed to a worker thread at once. */
+    private static final int TRIP_CHUNK_SIZE = 1000;
+
+    private int threads = 1;
+
     private static final DistanceLibrary distanceLibrary = SphericalDistanceLibrary.getInstance();
 
     private double maxStopToShapeSnapDistance = 150;
@@ -353,71 +361,83 @@ public class GTFSPatternHopFactory {
          */
         Map<TripPattern, LineString[]> geometriesByTripPattern = Maps.newHashMap();
         
-        TRIP : for (Trip trip : trips) {
-            if (++tripCount % 100000 == 0) {
-                LOG.debug("loading trips {}/{}", tripCount, trips.size());
-            }
-
-            // TODO: move to a validator module
-            if ( ! _calendarService.getServiceIds().contains(trip.getServiceId())) {
-                LOG.warn(graph.addBuilderAnnotation(new TripUndefinedService(trip)));
-            }
-
-            /* Fetch the stop times for this trip. Copy the list since it's immutable. */
-            List<StopTime> stopTimes = new ArrayList<StopTime>(_dao.getStopTimesForTrip(trip));
+        /* Stop times are repaired and TripTimes are built for chunks of trips, on worker threads
+         * if more than one thread is allowed. The results are consumed here in trip order, so the
+         * patterns and annotations are the same whatever the number of threads.
+         */
+        List<Trip> tripList = new ArrayList<Trip>(trips);
+        if (!tripList.isEmpty()) {
+            // The DAO builds its index of stop times by trip lazily, which is not thread safe.
+            _dao.getStopTimesForTrip(tripList.get(0));
+        }
+        List<TripPreparer> tasks = new ArrayList<TripPreparer>();
+        for (int start = 0; start < tripList.size(); start += TRIP_CHUNK_SIZE) {
+            int end = Math.min(start + TRIP_CHUNK_SIZE, tripList.size());
+            tasks.add(new TripPreparer(tripList.subList(start, end), graph.deduplicator));
+        }
+        // Keep a bounded number of chunks in flight to limit memory use.
+        ParallelTasks.InOrder<List<PreparedTrip>> chunks = ParallelTasks.inOrder(tasks, threads,
+                threads * 4, "building trips");
+        try {
+            while (chunks.hasNext()) {
+                for (PreparedTrip prepared : chunks.next()) {
+                    Trip trip = prepared.trip;
+                    if (++tripCount % 100000 == 0) {
+                        LOG.debug("loading trips {}/{}", tripCount, trips.size());
+                    }
 
-            /* GTFS stop times frequently contain duplicate, missing, or incorrect entries. Repair them. */
-            if (removeRepeatedStops(stopTimes)) {
-                LOG.warn(graph.addBuilderAnnotation(new RepeatedStops(trip)));
-            }
-            filterStopTimes(stopTimes, graph);
-            interpolateStopTimes(stopTimes);   
-            
-            /* If after filtering this trip does not contain at least 2 stoptimes, it does not serve any purpose. */
-            if (stopTimes.size() < 2) {
-                LOG.warn(graph.addBuilderAnnotation(new TripDegenerate(trip)));
-                continue TRIP;
-            }
+                    // TODO: move to a validator module
+                    if ( ! _calendarService.getServiceIds().contains(trip.getServiceId())) {
+                        LOG.warn(graph.addBuilderAnnotation(new TripUndefinedService(trip)));
+                    }
+                    for (GraphBuilderAnnotation annotation : prepared.annotations) {
+                        graph.addBuilderAnnotation(annotation);
+                    }
 
-            /* Get the existing TripPattern for this filtered StopPattern, or create one. */
-            StopPattern stopPattern = new StopPattern(stopTimes);
-            TripPattern tripPattern = tripPatterns.get(stopPattern);
-            if (tripPattern == null) {
-                tripPattern = new TripPattern(trip.getRoute(), stopPattern);
-                tripPatterns.put(stopPattern, tripPattern);
-            }
+                    /* If after filtering this trip does not contain at least 2 stoptimes, it does not serve any purpose. */
+                    if (prepared.tripTimes == null) {
+                        continue;
+                    }
+                    List<StopTime> stopTimes = prepared.stopTimes;
+                    TripTimes tripTimes = prepared.tripTimes;
+
+                    /* Get the existing TripPattern for this filtered StopPattern, or create one. */
+                    TripPattern tripPattern = tripPatterns.get(prepared.stopPattern);
+                    if (tripPattern == null) {
+                        tripPattern = new TripPattern(trip.getRoute(), prepared.stopPattern);
+                        tripPatterns.put(prepared.stopPattern, tripPattern);
+                    }
 
-            /* Create a TripTimes object for this list of stoptimes, which form one trip. */
-            TripTimes tripTimes = new TripTimes(trip, stopTimes, graph.deduplicator);
+                    /* If this trip is referenced by one or more lines in frequencies.txt, wrap it in a FrequencyEntry. */
+                    List<Frequency> frequencies = frequenciesForTrip.get(trip);
+                    if (frequencies != null && !(frequencies.isEmpty())) {
+                        for (Frequency freq : frequencies) {
+                            tripPattern.add(new FrequencyEntry(freq, tripTimes));
+                            freqCount++;
+                        }
+                        // TODO replace: createGeometry(graph, trip, stopTimes, hops);
+                    }
 
-            /* If this trip is referenced by one or more lines in frequencies.txt, wrap it in a FrequencyEntry. */
-            List<Frequency> frequencies = frequenciesForTrip.get(trip);
-            if (frequencies != null && !(frequencies.isEmpty())) {
-                for (Frequency freq : frequencies) {
-                    tripPattern.add(new FrequencyEntry(freq, tripTimes));
-                    freqCount++;
-                }
-                // TODO replace: createGeometry(graph, trip, stopTimes, hops);
-            }
+                    /* This trip was not frequency-based. Add the TripTimes directly to the TripPattern's scheduled timetable. */
+                    else {
+                        tripPattern.add(tripTimes);
+                        nonFreqCount++;
+                    }
 
-            /* This trip was not frequency-based. Add the TripTimes directly to the TripPattern's scheduled timetable. */
-            else {
-                tripPattern.add(tripTimes);
-                nonFreqCount++;
-            }
-            
-            // create geometries if they aren't already created
-            // note that this is not only done on new trip patterns, because it is possible that
-            // there would be a trip pattern with no geometry yet because it failed some of these tests
-            if (!geometriesByTripPattern.containsKey(tripPattern) && 
-                    trip.getShapeId() != null && trip.getShapeId().getId() != null &&
-                    !trip.getShapeId().getId().equals("")) {
-                // save the geometry to later be applied to the hops
-                geometriesByTripPattern.put(tripPattern,  createGeometry(graph, trip, stopTimes));
+                    // create geometries if they aren't already created
+                    // note that this is not only done on new trip patterns, because it is possible that
+                    // there would be a trip pattern with no geometry yet because it failed some of these tests
+                    if (!geometriesByTripPattern.containsKey(tripPattern) && 
+                            trip.getShapeId() != null && trip.getShapeId().getId() != null &&
+                            !trip.getShapeId().getId().equals("")) {
+                        // save the geometry to later be applied to the hops
+                        geometriesByTripPattern.put(tripPattern,  createGeometry(graph, trip, stopTimes));
+                    }
+                } // end foreach TRIP
             }
-
-
-        } // end foreach TRIP
+        } finally {
+            chunks.close();
+        }
         LOG.info("Added {} frequency-based and {} single-trip timetable entries.", freqCount, nonFreqCount);
 
         /* Generate unique human-readable names for all the TableTripPatterns. */
@@ -458,6 +478,74 @@ public class GTFSPatternHopFactory {
         graph.putService(OnBoardDepartService.class, new OnBoardDepartServiceImpl());
     }
 
+    /**
+     * Repair the stop times of a trip and build its TripTimes. This does not touch the graph or
+     * any other shared state except the deduplicator, so it may be called from several threads.
+     * Annotations are collected in the result, to be added to the graph in trip order.
+     */
+    private PreparedTrip prepareTrip(Trip trip, Deduplicator deduplicator) {
+        PreparedTrip prepared = new PreparedTrip(trip);
+
+        /* Fetch the stop times for this trip. Copy the list since it's immutable. */
+        List<StopTime> stopTimes = new ArrayList<StopTime>(_dao.getStopTimesForTrip(trip));
+
+        /* GTFS stop times frequently contain duplicate, missing, or incorrect entries. Repair them. */
+        if (removeRepeatedStops(stopTimes)) {
+            LOG.warn(prepared.annotate(new RepeatedStops(trip)));
+        }
+        filterStopTimes(stopTimes, prepared);
+        interpolateStopTimes(stopTimes);
+
+        if (stopTimes.size() < 2) {
+            LOG.warn(prepared.annotate(new TripDegenerate(trip)));
+            return prepared;
+        }
+        prepared.stopTimes = stopTimes;
+        prepared.stopPattern = new StopPattern(stopTimes);
+        /* Create a TripTimes object for this list of stoptimes, which form one trip. */
+        prepared.tripTimes = new TripTimes(trip, stopTimes, deduplicator);
+        return prepared;
+    }
+
+    /** The stop times, pattern and TripTimes of a trip, or only annotations if it was degenerate. */
+    private static class PreparedTrip {
+        final Trip trip;
+        final List<GraphBuilderAnnotation> annotations = new ArrayList<GraphBuilderAnnotation>(0);
+        List<StopTime> stopTimes;
+        StopPattern stopPattern;
+        TripTimes tripTimes;
+
+        PreparedTrip(Trip trip) {
+            this.trip = trip;
+        }
+
+        /** Same contract as Graph.addBuilderAnnotation: record the annotation, return its message. */
+        String annotate(GraphBuilderAnnotation annotation) {
+            annotations.add(annotation);
+            return annotation.getMessage();
+        }
+    }
+
+    /** Prepares one chunk of trips. */
+    private class TripPreparer implements Callable<List<PreparedTrip>> {
+        private final List<Trip> trips;
+        private final Deduplicator deduplicator;
+
+        TripPreparer(List<Trip> trips, Deduplicator deduplicator) {
+            this.trips = trips;
+            this.deduplicator = deduplicator;
+        }
+
+        @Override
+        public List<PreparedTrip> call() {
+            List<PreparedTrip> prepared = new ArrayList<PreparedTrip>(trips.size());
+            for (Trip trip : trips) {
+                prepared.add(prepareTrip(trip, deduplicator));
+            }
+            return prepared;
+        }
+    }
+
     /**
      * Identify interlined trips (where a physical vehicle continues on to another logical trip)
      * and update the TripPatterns accordingly. This must be called after all the pattern edges and vertices
@@ -737,7 +825,7 @@ public class GTFSPatternHopFactory {
      * @param stopTimes the stoptimes to be filtered (from a single trip)
      * @param graph the graph where annotations will be registered
      */
-    private void filterStopTimes(List<StopTime> stopTimes, Graph graph) {
+    private void filterStopTimes(List<StopTime> stopTimes, PreparedTrip prepared) {
         
         if (stopTimes.size() < 2) return;
         StopTime st0 = stopTimes.get(0);
@@ -788,7 +876,7 @@ public class GTFSPatternHopFactory {
             }
             int dwellTime = st0.getDepartureTime() - st0.getArrivalTime(); 
             if (dwellTime < 0) {
-                LOG.warn(graph.addBuilderAnnotation(new NegativeDwellTime(st0)));
+                LOG.warn(prepared.annotate(new NegativeDwellTime(st0)));
                 if (st0.getArrivalTime() > 23 * SECONDS_IN_HOUR && st0.getDepartureTime() < 1 * SECONDS_IN_HOUR) {
                     midnightCrossed = true;
                     st0.setDepartureTime(st0.getDepartureTime() + 24 * SECONDS_IN_HOUR);
@@ -799,7 +887,7 @@ public class GTFSPatternHopFactory {
             int runningTime = st1.getArrivalTime() - st0.getDepartureTime();
 
             if (runningTime < 0) {
-                LOG.warn(graph.addBuilderAnnotation(new NegativeHopTime(new StopTime(st0), new StopTime(st1))));
+                LOG.warn(prepared.annotate(new NegativeHopTime(new StopTime(st0), new StopTime(st1))));
                 // negative hops are usually caused by incorrect coding of midnight crossings
                 midnightCrossed = true;
                 if (st0.getDepartureTime() > 23 * SECONDS_IN_HOUR && st1.getArrivalTime() < 1 * SECONDS_IN_HOUR) {
@@ -826,7 +914,7 @@ public class GTFSPatternHopFactory {
                 st0.getDepartureTime() == st1.getDepartureTime()) {
                 LOG.trace("{} {}", st0, st1);
                 // series of identical stop times at different stops
-                LOG.trace(graph.addBuilderAnnotation(new HopZeroTime((float) hopDistance, 
+                LOG.trace(prepared.annotate(new HopZeroTime((float) hopDistance, 
                           st1.getTrip(), st1.getStopSequence())));
                 // clear stoptimes that are obviously wrong, causing them to later be interpolated
 /* FIXME (lines commented out because they break routability in multi-feed NYC for some reason -AMB) */
@@ -836,11 +924,11 @@ public class GTFSPatternHopFactory {
             } else if (hopSpeed > 45) {
                 // 45 m/sec ~= 100 miles/hr
                 // elapsed time of 0 will give speed of +inf
-                LOG.trace(graph.addBuilderAnnotation(new HopSpeedFast((float) hopSpeed, 
+                LOG.trace(prepared.annotate(new HopSpeedFast((float) hopSpeed, 
                         (float) hopDistance, st0.getTrip(), st0.getStopSequence())));
             } else if (hopSpeed < 0.1) {
                 // 0.1 m/sec ~= 0.2 miles/hr
-                LOG.trace(graph.addBuilderAnnotation(new HopSpeedSlow((float) hopSpeed, 
+                LOG.trace(prepared.annotate(new HopSpeedSlow((float) hopSpeed, 
                         (float) hopDistance, st0.getTrip(), st0.getStopSequence())));
             }
             // st0 should reflect the last stoptime that was not clearly incorrect
@@ -1405,4 +1493,12 @@ public class GTFSPatternHopFactory {
         this.maxStopToShapeSnapDistance = maxStopToShapeSnapDistance;
     }
 
+    /**
+     * Set the number of threads used to repair stop times and build TripTimes. Patterns, edges
+     * and geometries are still built on the calling thread.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
 }
@@ -0,0 +1,253 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the format written by {@link BlockCompressedOutputStream}. Compressed blocks are read
+ * ahead of the consumer and inflated on a pool of threads, and each block's checksum is verified.
+ * Blocks are only read as they are needed, so a reader that stops early (e.g. a BASIC graph load,
+ * which only reads the graph header) does not pay for the rest of the stream.
+ */
+public class BlockCompressedInputStream extends InputStream {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BlockCompressedInputStream.class);
+
+    /** Pool threads must not keep the JVM alive if a stream is abandoned without being closed. */
+    static final ThreadFactory DAEMON_THREADS = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = Executors.defaultThreadFactory().newThread(r);
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    private final DataInputStream in;
+
+    final ExecutorService executor;
+
+    /** The blocks being inflated, in stream order. */
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+
+    private final int maxPending;
+
+    /** The total compressed size of the stream, or -1 if unknown. Used to report progress. */
+    private final long totalBytes;
+
+    private long bytesRead = 0;
+
+    private int lastPercent = 0;
+
+    private boolean endReached = false;
+
+    private byte[] block = new byte[0];
+
+    private int position = 0;
+
+    /**
+     * @param in a stream positioned just after the header, see {@link #isBlockCompressed}.
+     * @param totalBytes the length of the whole stream, or -1 if unknown.
+     */
+    private BlockCompressedInputStream(InputStream in, int threads, long totalBytes) {
+        this.in = new DataInputStream(in);
+        this.executor = Executors.newFixedThreadPool(threads, DAEMON_THREADS);
+        this.maxPending = threads * 2;
+        this.totalBytes = totalBytes;
+        this.bytesRead = BlockCompressedOutputStream.MAGIC.length + 4;
+    }
+
+    /**
+     * If the given stream is in the block compressed format, return a stream of its uncompressed
+     * contents. Otherwise return a stream of the given stream's contents unchanged, so that graphs
+     * serialized before this format was introduced can still be read.
+     *
+     * @param totalBytes the length of the stream if known (for progress reporting), or -1.
+     */
+    public static InputStream decompressIfNeeded(InputStream in, long totalBytes) throws IOException {
+        if (!in.markSupported())
+            in = new BufferedInputStream(in);
+        byte[] magic = BlockCompressedOutputStream.MAGIC;
+        in.mark(magic.length);
+        byte[] head = new byte[magic.length];
+        int n = 0;
+        while (n < head.length) {
+            int r = in.read(head, n, head.length - n);
+            if (r < 0)
+                break;
+            n += r;
+        }
+        if (n < head.length || !Arrays.equals(head, magic)) {
+            in.reset();
+            return in;
+        }
+        int version = new DataInputStream(in).readInt();
+        if (version != BlockCompressedOutputStream.VERSION)
+            throw new IOException("Unsupported block compressed stream version " + version);
+        return new BlockCompressedInputStream(in, Runtime.getRuntime().availableProcessors(), totalBytes);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == block.length && !nextBlock())
+            return -1;
+        return block[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (position == block.length && !nextBlock())
+            return -1;
+        int n = Math.min(len, block.length - position);
+        System.arraycopy(block, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return block.length - position;
+    }
+
+    /**
+     * Move on to the next non-empty block. The pool is shut down as soon as the end of the stream
+     * is reached or an error occurs, so that a stream which is read to the end does not hold on
+     * to its threads even if it is never closed.
+     * @return false at the end of the stream.
+     */
+    private boolean nextBlock() throws IOException {
+        try {
+            return takeBlock();
+        } catch (IOException e) {
+            executor.shutdownNow();
+            throw e;
+        } catch (RuntimeException e) {
+            executor.shutdownNow();
+            throw e;
+        }
+    }
+
+    private boolean takeBlock() throws IOException {
+        do {
+            fill();
+            Future<byte[]> next = pending.poll();
+            if (next == null) {
+                executor.shutdown();
+                return false;
+            }
+            try {
+                block = next.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while decompressing graph");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException)
+                    throw (IOException) e.getCause();
+                throw new IOException("Failed to decompress graph block", e.getCause());
+            }
+            position = 0;
+        } while (block.length == 0);
+        return true;
+    }
+
+    /** Read compressed blocks and start inflating them until enough are in flight. */
+    private void fill() throws IOException {
+        while (!endReached && pending.size() < maxPending) {
+            final int length = in.readInt();
+            if (length == 0) {
+                endReached = true;
+                break;
+            }
+            int compressedLength = in.readInt();
+            final int crc = in.readInt();
+            if (length < 0 || compressedLength < 0)
+                throw new IOException("Corrupt block header in compressed graph");
+            final byte[] compressed = new byte[compressedLength];
+            in.readFully(compressed);
+            bytesRead += 12 + compressedLength;
+            reportProgress();
+            pending.add(executor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws IOException {
+                    return inflate(compressed, length, crc);
+                }
+            }));
+        }
+    }
+
+    private static byte[] inflate(byte[] compressed, int length, int crc) throws IOException {
+        byte[] data = new byte[length];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int n = 0;
+            while (n < length && !inflater.finished()) {
+                int r = inflater.inflate(data, n, length - n);
+                if (r == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                n += r;
+            }
+            if (n != length)
+                throw new EOFException("Truncated block in compressed graph");
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block in compressed graph", e);
+        } finally {
+            inflater.end();
+        }
+        CRC32 check = new CRC32();
+        check.update(data);
+        if ((int) check.getValue() != crc)
+            throw new IOException("Checksum mismatch in compressed graph block");
+        return data;
+    }
+
+    private void reportProgress() {
+        if (totalBytes <= 0)
+            return;
+        int percent = (int) (bytesRead * 100 / totalBytes);
+        if (percent >= lastPercent + 10) {
+            lastPercent = percent - percent % 10;
+            LOG.info("Read {}% of graph ({} MB)", lastPercent, bytesRead / (1024 * 1024));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        executor.shutdownNow();
+        in.close();
+    }
+
+}
@@ -0,0 +1,173 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * An output stream that cuts the bytes written to it into blocks, deflates the blocks on a pool of
+ * threads, and writes them to the underlying stream in order. Each block carries a checksum of its
+ * uncompressed contents, so corruption is detected block by block on reading. The format is read
+ * back by {@link BlockCompressedInputStream}:
+ *
+ * <pre>
+ * header:  MAGIC (4 bytes), VERSION (int)
+ * block:   uncompressed length (int), compressed length (int), CRC32 of uncompressed data (int), data
+ * end:     a block with an uncompressed length of 0 and nothing else
+ * </pre>
+ */
+public class BlockCompressedOutputStream extends OutputStream {
+
+    static final byte[] MAGIC = { 'O', 'T', 'P', 'Z' };
+
+    static final int VERSION = 1;
+
+    static final int BLOCK_SIZE = 1 << 20;
+
+    private final DataOutputStream out;
+
+    private final ExecutorService executor;
+
+    /** The blocks being compressed, in the order they must be written. */
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+
+    private final int maxPending;
+
+    private byte[] buffer = new byte[BLOCK_SIZE];
+
+    private int count = 0;
+
+    private boolean closed = false;
+
+    public BlockCompressedOutputStream(OutputStream out, int threads) throws IOException {
+        this.out = new DataOutputStream(out);
+        this.executor = Executors.newFixedThreadPool(threads, BlockCompressedInputStream.DAEMON_THREADS);
+        this.maxPending = threads * 2;
+        this.out.write(MAGIC);
+        this.out.writeInt(VERSION);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == BLOCK_SIZE)
+            endBlock();
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == BLOCK_SIZE)
+                endBlock();
+            int n = Math.min(len, BLOCK_SIZE - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /** Hand the buffered bytes to the compression pool, writing out finished blocks as needed. */
+    private void endBlock() throws IOException {
+        if (count == 0)
+            return;
+        final byte[] data = count == BLOCK_SIZE ? buffer : Arrays.copyOf(buffer, count);
+        pending.add(executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return compress(data);
+            }
+        }));
+        buffer = new byte[BLOCK_SIZE];
+        count = 0;
+        while (pending.size() >= maxPending)
+            writeBlock(pending.poll());
+    }
+
+    private void writeBlock(Future<byte[]> block) throws IOException {
+        try {
+            out.write(block.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing graph");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to compress graph block", e.getCause());
+        }
+    }
+
+    /** @return the block with its header, ready to be written. */
+    private static byte[] compress(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] block = new byte[12 + data.length + data.length / 1000 + 64];
+        int length = 12;
+        while (!deflater.finished()) {
+            if (length == block.length)
+                block = Arrays.copyOf(block, block.length * 2);
+            length += deflater.deflate(block, length, block.length - length);
+        }
+        deflater.end();
+        int compressed = length - 12;
+        writeInt(block, 0, data.length);
+        writeInt(block, 4, compressed);
+        writeInt(block, 8, (int) crc.getValue());
+        return Arrays.copyOf(block, length);
+    }
+
+    private static void writeInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    /** Flushing ends the current block, so a reader can see everything written so far. */
+    @Override
+    public void flush() throws IOException {
+        endBlock();
+        while (!pending.isEmpty())
+            writeBlock(pending.poll());
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            flush();
+            out.writeInt(0);
+            out.close();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
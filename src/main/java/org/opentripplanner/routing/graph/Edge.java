@@ -27,6 +27,7 @@ import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.util.IncrementingIdGenerator;
 import org.opentripplanner.routing.util.UniqueIdGenerator;
 
+import com.vividsolutions.jts.geom.CoordinateSequence;
 import com.vividsolutions.jts.geom.LineString;
 
 /**
@@ -224,6 +225,16 @@ public abstract class Edge implements Serializable {
         return null;
     }
 
+    /**
+     * The points of this edge's geometry, or null if it has none. Edges that keep their geometry
+     * in a compact form override this so that callers only reading the points (such as itinerary
+     * polyline encoding) do not need to build a LineString.
+     */
+    public CoordinateSequence getCoordinateSequence() {
+        LineString geometry = getGeometry();
+        return geometry == null ? null : geometry.getCoordinateSequence();
+    }
+
     /**
      * Returns the azimuth of this edge from head to tail.
      * 
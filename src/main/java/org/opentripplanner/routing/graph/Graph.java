@@ -51,6 +51,7 @@ import org.onebusaway.gtfs.services.calendar.CalendarService;
 import org.opentripplanner.analyst.core.GeometryIndex;
 import org.opentripplanner.analyst.request.SampleFactory;
 import org.opentripplanner.api.resource.GraphMetadata;
+import org.opentripplanner.common.AutocompleteIndex;
 import org.opentripplanner.common.MavenVersion;
 import org.opentripplanner.common.TurnRestriction;
 import org.opentripplanner.common.geometry.GraphUtils;
@@ -58,6 +59,7 @@ import org.opentripplanner.graph_builder.annotation.GraphBuilderAnnotation;
 import org.opentripplanner.graph_builder.annotation.NoFutureDates;
 import org.opentripplanner.model.GraphBundle;
 import org.opentripplanner.routing.alertpatch.AlertPatch;
+import org.opentripplanner.routing.alertpatch.AlertPatchIndex;
 import org.opentripplanner.routing.core.MortonVertexComparatorFactory;
 import org.opentripplanner.routing.core.TransferTable;
 import org.opentripplanner.routing.edgetype.StreetEdge;
@@ -93,8 +95,16 @@ public class Graph implements Serializable {
     // TODO Remove this field, use Router.routerId ?
     public String routerId;
 
+    /** The authoritative, mutable alert patch sets. Guarded by its own monitor; only writers lock it. */
     private final Map<Edge, Set<AlertPatch>> alertPatches = new HashMap<Edge, Set<AlertPatch>>(0);
 
+    /** Copy-on-write snapshot of alertPatches, swapped atomically and read without locking. */
+    private transient volatile AlertPatchIndex alertPatchIndex = AlertPatchIndex.EMPTY;
+
+    private transient int alertPatchUpdateDepth = 0;
+
+    private transient boolean alertPatchesDirty = false;
+
     private final Map<Edge, List<TurnRestriction>> turnRestrictions = Maps.newHashMap();
 
     public final StreetNotesService streetNotesService = new StreetNotesService();
@@ -138,6 +148,12 @@ public class Graph implements Serializable {
      */
     public final Map<AgencyAndId, Integer> serviceCodes = Maps.newHashMap();
 
+    /**
+     * Type-ahead index of the names of stops and intersections, built by the graph builder and saved with the
+     * graph. Null for graphs built before it existed, in which case it is built on first use.
+     */
+    public AutocompleteIndex autocompleteIndex = null;
+
     public transient TimetableSnapshotSource timetableSnapshotSource = null;
 
     private transient List<GraphBuilderAnnotation> graphBuilderAnnotations = new LinkedList<GraphBuilderAnnotation>(); // initialize for tests
@@ -283,6 +299,8 @@ public class Graph implements Serializable {
 
     /**
      * Add an {@link AlertPatch} to the {@link AlertPatch} {@link Set} belonging to an {@link Edge}.
+     * The change becomes visible to readers immediately, or at the end of the enclosing
+     * {@link #beginAlertPatchUpdate()} / {@link #commitAlertPatchUpdate()} block if there is one.
      * @param edge
      * @param alertPatch
      */
@@ -300,12 +318,13 @@ public class Graph implements Serializable {
                     this.alertPatches.put(edge, alertPatches);
                 }
             }
+            alertPatchesChanged();
         }
     }
 
     /**
      * Remove an {@link AlertPatch} from the {@link AlertPatch} {@link Set} belonging to an
-     * {@link Edge}.
+     * {@link Edge}. Visibility of the change follows the same rules as {@link #addAlertPatch}.
      * @param edge
      * @param alertPatch
      */
@@ -319,25 +338,70 @@ public class Graph implements Serializable {
                 } else {
                     alertPatches.remove(alertPatch);
                 }
+                alertPatchesChanged();
             }
         }
     }
 
     /**
-     * Get the {@link AlertPatch} {@link Set} that belongs to an {@link Edge} and build a new array.
+     * Defer publication of alert patch changes until the matching call to
+     * {@link #commitAlertPatchUpdate()}, so that readers see all edges of a patch appear or
+     * disappear at once and the index is rebuilt only once per batch. Calls may be nested.
+     */
+    public void beginAlertPatchUpdate() {
+        synchronized (alertPatches) {
+            alertPatchUpdateDepth++;
+        }
+    }
+
+    /**
+     * End a batch started with {@link #beginAlertPatchUpdate()}, publishing a new alert patch
+     * index if anything changed and this was the outermost batch.
+     */
+    public void commitAlertPatchUpdate() {
+        synchronized (alertPatches) {
+            if (alertPatchUpdateDepth > 0) {
+                alertPatchUpdateDepth--;
+            }
+            if (alertPatchesDirty) {
+                alertPatchesChanged();
+            }
+        }
+    }
+
+    /** Must be called while holding the alertPatches lock. */
+    private void alertPatchesChanged() {
+        alertPatchesDirty = true;
+        if (alertPatchUpdateDepth == 0) {
+            alertPatchIndex = new AlertPatchIndex(alertPatches);
+            alertPatchesDirty = false;
+        }
+    }
+
+    /**
+     * Get the {@link AlertPatch}es that belong to an {@link Edge}. This does not lock or allocate:
+     * it reads the current immutable {@link AlertPatchIndex}.
      * @param edge
-     * @return The {@link AlertPatch} array that belongs to the {@link Edge}
+     * @return The {@link AlertPatch} array that belongs to the {@link Edge}. It is shared and
+     *         must not be modified.
      */
     public AlertPatch[] getAlertPatches(Edge edge) {
-        if (edge != null) {
+        return getAlertPatchIndex().getAlertPatches(edge);
+    }
+
+    /** @return the current immutable snapshot of all alert patches in this graph. */
+    public AlertPatchIndex getAlertPatchIndex() {
+        AlertPatchIndex index = alertPatchIndex;
+        if (index == null) {
+            // The index is transient and must be rebuilt once after deserialization.
             synchronized (alertPatches) {
-                Set<AlertPatch> alertPatches = this.alertPatches.get(edge);
-                if (alertPatches != null) {
-                    return alertPatches.toArray(new AlertPatch[alertPatches.size()]);
+                if (alertPatchIndex == null) {
+                    alertPatchIndex = new AlertPatchIndex(alertPatches);
                 }
+                index = alertPatchIndex;
             }
         }
-        return new AlertPatch[0];
+        return index;
     }
 
     /**
@@ -596,21 +660,39 @@ public class Graph implements Serializable {
     public static Graph load(File file, LoadLevel level) throws IOException, ClassNotFoundException {
         LOG.info("Reading graph " + file.getAbsolutePath() + " ...");
         // cannot use getClassLoader() in static context
-        ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
-        return load(in, level);
+        InputStream in = BlockCompressedInputStream.decompressIfNeeded(
+                new BufferedInputStream(new FileInputStream(file)), file.length());
+        try {
+            return load(new ObjectInputStream(in), level);
+        } finally {
+            in.close();
+        }
     }
 
     public static Graph load(ClassLoader classLoader, File file, LoadLevel level)
             throws IOException, ClassNotFoundException {
         LOG.info("Reading graph " + file.getAbsolutePath() + " with alternate classloader ...");
-        ObjectInputStream in = new GraphObjectInputStream(new BufferedInputStream(
-                new FileInputStream(file)), classLoader);
-        return load(in, level);
+        InputStream in = BlockCompressedInputStream.decompressIfNeeded(
+                new BufferedInputStream(new FileInputStream(file)), file.length());
+        try {
+            return load(new GraphObjectInputStream(in, classLoader), level);
+        } finally {
+            in.close();
+        }
     }
 
+    /**
+     * Load a graph from a stream in either the block compressed or the plain serialized format.
+     * The stream is closed when the graph has been read.
+     */
     public static Graph load(InputStream is, LoadLevel level) throws ClassNotFoundException,
             IOException {
-        return load(new ObjectInputStream(is), level);
+        InputStream in = BlockCompressedInputStream.decompressIfNeeded(is, -1);
+        try {
+            return load(new ObjectInputStream(in), level);
+        } finally {
+            in.close();
+        }
     }
 
     /**
@@ -733,11 +815,16 @@ public class Graph implements Serializable {
         }
     }
 
+    /**
+     * Save the graph to a file. The serialized graph is written through a
+     * {@link BlockCompressedOutputStream}, which compresses it on all available processors.
+     */
     public void save(File file) throws IOException {
         LOG.info("Main graph size: |V|={} |E|={}", this.countVertices(), this.countEdges());
         LOG.info("Writing graph " + file.getAbsolutePath() + " ...");
-        ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(
-                new FileOutputStream(file)));
+        ObjectOutputStream out = new ObjectOutputStream(new BlockCompressedOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)),
+                Runtime.getRuntime().availableProcessors()));
         try {
             save(out);
             out.close();
@@ -763,6 +850,8 @@ public class Graph implements Serializable {
         this.rebuildVertexAndEdgeIndices();
         LOG.debug("Writing edges...");
         out.writeObject(this);
+        // Flushing ends a block of a BlockCompressedOutputStream, so a BASIC load can stop here.
+        out.flush();
         out.writeObject(edges);
         if (debugData) {
             // should we make debug info generation conditional?
@@ -839,6 +928,58 @@ public class Graph implements Serializable {
         agenciesIds.add(agency.getId());
     }
 
+    /**
+     * Move the contents of another graph into this one. This allows graph builders that do not
+     * depend on one another to be run concurrently, each against its own empty graph, before the
+     * results are combined. The other graph must not be used afterward.
+     *
+     * State that cannot be combined (service codes, transfer tables, and services of the same type
+     * present in both graphs) is adopted from the other graph only if this graph has none of it;
+     * otherwise an IllegalStateException is thrown.
+     */
+    public void merge(Graph other) {
+        for (Vertex v : other.getVertices()) {
+            addVertex(v);
+        }
+        for (Map.Entry<Class<?>, Object> entry : other._services.entrySet()) {
+            if (_services.containsKey(entry.getKey())) {
+                throw new IllegalStateException("Both graphs contain a " + entry.getKey().getName());
+            }
+            _services.put(entry.getKey(), entry.getValue());
+        }
+        if (!other.serviceCodes.isEmpty()) {
+            if (!serviceCodes.isEmpty()) {
+                throw new IllegalStateException("Both graphs contain service codes.");
+            }
+            serviceCodes.putAll(other.serviceCodes);
+        }
+        if (!other.transferTable.isEmpty()) {
+            if (!transferTable.isEmpty()) {
+                throw new IllegalStateException("Both graphs contain transfer tables.");
+            }
+            transferTable = other.transferTable;
+        }
+        turnRestrictions.putAll(other.turnRestrictions);
+        deduplicator.addAll(other.deduplicator);
+        streetNotesService.addAll(other.streetNotesService);
+        agencies.addAll(other.agencies);
+        agenciesIds.addAll(other.agenciesIds);
+        transitServiceStarts = Math.min(transitServiceStarts, other.transitServiceStarts);
+        transitServiceEnds = Math.max(transitServiceEnds, other.transitServiceEnds);
+        if (graphBuilderAnnotations != null && other.graphBuilderAnnotations != null) {
+            graphBuilderAnnotations.addAll(other.graphBuilderAnnotations);
+        }
+        if (embeddedPreferences == null) embeddedPreferences = other.embeddedPreferences;
+        if (preferences == null) preferences = other.preferences;
+        if (center == null) center = other.center;
+        hasStreets |= other.hasStreets;
+        hasTransit |= other.hasTransit;
+        hasDirectTransfers |= other.hasDirectTransfers;
+        // Derived from the services and agencies merged above
+        calendarService = null;
+        timeZone = null;
+    }
+
     public void addTemporaryEdge(Edge edge) {
         temporaryEdges.add(edge);
     }
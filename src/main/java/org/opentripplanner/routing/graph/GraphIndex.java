@@ -14,24 +14,20 @@ import org.onebusaway.gtfs.model.Stop;
 import org.onebusaway.gtfs.model.Trip;
 import org.onebusaway.gtfs.model.calendar.ServiceDate;
 import org.onebusaway.gtfs.services.calendar.CalendarService;
-import org.opentripplanner.common.LuceneIndex;
 import org.opentripplanner.common.geometry.DistanceLibrary;
 import org.opentripplanner.common.geometry.HashGridSpatialIndex;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
 import org.opentripplanner.common.model.P2;
+import org.opentripplanner.index.DepartureIndex;
 import org.opentripplanner.index.model.StopTimesInPattern;
-import org.opentripplanner.index.model.TripTimeShort;
 import org.opentripplanner.profile.ProfileTransfer;
 import org.opentripplanner.profile.StopCluster;
 import org.opentripplanner.profile.StopNameNormalizer;
-import org.opentripplanner.routing.core.RoutingRequest;
-import org.opentripplanner.routing.core.ServiceDay;
-import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.edgetype.TablePatternEdge;
-import org.opentripplanner.routing.edgetype.Timetable;
+import org.opentripplanner.routing.edgetype.TimetableResolver;
 import org.opentripplanner.routing.edgetype.TripPattern;
-import org.opentripplanner.routing.trippattern.TripTimes;
 import org.opentripplanner.routing.vertextype.TransitStop;
+import org.opentripplanner.updater.stoptime.TimetableSnapshotSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -71,14 +67,12 @@ public class GraphIndex {
     final HashGridSpatialIndex<TransitStop> stopSpatialIndex = new HashGridSpatialIndex<TransitStop>();
     public final Map<Stop, StopCluster> stopClusterForStop = Maps.newHashMap();
     public final Map<String, StopCluster> stopClusterForId = Maps.newHashMap();
+    public final DepartureIndex departureIndex;
 
     /* Should eventually be replaced with new serviceId indexes. */
     private final CalendarService calendarService;
     private final Map<AgencyAndId,Integer> serviceCodes;
 
-    /* Full-text search extensions */
-    public LuceneIndex luceneIndex;
-
     /* Separate transfers for profile routing */
     public Multimap<StopCluster, ProfileTransfer> transfersFromStopCluster;
     private HashGridSpatialIndex<StopCluster> stopClusterSpatialIndex = null;
@@ -138,6 +132,7 @@ public class GraphIndex {
         for (Route route : patternsForRoute.asMap().keySet()) {
             routeForId.put(route.getId(), route);
         }
+        departureIndex = new DepartureIndex(graph, patternForId.values());
 
         // Copy these two service indexes from the graph until we have better ones.
         calendarService = graph.getCalendarService();
@@ -294,38 +289,19 @@ public class GraphIndex {
     }
 
     /**
-     * Fetch upcoming vehicle arrivals at a stop.
-     * This is a rather convoluted process because all of the departure search functions currently assume the
-     * existence of a State and a routing context. It would be nice to have another function that gives
-     * all departures within a time window at a stop, being careful to get a mix of all patterns passing through
-     * that stop. In fact, such a function could replace the current boarding logic if we want to allow boarding
-     * more than one trip on the same route at once (return more than one state).
-     * The current implementation is a sketch and does not adequately
+     * Find the next departures from the given stop, grouped by pattern, with the latest realtime updates applied.
+     * This is a binary search in the precomputed {@link DepartureIndex}, so it is cheap enough for departure boards
+     * polling the index API.
+     * @param startTime the time in seconds since the epoch after which departures are wanted.
+     * @param numberOfDepartures the maximum number of departures for all patterns combined.
      */
-    public Collection<StopTimesInPattern> stopTimesForStop(Stop stop) {
-        List<StopTimesInPattern> ret = Lists.newArrayList();
-        RoutingRequest req = new RoutingRequest();
-        req.setRoutingContext(graph, (Vertex)null, (Vertex)null);
-        State state = new State(req);
-        for (TripPattern pattern : patternsForStop.get(stop)) {
-            StopTimesInPattern times = new StopTimesInPattern(pattern);
-            // Should actually be getUpdatedTimetable
-            Timetable table = pattern.scheduledTimetable;
-            // A Stop may occur more than once in a pattern, so iterate over all Stops.
-            int sidx = 0;
-            for (Stop currStop : table.pattern.stopPattern.stops) {
-                if (currStop != stop) continue;
-                for (ServiceDay sd : req.rctx.serviceDays) {
-                    TripTimes tt = table.getNextTrip(state, sd, sidx, true);
-                    if (tt != null) {
-                        times.times.add(new TripTimeShort(tt, sidx, stop));
-                    }
-                }
-                sidx++;
-            }
-            if ( ! times.times.isEmpty()) ret.add(times);
+    public List<StopTimesInPattern> stopTimesForStop(Stop stop, long startTime, int numberOfDepartures) {
+        TimetableSnapshotSource timetableSnapshotSource = graph.timetableSnapshotSource;
+        TimetableResolver snapshot = null;
+        if (timetableSnapshotSource != null) {
+            snapshot = timetableSnapshotSource.getTimetableSnapshot();
         }
-        return ret;
+        return departureIndex.stopTimesForStop(stop, startTime, numberOfDepartures, snapshot);
     }
 
     /**
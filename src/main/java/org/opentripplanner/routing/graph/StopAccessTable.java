@@ -0,0 +1,241 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+/**
+ * A precomputed table of the transit stops within walking distance of each street vertex, with the
+ * walking distance along the street network. It allows the access and egress legs of a transit
+ * search to be found with a table lookup instead of a street search around the origin.
+ *
+ * The table is stored in compressed sparse row form: the entries for row r are at positions
+ * rowStart[r] (inclusive) to rowStart[r + 1] (exclusive) of the parallel stop and distance arrays,
+ * sorted by increasing distance. Vertex indexes are reassigned when a graph is deserialized, so the
+ * rows are keyed on the vertices themselves and the vertex index to row mapping is rebuilt lazily.
+ *
+ * Distances are stored rather than times so that the same table serves any walk speed. They are
+ * measured from the vertex to the stop, which is the access direction; since walking is not
+ * constrained by one-way streets the same values are used for egress.
+ */
+public class StopAccessTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The search radius used to build the table, in meters. Lookups beyond it are incomplete. */
+    public final int radiusMeters;
+
+    private final Vertex[] vertices;
+
+    private final TransitStop[] stops;
+
+    private final int[] rowStart;
+
+    private final int[] stopForEntry;
+
+    private final int[] distanceForEntry;
+
+    /** Maps Vertex.getIndex() to a row, or -1. Built on first use because indexes are not stable. */
+    private transient volatile int[] rowForVertexIndex;
+
+    private StopAccessTable(int radiusMeters, Vertex[] vertices, TransitStop[] stops,
+            int[] rowStart, int[] stopForEntry, int[] distanceForEntry) {
+        this.radiusMeters = radiusMeters;
+        this.vertices = vertices;
+        this.stops = stops;
+        this.rowStart = rowStart;
+        this.stopForEntry = stopForEntry;
+        this.distanceForEntry = distanceForEntry;
+    }
+
+    public int countVertices() {
+        return vertices.length;
+    }
+
+    public int countEntries() {
+        return stopForEntry.length;
+    }
+
+    /**
+     * Find the stops that can be reached on foot from the given vertex. A vertex that is not in the
+     * table, such as the temporary vertex created for the origin of a request, is handled by
+     * following its outgoing edges one step to vertices that are in the table.
+     * 
+     * @param maxDistance the maximum walking distance in meters.
+     * @return the distance in meters to each stop found.
+     */
+    public TObjectIntMap<TransitStop> getNearbyStops(Vertex vertex, double maxDistance) {
+        TObjectIntMap<TransitStop> result = new TObjectIntHashMap<TransitStop>(16, 0.5f, Integer.MAX_VALUE);
+        int row = rowForVertex(vertex);
+        if (row >= 0) {
+            addRow(row, 0, maxDistance, result);
+        } else {
+            for (Edge e : vertex.getOutgoing()) {
+                Vertex v = e.getToVertex();
+                if (v instanceof TransitStop) {
+                    addStop((TransitStop) v, (int) e.getDistance(), maxDistance, result);
+                    continue;
+                }
+                row = rowForVertex(v);
+                if (row >= 0) {
+                    addRow(row, (int) e.getDistance(), maxDistance, result);
+                }
+            }
+        }
+        return result;
+    }
+
+    private void addRow(int row, int offset, double maxDistance, TObjectIntMap<TransitStop> result) {
+        for (int i = rowStart[row]; i < rowStart[row + 1]; i++) {
+            int distance = offset + distanceForEntry[i];
+            // Entries are sorted by distance, so the rest of the row is too far away.
+            if (distance > maxDistance) break;
+            addStop(stops[stopForEntry[i]], distance, maxDistance, result);
+        }
+    }
+
+    private static void addStop(TransitStop stop, int distance, double maxDistance,
+            TObjectIntMap<TransitStop> result) {
+        if (distance <= maxDistance && distance < result.get(stop)) {
+            result.put(stop, distance);
+        }
+    }
+
+    private int rowForVertex(Vertex vertex) {
+        int[] rows = rowForVertexIndex;
+        if (rows == null) {
+            rows = indexRows();
+        }
+        int index = vertex.getIndex();
+        if (index >= rows.length || rows[index] < 0 || vertices[rows[index]] != vertex) {
+            return -1;
+        }
+        return rows[index];
+    }
+
+    private synchronized int[] indexRows() {
+        if (rowForVertexIndex == null) {
+            int maxIndex = 0;
+            for (Vertex v : vertices) {
+                maxIndex = Math.max(maxIndex, v.getIndex());
+            }
+            int[] rows = new int[maxIndex + 1];
+            Arrays.fill(rows, -1);
+            for (int r = 0; r < vertices.length; r++) {
+                rows[vertices[r].getIndex()] = r;
+            }
+            rowForVertexIndex = rows;
+        }
+        return rowForVertexIndex;
+    }
+
+    /**
+     * Accumulates (vertex, stop, distance) entries in any order and packs them into a table. Each
+     * stop is expected to be added once, with all of the vertices found by a search around it.
+     */
+    public static class Builder {
+
+        private final int radiusMeters;
+
+        private final TObjectIntMap<Vertex> rowForVertex = new TObjectIntHashMap<Vertex>(1000, 0.5f, -1);
+
+        private final TObjectIntMap<TransitStop> indexForStop = new TObjectIntHashMap<TransitStop>(100, 0.5f, -1);
+
+        private final TIntArrayList rows = new TIntArrayList();
+
+        private final TIntArrayList stops = new TIntArrayList();
+
+        private final TIntArrayList distances = new TIntArrayList();
+
+        private Vertex[] vertexList = new Vertex[1000];
+
+        private TransitStop[] stopList = new TransitStop[100];
+
+        public Builder(int radiusMeters) {
+            this.radiusMeters = radiusMeters;
+        }
+
+        public void add(Vertex vertex, TransitStop stop, int distance) {
+            int row = rowForVertex.get(vertex);
+            if (row < 0) {
+                row = rowForVertex.size();
+                rowForVertex.put(vertex, row);
+                if (row == vertexList.length) {
+                    vertexList = Arrays.copyOf(vertexList, row * 2);
+                }
+                vertexList[row] = vertex;
+            }
+            int stopIndex = indexForStop.get(stop);
+            if (stopIndex < 0) {
+                stopIndex = indexForStop.size();
+                indexForStop.put(stop, stopIndex);
+                if (stopIndex == stopList.length) {
+                    stopList = Arrays.copyOf(stopList, stopIndex * 2);
+                }
+                stopList[stopIndex] = stop;
+            }
+            rows.add(row);
+            stops.add(stopIndex);
+            distances.add(distance);
+        }
+
+        public StopAccessTable build() {
+            int nRows = rowForVertex.size();
+            int nEntries = rows.size();
+            // Counting sort of the entries by row.
+            int[] rowStart = new int[nRows + 1];
+            for (int i = 0; i < nEntries; i++) {
+                rowStart[rows.get(i) + 1]++;
+            }
+            for (int r = 0; r < nRows; r++) {
+                rowStart[r + 1] += rowStart[r];
+            }
+            int[] next = Arrays.copyOf(rowStart, nRows);
+            int[] stopForEntry = new int[nEntries];
+            int[] distanceForEntry = new int[nEntries];
+            for (int i = 0; i < nEntries; i++) {
+                int pos = next[rows.get(i)]++;
+                stopForEntry[pos] = stops.get(i);
+                distanceForEntry[pos] = distances.get(i);
+            }
+            // Rows are short, so an insertion sort by distance is enough.
+            for (int r = 0; r < nRows; r++) {
+                for (int i = rowStart[r] + 1; i < rowStart[r + 1]; i++) {
+                    int s = stopForEntry[i];
+                    int d = distanceForEntry[i];
+                    int j = i - 1;
+                    while (j >= rowStart[r] && distanceForEntry[j] > d) {
+                        stopForEntry[j + 1] = stopForEntry[j];
+                        distanceForEntry[j + 1] = distanceForEntry[j];
+                        j--;
+                    }
+                    stopForEntry[j + 1] = s;
+                    distanceForEntry[j + 1] = d;
+                }
+            }
+            return new StopAccessTable(radiusMeters, Arrays.copyOf(vertexList, nRows),
+                    Arrays.copyOf(stopList, indexForStop.size()), rowStart, stopForEntry,
+                    distanceForEntry);
+        }
+
+    }
+
+}
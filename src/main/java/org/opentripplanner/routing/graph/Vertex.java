@@ -19,6 +19,7 @@ import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.bind.annotation.XmlTransient;
 
@@ -39,7 +40,8 @@ public abstract class Vertex implements Serializable, Cloneable {
 
     private static final Logger LOG = LoggerFactory.getLogger(Vertex.class);
 
-    private static int maxIndex = 0;
+    /* Atomic because graph builders may create vertices in several threads at once. */
+    private static final AtomicInteger maxIndex = new AtomicInteger();
 
     private int index;
     
@@ -64,7 +66,7 @@ public abstract class Vertex implements Serializable, Cloneable {
         this.label = label;
         this.x = x;
         this.y = y;
-        this.index = maxIndex  ++;
+        this.index = maxIndex.getAndIncrement();
         // null graph means temporary vertex
         if (g != null)
             g.addVertex(this);
@@ -256,7 +258,7 @@ public abstract class Vertex implements Serializable, Cloneable {
     }
 
     public static int getMaxIndex() {
-        return maxIndex;
+        return maxIndex.get();
     }
 
 
@@ -271,7 +273,7 @@ public abstract class Vertex implements Serializable, Cloneable {
         in.defaultReadObject();
         this.incoming = new Edge[0];
         this.outgoing = new Edge[0];
-        index = maxIndex++;
+        index = maxIndex.getAndIncrement();
     }
 
     /* UTILITY METHODS FOR SEARCHING, GRAPH BUILDING, AND GENERATING WALKSTEPS */
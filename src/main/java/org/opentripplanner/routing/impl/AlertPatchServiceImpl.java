@@ -73,54 +73,84 @@ public class AlertPatchServiceImpl implements AlertPatchService {
 
     @Override
     public synchronized void apply(AlertPatch alertPatch) {
-        if (alertPatches.containsKey(alertPatch.getId())) {
-            expire(alertPatches.get(alertPatch.getId()));
-        }
+        graph.beginAlertPatchUpdate();
+        try {
+            if (alertPatches.containsKey(alertPatch.getId())) {
+                expire(alertPatches.get(alertPatch.getId()));
+            }
 
-        alertPatch.apply(graph);
-        alertPatches.put(alertPatch.getId(), alertPatch);
+            alertPatch.apply(graph);
+            alertPatches.put(alertPatch.getId(), alertPatch);
 
-        AgencyAndId stop = alertPatch.getStop();
-        if (stop != null) {
-            patchesByStop.put(stop, alertPatch);
-        }
-        AgencyAndId route = alertPatch.getRoute();
-        if (route != null) {
-            patchesByRoute.put(route, alertPatch);
+            AgencyAndId stop = alertPatch.getStop();
+            if (stop != null) {
+                patchesByStop.put(stop, alertPatch);
+            }
+            AgencyAndId route = alertPatch.getRoute();
+            if (route != null) {
+                patchesByRoute.put(route, alertPatch);
+            }
+        } finally {
+            graph.commitAlertPatchUpdate();
         }
     }
 
     @Override
-    public void expire(Set<String> purge) {
-        for (String patchId : purge) {
-            if (alertPatches.containsKey(patchId)) {
-                expire(alertPatches.get(patchId));
+    public synchronized void expire(Set<String> purge) {
+        graph.beginAlertPatchUpdate();
+        try {
+            for (String patchId : purge) {
+                if (alertPatches.containsKey(patchId)) {
+                    expire(alertPatches.get(patchId));
+                }
             }
-        }
 
-        alertPatches.keySet().removeAll(purge);
+            alertPatches.keySet().removeAll(purge);
+        } finally {
+            graph.commitAlertPatchUpdate();
+        }
     }
 
     @Override
-    public void expireAll() {
-        for (AlertPatch alertPatch : alertPatches.values()) {
-            expire(alertPatch);
+    public synchronized void expireAll() {
+        graph.beginAlertPatchUpdate();
+        try {
+            for (AlertPatch alertPatch : alertPatches.values()) {
+                expire(alertPatch);
+            }
+            alertPatches.clear();
+        } finally {
+            graph.commitAlertPatchUpdate();
         }
-        alertPatches.clear();
     }
 
     @Override
-    public void expireAllExcept(Set<String> retain) {
+    public synchronized void expireAllExcept(Set<String> retain) {
         ArrayList<String> toRemove = new ArrayList<String>();
 
-        for (Entry<String, AlertPatch> entry : alertPatches.entrySet()) {
-            final String key = entry.getKey();
-            if (!retain.contains(key)) {
-                toRemove.add(key);
-                expire(entry.getValue());
+        graph.beginAlertPatchUpdate();
+        try {
+            for (Entry<String, AlertPatch> entry : alertPatches.entrySet()) {
+                final String key = entry.getKey();
+                if (!retain.contains(key)) {
+                    toRemove.add(key);
+                    expire(entry.getValue());
+                }
             }
+            alertPatches.keySet().removeAll(toRemove);
+        } finally {
+            graph.commitAlertPatchUpdate();
         }
-        alertPatches.keySet().removeAll(toRemove);
+    }
+
+    @Override
+    public void beginUpdate() {
+        graph.beginAlertPatchUpdate();
+    }
+
+    @Override
+    public void commitUpdate() {
+        graph.commitAlertPatchUpdate();
     }
 
     private void expire(AlertPatch alertPatch) {
@@ -1,5 +1,7 @@
 package org.opentripplanner.routing.impl;
 
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.common.pqueue.OTPPriorityQueueFactory;
 import org.opentripplanner.routing.algorithm.GenericAStar;
 import org.opentripplanner.routing.services.SPTService;
 import org.opentripplanner.visualizer.VisualTraverseVisitor;
@@ -8,9 +10,12 @@ public class GenericAStarFactory implements SPTServiceFactory{
 
 	private VisualTraverseVisitor traverseVisitor=null;
 
+	private OTPPriorityQueueFactory batchQueueFactory = BinHeap.FACTORY;
+
 	@Override
 	public SPTService instantiate() {
 		GenericAStar ret = new GenericAStar();
+		ret.setBatchQueueFactory(batchQueueFactory);
 		if(traverseVisitor!=null){
 			ret.setTraverseVisitor(traverseVisitor);
 		}
@@ -21,4 +26,9 @@ public class GenericAStarFactory implements SPTServiceFactory{
 		this.traverseVisitor = visitor;
 	}
 
+	/** Select the priority queue used by the produced searches in batch mode. */
+	public void setBatchQueueFactory(OTPPriorityQueueFactory batchQueueFactory) {
+		this.batchQueueFactory = batchQueueFactory;
+	}
+
 }
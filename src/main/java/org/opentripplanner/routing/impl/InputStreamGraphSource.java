@@ -21,6 +21,7 @@ import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.util.prefs.Preferences;
 
+import org.opentripplanner.routing.graph.BlockCompressedInputStream;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Graph.LoadLevel;
 import org.opentripplanner.routing.services.GraphSource;
@@ -221,9 +222,8 @@ public class InputStreamGraphSource implements GraphSource {
         final Graph newGraph;
         try (InputStream is = graphInputStream.getGraphInputStream()) {
             LOG.info("Loading graph...");
-            try {
-                newGraph = Graph.load(new ObjectInputStream(is), loadLevel,
-                        streetVertexIndexFactory);
+            try (InputStream in = BlockCompressedInputStream.decompressIfNeeded(is, -1)) {
+                newGraph = Graph.load(new ObjectInputStream(in), loadLevel, streetVertexIndexFactory);
             } catch (Exception ex) {
                 LOG.error("Exception while loading graph '{}'.", routerId);
                 ex.printStackTrace();
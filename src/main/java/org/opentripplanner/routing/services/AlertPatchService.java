@@ -33,4 +33,13 @@ public interface AlertPatchService {
     void expireAll();
 
     void expireAllExcept(Set<String> ids);
+
+    /**
+     * Start a batch of changes. Readers see all changes made before the matching {@link #commitUpdate()} at
+     * once, and the alert patches of the graph are indexed only once. Batches may be nested.
+     */
+    void beginUpdate();
+
+    /** End a batch started with {@link #beginUpdate()}, publishing its changes if it is the outermost one. */
+    void commitUpdate();
 }
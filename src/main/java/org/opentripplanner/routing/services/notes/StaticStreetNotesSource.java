@@ -81,6 +81,11 @@ public class StaticStreetNotesSource implements StreetNotesSource, Serializable
         return maas;
     }
 
+    /** Copy all the notes of another source into this one, e.g. when merging graphs. */
+    void addAll(StaticStreetNotesSource other) {
+        notesForEdge.putAll(other.notesForEdge);
+    }
+
     /**
      * Remove all notes attached to this edge. NOTE: this should only be called within a graph
      * building context (or unit testing).
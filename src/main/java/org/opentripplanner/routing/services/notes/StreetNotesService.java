@@ -136,6 +136,18 @@ public class StreetNotesService implements Serializable {
         return notes;
     }
 
+    /**
+     * Add the static notes and any other note sources of another service to this one. Used when
+     * merging a graph that was built separately into this service's graph.
+     */
+    public void addAll(StreetNotesService other) {
+        staticNotesSource.addAll(other.staticNotesSource);
+        for (StreetNotesSource source : other.sources) {
+            if (source != other.staticNotesSource)
+                sources.add(source);
+        }
+    }
+
     public void addStaticNote(Edge edge, Alert note, NoteMatcher matcher) {
         staticNotesSource.addNote(edge, note, matcher);
     }
@@ -0,0 +1,201 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.spt;
+
+import java.io.Serializable;
+
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.graph.Graph;
+
+/**
+ * A class that determines whether one search state dominates another, i.e. whether the second
+ * state can be dropped from a {@link MultiShortestPathTree} because no optimal path can go through
+ * it. Different kinds of searches need different definitions of dominance, so this is set per
+ * request on {@link org.opentripplanner.routing.core.RoutingRequest#dominanceFunction}.
+ *
+ * The checks that make two states incomparable (bike rental, park and ride, turn restrictions)
+ * are shared by all subclasses; the subclasses only compare the per-state criteria.
+ */
+public abstract class DominanceFunction implements Serializable {
+
+    private static final long serialVersionUID = 1;
+
+    /** Criterion flags for {@link Pareto}. Each corresponds to one primitive field of a State. */
+    public static final int WEIGHT = 1;
+    public static final int TIME = 1 << 1;
+    public static final int WALK_DISTANCE = 1 << 2;
+    public static final int BOARDINGS = 1 << 3;
+
+    /**
+     * Return true if the first state "defeats" the second one, or at least ties with it, in terms
+     * of the criteria of this dominance function. Both states are known to be comparable.
+     * In the case of a tie the new state is rejected, so this must return true for equal states.
+     */
+    protected abstract boolean betterOrEqual(State a, State b);
+
+    /**
+     * For bike rental, parking, and approaching turn-restricted intersections states are
+     * incomparable: they exist on separate planes. The core state dominance logic is wrapped in
+     * this public function and only applied when the two states have all these variables in common.
+     */
+    public boolean betterOrEqualAndComparable(State a, State b) {
+        // The initial state of a search is never dominated.
+        if (b.weight == 0) {
+            return false;
+        }
+        // Multi-state (bike rental, P+R) - no domination for different states
+        if (a.isBikeRenting() != b.isBikeRenting())
+            return false;
+        if (a.isCarParked() != b.isCarParked())
+            return false;
+        if (a.isBikeParked() != b.isBikeParked())
+            return false;
+
+        // Does one state represent riding a rented bike and the other represent walking before/after
+        // rental? Turn restrictions also make states with different back edges incomparable.
+        if (a.backEdge != b.getBackEdge() && (a.backEdge instanceof StreetEdge)) {
+            Graph graph = a.getOptions().rctx.graph;
+            if (!graph.getTurnRestrictions(a.backEdge).isEmpty())
+                return false;
+        }
+
+        return betterOrEqual(a, b);
+    }
+
+    /**
+     * The dominance rule OTP has historically used for multi-state searches: a state dominates
+     * when it uses a subset of the routes of the other and is no worse in weight and time, or
+     * otherwise when it is at most slightly worse in weight, time and walk distance. The slack is
+     * expressed as a relative epsilon plus, for weight and time, an absolute margin.
+     */
+    public static class Hopeful extends DominanceFunction {
+
+        private static final long serialVersionUID = 1;
+
+        private final double walkDistanceFactor;
+        private final double weightFactor;
+        private final double weightMargin;
+        private final double timeFactor;
+        private final double timeMargin;
+
+        public Hopeful() {
+            this(0.05, 0.02, 30, 0.02, 30);
+        }
+
+        public Hopeful(double walkDistanceEpsilon, double weightEpsilon, double weightMargin,
+                double timeEpsilon, double timeMargin) {
+            // Keep (1 + epsilon) so the comparisons below are multiplications, not divisions.
+            this.walkDistanceFactor = 1 + walkDistanceEpsilon;
+            this.weightFactor = 1 + weightEpsilon;
+            this.weightMargin = weightMargin;
+            this.timeFactor = 1 + timeEpsilon;
+            this.timeMargin = timeMargin;
+        }
+
+        @Override
+        protected boolean betterOrEqual(State a, State b) {
+            long ta = a.getElapsedTimeSeconds();
+            long tb = b.getElapsedTimeSeconds();
+
+            if (a.routeSequenceSubset(b)) {
+                // TODO subset is not really the right idea
+                return a.weight <= b.weight && ta <= tb;
+            }
+
+            // All quantities are non-negative, so x / y < f is equivalent to x < y * f,
+            // including the cases where y is zero.
+            return a.walkDistance < b.walkDistance * walkDistanceFactor
+                    && a.weight < b.weight * weightFactor
+                    && a.weight - b.weight < weightMargin
+                    && ta < tb * timeFactor
+                    && ta - tb <= timeMargin;
+        }
+
+    }
+
+    /**
+     * Strict Pareto dominance over a chosen set of criteria, given as a bitwise OR of the
+     * {@link #WEIGHT}, {@link #TIME}, {@link #WALK_DISTANCE} and {@link #BOARDINGS} flags. A state
+     * dominates if it is no worse on every selected criterion.
+     */
+    public static class Pareto extends DominanceFunction {
+
+        private static final long serialVersionUID = 1;
+
+        private final int criteria;
+
+        public Pareto(int criteria) {
+            if (criteria == 0) {
+                throw new IllegalArgumentException("Pareto dominance needs at least one criterion.");
+            }
+            this.criteria = criteria;
+        }
+
+        @Override
+        protected boolean betterOrEqual(State a, State b) {
+            if ((criteria & WEIGHT) != 0 && a.weight > b.weight)
+                return false;
+            if ((criteria & TIME) != 0 && a.getElapsedTimeSeconds() > b.getElapsedTimeSeconds())
+                return false;
+            if ((criteria & WALK_DISTANCE) != 0 && a.walkDistance > b.walkDistance)
+                return false;
+            if ((criteria & BOARDINGS) != 0 && a.getNumBoardings() > b.getNumBoardings())
+                return false;
+            return true;
+        }
+
+    }
+
+    /** Keep only the lowest-weight state at each vertex (within each comparable plane). */
+    public static class MinimumWeight extends Pareto {
+        private static final long serialVersionUID = 1;
+        public MinimumWeight() {
+            super(WEIGHT);
+        }
+    }
+
+    /** Keep only the state with the earliest arrival (or latest departure in arriveBy searches). */
+    public static class EarliestArrival extends Pareto {
+        private static final long serialVersionUID = 1;
+        public EarliestArrival() {
+            super(TIME);
+        }
+    }
+
+    /** Multi-criteria transit dominance: generalized cost, travel time and number of boardings. */
+    public static class Transit extends Pareto {
+        private static final long serialVersionUID = 1;
+        public Transit() {
+            super(WEIGHT | TIME | BOARDINGS);
+        }
+    }
+
+    /** Look up one of the predefined dominance functions by name, e.g. from a request parameter. */
+    public static DominanceFunction forName(String name) {
+        if (name == null || name.equalsIgnoreCase("hopeful")) {
+            return new Hopeful();
+        } else if (name.equalsIgnoreCase("minimumWeight")) {
+            return new MinimumWeight();
+        } else if (name.equalsIgnoreCase("earliestArrival")) {
+            return new EarliestArrival();
+        } else if (name.equalsIgnoreCase("transit")) {
+            return new Transit();
+        } else if (name.equalsIgnoreCase("pareto")) {
+            return new Pareto(WEIGHT | TIME | WALK_DISTANCE | BOARDINGS);
+        }
+        throw new IllegalArgumentException("Unknown dominance function: " + name);
+    }
+
+}
@@ -17,15 +17,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.IdentityHashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.RoutingRequest;
-import org.opentripplanner.routing.edgetype.StreetEdge;
-import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,22 +31,21 @@ import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Multiset;
 
 public class MultiShortestPathTree extends AbstractShortestPathTree {
-	
-	private static final double WALK_DIST_EPSILON = 0.05;
-	private static final double WEIGHT_EPSILON = 0.02;
-	private static final int WEIGHT_DIFF_MARGIN = 30;
-	private static final double TIME_EPSILON = 0.02;
-	private static final int TIME_DIFF_MARGIN = 30;
 
     private static final Logger LOG = LoggerFactory.getLogger(MultiShortestPathTree.class);
 
-    private Map<Vertex, List<State>> stateSets;
+    /** Used by the static {@link #dominates(State, State)} for debugging tools. */
+    private static final DominanceFunction DEFAULT_DOMINANCE = new DominanceFunction.Hopeful();
+
+    private Map<Vertex, ParetoBag> stateSets;
+
+    private final DominanceFunction dominanceFunction;
 
     public void dump() {
         Multiset<Integer> histogram = HashMultiset.create();
         int statesCount = 0;
         int maxSize = 0;
-        for (Map.Entry<Vertex, List<State>> kv : stateSets.entrySet()) {
+        for (Map.Entry<Vertex, ParetoBag> kv : stateSets.entrySet()) {
             List<State> states = kv.getValue();
             int size = states.size();
             histogram.add(size);
@@ -70,7 +66,9 @@ public class MultiShortestPathTree extends AbstractShortestPathTree {
 
     public MultiShortestPathTree(RoutingRequest options) {
         super(options);
-        stateSets = new IdentityHashMap<Vertex, List<State>>();
+        stateSets = new IdentityHashMap<Vertex, ParetoBag>();
+        dominanceFunction = options.dominanceFunction != null ?
+                options.dominanceFunction : DEFAULT_DOMINANCE;
     }
 
     public Set<Vertex> getVertices() {
@@ -84,78 +82,32 @@ public class MultiShortestPathTree extends AbstractShortestPathTree {
     @Override
     public boolean add(State newState) {
         Vertex vertex = newState.getVertex();
-        List<State> states = stateSets.get(vertex);
+        ParetoBag states = stateSets.get(vertex);
         
         // if the vertex has no states, add one and return
         if (states == null) {
-            states = new ArrayList<State>();
-            stateSets.put(vertex, states);
-            states.add(newState);
+            stateSets.put(vertex, new ParetoBag(newState));
             return true;
         }
         
         // if the vertex has any states that dominate the new state, don't add the state
         // if the new state dominates any old states, remove them
-        Iterator<State> it = states.iterator();
-        while (it.hasNext()) {
-            State oldState = it.next();
-            // order is important, because in the case of a tie
-            // we want to reject the new state
-            if (dominates( oldState, newState) )
-                return false;
-            if (dominates( newState, oldState) )
-                it.remove();
-        }
-        
-        // any states remaining are codominent with the new state
-        states.add(newState);
-        return true;
+        return states.offer(newState, dominanceFunction);
     }
 
+    /**
+     * @return true if thisState dominates other according to the default (hopeful) dominance
+     *         function. Kept for debugging tools; searches use the request's dominance function.
+     */
     public static boolean dominates(State thisState, State other) {
-        if (other.weight == 0) {
-            return false;
-        }
-        // Multi-state (bike rental, P+R) - no domination for different states
-        if (thisState.isBikeRenting() != other.isBikeRenting())
-            return false;
-        if (thisState.isCarParked() != other.isCarParked())
-            return false;
-        if (thisState.isBikeParked() != other.isBikeParked())
-            return false;
-
-        Graph graph = thisState.getOptions().rctx.graph;
-        if (thisState.backEdge != other.getBackEdge() && ((thisState.backEdge instanceof StreetEdge)
-                && (!graph.getTurnRestrictions(thisState.backEdge).isEmpty())))
-            return false;
-
-        if (thisState.routeSequenceSubset(other)) {
-            // TODO subset is not really the right idea
-            return thisState.weight <= other.weight &&
-            		thisState.getElapsedTimeSeconds() <= other.getElapsedTimeSeconds();
-            // && this.getNumBoardings() <= other.getNumBoardings();
-        }
+        return DEFAULT_DOMINANCE.betterOrEqualAndComparable(thisState, other);
+    }
 
-        // If returning more than one result from GenericAStar, the search can be very slow
-        // unless you replace the following code with:
-        // return false;
-        
-        boolean walkDistanceIsHopeful = thisState.walkDistance / other.getWalkDistance() < 1+WALK_DIST_EPSILON;
-        
-        double weightRatio = thisState.weight / other.weight;
-        boolean weightIsHopeful = (weightRatio < 1+WEIGHT_EPSILON && thisState.weight - other.weight < WEIGHT_DIFF_MARGIN);
-        
-        double t1 = (double)thisState.getElapsedTimeSeconds();
-        double t2 = (double)other.getElapsedTimeSeconds();
-        double timeRatio = t1/t2;
-        boolean timeIsHopeful = (timeRatio < 1+TIME_EPSILON) && (t1 - t2 <= TIME_DIFF_MARGIN);
-        
-        // only dominate if everything is at least hopeful
-        return walkDistanceIsHopeful && weightIsHopeful && timeIsHopeful;
-//    	return this.weight < other.weight;
-	}
+    public DominanceFunction getDominanceFunction() {
+        return dominanceFunction;
+    }
 
-	@Override
+    @Override
     public State getState(Vertex dest) {
         Collection<State> states = stateSets.get(dest);
         if (states == null)
@@ -194,14 +146,8 @@ public class MultiShortestPathTree extends AbstractShortestPathTree {
      */
     @Override
     public boolean visit(State state) {
-        boolean ret = false;
-        for (State s : stateSets.get(state.getVertex())) {
-            if (s == state) {
-                ret = true;
-                break;
-            }
-        }
-        return ret;
+        ParetoBag states = stateSets.get(state.getVertex());
+        return states != null && states.containsInstance(state);
     }
 
     public String toString() {
@@ -211,7 +157,7 @@ public class MultiShortestPathTree extends AbstractShortestPathTree {
     @Override
     public Collection<State> getAllStates() {
         ArrayList<State> allStates = new ArrayList<State>();
-        for (List<State> stateSet : stateSets.values()) {
+        for (ParetoBag stateSet : stateSets.values()) {
             allStates.addAll(stateSet);
         }
         return allStates;
@@ -0,0 +1,96 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.spt;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+
+import org.opentripplanner.routing.core.State;
+
+/**
+ * The set of mutually non-dominated states at one vertex. States live in a plain array: dominated
+ * states are removed by moving the last state into their slot, so an insertion that evicts many
+ * states is still a single linear pass with no shifting or iterator allocation.
+ *
+ * The bag is not indexed, so each insertion compares the new state with every state already in the
+ * bag. This is cheap for the handful of states that usually survive at a vertex, but grows
+ * quadratically if a dominance function with many criteria keeps many codominant states.
+ *
+ * Exposed as a read-only List so that it can be returned directly from
+ * {@link ShortestPathTree#getStates}. The order of the states is not meaningful.
+ */
+class ParetoBag extends AbstractList<State> {
+
+    private State[] states;
+
+    private int size;
+
+    ParetoBag(State first) {
+        states = new State[2];
+        states[0] = first;
+        size = 1;
+    }
+
+    /**
+     * Add the given state if no state in the bag dominates it, removing any states it dominates.
+     * @return true if the state was added.
+     */
+    boolean offer(State newState, DominanceFunction dominanceFunction) {
+        int i = 0;
+        while (i < size) {
+            State oldState = states[i];
+            // order is important, because in the case of a tie we want to reject the new state
+            if (dominanceFunction.betterOrEqualAndComparable(oldState, newState)) {
+                return false;
+            }
+            if (dominanceFunction.betterOrEqualAndComparable(newState, oldState)) {
+                // Fill the hole with the last state and examine that slot again.
+                states[i] = states[--size];
+                states[size] = null;
+            } else {
+                i++;
+            }
+        }
+        // any states remaining are codominant with the new state
+        if (size == states.length) {
+            states = Arrays.copyOf(states, size * 2);
+        }
+        states[size++] = newState;
+        return true;
+    }
+
+    /** @return true if this exact state instance is still in the bag (i.e. has not been dominated). */
+    boolean containsInstance(State state) {
+        for (int i = 0; i < size; i++) {
+            if (states[i] == state) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public State get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return states[index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+}
@@ -18,19 +18,22 @@ import com.google.common.collect.Maps;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.BitSet;
-import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Does the same thing as String.intern, but for several different types.
  * Java's String.intern uses perm gen space and is broken anyway.
+ *
+ * A Deduplicator may be used by several threads at once, e.g. when trips are built in parallel
+ * during graph building. Whichever instance is added first becomes the canonical one.
  */
 public class Deduplicator implements Serializable {
-    private static final long serialVersionUID = 20140524L;
+    private static final long serialVersionUID = 20140601L;
 
-    private final Map<IntArray, IntArray> canonicalIntArrays = Maps.newHashMap();
-    private final Map<String, String> canonicalStrings = Maps.newHashMap();
-    private final Map<BitSet, BitSet> canonicalBitSets = Maps.newHashMap();
-    private final Map<StringArray, StringArray> canonicalStringArrays = Maps.newHashMap();
+    private final ConcurrentMap<IntArray, IntArray> canonicalIntArrays = Maps.newConcurrentMap();
+    private final ConcurrentMap<String, String> canonicalStrings = Maps.newConcurrentMap();
+    private final ConcurrentMap<BitSet, BitSet> canonicalBitSets = Maps.newConcurrentMap();
+    private final ConcurrentMap<StringArray, StringArray> canonicalStringArrays = Maps.newConcurrentMap();
 
     /** Free up any memory used by the deduplicator. */
     public void reset() {
@@ -40,14 +43,32 @@ public class Deduplicator implements Serializable {
         canonicalStringArrays.clear();
     }
 
+    /**
+     * Adopt the canonical instances of another deduplicator wherever this one has none yet, so
+     * that objects deduplicated by either one are shared by later deduplication in this one.
+     */
+    public void addAll(Deduplicator other) {
+        for (IntArray intArray : other.canonicalIntArrays.keySet()) {
+            canonicalIntArrays.putIfAbsent(intArray, intArray);
+        }
+        for (String string : other.canonicalStrings.keySet()) {
+            canonicalStrings.putIfAbsent(string, string);
+        }
+        for (BitSet bitSet : other.canonicalBitSets.keySet()) {
+            canonicalBitSets.putIfAbsent(bitSet, bitSet);
+        }
+        for (StringArray stringArray : other.canonicalStringArrays.keySet()) {
+            canonicalStringArrays.putIfAbsent(stringArray, stringArray);
+        }
+    }
+
     /** Used to deduplicate time and stop sequence arrays. The same times may occur in many trips. */
     public int[] deduplicateIntArray(int[] original) {
         if (original == null) return null;
         IntArray intArray = new IntArray(original);
-        IntArray canonical = canonicalIntArrays.get(intArray);
+        IntArray canonical = canonicalIntArrays.putIfAbsent(intArray, intArray);
         if (canonical == null) {
             canonical = intArray;
-            canonicalIntArrays.put(canonical, canonical);
         }
         return canonical.array;
     }
@@ -56,18 +77,20 @@ public class Deduplicator implements Serializable {
         if (original == null) return null;
         String canonical = canonicalStrings.get(original);
         if (canonical == null) {
-            canonical = new String(original.toCharArray()); // Trim String if necessary (older JDKs)
-            canonicalStrings.put(canonical, canonical);
+            String trimmed = new String(original.toCharArray()); // Trim String if necessary (older JDKs)
+            canonical = canonicalStrings.putIfAbsent(trimmed, trimmed);
+            if (canonical == null) {
+                canonical = trimmed;
+            }
         }
         return canonical;
     }
 
     public BitSet deduplicateBitSet(BitSet original) {
         if (original == null) return null;
-        BitSet canonical = canonicalBitSets.get(original);
+        BitSet canonical = canonicalBitSets.putIfAbsent(original, original);
         if (canonical == null) {
             canonical = original;
-            canonicalBitSets.put(canonical, canonical);
         }
         return canonical;
     }
@@ -76,8 +99,11 @@ public class Deduplicator implements Serializable {
         if (original == null) return null;
         StringArray canonical = canonicalStringArrays.get(new StringArray(original, false));
         if (canonical == null) {
-            canonical = new StringArray(original, true);
-            canonicalStringArrays.put(canonical, canonical);
+            StringArray deduplicated = new StringArray(original, true);
+            canonical = canonicalStringArrays.putIfAbsent(deduplicated, deduplicated);
+            if (canonical == null) {
+                canonical = deduplicated;
+            }
         }
         return canonical.array;
     }
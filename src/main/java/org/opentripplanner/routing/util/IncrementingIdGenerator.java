@@ -13,15 +13,16 @@
 
 package org.opentripplanner.routing.util;
 
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Generates unique identifiers by incrementing an internal counter.
+ * Generates unique identifiers by incrementing an internal counter. Safe for use by several threads.
  * 
  * @author avi
  */
 public class IncrementingIdGenerator<T> implements UniqueIdGenerator<T> {
     
-    private int next;
+    private final AtomicInteger next;
     
     public IncrementingIdGenerator() {
         this(0);
@@ -35,7 +36,7 @@ public class IncrementingIdGenerator<T> implements UniqueIdGenerator<T> {
      * @param start
      */
     public IncrementingIdGenerator(int start) {
-        next = start;
+        next = new AtomicInteger(start);
     }
     
     /**
@@ -44,6 +45,6 @@ public class IncrementingIdGenerator<T> implements UniqueIdGenerator<T> {
      * @return 
      */
     public int getId(T elem) {
-        return next++;
+        return next.getAndIncrement();
     }
 }
@@ -131,6 +131,30 @@ public class CommandLineParameters implements Cloneable {
             description = "Use an algorithm tailored for big graphs (the size of New York or the Netherlands).")
     boolean longDistance = false;
 
+    @Parameter(names = {"--buildThreads"},
+            description = "Number of threads used to build the graph. Independent inputs such as OSM and GTFS are loaded concurrently, and OSM PBF blocks are decoded on this many threads.")
+    int buildThreads = 1;
+
+    @Parameter(names = {"--stopAccessTable"},
+            description = "Precompute the transit stops within walking distance of each street vertex when building a graph.")
+    boolean stopAccessTable = false;
+
+    @Parameter(names = {"--compactOsm"},
+            description = "Hold OSM nodes in a compact primitive store while building, to reduce memory use on large extracts.")
+    boolean compactOsm = false;
+
+    @Parameter(names = {"--osmBufferWays"},
+            description = "Read PBF files in two passes instead of three, by holding all ways in memory while relations are read.")
+    boolean osmBufferWays = false;
+
+    @Parameter(names = {"--reuseStreets"},
+            description = "Save the street graph next to the graph being built, and reuse it in later builds whose OSM and elevation inputs are unchanged.")
+    boolean reuseStreets = false;
+
+    @Parameter(names = {"--radixHeap"},
+            description = "Use a radix heap instead of a binary heap as the priority queue in batch (analyst) and earliest arrival searches.")
+    boolean radixHeap = false;
+
     @Parameter(names = {"--port"}, validateWith = AvailablePort.class,
             description = "Server port for plain HTTP.")
     Integer port;
@@ -160,6 +184,30 @@ public class CommandLineParameters implements Cloneable {
             description = "Files for graph build.")
     List<File> files = new ArrayList<File>();
 
+    @Parameter(names = {"--routingThreads"},
+            description = "Number of trip planning searches carried out concurrently. Defaults to the number of processors.")
+    Integer routingThreads;
+
+    @Parameter(names = {"--routingQueue"},
+            description = "Number of trip planning requests that may wait for a routing thread. Further requests are refused with 503 Service Unavailable.")
+    int routingQueue = 100;
+
+    @Parameter(names = {"--routingTimeout"},
+            description = "Abandon trip planning requests that have not completed after this many seconds, including time spent waiting. Zero means no limit.")
+    double routingTimeout = 30;
+
+    @Parameter(names = {"--slowSearchLog"},
+            description = "Log trip planning requests that take longer than this many seconds, with statistics about their searches. Zero disables the log; otherwise the statistics are collected for every request.")
+    double slowSearchLog = 0;
+
+    @Parameter(names = {"--planCacheSize"},
+            description = "Cache trip plans for near-identical requests, up to this total size counted in legs, steps and geometry points. Zero disables the cache.")
+    long planCacheSize = 0;
+
+    @Parameter(names = {"--planCacheBucket"},
+            description = "Requests whose times fall within the same bucket of this many seconds may share a cached trip plan.")
+    int planCacheBucket = 60;
+
     @Parameter(names = {"--insecure"},
             description = "Allow unauthenticated access to sensitive API resources, e.g. /routers")
     boolean insecure = false;
@@ -30,6 +30,9 @@ public class GrizzlyServer {
         SLF4JBridgeHandler.install();
     }
 
+    /** Maximum number of HTTP requests waiting for a worker thread on each listener. */
+    private static final int WORKER_QUEUE_LIMIT = 1000;
+
     /** The command line parameters, including things like port number and content directories. */
     private CommandLineParameters params;
     private OTPServer server;
@@ -56,14 +59,18 @@ public class GrizzlyServer {
         sslConfig.setKeyStoreFile(new File(params.basePath, "keystore").getAbsolutePath());
         sslConfig.setKeyStorePass("opentrip");
 
-        /* OTP is CPU-bound, so we want only as many worker threads as we have cores. */
+        /*
+         * Trip planning searches are handed over to the server's RoutingExecutor, which bounds their number, so the
+         * worker threads only parse requests and write responses. As many worker threads as we have cores is still
+         * enough, but their queue is bounded too so a flood of connections cannot exhaust memory.
+         */
         ThreadPoolConfig threadPoolConfig = ThreadPoolConfig.defaultConfig()
             .setCorePoolSize(1)
-            .setMaxPoolSize(Runtime.getRuntime().availableProcessors());
+            .setMaxPoolSize(Runtime.getRuntime().availableProcessors())
+            .setQueueLimit(WORKER_QUEUE_LIMIT);
 
         /* HTTP (non-encrypted) listener */
         NetworkListener httpListener = new NetworkListener("otp_insecure", params.bindAddress, params.port);
-        // OTP is CPU-bound, we don't want more threads than cores. TODO: We should switch to async handling.
         httpListener.setSecure(false);
 
         /* HTTPS listener */
@@ -82,7 +89,7 @@ public class GrizzlyServer {
             cc.setCompressionMode(CompressionConfig.CompressionMode.ON);
             cc.setCompressionMinSize(50000); // the min number of bytes to compress
             cc.setCompressableMimeTypes("application/json", "text/json"); // the mime types to compress
-            listener.getTransport().setWorkerThreadPoolConfig(threadPoolConfig);
+            listener.getTransport().setWorkerThreadPoolConfig(threadPoolConfig.copy());
             httpServer.addListener(listener);
         }
 
@@ -116,6 +123,7 @@ public class GrizzlyServer {
             LOG.info("Interrupted, shutting down.");
         }
         httpServer.shutdown();
+        server.routingExecutor.shutdown();
 
     }
 }
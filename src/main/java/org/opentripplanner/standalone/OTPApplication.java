@@ -10,10 +10,12 @@ import org.glassfish.jersey.server.ServerProperties;
 import org.glassfish.jersey.server.filter.RolesAllowedDynamicFeature;
 import org.opentripplanner.api.common.OTPExceptionMapper;
 import org.opentripplanner.api.model.JSONObjectMapperProvider;
+import org.opentripplanner.api.protobuf.ProtobufResponseWriter;
 import org.opentripplanner.api.resource.AlertPatcher;
 import org.opentripplanner.api.resource.BikeRental;
 import org.opentripplanner.api.resource.ExternalGeocoderResource;
 import org.opentripplanner.api.resource.GraphInspectorTileResource;
+import org.opentripplanner.api.resource.Matrix;
 import org.opentripplanner.api.resource.Metadata;
 import org.opentripplanner.api.resource.Planner;
 import org.opentripplanner.api.resource.PointSetResource;
@@ -23,6 +25,8 @@ import org.opentripplanner.api.resource.ServerInfo;
 import org.opentripplanner.api.resource.LIsochrone;
 import org.opentripplanner.api.resource.LegendResource;
 import org.opentripplanner.api.resource.Raster;
+import org.opentripplanner.api.resource.Response;
+import org.opentripplanner.api.resource.ResponseJsonWriter;
 import org.opentripplanner.api.resource.SIsochrone;
 import org.opentripplanner.api.resource.SimpleIsochrone;
 import org.opentripplanner.api.resource.SurfaceResource;
@@ -86,6 +90,7 @@ public class OTPApplication extends Application {
         classes.addAll(Arrays.asList(
             /* Jersey resource classes: define web services, i.e. an HTTP API. */
             Planner.class,
+            Matrix.class,
             IndexAPI.class,
             ExternalGeocoderResource.class,
             GeocoderResource.class,
@@ -130,6 +135,7 @@ public class OTPApplication extends Application {
      */
     @Override
     public Set<Object> getSingletons() {
+        JSONObjectMapperProvider mapperProvider = new JSONObjectMapperProvider();
         return Sets.newHashSet (
             // Show exception messages in responses
             new OTPExceptionMapper(),
@@ -138,7 +144,11 @@ public class OTPApplication extends Application {
             // Enable Jackson XML response serialization
             new JacksonXMLProvider(),
             // Serialize POJOs (unannotated) JSON using Jackson
-            new JSONObjectMapperProvider(),
+            mapperProvider,
+            // Stream trip plans as JSON without going through the reflective ObjectMapper
+            new ResponseJsonWriter(mapperProvider.getContext(Response.class)),
+            // Protocol buffer responses for clients sending Accept: application/x-protobuf
+            new ProtobufResponseWriter(),
             // Allow injecting the OTP server object into Jersey resource classes
             server.makeBinder()
         );
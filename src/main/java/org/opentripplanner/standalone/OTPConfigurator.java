@@ -25,12 +25,16 @@ import org.opentripplanner.analyst.request.Renderer;
 import org.opentripplanner.analyst.request.SPTCache;
 import org.opentripplanner.analyst.request.SampleGridRenderer;
 import org.opentripplanner.analyst.request.TileCache;
+import org.opentripplanner.api.resource.CachingPlanGenerator;
+import org.opentripplanner.api.resource.MatrixGenerator;
 import org.opentripplanner.api.resource.PlanGenerator;
+import org.opentripplanner.common.pqueue.RadixHeap;
 import org.opentripplanner.graph_builder.GraphBuilderTask;
 import org.opentripplanner.graph_builder.impl.EmbeddedConfigGraphBuilderImpl;
 import org.opentripplanner.graph_builder.impl.GtfsGraphBuilderImpl;
 import org.opentripplanner.graph_builder.impl.PruneFloatingIslands;
 import org.opentripplanner.graph_builder.impl.DirectTransferGenerator;
+import org.opentripplanner.graph_builder.impl.StopAccessTableBuilder;
 import org.opentripplanner.graph_builder.impl.TransitToStreetNetworkGraphBuilderImpl;
 import org.opentripplanner.graph_builder.impl.TransitToTaggedStopsGraphBuilderImpl;
 import org.opentripplanner.graph_builder.impl.ned.ElevationGraphBuilderImpl;
@@ -43,6 +47,7 @@ import org.opentripplanner.graph_builder.services.DefaultStreetEdgeFactory;
 import org.opentripplanner.graph_builder.services.GraphBuilder;
 import org.opentripplanner.graph_builder.services.ned.ElevationGridCoverageFactory;
 import org.opentripplanner.inspector.TileRendererManager;
+import org.opentripplanner.inspector.VectorTileManager;
 import org.opentripplanner.openstreetmap.impl.AnyFileBasedOpenStreetMapProviderImpl;
 import org.opentripplanner.openstreetmap.services.OpenStreetMapProvider;
 import org.opentripplanner.routing.graph.Graph;
@@ -148,6 +153,9 @@ public class OTPConfigurator {
                 continue;
             }
             graphBuilder.setPath(dir);
+            if (params.reuseStreets) {
+                graphBuilder.streetGraphFile = new File(dir, "StreetGraph.obj");
+            }
             for (File file : dir.listFiles()) {
                 switch (InputFileType.forFile(file)) {
                 case GTFS:
@@ -186,7 +194,9 @@ public class OTPConfigurator {
         if ( hasOSM ) {
             List<OpenStreetMapProvider> osmProviders = Lists.newArrayList();
             for (File osmFile : osmFiles) {
-                OpenStreetMapProvider osmProvider = new AnyFileBasedOpenStreetMapProviderImpl(osmFile);
+                AnyFileBasedOpenStreetMapProviderImpl osmProvider = new AnyFileBasedOpenStreetMapProviderImpl(osmFile);
+                osmProvider.setThreads(params.buildThreads);
+                osmProvider.setBufferWays(params.osmBufferWays);
                 osmProviders.add(osmProvider);
             }
             OpenStreetMapGraphBuilderImpl osmBuilder = new OpenStreetMapGraphBuilderImpl(osmProviders);
@@ -196,8 +206,17 @@ public class OTPConfigurator {
             DefaultWayPropertySetSource defaultWayPropertySetSource = new DefaultWayPropertySetSource();
             osmBuilder.setDefaultWayPropertySetSource(defaultWayPropertySetSource);
             osmBuilder.skipVisibility = params.skipVisibility;
-            graphBuilder.addGraphBuilder(osmBuilder);
-            graphBuilder.addGraphBuilder(new PruneFloatingIslands());
+            osmBuilder.compactNodeStore = params.compactOsm;
+            osmBuilder.threads = params.buildThreads;
+            PruneFloatingIslands pruneFloatingIslands = new PruneFloatingIslands();
+            pruneFloatingIslands.threads = params.buildThreads;
+            if (params.reuseStreets) {
+                graphBuilder.addStreetGraphBuilder(osmBuilder);
+                graphBuilder.addStreetGraphBuilder(pruneFloatingIslands);
+            } else {
+                graphBuilder.addGraphBuilder(osmBuilder);
+                graphBuilder.addGraphBuilder(pruneFloatingIslands);
+            }
         }
         if ( hasGTFS ) {
             List<GtfsBundle> gtfsBundles = Lists.newArrayList();
@@ -211,15 +230,21 @@ public class OTPConfigurator {
                 gtfsBundles.add(gtfsBundle);
             }
             GtfsGraphBuilderImpl gtfsBuilder = new GtfsGraphBuilderImpl(gtfsBundles);
+            gtfsBuilder.threads = params.buildThreads;
             graphBuilder.addGraphBuilder(gtfsBuilder);
             if ( hasOSM ) {
                 graphBuilder.addGraphBuilder(new TransitToTaggedStopsGraphBuilderImpl());
                 graphBuilder.addGraphBuilder(new TransitToStreetNetworkGraphBuilderImpl());
             }
+            if ( hasOSM && params.stopAccessTable ) {
+                graphBuilder.addGraphBuilder(new StopAccessTableBuilder());
+            }
             // The stops can be linked to each other once they are already linked to the street network.
             if (params.longDistance && !params.useTransfersTxt) {
                 // This module will use streets or straight line distance depending on whether OSM data is found in the graph.
-                graphBuilder.addGraphBuilder(new DirectTransferGenerator());
+                DirectTransferGenerator transferGenerator = new DirectTransferGenerator();
+                transferGenerator.threads = params.buildThreads;
+                graphBuilder.addGraphBuilder(transferGenerator);
             }
             gtfsBuilder.setFareServiceFactory(new DefaultFareServiceFactory());
         }
@@ -228,17 +253,33 @@ public class OTPConfigurator {
             embeddedConfigBuilder.propertiesFile = configFile;
             graphBuilder.addGraphBuilder(embeddedConfigBuilder);
         }
+        ElevationGraphBuilderImpl elevationBuilder = null;
         if (params.elevation) {
             File cacheDirectory = new File(params.cacheDirectory, "ned");
             ElevationGridCoverageFactory gcf = new NEDGridCoverageFactoryImpl(cacheDirectory);
-            GraphBuilder elevationBuilder = new ElevationGraphBuilderImpl(gcf);
-            graphBuilder.addGraphBuilder(elevationBuilder);
+            elevationBuilder = new ElevationGraphBuilderImpl(gcf);
         } else  if (demFile != null) {
             ElevationGridCoverageFactory gcf = new GeotiffGridCoverageFactoryImpl(demFile);
-            GraphBuilder elevationBuilder = new ElevationGraphBuilderImpl(gcf);
-            graphBuilder.addGraphBuilder(elevationBuilder);
+            elevationBuilder = new ElevationGraphBuilderImpl(gcf);
+        }
+        if (elevationBuilder != null) {
+            elevationBuilder.threads = params.buildThreads;
+            // Elevation only applies to streets, so it belongs to the reusable street graph.
+            if (params.reuseStreets && hasOSM) {
+                graphBuilder.addStreetGraphBuilder(elevationBuilder);
+            } else {
+                graphBuilder.addGraphBuilder(elevationBuilder);
+            }
+        }
+        if (params.reuseStreets) {
+            List<File> streetInputs = Lists.newArrayList(osmFiles);
+            if (demFile != null) {
+                streetInputs.add(demFile);
+            }
+            graphBuilder.setStreetInputs(streetInputs);
         }
         graphBuilder.serializeGraph = ( ! params.inMemory ) || params.preFlight;
+        graphBuilder.threads = params.buildThreads;
         return graphBuilder;
     }
 
@@ -278,7 +319,12 @@ public class OTPConfigurator {
         @Override
         public void startupRouter(Router router, Preferences config) {
 
-            router.sptServiceFactory = new GenericAStarFactory();
+            if (params.radixHeap) {
+                router.batchQueueFactory = RadixHeap.FACTORY;
+            }
+            GenericAStarFactory sptServiceFactory = new GenericAStarFactory();
+            sptServiceFactory.setBatchQueueFactory(router.batchQueueFactory);
+            router.sptServiceFactory = sptServiceFactory;
             // Choose a PathService to wrap the SPTService, depending on expected maximum path lengths
             if (params.longDistance) {
                 LongDistancePathService pathService = new LongDistancePathService(router.graph,
@@ -293,8 +339,15 @@ public class OTPConfigurator {
                 // cpf.bind(RemainingWeightHeuristicFactory.class,
                 //        new DefaultRemainingWeightHeuristicFactoryImpl());
             }
-            router.planGenerator = new PlanGenerator(router.graph, router.pathService);
+            if (params.planCacheSize > 0) {
+                router.planGenerator = new CachingPlanGenerator(router.graph, router.pathService,
+                        params.planCacheSize, params.planCacheBucket);
+            } else {
+                router.planGenerator = new PlanGenerator(router.graph, router.pathService);
+            }
+            router.matrixGenerator = new MatrixGenerator(router.graph, router.sptServiceFactory);
             router.tileRendererManager = new TileRendererManager(router.graph);
+            router.vectorTileManager = new VectorTileManager(router.graph);
 
             // Optional Analyst Modules.
             if (params.analyst) {
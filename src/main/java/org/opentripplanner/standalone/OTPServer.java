@@ -10,6 +10,7 @@ import org.opentripplanner.analyst.SurfaceCache;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.error.GraphNotFoundException;
 import org.opentripplanner.routing.services.GraphService;
+import org.opentripplanner.util.monitoring.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,6 +41,18 @@ public class OTPServer {
 
     public CommandLineParameters params;
 
+    /** Carries out trip planning searches on behalf of the asynchronous web resources. */
+    public RoutingExecutor routingExecutor;
+
+    /**
+     * Trip planning requests that take longer than this are logged along with their search statistics.
+     * Zero disables the log.
+     */
+    public long slowSearchMillis;
+
+    /** Counters and histograms served by the metrics endpoint for monitoring. */
+    public final MetricsRegistry metrics = new MetricsRegistry();
+
     public OTPServer (CommandLineParameters params, GraphService gs) {
         LOG.info("Wiring up and configuring server.");
 
@@ -48,6 +61,12 @@ public class OTPServer {
         // Core OTP modules
         graphService = gs;
         routingRequest = new RoutingRequest();
+        int routingThreads = params.routingThreads != null ?
+                params.routingThreads : Runtime.getRuntime().availableProcessors();
+        routingExecutor = new RoutingExecutor(routingThreads, params.routingQueue,
+                (long) (params.routingTimeout * 1000));
+        slowSearchMillis = (long) (params.slowSearchLog * 1000);
+        metrics.addCollector(new ServerMetrics(this));
 
         // Optional Analyst Modules.
         if (params.analyst) {
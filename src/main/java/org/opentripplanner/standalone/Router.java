@@ -7,8 +7,12 @@ import org.opentripplanner.analyst.request.Renderer;
 import org.opentripplanner.analyst.request.SPTCache;
 import org.opentripplanner.analyst.request.SampleGridRenderer;
 import org.opentripplanner.analyst.request.TileCache;
+import org.opentripplanner.api.resource.MatrixGenerator;
 import org.opentripplanner.api.resource.PlanGenerator;
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.common.pqueue.OTPPriorityQueueFactory;
 import org.opentripplanner.inspector.TileRendererManager;
+import org.opentripplanner.inspector.VectorTileManager;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.impl.SPTServiceFactory;
 import org.opentripplanner.routing.services.PathService;
@@ -48,11 +52,15 @@ public class Router {
 
     // Core services
     public PlanGenerator planGenerator;
+    public MatrixGenerator matrixGenerator;
     public PathService pathService;
     public SPTServiceFactory sptServiceFactory;
+    /** The priority queue used by batch searches, including earliest arrival searches. */
+    public OTPPriorityQueueFactory batchQueueFactory = BinHeap.FACTORY;
 
     // Inspector/debug services
     public TileRendererManager tileRendererManager;
+    public VectorTileManager vectorTileManager;
 
     // Analyst services
     public SPTCache sptCache;
@@ -0,0 +1,191 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.standalone;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A fixed pool of threads that carries out searches on behalf of the asynchronous web resources. The HTTP worker
+ * threads only parse the request and hand it over, so a burst of slow searches cannot stall the server.
+ *
+ * Waiting searches are held in a bounded queue. When it is full, new work is refused immediately instead of being
+ * queued behind searches whose clients will probably have given up by the time they start; the caller is expected to
+ * answer with 503 Service Unavailable so that clients and load balancers can back off or retry elsewhere.
+ */
+public class RoutingExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RoutingExecutor.class);
+
+    private final ThreadPoolExecutor executor;
+
+    private final int queueSize;
+
+    private final long timeoutMillis;
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param threads the number of searches carried out concurrently.
+     * @param queueSize the number of searches that may wait for a thread before new ones are refused.
+     * @param timeoutMillis the time after which a request is abandoned, counted from when it is submitted. Zero or a
+     *        negative value means no limit.
+     */
+    public RoutingExecutor(int threads, int queueSize, long timeoutMillis) {
+        if (threads < 1 || queueSize < 1) {
+            throw new IllegalArgumentException("A routing executor needs at least one thread and one queue slot.");
+        }
+        this.queueSize = queueSize;
+        this.timeoutMillis = timeoutMillis;
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new RoutingThreadFactory());
+        LOG.info("Routing with {} threads, at most {} requests waiting.", threads, queueSize);
+    }
+
+    /**
+     * Queue a task for execution.
+     * @return a Future that may be used to cancel the task, or null if the queue is full and the task was refused.
+     */
+    public Future<?> submit(Runnable task) {
+        try {
+            return executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            long n = rejected.incrementAndGet();
+            if (n == 1 || n % 100 == 0) {
+                LOG.warn("Routing queue is full, {} requests refused so far.", n);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Queue a task only if a routing thread is free to start it right away. This is meant for work that a routing
+     * thread may share out to idle threads but would otherwise do itself, so refusals are not counted as rejected
+     * requests, and such tasks never hold queue slots that waiting requests could use.
+     * @return a Future that may be used to cancel the task, or null if no thread is idle.
+     */
+    public Future<?> submitIfIdle(Runnable task) {
+        if (executor.getActiveCount() + executor.getQueue().size() >= executor.getMaximumPoolSize()) {
+            return null;
+        }
+        try {
+            return executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Withdraw a task that has not started yet, freeing its place in the queue. A task that is already running must be
+     * stopped by aborting its search, since routing code does not check for thread interruption.
+     * @return true if the task was withdrawn, false if it had already started.
+     */
+    public boolean cancel(Future<?> future) {
+        // Future.cancel also succeeds on a running task, which would then be reported as withdrawn while it goes on.
+        // Only a task still in the queue can be removed from it.
+        if (future instanceof Runnable && executor.remove((Runnable) future)) {
+            future.cancel(false);
+            return true;
+        }
+        return false;
+    }
+
+    public int getThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /** @return the absolute deadline for a request submitted now, or zero if requests have no time limit. */
+    public long deadline() {
+        return timeoutMillis > 0 ? System.currentTimeMillis() + timeoutMillis : 0;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public Status getStatus() {
+        return new Status(this);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /** A snapshot of the queue and thread usage, for monitoring. */
+    @XmlRootElement
+    public static class Status {
+
+        /** Number of requests waiting for a routing thread. */
+        @XmlElement
+        public int queueDepth;
+
+        /** Maximum number of requests that may wait before new ones are refused. */
+        @XmlElement
+        public int queueCapacity;
+
+        /** Number of routing threads currently carrying out a search. */
+        @XmlElement
+        public int active;
+
+        @XmlElement
+        public int threads;
+
+        @XmlElement
+        public long completed;
+
+        /** Number of requests refused because the queue was full. */
+        @XmlElement
+        public long rejected;
+
+        /** Needed for XML serialization. */
+        public Status() { }
+
+        Status(RoutingExecutor routingExecutor) {
+            ThreadPoolExecutor executor = routingExecutor.executor;
+            queueDepth = executor.getQueue().size();
+            queueCapacity = routingExecutor.queueSize;
+            active = executor.getActiveCount();
+            threads = executor.getMaximumPoolSize();
+            completed = executor.getCompletedTaskCount();
+            rejected = routingExecutor.rejected.get();
+        }
+    }
+
+    /** Routing threads are named for readability of thread dumps, and do not keep the JVM alive on their own. */
+    private static class RoutingThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "routing-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
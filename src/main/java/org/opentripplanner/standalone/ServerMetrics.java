@@ -0,0 +1,98 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.standalone;
+
+import static org.opentripplanner.util.monitoring.MetricsRegistry.Type.COUNTER;
+import static org.opentripplanner.util.monitoring.MetricsRegistry.Type.GAUGE;
+
+import org.opentripplanner.api.resource.CachingPlanGenerator;
+import org.opentripplanner.routing.error.GraphNotFoundException;
+import org.opentripplanner.updater.stoptime.TimetableSnapshotSource;
+import org.opentripplanner.util.monitoring.MetricsRegistry;
+import org.opentripplanner.util.monitoring.MetricsRegistry.Samples;
+
+import com.google.common.cache.CacheStats;
+
+/**
+ * Samples the state of the server's components each time its metrics are scraped: the routing
+ * queue, the memory in use, and for each router the plan cache and the realtime updates.
+ * Per-request metrics are recorded directly in the registry by the web resources instead.
+ */
+class ServerMetrics implements MetricsRegistry.Collector {
+
+    private final OTPServer server;
+
+    ServerMetrics(OTPServer server) {
+        this.server = server;
+    }
+
+    @Override
+    public void collect(Samples samples) {
+        RoutingExecutor.Status status = server.routingExecutor.getStatus();
+        samples.add("otp_routing_queue_depth", GAUGE,
+                "Requests waiting for a routing thread.", status.queueDepth);
+        samples.add("otp_routing_queue_capacity", GAUGE,
+                "Requests that may wait before new ones are refused.", status.queueCapacity);
+        samples.add("otp_routing_threads_active", GAUGE,
+                "Routing threads currently carrying out a search.", status.active);
+        samples.add("otp_routing_threads", GAUGE,
+                "Size of the routing thread pool.", status.threads);
+        samples.add("otp_routing_completed_total", COUNTER,
+                "Requests handled by the routing threads.", status.completed);
+        samples.add("otp_routing_rejected_total", COUNTER,
+                "Requests refused because the routing queue was full.", status.rejected);
+
+        // Read without forcing a garbage collection, so this includes garbage not yet collected.
+        Runtime runtime = Runtime.getRuntime();
+        samples.add("otp_jvm_memory_used_bytes", GAUGE,
+                "Heap memory in use.", runtime.totalMemory() - runtime.freeMemory());
+        samples.add("otp_jvm_memory_max_bytes", GAUGE,
+                "Maximum heap memory.", runtime.maxMemory());
+
+        for (String routerId : server.getRouterIds()) {
+            Router router;
+            try {
+                router = server.getRouter(routerId);
+            } catch (GraphNotFoundException e) {
+                continue; // evicted since the IDs were listed
+            }
+            if (router.planGenerator instanceof CachingPlanGenerator) {
+                CachingPlanGenerator cache = (CachingPlanGenerator) router.planGenerator;
+                CacheStats stats = cache.getStats();
+                samples.add("otp_plan_cache_requests_total", COUNTER,
+                        "Plan cache lookups.", stats.hitCount(),
+                        "router", router.id, "result", "hit");
+                samples.add("otp_plan_cache_requests_total", COUNTER,
+                        "Plan cache lookups.", stats.missCount(),
+                        "router", router.id, "result", "miss");
+                samples.add("otp_plan_cache_evictions_total", COUNTER,
+                        "Plans evicted from the plan cache.", stats.evictionCount(),
+                        "router", router.id);
+                samples.add("otp_plan_cache_size", GAUGE,
+                        "Plans currently in the plan cache.", cache.size(),
+                        "router", router.id);
+            }
+            TimetableSnapshotSource source = router.graph.timetableSnapshotSource;
+            if (source != null) {
+                samples.add("otp_realtime_trip_updates_total", COUNTER,
+                        "Realtime trip updates received.", source.getAppliedUpdateCount(),
+                        "router", router.id, "result", "applied");
+                samples.add("otp_realtime_trip_updates_total", COUNTER,
+                        "Realtime trip updates received.", source.getFailedUpdateCount(),
+                        "router", router.id, "result", "failed");
+            }
+        }
+    }
+
+}
@@ -50,17 +50,26 @@ public class AlertsUpdateHandler {
     /** How long before the posted start of an event it should be displayed to users */
     private long earlyStart;
 
+    /**
+     * Replace the alerts of the previous message with those of this one. Readers switch from the old alerts to
+     * the new ones at once, and never see a state in between.
+     */
     public void update(FeedMessage message) {
-        alertPatchService.expire(patchIds);
-        patchIds.clear();
-
-        for (FeedEntity entity : message.getEntityList()) {
-            if (!entity.hasAlert()) {
-                continue;
+        alertPatchService.beginUpdate();
+        try {
+            alertPatchService.expire(patchIds);
+            patchIds.clear();
+
+            for (FeedEntity entity : message.getEntityList()) {
+                if (!entity.hasAlert()) {
+                    continue;
+                }
+                GtfsRealtime.Alert alert = entity.getAlert();
+                String id = entity.getId();
+                handleAlert(id, alert);
             }
-            GtfsRealtime.Alert alert = entity.getAlert();
-            String id = entity.getId();
-            handleAlert(id, alert);
+        } finally {
+            alertPatchService.commitUpdate();
         }
     }
 
@@ -41,7 +41,13 @@ public class TimetableSnapshotSource {
 
     public int logFrequency = 2000;
 
-    private int appliedBlockCount = 0;
+    /*
+     * Totals for logging and monitoring. Updates are applied by a single updater thread, so plain increments
+     * are safe; volatile makes them visible to the threads reading them.
+     */
+    private volatile long appliedUpdateCount = 0;
+
+    private volatile long failedUpdateCount = 0;
 
     /**
      * If a timetable snapshot is requested less than this number of milliseconds after the previous
@@ -75,6 +81,16 @@ public class TimetableSnapshotSource {
         graphIndex = graph.index;
     }
 
+    /** @return the number of trip updates applied since this source was created. */
+    public long getAppliedUpdateCount() {
+        return appliedUpdateCount;
+    }
+
+    /** @return the number of trip updates that could not be applied since this source was created. */
+    public long getFailedUpdateCount() {
+        return failedUpdateCount;
+    }
+
     /**
      * @return an up-to-date snapshot mapping TripPatterns to Timetables. This snapshot and the
      *         timetable objects it references are guaranteed to never change, so the requesting
@@ -162,14 +178,15 @@ public class TimetableSnapshotSource {
             }
 
             if(applied) {
-                appliedBlockCount++;
+                appliedUpdateCount++;
              } else {
+                 failedUpdateCount++;
                  LOG.warn("Failed to apply TripUpdate.");
                  LOG.trace(" Contents: {}", tripUpdate);
              }
 
-             if (appliedBlockCount % logFrequency == 0) {
-                 LOG.info("Applied {} trip updates.", appliedBlockCount);
+             if (appliedUpdateCount % logFrequency == 0) {
+                 LOG.info("Applied {} trip updates.", appliedUpdateCount);
              }
         }
         LOG.debug("end of update message");
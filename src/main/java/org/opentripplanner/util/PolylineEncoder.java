@@ -20,6 +20,7 @@ import java.util.List;
 import org.opentripplanner.util.model.EncodedPolylineBean;
 
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.MultiLineString;
@@ -84,9 +85,10 @@ public class PolylineEncoder {
             plat = late5;
             plng = lnge5;
 
-            encodedPoints.append(encodeSignedNumber(dlat)).append(encodeSignedNumber(dlng));
+            appendSignedNumber(encodedPoints, dlat);
+            appendSignedNumber(encodedPoints, dlng);
             if (level >= 0)
-                encodedLevels.append(encodeNumber(level));
+                appendNumber(encodedLevels, level);
             count++;
         }
 
@@ -95,6 +97,50 @@ public class PolylineEncoder {
         return new EncodedPolylineBean(pointsString, levelsString, count);
     }
 
+    /**
+     * Encodes a polyline incrementally, one point or one coordinate sequence at a time. This lets a
+     * caller encode a line made of many pieces (e.g. the edges of an itinerary leg) without first
+     * copying all of their points into a single geometry.
+     */
+    public static class Builder {
+
+        private final StringBuilder encodedPoints = new StringBuilder();
+
+        private int plat = 0;
+
+        private int plng = 0;
+
+        private int count = 0;
+
+        public Builder addPoint(double lon, double lat) {
+            int late5 = floor1e5(lat);
+            int lnge5 = floor1e5(lon);
+            appendSignedNumber(encodedPoints, late5 - plat);
+            appendSignedNumber(encodedPoints, lnge5 - plng);
+            plat = late5;
+            plng = lnge5;
+            count++;
+            return this;
+        }
+
+        /** Add the points of the given sequence, starting at index <code>from</code>. */
+        public Builder addPoints(CoordinateSequence points, int from) {
+            for (int i = from; i < points.size(); i++) {
+                addPoint(points.getX(i), points.getY(i));
+            }
+            return this;
+        }
+
+        /** @return the number of points added so far. */
+        public int size() {
+            return count;
+        }
+
+        public EncodedPolylineBean build() {
+            return new EncodedPolylineBean(encodedPoints.toString(), null, count);
+        }
+    }
+
     public static List<Coordinate> decode(EncodedPolylineBean polyline) {
 
         String pointString = polyline.getPoints();
@@ -137,6 +183,14 @@ public class PolylineEncoder {
         return (encodeNumber(sgn_num));
     }
 
+    private static void appendSignedNumber(StringBuilder sb, int num) {
+        int sgn_num = num << 1;
+        if (num < 0) {
+            sgn_num = ~(sgn_num);
+        }
+        appendNumber(sb, sgn_num);
+    }
+
     public static int decodeSignedNumber(String value) {
         int[] r = decodeSignedNumberWithIndex(value, 0);
         return r[0];
@@ -153,19 +207,20 @@ public class PolylineEncoder {
     }
 
     public static String encodeNumber(int num) {
+        StringBuilder encodeString = new StringBuilder(6);
+        appendNumber(encodeString, num);
+        return encodeString.toString();
+    }
 
-        StringBuffer encodeString = new StringBuffer();
-
+    private static void appendNumber(StringBuilder sb, int num) {
         while (num >= 0x20) {
             int nextValue = (0x20 | (num & 0x1f)) + 63;
-            encodeString.append((char) (nextValue));
+            sb.append((char) (nextValue));
             num >>= 5;
         }
 
         num += 63;
-        encodeString.append((char) (num));
-
-        return encodeString.toString();
+        sb.append((char) (num));
     }
 
     public static int decodeNumber(String value) {
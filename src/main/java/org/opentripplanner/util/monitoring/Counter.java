@@ -0,0 +1,54 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.util.monitoring;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A monotonically increasing count that many threads can update without contending on a single
+ * memory location. Each thread adds to one of several stripes chosen by its thread ID, and the
+ * stripes are only summed when the counter is read, which happens far less often than it is
+ * incremented.
+ */
+public class Counter {
+
+    /** Longs per stripe: eight longs fill a 64-byte cache line, so no two stripes share one. */
+    private static final int PADDING = 8;
+
+    /** A power of two at least twice the number of processors, so that a mask picks the stripe. */
+    private static final int STRIPES = Math.min(64,
+            Integer.highestOneBit(2 * Runtime.getRuntime().availableProcessors() - 1) << 1);
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    public void inc() {
+        add(1);
+    }
+
+    public void add(long delta) {
+        long id = Thread.currentThread().getId();
+        int stripe = (int) ((id ^ (id >>> 16)) & (STRIPES - 1));
+        cells.addAndGet(stripe * PADDING, delta);
+    }
+
+    /** @return the sum of all stripes. Concurrent updates may or may not be included. */
+    public long get() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+}
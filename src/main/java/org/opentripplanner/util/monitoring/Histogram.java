@@ -0,0 +1,123 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.util.monitoring;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative long values, such as latencies in microseconds or the
+ * number of states visited by a search. Like HdrHistogram it uses log-linear buckets: every power
+ * of two is split into 16 equal sub-buckets, so any recorded value is known to within 1/16 (about
+ * 6%) of its magnitude, while the whole range of a long fits in 960 buckets. Values below 32 are
+ * counted exactly.
+ *
+ * Recording a value is one atomic increment of its bucket plus one of a striped sum, with no
+ * allocation. Counts are never reset; rates and windowed quantiles are left to the monitoring
+ * system that scrapes them.
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final Counter sum = new Counter();
+
+    /** Record one value. Negative values are counted as zero. */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucketIndex(value));
+        sum.add(value);
+    }
+
+    /** @return the number of values recorded so far. */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /** @return the sum of all values recorded so far. */
+    public long getSum() {
+        return sum.get();
+    }
+
+    /**
+     * @return the highest value that falls in the same bucket as the value at the given quantile
+     *         (between 0 and 1), or 0 if nothing has been recorded.
+     */
+    public long getValueAtQuantile(double quantile) {
+        long[] snapshot = snapshot();
+        long total = 0;
+        for (long c : snapshot) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return highestEquivalentValue(i);
+            }
+        }
+        return highestEquivalentValue(BUCKETS - 1);
+    }
+
+    /**
+     * @return the number of recorded values in each bucket. The counts are read one by one while
+     *         other threads may still be recording, but each count is itself exact.
+     */
+    long[] snapshot() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return snapshot;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    static long lowestEquivalentValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        return (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+    }
+
+    static long highestEquivalentValue(int index) {
+        if (index == BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        return lowestEquivalentValue(index + 1) - 1;
+    }
+
+}
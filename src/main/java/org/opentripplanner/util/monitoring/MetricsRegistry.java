@@ -0,0 +1,266 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.util.monitoring;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Holds the counters and histograms of one OTP server and writes them out in the Prometheus text
+ * exposition format (version 0.0.4), so that any Prometheus-compatible monitoring system can
+ * scrape them from the metrics endpoint.
+ *
+ * Metrics are identified by a name and a set of labels, given as alternating label names and
+ * values. Looking a metric up is a concurrent hash map read, and updating it never takes a lock,
+ * so metrics may be updated from request threads. Values that already live elsewhere (queue
+ * sizes, cache statistics...) are not copied into the registry; they are read by a
+ * {@link Collector} each time the metrics are scraped.
+ */
+public class MetricsRegistry {
+
+    public static enum Type {
+        COUNTER, GAUGE, HISTOGRAM;
+
+        String text() {
+            return name().toLowerCase();
+        }
+    }
+
+    /** Supplies metrics that are sampled from other components at scrape time. */
+    public static interface Collector {
+        public void collect(Samples samples);
+    }
+
+    private final ConcurrentMap<String, Family> families = new ConcurrentHashMap<String, Family>();
+
+    private final List<Collector> collectors = new CopyOnWriteArrayList<Collector>();
+
+    /** @return the counter with the given name and labels, creating it if necessary. */
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) getOrCreate(name, help, Type.COUNTER, 1, labels);
+    }
+
+    /**
+     * @return the histogram with the given name and labels, creating it if necessary. Recorded
+     *         values are multiplied by the given scale when written out, since Prometheus expects
+     *         base units: record microseconds with a scale of 1e-6 to export seconds.
+     */
+    public Histogram histogram(String name, String help, double scale, String... labels) {
+        return (Histogram) getOrCreate(name, help, Type.HISTOGRAM, scale, labels);
+    }
+
+    public void addCollector(Collector collector) {
+        collectors.add(collector);
+    }
+
+    private Object getOrCreate(String name, String help, Type type, double scale, String[] labels) {
+        Family family = families.get(name);
+        if (family == null) {
+            Family created = new Family(help, type, scale);
+            family = families.putIfAbsent(name, created);
+            if (family == null) {
+                family = created;
+            }
+        }
+        if (family.type != type) {
+            throw new IllegalArgumentException("Metric " + name + " is a " + family.type.text());
+        }
+        String labelText = labelText(labels);
+        Object metric = family.metrics.get(labelText);
+        if (metric == null) {
+            Object created = type == Type.HISTOGRAM ? new Histogram() : new Counter();
+            metric = family.metrics.putIfAbsent(labelText, created);
+            if (metric == null) {
+                metric = created;
+            }
+        }
+        return metric;
+    }
+
+    /** Take a snapshot of all registered metrics and of the collectors. */
+    public Samples collect() {
+        Samples samples = new Samples();
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            for (Map.Entry<String, Object> metric : family.metrics.entrySet()) {
+                String labels = metric.getKey();
+                if (family.type == Type.HISTOGRAM) {
+                    addHistogram(samples, name, family, labels, (Histogram) metric.getValue());
+                } else {
+                    samples.addSample(name, family.type, family.help, name, labels,
+                            ((Counter) metric.getValue()).get());
+                }
+            }
+        }
+        for (Collector collector : collectors) {
+            collector.collect(samples);
+        }
+        return samples;
+    }
+
+    public void write(Writer writer) throws IOException {
+        collect().write(writer);
+    }
+
+    /**
+     * Histograms are exported with one bucket per power of two of the recorded unit, from the
+     * lowest to the highest power of two that anything has been recorded below. These powers of
+     * two coincide with bucket boundaries of the Histogram itself, so the cumulative counts are
+     * exact. Recorded values are integers, so the values below 2^n are those up to 2^n - 1, which
+     * is the inclusive "le" bound Prometheus expects.
+     */
+    private static void addHistogram(Samples samples, String name, Family family, String labels,
+            Histogram histogram) {
+        long[] counts = histogram.snapshot();
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        int bucket = 0;
+        for (int power = 0; power < 63 && cumulative < total; power++) {
+            int end = Histogram.bucketIndex(1L << power);
+            while (bucket < end) {
+                cumulative += counts[bucket++];
+            }
+            if (cumulative > 0) {
+                String bound = formatBound((double) ((1L << power) - 1) * family.scale);
+                samples.addSample(name, family.type, family.help, name + "_bucket",
+                        prefix + "le=\"" + bound + "\"", cumulative);
+            }
+        }
+        samples.addSample(name, family.type, family.help, name + "_bucket",
+                prefix + "le=\"+Inf\"", total);
+        samples.addSample(name, family.type, family.help, name + "_sum", labels,
+                histogram.getSum() * family.scale);
+        samples.addSample(name, family.type, family.help, name + "_count", labels, total);
+    }
+
+    /**
+     * @return the given label names and values in the Prometheus format, without the surrounding
+     *         braces, e.g. <code>router="default",phase="path"</code>.
+     */
+    static String labelText(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be given as name, value pairs.");
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(labels[i]).append("=\"");
+            String value = labels[i + 1] == null ? "" : labels[i + 1];
+            for (int c = 0; c < value.length(); c++) {
+                char ch = value.charAt(c);
+                if (ch == '\\' || ch == '"') {
+                    sb.append('\\').append(ch);
+                } else if (ch == '\n') {
+                    sb.append("\\n");
+                } else {
+                    sb.append(ch);
+                }
+            }
+            sb.append('"');
+        }
+        return sb.toString();
+    }
+
+    static String formatValue(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        } else if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    /**
+     * @return the given histogram bound rounded to 15 significant digits, so that scaling does not
+     *         show through in the label: 1023 microseconds is "0.001023", not "0.0010229999999999998".
+     */
+    static String formatBound(double bound) {
+        return formatValue(new BigDecimal(bound).round(new MathContext(15)).doubleValue());
+    }
+
+    /** All metrics sharing one name. */
+    private static class Family {
+
+        final String help;
+
+        final Type type;
+
+        final double scale;
+
+        /** Counters or histograms by label text. */
+        final ConcurrentMap<String, Object> metrics = new ConcurrentHashMap<String, Object>();
+
+        Family(String help, Type type, double scale) {
+            this.help = help;
+            this.type = type;
+            this.scale = scale;
+        }
+    }
+
+    /**
+     * The samples taken during one scrape, grouped by metric name so that each name gets a single
+     * HELP and TYPE line as the format requires.
+     */
+    public static class Samples {
+
+        private final SortedMap<String, StringBuilder> families = new TreeMap<String, StringBuilder>();
+
+        /** Add a counter or gauge sample, labelled with alternating label names and values. */
+        public void add(String name, Type type, String help, double value, String... labels) {
+            addSample(name, type, help, name, labelText(labels), value);
+        }
+
+        void addSample(String name, Type type, String help, String sampleName, String labels,
+                double value) {
+            StringBuilder lines = families.get(name);
+            if (lines == null) {
+                lines = new StringBuilder();
+                lines.append("# HELP ").append(name).append(' ')
+                        .append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+                lines.append("# TYPE ").append(name).append(' ').append(type.text()).append('\n');
+                families.put(name, lines);
+            }
+            lines.append(sampleName);
+            if (!labels.isEmpty()) {
+                lines.append('{').append(labels).append('}');
+            }
+            lines.append(' ').append(formatValue(value)).append('\n');
+        }
+
+        public void write(Writer writer) throws IOException {
+            for (StringBuilder lines : families.values()) {
+                writer.append(lines);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,149 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.analyst.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.analyst.core.Sample;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.core.ConstantIntersectionTraversalCostModel;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+
+public class MultiOriginStreetSearchTest {
+
+    private static final int N = 5;
+
+    private Graph graph;
+
+    private IntersectionVertex[][] grid;
+
+    @Before
+    public void before() {
+        graph = new Graph();
+        grid = new IntersectionVertex[N][N];
+        for (int x = 0; x < N; x++) {
+            for (int y = 0; y < N; y++) {
+                grid[x][y] = new IntersectionVertex(graph, "v" + x + "_" + y, x * 0.001, y * 0.001);
+            }
+        }
+        for (int x = 0; x < N; x++) {
+            for (int y = 0; y < N; y++) {
+                // Vary the lengths so that shortest paths are unique
+                if (x + 1 < N) {
+                    edges(grid[x][y], grid[x + 1][y], 80 + 7 * y);
+                }
+                if (y + 1 < N) {
+                    edges(grid[x][y], grid[x][y + 1], 100 + 5 * x);
+                }
+            }
+        }
+    }
+
+    private void edges(IntersectionVertex a, IntersectionVertex b, double length) {
+        LineString geom = GeometryUtils.getGeometryFactory().createLineString(
+                new Coordinate[] { a.getCoordinate(), b.getCoordinate() });
+        new StreetEdge(a, b, geom, "ab", length, StreetTraversalPermission.ALL, false);
+        new StreetEdge(b, a, (LineString) geom.reverse(), "ba", length,
+                StreetTraversalPermission.ALL, true);
+    }
+
+    private RoutingRequest request() {
+        RoutingRequest req = new RoutingRequest(new TraverseModeSet(TraverseMode.WALK));
+        req.batch = true;
+        return req;
+    }
+
+    @Test
+    public void testMatchesSingleOriginSearches() {
+        IntersectionVertex[] origins = { grid[0][0], grid[2][3], grid[4][1] };
+        Sample[] samples = new Sample[origins.length + 1];
+        for (int o = 0; o < origins.length; o++) {
+            samples[o] = new Sample(origins[o], 0, origins[o], 0);
+        }
+        // An unlinked origin reaches nothing
+        samples[origins.length] = null;
+
+        RoutingRequest multiRequest = request();
+        multiRequest.setDummyRoutingContext(graph);
+        assertTrue(MultiOriginStreetSearch.canHandle(multiRequest));
+        MultiOriginStreetSearch search = new MultiOriginStreetSearch(multiRequest, Integer.MAX_VALUE);
+        MultiOriginStreetSearch.Result result = search.search(samples);
+
+        for (int o = 0; o < origins.length; o++) {
+            // The multi-origin search does not model turn costs
+            RoutingRequest req = request();
+            req.traversalCostModel = new ConstantIntersectionTraversalCostModel(0);
+            req.setRoutingContext(graph, origins[o], null);
+            ShortestPathTree spt = new GenericAStar().getShortestPathTree(req);
+            for (int x = 0; x < N; x++) {
+                for (int y = 0; y < N; y++) {
+                    State s = spt.getState(grid[x][y]);
+                    assertEquals(s.getElapsedTimeSeconds(), result.getTime(o, grid[x][y]));
+                }
+            }
+        }
+        assertEquals(-1, result.getTime(origins.length, grid[0][0]));
+    }
+
+    @Test
+    public void testCanHandle() {
+        assertTrue(MultiOriginStreetSearch.canHandle(request()));
+        // Requests whose weights are not proportional to time use one search per origin.
+        RoutingRequest req = request();
+        req.setModes(new TraverseModeSet(TraverseMode.WALK, TraverseMode.BICYCLE));
+        assertFalse(MultiOriginStreetSearch.canHandle(req));
+        req = request();
+        req.setMaxWalkDistance(1000);
+        assertFalse(MultiOriginStreetSearch.canHandle(req));
+        req = request();
+        req.stairsReluctance = req.walkReluctance * 2;
+        assertFalse(MultiOriginStreetSearch.canHandle(req));
+        req = request();
+        req.wheelchairAccessible = true;
+        assertFalse(MultiOriginStreetSearch.canHandle(req));
+        req = request();
+        req.setModes(new TraverseModeSet(TraverseMode.WALK, TraverseMode.BUS));
+        assertFalse(MultiOriginStreetSearch.canHandle(req));
+    }
+
+    @Test
+    public void testCutoff() {
+        RoutingRequest req = request();
+        req.setDummyRoutingContext(graph);
+        MultiOriginStreetSearch search = new MultiOriginStreetSearch(req, 200);
+        Sample[] samples = { new Sample(grid[0][0], 0, grid[0][0], 0) };
+        MultiOriginStreetSearch.Result result = search.search(samples);
+        assertEquals(0, result.getTime(0, grid[0][0]));
+        assertEquals(-1, result.getTime(0, grid[4][4]));
+        Sample destination = new Sample(grid[4][4], 10, grid[0][0], 30);
+        assertEquals(30, result.eval(0, destination));
+    }
+
+}
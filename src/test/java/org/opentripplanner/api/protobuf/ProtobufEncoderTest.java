@@ -0,0 +1,72 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.api.protobuf;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+
+public class ProtobufEncoderTest {
+
+    /** The encoder must produce exactly what the protobuf library produces. */
+    @Test
+    public void testEncoder() throws IOException {
+        ProtobufEncoder encoder = new ProtobufEncoder(4);
+        encoder.writeInt32(1, -5);
+        encoder.writeSInt32(2, -300);
+        encoder.writeSInt64(3, -5000000000L);
+        encoder.writeDouble(4, 1.5);
+        encoder.writeString(5, "Caf\u00e9");
+        encoder.writeString(6, null);
+        encoder.startMessage(7);
+        encoder.writeBool(1, true);
+        encoder.startPacked(2);
+        for (int i = 0; i < 100; i++) {
+            encoder.writePackedSInt32(i * (i % 2 == 0 ? 1000 : -1000));
+        }
+        encoder.endPacked();
+        encoder.endMessage();
+        encoder.writeInt64(8, (Long) null);
+
+        ByteArrayOutputStream packed = new ByteArrayOutputStream();
+        CodedOutputStream packedOut = CodedOutputStream.newInstance(packed);
+        for (int i = 0; i < 100; i++) {
+            packedOut.writeSInt32NoTag(i * (i % 2 == 0 ? 1000 : -1000));
+        }
+        packedOut.flush();
+        ByteArrayOutputStream inner = new ByteArrayOutputStream();
+        CodedOutputStream innerOut = CodedOutputStream.newInstance(inner);
+        innerOut.writeBool(1, true);
+        innerOut.writeBytes(2, ByteString.copyFrom(packed.toByteArray()));
+        innerOut.flush();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        CodedOutputStream out = CodedOutputStream.newInstance(expected);
+        out.writeInt32(1, -5);
+        out.writeSInt32(2, -300);
+        out.writeSInt64(3, -5000000000L);
+        out.writeDouble(4, 1.5);
+        out.writeString(5, "Caf\u00e9");
+        out.writeBytes(7, ByteString.copyFrom(inner.toByteArray()));
+        out.flush();
+
+        assertArrayEquals(expected.toByteArray(), encoder.toByteArray());
+    }
+
+}
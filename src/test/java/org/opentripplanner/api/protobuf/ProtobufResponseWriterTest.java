@@ -0,0 +1,485 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.api.protobuf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+import javax.ws.rs.NotAcceptableException;
+import javax.ws.rs.core.MediaType;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+import org.opentripplanner.api.common.Message;
+import org.opentripplanner.api.model.AbsoluteDirection;
+import org.opentripplanner.api.model.Itinerary;
+import org.opentripplanner.api.model.Leg;
+import org.opentripplanner.api.model.Note;
+import org.opentripplanner.api.model.Place;
+import org.opentripplanner.api.model.RelativeDirection;
+import org.opentripplanner.api.model.TripPlan;
+import org.opentripplanner.api.model.WalkStep;
+import org.opentripplanner.api.model.error.PlannerError;
+import org.opentripplanner.api.resource.DebugOutput;
+import org.opentripplanner.api.resource.Response;
+import org.opentripplanner.api.resource.SearchStats;
+import org.opentripplanner.common.model.P2;
+import org.opentripplanner.index.model.StopShort;
+import org.opentripplanner.index.model.TripTimeShort;
+import org.opentripplanner.routing.alertpatch.Alert;
+import org.opentripplanner.routing.alertpatch.TranslatedString;
+import org.opentripplanner.routing.core.Fare.FareType;
+import org.opentripplanner.routing.core.WrappedCurrency;
+import org.opentripplanner.routing.edgetype.FreeEdge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.trippattern.Deduplicator;
+import org.opentripplanner.routing.trippattern.TripTimes;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.util.PolylineEncoder;
+
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.EnumDescriptor;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+import com.google.protobuf.MessageOrBuilder;
+import com.vividsolutions.jts.geom.Coordinate;
+
+public class ProtobufResponseWriterTest {
+
+    @Test
+    public void testTripPlan() throws IOException {
+        Response response = new Response(null);
+        response.requestParameters.put("mode", "WALK");
+        Place from = new Place(-122.6, 45.5, "Origin");
+        Place to = new Place(-122.61, 45.52, "Destination");
+        TripPlan plan = new TripPlan(from, to, new Date(1400000000500L));
+        Itinerary itinerary = new Itinerary();
+        itinerary.startTime = calendar(1400000060000L);
+        itinerary.endTime = calendar(1400000660000L);
+        Leg leg = new Leg();
+        leg.startTime = itinerary.startTime;
+        leg.endTime = itinerary.endTime;
+        leg.from = from;
+        leg.to = to;
+        List<Coordinate> points = new ArrayList<Coordinate>();
+        points.add(new Coordinate(-122.6, 45.5));
+        points.add(new Coordinate(-122.605, 45.51));
+        points.add(new Coordinate(-122.61, 45.52));
+        leg.legGeometry = PolylineEncoder.createEncodings(points);
+        leg.walkSteps = new ArrayList<WalkStep>();
+        WalkStep step = new WalkStep();
+        step.lon = -122.6;
+        step.lat = 45.5;
+        step.absoluteDirection = AbsoluteDirection.NORTH;
+        step.elevation = new ArrayList<P2<Double>>();
+        step.elevation.add(new P2<Double>(0.0, 10.0));
+        step.elevation.add(new P2<Double>(25.5, 12.25));
+        leg.walkSteps.add(step);
+        step = new WalkStep();
+        step.lon = -122.605;
+        step.lat = 45.51;
+        step.relativeDirection = RelativeDirection.LEFT;
+        leg.walkSteps.add(step);
+        itinerary.addLeg(leg);
+        plan.addItinerary(itinerary);
+        response.setPlan(plan);
+
+        OtpProtos.PlanResponse message = OtpProtos.PlanResponse.parseFrom(writeTo(response));
+        assertEquals("mode", message.getRequestParameters(0).getKey());
+        assertEquals("WALK", message.getRequestParameters(0).getValue());
+        assertFalse(message.hasError());
+        assertFalse(message.hasDebugOutput());
+        OtpProtos.TripPlan tripPlan = message.getPlan();
+        assertEquals(1400000000500L, tripPlan.getDate());
+        assertEquals(-122600000, tripPlan.getFrom().getLon());
+        assertEquals(45500000, tripPlan.getFrom().getLat());
+        assertEquals("Destination", tripPlan.getTo().getName());
+
+        OtpProtos.Itinerary it = tripPlan.getItineraries(0);
+        // Times relative to the plan date, then to the start of the itinerary
+        assertEquals(60, it.getStartTime());
+        assertEquals(600, it.getEndTime());
+        OtpProtos.Leg l = it.getLegs(0);
+        assertEquals(0, l.getStartTime());
+        assertEquals(600, l.getEndTime());
+
+        // The geometry deltas decode to the same points as the encoded polyline
+        int i = 0, lat = 0, lon = 0;
+        for (Coordinate c : PolylineEncoder.decode(leg.legGeometry)) {
+            lat += l.getGeometry(i++);
+            lon += l.getGeometry(i++);
+            // decode() returns (lat, lon) coordinates
+            assertEquals(c.x, lat * 1e-5, 1e-9);
+            assertEquals(c.y, lon * 1e-5, 1e-9);
+        }
+        assertEquals(i, l.getGeometryCount());
+
+        // Steps are relative to the previous step, the first one to the start of the leg
+        assertEquals(2, l.getStepsCount());
+        OtpProtos.WalkStep first = l.getSteps(0);
+        assertEquals(0, first.getLon());
+        assertEquals(0, first.getLat());
+        assertEquals(OtpProtos.AbsoluteDirection.NORTH, first.getAbsoluteDirection());
+        assertFalse(first.hasRelativeDirection());
+        assertEquals(Arrays.asList(0, 100, 255, 23), first.getElevationList());
+        OtpProtos.WalkStep second = l.getSteps(1);
+        assertEquals(-5000, second.getLon());
+        assertEquals(10000, second.getLat());
+        assertEquals(OtpProtos.RelativeDirection.LEFT, second.getRelativeDirection());
+    }
+
+    /**
+     * Every field of every message in otp.proto that can be reached from a plan response must be
+     * written by ProtobufResponseWriter. This fails when a field is added to the schema but not to
+     * the writer.
+     */
+    @Test
+    public void testAllFields() throws Exception {
+        OtpProtos.PlanResponse message = OtpProtos.PlanResponse.parseFrom(writeTo(makeResponse()));
+        Map<Descriptor, Set<FieldDescriptor>> written = new HashMap<Descriptor, Set<FieldDescriptor>>();
+        collectFields(message, written);
+        Set<Descriptor> types = new HashSet<Descriptor>();
+        collectTypes(OtpProtos.PlanResponse.getDescriptor(), types);
+        for (Descriptor type : types) {
+            assertTrue(type.getName() + " is not written", written.containsKey(type));
+            for (FieldDescriptor field : type.getFields()) {
+                assertTrue(type.getName() + "." + field.getName() + " is not written",
+                        written.get(type).contains(field));
+            }
+        }
+
+        // Values of the simple fields go through unchanged
+        OtpProtos.Leg leg = message.getPlan().getItineraries(0).getLegs(0);
+        assertEquals("tripBlockId", leg.getTripBlockId());
+        assertEquals(7, leg.getHeadway());
+        assertEquals(7.5, leg.getDistance(), 0);
+        assertTrue(leg.getRentedBike());
+        assertEquals("TriMet:100", leg.getTo().getStopId());
+        assertEquals(7, leg.getTo().getStopSequence());
+        assertEquals("Detour", leg.getAlerts(0).getHeader());
+        assertEquals("http://example.com", leg.getAlerts(0).getUrl());
+        assertEquals(1400000000000L, leg.getAlerts(0).getEffectiveStartDate());
+        OtpProtos.Fare fare = message.getPlan().getItineraries(0).getFare(0);
+        assertEquals("regular", fare.getType());
+        assertEquals("USD", fare.getCurrency());
+        assertEquals(250, fare.getCents());
+        assertEquals(Message.OUTSIDE_BOUNDS.name(), message.getError().getMessage());
+        assertEquals(Arrays.asList("from"), message.getError().getMissingList());
+    }
+
+    @Test
+    public void testDebugOutput() throws Exception {
+        Response response = makeResponse();
+        DebugOutput debug = response.debugOutput;
+        OtpProtos.DebugOutput message =
+                OtpProtos.PlanResponse.parseFrom(writeTo(response)).getDebugOutput();
+        assertEquals(debug.precalculationTime, message.getPrecalculationTime());
+        assertEquals(debug.pathCalculationTime, message.getPathCalculationTime());
+        assertEquals(debug.pathTimes, message.getPathTimesList());
+        assertEquals(debug.renderingTime, message.getRenderingTime());
+        assertEquals(debug.totalTime, message.getTotalTime());
+        assertTrue(message.getTimedOut());
+        assertEquals(debug.statesVisited, message.getStatesVisited());
+        SearchStats stats = debug.searchStats;
+        OtpProtos.SearchStats s = message.getSearchStats();
+        assertEquals(stats.statesCreated, s.getStatesCreated());
+        assertEquals(stats.statesPrunedByHeuristic, s.getStatesPrunedByHeuristic());
+        assertEquals(stats.statesPrunedByLimits, s.getStatesPrunedByLimits());
+        assertEquals(stats.statesDominatedOnArrival, s.getStatesDominatedOnArrival());
+        assertEquals(stats.statesDominatedInQueue, s.getStatesDominatedInQueue());
+        assertEquals(stats.maxQueueSize, s.getMaxQueueSize());
+        assertEquals(stats.heuristicEvaluations, s.getHeuristicEvaluations());
+        assertEquals(stats.boardingsAttempted, s.getBoardingsAttempted());
+        assertEquals(stats.boardingsSuccessful, s.getBoardingsSuccessful());
+        assertEquals(1, s.getEdgeTraversalsCount());
+        assertEquals("FreeEdge", s.getEdgeTraversals(0).getEdgeClass());
+        assertEquals(2, s.getEdgeTraversals(0).getCount());
+    }
+
+    @Test
+    public void testStops() throws IOException {
+        List<StopShort> stops = new ArrayList<StopShort>();
+        stops.add(new StopShort(stop("A", 45.5, -122.6), 10));
+        stops.add(new StopShort(stop("B", 45.501, -122.599), 20));
+        OtpProtos.StopList message = OtpProtos.StopList.parseFrom(writeTo(stops));
+        assertEquals(2, message.getStopsCount());
+        OtpProtos.Stop a = message.getStops(0);
+        assertEquals("agency:A", a.getId());
+        assertEquals(45500000, a.getLat());
+        assertEquals(-122600000, a.getLon());
+        assertEquals(10, a.getDist());
+        OtpProtos.Stop b = message.getStops(1);
+        assertEquals(1000, b.getLat());
+        assertEquals(1000, b.getLon());
+
+        assertEquals(0, writeTo(Collections.emptyList()).length);
+        try {
+            writeTo(Collections.singletonList("not a model object"));
+            fail();
+        } catch (NotAcceptableException e) {
+            // expected
+        }
+    }
+
+    /** Undefined times are absent and do not change the reference of the following times. */
+    @Test
+    public void testTripTimes() throws IOException {
+        Trip trip = new Trip();
+        trip.setId(new AgencyAndId("agency", "trip"));
+        List<StopTime> stopTimes = new ArrayList<StopTime>();
+        for (int i = 0; i < 3; i++) {
+            StopTime stopTime = new StopTime();
+            stopTime.setStop(stop(Integer.toString(i), 45.5, -122.6));
+            stopTime.setArrivalTime(36000 + 300 * i);
+            stopTime.setDepartureTime(36060 + 300 * i);
+            stopTime.setStopSequence(i);
+            stopTimes.add(stopTime);
+        }
+        TripTimes tripTimes = new TripTimes(trip, stopTimes, new Deduplicator());
+        List<TripTimeShort> times = new ArrayList<TripTimeShort>();
+        for (int i = 0; i < 3; i++) {
+            TripTimeShort time = new TripTimeShort(tripTimes, i, stopTimes.get(i).getStop());
+            time.tripId = trip.getId();
+            times.add(time);
+        }
+        times.get(1).scheduledArrival = TripTimeShort.UNDEFINED;
+
+        OtpProtos.TripTimeList message = OtpProtos.TripTimeList.parseFrom(writeTo(times));
+        assertEquals(3, message.getTimesCount());
+        OtpProtos.TripTime first = message.getTimes(0);
+        assertEquals("agency:0", first.getStopId());
+        assertEquals("agency:trip", first.getTripId());
+        assertEquals(36000, first.getScheduledArrival());
+        assertEquals(36060, first.getScheduledDeparture());
+        assertEquals(36000, first.getRealtimeArrival());
+        assertFalse(message.getTimes(1).hasScheduledArrival());
+        assertEquals(300, message.getTimes(1).getScheduledDeparture());
+        assertEquals(300, message.getTimes(1).getRealtimeArrival());
+        assertEquals(600, message.getTimes(2).getScheduledArrival());
+        assertEquals(300, message.getTimes(2).getScheduledDeparture());
+    }
+
+    @Test
+    public void testWriteable() {
+        ProtobufResponseWriter writer = new ProtobufResponseWriter();
+        MediaType protobuf = ProtobufResponseWriter.APPLICATION_X_PROTOBUF_TYPE;
+        assertTrue(writer.isWriteable(Response.class, Response.class, null, protobuf));
+        assertTrue(writer.isWriteable(ArrayList.class, ArrayList.class, null, protobuf));
+        assertFalse(writer.isWriteable(String.class, String.class, null, protobuf));
+        assertFalse(writer.isWriteable(Response.class, Response.class, null,
+                MediaType.APPLICATION_JSON_TYPE));
+    }
+
+    /** Enums are converted by name, so otp.proto must have the same constants as the model. */
+    @Test
+    public void testEnumsMatchSchema() {
+        assertEnumMatches(OtpProtos.RelativeDirection.getDescriptor(), RelativeDirection.values());
+        assertEnumMatches(OtpProtos.AbsoluteDirection.getDescriptor(), AbsoluteDirection.values());
+    }
+
+    private static void assertEnumMatches(EnumDescriptor schema, Enum<?>[] values) {
+        Set<String> names = new HashSet<String>();
+        for (EnumValueDescriptor value : schema.getValues()) {
+            names.add(value.getName());
+        }
+        Set<String> expected = new HashSet<String>();
+        for (Enum<?> value : values) {
+            expected.add(value.name());
+        }
+        assertEquals(expected, names);
+    }
+
+    /** Build a response in which each field of the plan response messages is set at least once. */
+    private static Response makeResponse() throws IllegalAccessException {
+        Response response = new Response(null);
+        response.requestParameters.put("mode", "TRANSIT,WALK");
+        Place from = new Place(-122.6, 45.5, "Origin");
+        Place to = new Place(-122.7, 45.6, "Destination");
+        TripPlan plan = new TripPlan(from, to, new Date(1400000000000L));
+
+        Itinerary itinerary = new Itinerary();
+        itinerary.startTime = calendar(1400000000000L);
+        itinerary.endTime = calendar(1400001800000L);
+        itinerary.fare.addFare(FareType.regular, new WrappedCurrency("USD"), 250);
+        fillSimpleFields(itinerary);
+
+        Leg leg = new Leg();
+        leg.startTime = itinerary.startTime;
+        leg.endTime = itinerary.endTime;
+        leg.from = from;
+        leg.to = to;
+        to.stopId = new AgencyAndId("TriMet", "100");
+        to.arrival = itinerary.endTime;
+        to.departure = itinerary.endTime;
+        fillSimpleFields(to);
+        leg.stop = new ArrayList<Place>();
+        Place stop = new Place(-122.65, 45.55, "Middle", calendar(1400001000000L),
+                calendar(1400001010000L));
+        leg.stop.add(stop);
+        List<Coordinate> points = new ArrayList<Coordinate>();
+        points.add(new Coordinate(-122.6, 45.5));
+        points.add(new Coordinate(-122.7, 45.6));
+        leg.legGeometry = PolylineEncoder.createEncodings(points);
+        leg.walkSteps = new ArrayList<WalkStep>();
+        WalkStep step = new WalkStep();
+        step.lon = -122.6;
+        step.lat = 45.5;
+        step.relativeDirection = RelativeDirection.DEPART;
+        step.absoluteDirection = AbsoluteDirection.NORTH;
+        step.elevation = new ArrayList<P2<Double>>();
+        step.elevation.add(new P2<Double>(0.0, 10.0));
+        step.alerts = new ArrayList<Alert>();
+        step.alerts.add(Alert.createSimpleAlerts("Sidewalk closed"));
+        fillSimpleFields(step);
+        leg.walkSteps.add(step);
+        leg.notes = new ArrayList<Note>();
+        leg.notes.add(new Note("Use the crosswalk"));
+        leg.alerts = new ArrayList<Alert>();
+        Alert alert = Alert.createSimpleAlerts("Detour");
+        alert.alertDescriptionText = new TranslatedString("Take route 13 instead");
+        alert.alertUrl = new TranslatedString("http://example.com");
+        alert.effectiveStartDate = new Date(1400000000000L);
+        leg.alerts.add(alert);
+        fillSimpleFields(leg);
+        itinerary.addLeg(leg);
+        plan.addItinerary(itinerary);
+        response.setPlan(plan);
+
+        PlannerError error = new PlannerError(Message.OUTSIDE_BOUNDS);
+        error.message = Message.OUTSIDE_BOUNDS;
+        error.setMissing(Arrays.asList("from"));
+        response.setError(error);
+
+        DebugOutput debug = new DebugOutput();
+        debug.startedCalculating();
+        debug.finishedPrecalculating();
+        debug.foundPath();
+        debug.finishedCalculating();
+        debug.finishedRendering();
+        debug.timedOut = true;
+        debug.statesVisited = 12;
+        SearchStats stats = new SearchStats();
+        stats.statesCreated = 10;
+        stats.statesPrunedByHeuristic = 1;
+        stats.statesPrunedByLimits = 2;
+        stats.statesDominatedOnArrival = 3;
+        stats.statesDominatedInQueue = 4;
+        stats.enqueued(5);
+        stats.heuristicEvaluations = 6;
+        Graph graph = new Graph();
+        FreeEdge edge = new FreeEdge(new IntersectionVertex(graph, "a", 0, 0),
+                new IntersectionVertex(graph, "b", 0, 1));
+        stats.traversed(edge, null);
+        stats.traversed(edge, null);
+        debug.searchStats = stats;
+        response.debugOutput = debug;
+        return response;
+    }
+
+    /** Record the fields set in the given message and all the messages it contains, by type. */
+    private static void collectFields(MessageOrBuilder message,
+            Map<Descriptor, Set<FieldDescriptor>> written) {
+        Set<FieldDescriptor> fields = written.get(message.getDescriptorForType());
+        if (fields == null) {
+            fields = new HashSet<FieldDescriptor>();
+            written.put(message.getDescriptorForType(), fields);
+        }
+        for (Map.Entry<FieldDescriptor, Object> e : message.getAllFields().entrySet()) {
+            fields.add(e.getKey());
+            if (e.getKey().getJavaType() != JavaType.MESSAGE) continue;
+            if (e.getKey().isRepeated()) {
+                for (Object element : (List<?>) e.getValue()) {
+                    collectFields((MessageOrBuilder) element, written);
+                }
+            } else {
+                collectFields((MessageOrBuilder) e.getValue(), written);
+            }
+        }
+    }
+
+    /** Collect the given message type and all the message types it contains. */
+    private static void collectTypes(Descriptor type, Set<Descriptor> types) {
+        if (!types.add(type)) return;
+        for (FieldDescriptor field : type.getFields()) {
+            if (field.getJavaType() == JavaType.MESSAGE) {
+                collectTypes(field.getMessageType(), types);
+            }
+        }
+    }
+
+    /** Give a value to every null public field of a simple type, so that it is written. */
+    private static void fillSimpleFields(Object bean) throws IllegalAccessException {
+        for (Field field : bean.getClass().getFields()) {
+            if (Modifier.isStatic(field.getModifiers()) || field.get(bean) != null) {
+                continue;
+            }
+            Class<?> type = field.getType();
+            if (type == String.class) {
+                field.set(bean, field.getName());
+            } else if (type == Integer.class) {
+                field.set(bean, 7);
+            } else if (type == Long.class) {
+                field.set(bean, 7L);
+            } else if (type == Double.class) {
+                field.set(bean, 7.5);
+            } else if (type == Boolean.class) {
+                field.set(bean, true);
+            }
+        }
+    }
+
+    private static byte[] writeTo(Object entity) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ProtobufResponseWriter().writeTo(entity, entity.getClass(), entity.getClass(), null,
+                ProtobufResponseWriter.APPLICATION_X_PROTOBUF_TYPE, null, out);
+        return out.toByteArray();
+    }
+
+    private static Stop stop(String id, double lat, double lon) {
+        Stop stop = new Stop();
+        stop.setId(new AgencyAndId("agency", id));
+        stop.setLat(lat);
+        stop.setLon(lon);
+        return stop;
+    }
+
+    private static Calendar calendar(long millis) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+        calendar.setTimeInMillis(millis);
+        return calendar;
+    }
+
+}
@@ -0,0 +1,148 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.api.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.api.model.TripPlan;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.routing.alertpatch.AlertPatch;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.routing.impl.GenericAStarFactory;
+import org.opentripplanner.routing.impl.RetryingPathServiceImpl;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+import com.vividsolutions.jts.geom.LineString;
+
+public class CachingPlanGeneratorTest {
+
+    private Graph graph;
+
+    private StreetEdge firstEdge;
+
+    private int searches;
+
+    private CachingPlanGenerator planGenerator;
+
+    @Before
+    public void before() {
+        graph = new Graph();
+        IntersectionVertex previous = null;
+        for (int i = 0; i < 5; i++) {
+            IntersectionVertex v = new IntersectionVertex(graph, "v" + i, i * 0.001, 0);
+            if (previous != null) {
+                LineString geometry = GeometryUtils.makeLineString(previous.getX(), 0, v.getX(), 0);
+                StreetEdge edge = new StreetEdge(previous, v, geometry, "street", 100,
+                        StreetTraversalPermission.ALL, false);
+                new StreetEdge(v, previous, geometry, "street", 100, StreetTraversalPermission.ALL, true);
+                if (firstEdge == null) {
+                    firstEdge = edge;
+                }
+            }
+            previous = v;
+        }
+        graph.index(new DefaultStreetVertexIndexFactory());
+
+        RetryingPathServiceImpl pathService = new RetryingPathServiceImpl(graph, new GenericAStarFactory()) {
+            @Override
+            public List<GraphPath> getPaths(RoutingRequest options) {
+                searches++;
+                return super.getPaths(options);
+            }
+        };
+        planGenerator = new CachingPlanGenerator(graph, pathService, 10000, 60);
+    }
+
+    private TripPlan plan(long dateTime, double walkSpeed) {
+        return plan(dateTime, walkSpeed, false);
+    }
+
+    private TripPlan plan(long dateTime, double walkSpeed, boolean arriveBy) {
+        RoutingRequest request = new RoutingRequest(new TraverseModeSet("WALK"));
+        request.setArriveBy(arriveBy);
+        request.from = new GenericLocation(null, "v0");
+        request.to = new GenericLocation(null, "v4");
+        request.dateTime = dateTime;
+        request.walkSpeed = walkSpeed;
+        try {
+            return planGenerator.generate(request);
+        } finally {
+            if (request.rctx != null) {
+                request.cleanup();
+            }
+        }
+    }
+
+    @Test
+    public void testCache() {
+        TripPlan plan = plan(6010, 1.33);
+        assertNotNull(plan);
+        assertEquals(1, searches);
+
+        // a few seconds later, in the same time bucket
+        assertSame(plan, plan(6030, 1.33));
+        assertEquals(1, searches);
+
+        // a different time bucket or different options need a new search
+        assertNotSame(plan, plan(6100, 1.33));
+        assertEquals(2, searches);
+        plan(6010, 1.0);
+        assertEquals(3, searches);
+        assertEquals(1, planGenerator.getStats().hitCount());
+
+        // new alerts invalidate the cache
+        graph.addAlertPatch(firstEdge, new AlertPatch());
+        assertNotSame(plan, plan(6010, 1.33));
+        assertEquals(4, searches);
+        assertEquals(1, planGenerator.size());
+    }
+
+    /** A plan shared by a time bucket must suit the latest departure and the earliest arrival in that bucket. */
+    @Test
+    public void testBucketBoundaries() {
+        // departures in (6000, 6060] share a plan leaving at the end of the bucket
+        TripPlan plan = plan(6001, 1.33);
+        assertSame(plan, plan(6060, 1.33));
+        assertEquals(1, searches);
+        assertTrue(plan.itinerary.get(0).startTime.getTimeInMillis() >= 6060 * 1000);
+        assertNotSame(plan, plan(6000, 1.33));
+        assertNotSame(plan, plan(6061, 1.33));
+        assertEquals(3, searches);
+
+        // arrivals in [6000, 6060) share a plan arriving at the start of the bucket
+        plan = plan(6059, 1.33, true);
+        assertSame(plan, plan(6000, 1.33, true));
+        assertEquals(4, searches);
+        assertTrue(plan.itinerary.get(0).endTime.getTimeInMillis() <= 6000 * 1000);
+        assertNotSame(plan, plan(6060, 1.33, true));
+        assertEquals(5, searches);
+    }
+
+}
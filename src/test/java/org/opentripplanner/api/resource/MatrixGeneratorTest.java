@@ -0,0 +1,127 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.api.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.api.model.TravelTimeMatrix;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.routing.impl.GenericAStarFactory;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.standalone.RoutingExecutor;
+
+import com.vividsolutions.jts.geom.LineString;
+
+public class MatrixGeneratorTest {
+
+    private Graph graph;
+
+    @Before
+    public void before() {
+        graph = new Graph();
+        IntersectionVertex previous = null;
+        for (int i = 0; i < 5; i++) {
+            IntersectionVertex v = new IntersectionVertex(graph, "v" + i, i * 0.001, 0);
+            if (previous != null) {
+                LineString geometry = GeometryUtils.makeLineString(previous.getX(), 0, v.getX(), 0);
+                new StreetEdge(previous, v, geometry, "street", 100, StreetTraversalPermission.ALL, false);
+                new StreetEdge(v, previous, geometry, "street", 100, StreetTraversalPermission.ALL, true);
+            }
+            previous = v;
+        }
+        new IntersectionVertex(graph, "island", 1, 1);
+        graph.index(new DefaultStreetVertexIndexFactory());
+    }
+
+    private TravelTimeMatrix matrix(RoutingExecutor executor) {
+        MatrixGenerator generator = new MatrixGenerator(graph, new GenericAStarFactory());
+        RoutingRequest request = new RoutingRequest(new TraverseModeSet("WALK"));
+        request.dateTime = 1000000;
+        List<GenericLocation> origins = Arrays.asList(
+                new GenericLocation(null, "v0"),
+                new GenericLocation(0, 0.0025));
+        List<GenericLocation> destinations = Arrays.asList(
+                new GenericLocation(null, "v4"),
+                new GenericLocation(0.0001, 0.0015),
+                new GenericLocation(null, "island"));
+        return generator.generate(request, origins, destinations, 3600, executor);
+    }
+
+    @Test
+    public void testMatrix() {
+        TravelTimeMatrix matrix = matrix(null);
+        assertEquals(2, matrix.durations.length);
+        assertEquals(3, matrix.durations[0].length);
+
+        // along the whole street
+        assertTrue(matrix.durations[0][0] > 0);
+        assertEquals(400, matrix.walkDistances[0][0], 1);
+        assertEquals(0, matrix.transfers[0][0]);
+
+        // to a point next to the street, halfway along its second edge
+        assertTrue(matrix.durations[0][1] < matrix.durations[0][0]);
+        assertTrue(matrix.walkDistances[0][1] > 150 && matrix.walkDistances[0][1] < 175);
+
+        // from a point halfway along the third edge
+        assertEquals(150, matrix.walkDistances[1][0], 5);
+        assertEquals(100, matrix.walkDistances[1][1], 15);
+
+        for (int o = 0; o < 2; o++) {
+            assertEquals(TravelTimeMatrix.UNREACHABLE, matrix.durations[o][2]);
+            assertEquals(TravelTimeMatrix.UNREACHABLE, matrix.walkDistances[o][2]);
+        }
+    }
+
+    @Test
+    public void testMatrixThreads() throws Exception {
+        TravelTimeMatrix sequential = matrix(null);
+        final RoutingExecutor executor = new RoutingExecutor(3, 2, 0);
+        try {
+            // two matrices in a row, each computed on a routing thread helped by the idle ones
+            for (int i = 0; i < 2; i++) {
+                final TravelTimeMatrix[] parallel = new TravelTimeMatrix[1];
+                Future<?> future = executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        parallel[0] = matrix(executor);
+                    }
+                });
+                future.get(10, TimeUnit.SECONDS);
+                assertTrue(Arrays.deepEquals(sequential.durations, parallel[0].durations));
+                assertTrue(Arrays.deepEquals(sequential.walkDistances, parallel[0].walkDistances));
+                assertTrue(Arrays.deepEquals(sequential.transfers, parallel[0].transfers));
+            }
+            assertEquals(0, executor.getStatus().rejected);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,304 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.api.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+
+import javax.ws.rs.core.MediaType;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.opentripplanner.api.common.Message;
+import org.opentripplanner.api.model.AbsoluteDirection;
+import org.opentripplanner.api.model.Itinerary;
+import org.opentripplanner.api.model.JSONObjectMapperProvider;
+import org.opentripplanner.api.model.Leg;
+import org.opentripplanner.api.model.Note;
+import org.opentripplanner.api.model.Place;
+import org.opentripplanner.api.model.RelativeDirection;
+import org.opentripplanner.api.model.TripPlan;
+import org.opentripplanner.api.model.WalkStep;
+import org.opentripplanner.api.model.error.PlannerError;
+import org.opentripplanner.common.model.P2;
+import org.opentripplanner.routing.alertpatch.Alert;
+import org.opentripplanner.routing.core.Fare.FareType;
+import org.opentripplanner.routing.core.WrappedCurrency;
+import org.opentripplanner.util.model.EncodedPolylineBean;
+
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import com.google.common.collect.Iterators;
+
+public class ResponseJsonWriterTest {
+
+    private ObjectMapper mapper;
+
+    private ResponseJsonWriter writer;
+
+    @Before
+    public void before() {
+        mapper = new JSONObjectMapperProvider().getContext(Response.class);
+        writer = new ResponseJsonWriter(mapper);
+    }
+
+    @Test
+    public void testTripPlan() throws Exception {
+        assertSameJson(makeResponse());
+    }
+
+    /**
+     * Every property that the ObjectMapper writes for an itinerary, leg, walk step or place must
+     * also be written by hand. This fails when a field is added to one of these model classes but
+     * not to ResponseJsonWriter.
+     */
+    @Test
+    public void testAllProperties() throws Exception {
+        Response response = makeResponse();
+        Itinerary itinerary = response.getPlan().itinerary.get(0);
+        fillSimpleFields(itinerary);
+        for (Leg leg : itinerary.legs) {
+            fillSimpleFields(leg);
+            fillSimpleFields(leg.from);
+            fillSimpleFields(leg.to);
+            if (leg.walkSteps != null) {
+                for (WalkStep step : leg.walkSteps) {
+                    fillSimpleFields(step);
+                }
+            }
+            if (leg.stop != null) {
+                for (Place stop : leg.stop) {
+                    fillSimpleFields(stop);
+                }
+            }
+        }
+        assertSameJson(response);
+
+        JsonNode json = mapper.readTree(write(response)).get("plan").get("itineraries").get(0);
+        List<JsonNode> legs = new ArrayList<JsonNode>();
+        List<JsonNode> steps = new ArrayList<JsonNode>();
+        List<JsonNode> places = new ArrayList<JsonNode>();
+        for (JsonNode leg : json.get("legs")) {
+            legs.add(leg);
+            places.add(leg.get("from"));
+            places.add(leg.get("to"));
+            if (leg.has("steps")) {
+                Iterators.addAll(steps, leg.get("steps").elements());
+            }
+            if (leg.has("intermediateStops")) {
+                Iterators.addAll(places, leg.get("intermediateStops").elements());
+            }
+        }
+        assertAllProperties(Itinerary.class, Collections.singletonList(json));
+        assertAllProperties(Leg.class, legs);
+        assertAllProperties(WalkStep.class, steps);
+        assertAllProperties(Place.class, places);
+    }
+
+    /** Build a response in which each itinerary, leg, walk step and place property is set at least once. */
+    private Response makeResponse() {
+        Response response = new Response(null);
+        response.requestParameters.put("fromPlace", "45.5,-122.6");
+        response.requestParameters.put("mode", "TRANSIT,WALK");
+
+        Place from = new Place(-122.6, 45.5, "Origin");
+        from.orig = "Home";
+        Place to = new Place(-122.7, 45.6, "Destination");
+        TripPlan plan = new TripPlan(from, to, new Date(1400000000000L));
+
+        Itinerary itinerary = new Itinerary();
+        itinerary.startTime = calendar(1400000000000L);
+        itinerary.endTime = calendar(1400001800000L);
+        itinerary.duration = 1800L;
+        itinerary.walkTime = 600;
+        itinerary.transitTime = 1000;
+        itinerary.waitingTime = 200;
+        itinerary.walkDistance = 812.5;
+        itinerary.transfers = 0;
+        itinerary.fare.addFare(FareType.regular, new WrappedCurrency("USD"), 250);
+
+        Leg walk = new Leg();
+        walk.startTime = calendar(1400000000000L);
+        walk.endTime = calendar(1400000600000L);
+        walk.distance = 812.5;
+        walk.from = from;
+        walk.to = new Place(-122.65, 45.55, "Main St & 1st Ave");
+        walk.legGeometry = new EncodedPolylineBean("o{sxFl}vaMjDpCf@\\", null, 3);
+        walk.walkSteps = new ArrayList<WalkStep>();
+        WalkStep step = new WalkStep();
+        step.distance = 500.25;
+        step.streetName = "Main St";
+        step.absoluteDirection = AbsoluteDirection.NORTH;
+        step.lon = -122.6;
+        step.lat = 45.5;
+        step.elevation = new ArrayList<P2<Double>>();
+        step.elevation.add(new P2<Double>(0.0, 10.0));
+        step.elevation.add(new P2<Double>(500.25, 12.5));
+        walk.walkSteps.add(step);
+        step = new WalkStep();
+        step.distance = 312.25;
+        step.streetName = "1st Ave";
+        step.relativeDirection = RelativeDirection.LEFT;
+        step.absoluteDirection = AbsoluteDirection.WEST;
+        step.stayOn = true;
+        step.lon = -122.62;
+        step.lat = 45.52;
+        step.alerts = new ArrayList<Alert>();
+        step.alerts.add(Alert.createSimpleAlerts("Sidewalk closed"));
+        walk.walkSteps.add(step);
+        walk.notes = new ArrayList<Note>();
+        walk.notes.add(new Note("Use the crosswalk"));
+        itinerary.addLeg(walk);
+
+        Leg bus = new Leg();
+        bus.startTime = calendar(1400000800000L);
+        bus.endTime = calendar(1400001800000L);
+        bus.mode = "BUS";
+        bus.route = "12";
+        bus.routeId = "12";
+        bus.routeShortName = "12";
+        bus.routeType = 3;
+        bus.agencyId = "TriMet";
+        bus.agencyName = "TriMet";
+        bus.tripId = "1234";
+        bus.headsign = "Downtown";
+        bus.serviceDate = "20140513";
+        bus.realTime = true;
+        bus.departureDelay = 60;
+        bus.interlineWithPreviousLeg = false;
+        bus.distance = 5000.0;
+        bus.from = walk.to;
+        bus.from.stopId = new AgencyAndId("TriMet", "100");
+        bus.from.stopIndex = 3;
+        bus.from.stopSequence = 4;
+        bus.from.departure = calendar(1400000800000L);
+        bus.to = to;
+        bus.stop = new ArrayList<Place>();
+        Place stop = new Place(-122.68, 45.58, "Middle", calendar(1400001000000L),
+                calendar(1400001010000L));
+        stop.stopId = new AgencyAndId("TriMet", "200");
+        stop.stopCode = "200";
+        bus.stop.add(stop);
+        bus.legGeometry = new EncodedPolylineBean("_p~iF~ps|U_ulLnnqC", "BB", 2);
+        bus.alerts = new ArrayList<Alert>();
+        bus.alerts.add(Alert.createSimpleAlerts("Detour"));
+        bus.setTimeZone(TimeZone.getTimeZone("America/Los_Angeles"));
+        itinerary.addLeg(bus);
+
+        plan.addItinerary(itinerary);
+        plan.addItinerary(new Itinerary());
+        response.setPlan(plan);
+
+        DebugOutput debugOutput = new DebugOutput();
+        debugOutput.startedCalculating();
+        debugOutput.foundPath();
+        debugOutput.finishedCalculating();
+        debugOutput.finishedRendering();
+        response.debugOutput = debugOutput;
+        return response;
+    }
+
+    @Test
+    public void testError() throws Exception {
+        Response response = new Response(null);
+        response.setError(new PlannerError(Message.PATH_NOT_FOUND));
+        assertSameJson(response);
+    }
+
+    @Test
+    public void testWriteable() {
+        assertTrue(writer.isWriteable(Response.class, Response.class, null,
+                MediaType.APPLICATION_JSON_TYPE));
+        assertFalse(writer.isWriteable(Response.class, Response.class, null,
+                MediaType.APPLICATION_XML_TYPE));
+        assertFalse(writer.isWriteable(TripPlan.class, TripPlan.class, null,
+                MediaType.APPLICATION_JSON_TYPE));
+    }
+
+    /** The streaming writer must produce the same document as the reflective ObjectMapper. */
+    private void assertSameJson(Response response) throws Exception {
+        byte[] out = write(response);
+        JsonNode actual = mapper.readTree(out);
+        JsonNode expected = mapper.readTree(mapper.writeValueAsBytes(response));
+        assertEquals(expected, actual);
+        assertEquals(mapper.writeValueAsString(response), new String(out, "UTF-8"));
+    }
+
+    private byte[] write(Response response) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeTo(response, Response.class, Response.class, null,
+                MediaType.APPLICATION_JSON_TYPE, null, out);
+        return out.toByteArray();
+    }
+
+    /** Check that the given JSON objects together have every property Jackson serializes for the type. */
+    private void assertAllProperties(Class<?> type, List<JsonNode> objects) {
+        Set<String> written = new HashSet<String>();
+        for (JsonNode object : objects) {
+            Iterators.addAll(written, object.fieldNames());
+        }
+        BeanDescription description = mapper.getSerializationConfig().introspect(
+                mapper.constructType(type));
+        for (BeanPropertyDefinition property : description.findProperties()) {
+            if (property.couldSerialize()) {
+                assertTrue(type.getSimpleName() + "." + property.getName() + " is not written",
+                        written.contains(property.getName()));
+            }
+        }
+    }
+
+    /** Give a value to every null public field of a simple type, so that it is written. */
+    private static void fillSimpleFields(Object bean) throws IllegalAccessException {
+        for (Field field : bean.getClass().getFields()) {
+            if (Modifier.isStatic(field.getModifiers()) || field.get(bean) != null) {
+                continue;
+            }
+            Class<?> type = field.getType();
+            if (type == String.class) {
+                field.set(bean, field.getName());
+            } else if (type == Integer.class) {
+                field.set(bean, 7);
+            } else if (type == Long.class) {
+                field.set(bean, 7L);
+            } else if (type == Double.class) {
+                field.set(bean, 7.5);
+            } else if (type == Boolean.class) {
+                field.set(bean, true);
+            }
+        }
+    }
+
+    private static Calendar calendar(long millis) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+        calendar.setTimeInMillis(millis);
+        return calendar;
+    }
+
+}
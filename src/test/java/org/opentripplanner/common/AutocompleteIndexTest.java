@@ -0,0 +1,162 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Stop;
+import org.opentripplanner.common.AutocompleteIndex.Category;
+import org.opentripplanner.common.AutocompleteIndex.Entry;
+import org.opentripplanner.common.AutocompleteIndex.Result;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import com.vividsolutions.jts.geom.LineString;
+
+public class AutocompleteIndexTest {
+
+    @Test
+    public void testTokenize() {
+        assertArrayEquals(new String[] { "main", "st", "2nd", "ave" },
+                AutocompleteIndex.tokenize("Main St. & 2nd  Ave"));
+        assertArrayEquals(new String[] { "gare", "de", "l", "est" },
+                AutocompleteIndex.tokenize("Gare de l'Est"));
+        assertArrayEquals(new String[] { "cafe", "muller" }, AutocompleteIndex.tokenize("Café Müller"));
+        assertEquals(0, AutocompleteIndex.tokenize(" - ").length);
+    }
+
+    private static AutocompleteIndex makeIndex() {
+        List<Entry> entries = new ArrayList<Entry>();
+        entries.add(new Entry("Main St & 2nd Ave", Category.CORNER, 45.0, -122.0));
+        entries.add(new Entry("Main St & Maple St", Category.CORNER, 45.1, -122.1));
+        entries.add(new Entry("Mainland Transit Center", Category.STOP, 45.2, -122.2));
+        entries.add(new Entry("2nd Ave & Oak St", Category.CORNER, 45.3, -122.3));
+        entries.add(new Entry("Oak St & 2nd Ave", Category.CORNER, 46.0, -123.0));
+        return new AutocompleteIndex(entries);
+    }
+
+    private static List<String> descriptions(List<Result> results) {
+        List<String> descriptions = new ArrayList<String>();
+        for (Result result : results) {
+            descriptions.add(result.description);
+        }
+        return descriptions;
+    }
+
+    @Test
+    public void testPrefixQuery() {
+        AutocompleteIndex index = makeIndex();
+        List<String> results = descriptions(index.query("mai", null, null, 10));
+        assertEquals(3, results.size());
+        // "Main St & Maple St" contains two words beginning with "ma" but must only appear once.
+        results = descriptions(index.query("ma", null, null, 10));
+        assertEquals(3, results.size());
+        assertTrue(results.contains("corner Main St & Maple St"));
+
+        // Every term must match, in any order.
+        results = descriptions(index.query("2n MAIN", null, null, 10));
+        assertEquals(1, results.size());
+        assertEquals("corner Main St & 2nd Ave", results.get(0));
+        assertEquals(0, index.query("main oak", null, null, 10).size());
+        assertEquals(0, index.query("zzz", null, null, 10).size());
+        assertEquals(0, index.query("", null, null, 10).size());
+        assertEquals(0, index.query(null, null, null, 10).size());
+
+        // Whole words rank above prefixes.
+        results = descriptions(index.query("main", null, null, 10));
+        assertTrue(results.indexOf("stop Mainland Transit Center") > 0);
+        assertEquals(2, index.query("main", null, null, 2).size());
+    }
+
+    @Test
+    public void testRepeatedWords() {
+        List<Entry> entries = new ArrayList<Entry>();
+        entries.add(new Entry("Main St & Maple St", Category.CORNER, 45.1, -122.1));
+        entries.add(new Entry("1st Ave & 1st St", Category.CORNER, 45.2, -122.2));
+        AutocompleteIndex index = new AutocompleteIndex(entries);
+        // A name is found once even if the query matches a word it contains twice.
+        List<String> results = descriptions(index.query("st", null, null, 10));
+        assertEquals(2, results.size());
+        assertTrue(results.contains("corner Main St & Maple St"));
+        assertTrue(results.contains("corner 1st Ave & 1st St"));
+        results = descriptions(index.query("1st", null, null, 10));
+        assertEquals(1, results.size());
+        assertEquals("corner 1st Ave & 1st St", results.get(0));
+    }
+
+    @Test
+    public void testGeographicBoost() {
+        AutocompleteIndex index = makeIndex();
+        List<Result> results = index.query("oak 2nd", 46.0, -123.0, 10);
+        assertEquals(2, results.size());
+        assertEquals("corner Oak St & 2nd Ave", results.get(0).description);
+        assertEquals(46.0, results.get(0).lat, 1e-6);
+        results = index.query("oak 2nd", 45.3, -122.3, 10);
+        assertEquals("corner 2nd Ave & Oak St", results.get(0).description);
+    }
+
+    @Test
+    public void testBuildFromGraph() throws Exception {
+        Graph graph = new Graph();
+        IntersectionVertex a = new IntersectionVertex(graph, "a", -122.0, 45.0);
+        IntersectionVertex b = new IntersectionVertex(graph, "b", -122.0, 45.01);
+        IntersectionVertex c = new IntersectionVertex(graph, "c", -122.01, 45.0);
+        street(a, b, "Broadway");
+        street(a, c, "Burnside Street");
+        Stop stop = new Stop();
+        stop.setId(new AgencyAndId("agency", "1"));
+        stop.setName("Pioneer Square");
+        stop.setLat(45.005);
+        stop.setLon(-122.005);
+        new TransitStop(graph, stop);
+
+        AutocompleteIndex index = AutocompleteIndex.build(graph, 2);
+        // Only vertex a joins two differently named streets.
+        assertEquals(2, index.size());
+        assertEquals("corner Broadway & Burnside Street",
+                index.query("burn", null, null, 10).get(0).description);
+        assertEquals("stop Pioneer Square", index.query("pio sq", null, null, 10).get(0).description);
+
+        // The index is saved with the graph.
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(index);
+        out.close();
+        AutocompleteIndex copy = (AutocompleteIndex) new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals(1, copy.query("broad", null, null, 10).size());
+    }
+
+    private static void street(IntersectionVertex from, IntersectionVertex to, String name) {
+        LineString geometry = GeometryUtils.makeLineString(from.getX(), from.getY(), to.getX(), to.getY());
+        new StreetEdge(from, to, geometry, name, 100, StreetTraversalPermission.ALL, false);
+        new StreetEdge(to, from, geometry, name, 100, StreetTraversalPermission.ALL, true);
+    }
+
+}
@@ -0,0 +1,127 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ParallelTasksTest {
+
+    @Test
+    public void testRunOnThreads() {
+        final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+        final AtomicInteger runs = new AtomicInteger();
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                threads.add(Thread.currentThread());
+                runs.incrementAndGet();
+            }
+        };
+        ParallelTasks.runOnThreads(4, worker, "testing");
+        assertEquals(4, runs.get());
+        assertFalse(threads.contains(Thread.currentThread()));
+
+        threads.clear();
+        ParallelTasks.runOnThreads(1, worker, "testing");
+        assertEquals(5, runs.get());
+        assertEquals(Collections.singleton(Thread.currentThread()), threads);
+    }
+
+    @Test
+    public void testRunOnThreadsFailure() {
+        final IllegalStateException failure = new IllegalStateException();
+        try {
+            ParallelTasks.runOnThreads(3, new Runnable() {
+                @Override
+                public void run() {
+                    throw failure;
+                }
+            }, "testing");
+            fail();
+        } catch (IllegalStateException e) {
+            assertSame(failure, e);
+        }
+    }
+
+    /** Results come back in task order, with no more than the window of tasks started ahead. */
+    @Test
+    public void testInOrder() {
+        for (int threads : new int[] { 1, 3 }) {
+            final AtomicInteger started = new AtomicInteger();
+            List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+            for (int i = 0; i < 20; i++) {
+                final int value = i;
+                tasks.add(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        started.incrementAndGet();
+                        return value;
+                    }
+                });
+            }
+            ParallelTasks.InOrder<Integer> results = ParallelTasks.inOrder(tasks, threads, 5,
+                    "testing");
+            try {
+                for (int i = 0; i < 20; i++) {
+                    assertTrue(results.hasNext());
+                    assertEquals(i, (int) results.next());
+                    assertTrue(started.get() <= i + 5);
+                }
+                assertFalse(results.hasNext());
+            } finally {
+                results.close();
+            }
+        }
+    }
+
+    @Test
+    public void testInOrderFailure() {
+        for (int threads : new int[] { 1, 2 }) {
+            List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+            for (int i = 0; i < 2; i++) {
+                tasks.add(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws IOException {
+                        throw new IOException("unreadable");
+                    }
+                });
+            }
+            ParallelTasks.InOrder<Integer> results = ParallelTasks.inOrder(tasks, threads, 2,
+                    "testing");
+            try {
+                results.next();
+                fail();
+            } catch (RuntimeException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            } finally {
+                results.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+import com.vividsolutions.jts.geom.LineString;
+
+public class StreetUtilsTest {
+
+    /** Add a chain of n vertices joined by edges in both directions. */
+    private static void addChain(Graph graph, String prefix, int n, double lat,
+            StreetTraversalPermission permission) {
+        IntersectionVertex previous = null;
+        for (int i = 0; i < n; i++) {
+            IntersectionVertex v = new IntersectionVertex(graph, prefix + i, i * 0.001, lat);
+            if (previous != null) {
+                LineString geometry = GeometryUtils.makeLineString(previous.getX(), lat, v.getX(), lat);
+                new StreetEdge(previous, v, geometry, prefix, 100, permission, false);
+                new StreetEdge(v, previous, geometry, prefix, 100, permission, true);
+            }
+            previous = v;
+        }
+    }
+
+    private static void checkPruning(int threads) {
+        Graph graph = new Graph();
+        addChain(graph, "main", 60, 0, StreetTraversalPermission.PEDESTRIAN_AND_BICYCLE);
+        addChain(graph, "footpath", 3, 1, StreetTraversalPermission.PEDESTRIAN);
+        addChain(graph, "road", 2, 2, StreetTraversalPermission.ALL);
+
+        StreetUtils.pruneFloatingIslands(graph, 40, 5, null, threads);
+
+        for (int i = 0; i < 60; i++) {
+            assertNotNull(graph.getVertex("main" + i));
+        }
+        // a walking-only island disappears entirely
+        for (int i = 0; i < 3; i++) {
+            assertNull(graph.getVertex("footpath" + i));
+        }
+        // an island that cars can use is kept for cars only
+        for (Edge e : graph.getVertex("road0").getOutgoing()) {
+            assertEquals(StreetTraversalPermission.ALL_DRIVING, ((StreetEdge) e).getPermission());
+        }
+        assertEquals(62, graph.countVertices());
+    }
+
+    @Test
+    public void testPruneFloatingIslands() {
+        checkPruning(1);
+    }
+
+    @Test
+    public void testPruneFloatingIslandsThreads() {
+        // Make the threads share out several chunks of the 65 vertices.
+        int chunkSize = StreetUtils.neighborChunkSize;
+        StreetUtils.neighborChunkSize = 4;
+        try {
+            checkPruning(3);
+        } finally {
+            StreetUtils.neighborChunkSize = chunkSize;
+        }
+    }
+
+}
@@ -136,4 +136,36 @@ public class CompactLineStringTest extends TestCase {
         sb.append("]");
         return sb.toString();
     }
+
+    @Test
+    public final void testUncompactCoordinates() {
+        GeometryFactory gf = new GeometryFactory();
+        double x0 = 1.111111111;
+        double y0 = 0.123456789;
+        double x1 = 2.0;
+        double y1 = 0.0;
+        LineString ls = gf.createLineString(new Coordinate[] { new Coordinate(x0, y0),
+                new Coordinate(1.5, 0.5), new Coordinate(1.75, 0.25), new Coordinate(x1, y1) });
+        for (boolean reverse : new boolean[] { false, true }) {
+            // Compacted the way a back StreetEdge does it
+            int[] coords = CompactLineString.compactLineString(x0, y0, x1, y1,
+                    reverse ? (LineString) ls.reverse() : ls, reverse);
+            // Must give exactly the same points as the LineString version, in the same order
+            LineString expected = CompactLineString.uncompactLineString(x0, y0, x1, y1, coords,
+                    reverse);
+            PackedCoordinateSequence seq = CompactLineString.uncompactCoordinates(x0, y0, x1, y1,
+                    coords, reverse);
+            assertEquals(expected.getNumPoints(), seq.size());
+            for (int i = 0; i < seq.size(); i++) {
+                assertEquals(expected.getCoordinateN(i).x, seq.getX(i), 0.0);
+                assertEquals(expected.getCoordinateN(i).y, seq.getY(i), 0.0);
+            }
+        }
+        // Straight line
+        PackedCoordinateSequence seq = CompactLineString.uncompactCoordinates(x0, y0, x1, y1,
+                CompactLineString.STRAIGHT_LINE, true);
+        assertEquals(2, seq.size());
+        assertEquals(x0, seq.getX(0), 0.0);
+        assertEquals(y1, seq.getY(1), 0.0);
+    }
 }
@@ -92,6 +92,52 @@ public class TestPQueues extends TestCase {
         fillQueue(new BinHeap<Integer>(), input);
     }
 
+    public void testRadixHeap() {
+        List<Integer> input = new ArrayList<Integer>(N);
+        for (int i=0; i<N; i++) input.add((int) (Math.random() * 10000));
+        PriorityQueue<Integer> q = new PriorityQueue<Integer>(input);
+        OTPPriorityQueue<Integer> rh = new RadixHeap<Integer>();
+        for (Integer i : input) {
+            rh.insert(i, i);
+        }
+        assertEquals(N, rh.size());
+        while (!q.isEmpty()) {
+            Integer expected = q.remove();
+            assertEquals(expected.doubleValue(), rh.peek_min_key());
+            assertEquals(expected, rh.extract_min());
+        }
+        assertTrue(rh.empty());
+        assertNull(rh.peek_min());
+        assertNull(rh.extract_min());
+    }
+
+    /* Interleave insertions and extractions as a label-setting search would. */
+    public void testRadixHeapMonotone() {
+        OTPPriorityQueue<Integer> rh = RadixHeap.FACTORY.create(10);
+        PriorityQueue<Integer> q = new PriorityQueue<Integer>();
+        rh.insert(0, 0);
+        q.add(0);
+        int extracted = 0;
+        while (!rh.empty() && extracted < N) {
+            Integer min = rh.extract_min();
+            assertEquals(q.remove(), min);
+            extracted++;
+            for (int j = 0; j < 3; j++) {
+                int key = min + (int) (Math.random() * 100);
+                rh.insert(key, key);
+                q.add(key);
+            }
+        }
+        // Keys below the last extracted key are treated as equal to it
+        rh.reset();
+        rh.insert(1, 50);
+        assertEquals(1, (int) rh.extract_min());
+        rh.insert(2, 10);
+        rh.insert(3, 60);
+        assertEquals(50.0, rh.peek_min_key());
+        assertEquals(2, (int) rh.extract_min());
+    }
+
     /*
      * You must be careful to produce unique objects for rekeying,
      * otherwise the same object might be rekeyed twice or more.
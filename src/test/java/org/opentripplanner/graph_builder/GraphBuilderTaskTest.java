@@ -0,0 +1,176 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import org.junit.Test;
+import org.opentripplanner.graph_builder.services.GraphBuilder;
+import org.opentripplanner.graph_builder.services.IndependentGraphBuilder;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.SimpleConcreteEdge;
+import org.opentripplanner.routing.graph.SimpleConcreteVertex;
+import org.opentripplanner.routing.graph.Vertex;
+
+public class GraphBuilderTaskTest {
+
+    /** Adds a chain of vertices, and records the number of vertices it saw in the extra map. */
+    private static class ChainBuilder implements IndependentGraphBuilder {
+        final String prefix;
+        int runs;
+        ChainBuilder(String prefix) {
+            this.prefix = prefix;
+        }
+        @Override
+        public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+            runs++;
+            Vertex previous = null;
+            for (int i = 0; i < 1000; i++) {
+                Vertex v = new SimpleConcreteVertex(graph, prefix + i, i * 0.001, 0);
+                if (previous != null)
+                    new SimpleConcreteEdge(previous, v);
+                previous = v;
+            }
+            extra.put(ChainBuilder.class, prefix);
+        }
+        @Override
+        public List<String> provides() {
+            return Arrays.asList(prefix);
+        }
+        @Override
+        public List<String> getPrerequisites() {
+            return Collections.emptyList();
+        }
+        @Override
+        public void checkInputs() {
+        }
+    }
+
+    /** Checks that both chains are present in the main graph before it runs. */
+    private static class CountingBuilder implements GraphBuilder {
+        int verticesSeen;
+        Object extraSeen;
+        Object streetIndexSeen;
+        @Override
+        public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+            verticesSeen = graph.getVertices().size();
+            extraSeen = extra.get(ChainBuilder.class);
+            streetIndexSeen = graph.streetIndex;
+        }
+        @Override
+        public List<String> provides() {
+            return Collections.emptyList();
+        }
+        @Override
+        public List<String> getPrerequisites() {
+            return Arrays.asList("a", "b");
+        }
+        @Override
+        public void checkInputs() {
+        }
+    }
+
+    @Test
+    public void testStagedBuild() {
+        GraphBuilderTask task = new GraphBuilderTask();
+        task.serializeGraph = false;
+        task.threads = 2;
+        CountingBuilder counter = new CountingBuilder();
+        task.addGraphBuilder(new ChainBuilder("a"));
+        task.addGraphBuilder(new ChainBuilder("b"));
+        task.addGraphBuilder(counter);
+        task.run();
+
+        Graph graph = task.getGraph();
+        assertEquals(2000, counter.verticesSeen);
+        // The staged graphs are merged in builder order, so the later builder's extra wins.
+        assertEquals("b", counter.extraSeen);
+        assertEquals(2000, graph.getVertices().size());
+        assertEquals(1998, graph.countEdges());
+        assertNotNull(graph.getVertex("b999"));
+
+        // Vertex indexes stay unique when vertices are created concurrently.
+        boolean[] seen = new boolean[Vertex.getMaxIndex()];
+        for (Vertex v : graph.getVertices()) {
+            assertTrue(!seen[v.getIndex()]);
+            seen[v.getIndex()] = true;
+        }
+        assertEquals(3, task.getStageStats().size());
+    }
+
+    @Test
+    public void testReuseStreetGraph() throws Exception {
+        File streetGraphFile = File.createTempFile("StreetGraph", ".obj");
+        File inputsFile = new File(streetGraphFile.getPath() + ".inputs");
+        File input = File.createTempFile("streets", ".osm");
+        streetGraphFile.delete();
+        try {
+            ChainBuilder streets = new ChainBuilder("a");
+            CountingBuilder counter = new CountingBuilder();
+            GraphBuilderTask task = newStreetReusingTask(streetGraphFile, input, streets, counter);
+            task.run();
+            assertEquals(1, streets.runs);
+            assertEquals(2000, counter.verticesSeen);
+            assertTrue(streetGraphFile.exists());
+            assertTrue(inputsFile.exists());
+
+            // Unchanged inputs: the street graph is loaded rather than built.
+            streets = new ChainBuilder("a");
+            counter = new CountingBuilder();
+            task = newStreetReusingTask(streetGraphFile, input, streets, counter);
+            task.run();
+            assertEquals(0, streets.runs);
+            assertEquals(2000, counter.verticesSeen);
+            // No stale index of the loaded street graph is left for later builders.
+            assertNull(counter.streetIndexSeen);
+            assertNotNull(task.getGraph().getVertex("a999"));
+
+            // A modified input causes the street graph to be rebuilt.
+            Files.append("x", input, Charsets.UTF_8);
+            streets = new ChainBuilder("a");
+            task = newStreetReusingTask(streetGraphFile, input, streets, new CountingBuilder());
+            task.run();
+            assertEquals(1, streets.runs);
+        } finally {
+            streetGraphFile.delete();
+            inputsFile.delete();
+            input.delete();
+        }
+    }
+
+    private static GraphBuilderTask newStreetReusingTask(File streetGraphFile, File input,
+            ChainBuilder streets, CountingBuilder counter) {
+        GraphBuilderTask task = new GraphBuilderTask();
+        task.serializeGraph = false;
+        task.streetGraphFile = streetGraphFile;
+        task.setStreetInputs(Arrays.asList(input));
+        task.addStreetGraphBuilder(streets);
+        task.addGraphBuilder(new ChainBuilder("b"));
+        task.addGraphBuilder(counter);
+        return task;
+    }
+
+}
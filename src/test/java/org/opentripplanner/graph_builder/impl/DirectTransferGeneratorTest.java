@@ -0,0 +1,62 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.graph_builder.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.gtfs.GtfsLibrary;
+import org.opentripplanner.routing.edgetype.SimpleTransfer;
+import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+
+public class DirectTransferGeneratorTest {
+
+    @Test
+    public void testThreadsGiveSameTransfers() throws Exception {
+        Set<String> expected = transfers(1);
+        assertTrue(expected.size() > 0);
+        assertEquals(expected, transfers(4));
+    }
+
+    private static Set<String> transfers(int threads) throws Exception {
+        Graph graph = new Graph();
+        new GTFSPatternHopFactory(GtfsLibrary.readGtfs(new File(ConstantsForTests.CALTRAIN_GTFS)))
+                .run(graph);
+        DirectTransferGenerator generator = new DirectTransferGenerator();
+        // Caltrain stations are far apart, so use a large radius to get some transfers.
+        generator.maxDuration = 60 * 60;
+        generator.threads = threads;
+        generator.buildGraph(graph, new HashMap<Class<?>, Object>());
+
+        Set<String> transfers = new HashSet<String>();
+        for (Edge edge : graph.getEdges()) {
+            if (edge instanceof SimpleTransfer) {
+                transfers.add(edge.getFromVertex().getLabel() + " " + edge.getToVertex().getLabel()
+                        + " " + Math.round(edge.getDistance()));
+            }
+        }
+        return transfers;
+    }
+
+}
@@ -14,6 +14,7 @@
 package org.opentripplanner.graph_builder.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 
 import java.io.IOException;
 import java.io.Serializable;
@@ -88,6 +89,29 @@ public class GtfsGraphBuilderImplTest {
                 BikeAccess.fromTrip(withId(trips, new AgencyAndId("a0", "t1"))));
     }
 
+    /** Conflicting agency IDs are renamed in bundle order, whether the bundles are read one by one or ahead. */
+    @Test
+    public void testSeveralBundles() throws IOException {
+        for (int threads : new int[] { 1, 2 }) {
+            GtfsBundles bundles = new GtfsBundles();
+            for (int i = 0; i < 3; i++) {
+                bundles.getBundles().addAll(getGtfsAsBundles(getSimpleGtfs()).getBundles());
+            }
+            GtfsGraphBuilderImpl builder = new GtfsGraphBuilderImpl();
+            builder.setGtfsBundles(bundles);
+            builder.threads = threads;
+
+            Graph graph = new Graph();
+            builder.buildGraph(graph, _extra);
+            graph.index(new DefaultStreetVertexIndexFactory());
+
+            assertEquals(3, graph.index.tripForId.size());
+            for (String agencyId : new String[] { "a0", "F1", "F2" }) {
+                assertNotNull(graph.index.tripForId.get(new AgencyAndId(agencyId, "t0")));
+            }
+        }
+    }
+
     private MockGtfs getSimpleGtfs() throws IOException {
         MockGtfs gtfs = MockGtfs.create();
         gtfs.putAgencies(1);
@@ -0,0 +1,127 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import gnu.trove.map.TObjectIntMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Stop;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTransitLink;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.StopAccessTable;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+
+public class StopAccessTableBuilderTest {
+
+    private Graph graph;
+
+    private IntersectionVertex a, b, c, d;
+
+    private TransitStop s1, s2;
+
+    /* A straight street a - b - c - d with 100 meter blocks and a stop at each end. */
+    @Before
+    public void before() {
+        graph = new Graph();
+        a = new IntersectionVertex(graph, "a", -74.0, 40.0);
+        b = new IntersectionVertex(graph, "b", -74.0, 40.001);
+        c = new IntersectionVertex(graph, "c", -74.0, 40.002);
+        d = new IntersectionVertex(graph, "d", -74.0, 40.003);
+        street(a, b, 100);
+        street(b, c, 100);
+        street(c, d, 100);
+        s1 = stop("s1", a);
+        s2 = stop("s2", d);
+    }
+
+    private void street(StreetVertex v0, StreetVertex v1, double length) {
+        LineString geom = GeometryUtils.getGeometryFactory().createLineString(
+                new Coordinate[] { v0.getCoordinate(), v1.getCoordinate() });
+        new StreetEdge(v0, v1, geom, "street", length, StreetTraversalPermission.ALL, false);
+        new StreetEdge(v1, v0, (LineString) geom.reverse(), "street", length,
+                StreetTraversalPermission.ALL, true);
+    }
+
+    private TransitStop stop(String id, StreetVertex v) {
+        Stop stop = new Stop();
+        stop.setId(new AgencyAndId("A", id));
+        stop.setLon(v.getX());
+        stop.setLat(v.getY());
+        TransitStop ts = new TransitStop(graph, stop);
+        new StreetTransitLink(v, ts, true);
+        new StreetTransitLink(ts, v, true);
+        return ts;
+    }
+
+    @Test
+    public void testBuildTable() {
+        StopAccessTableBuilder builder = new StopAccessTableBuilder();
+        builder.radiusMeters = 250;
+        builder.buildGraph(graph, null);
+        StopAccessTable table = graph.getService(StopAccessTable.class);
+        assertNotNull(table);
+        assertEquals(4, table.countVertices());
+        // d is out of range of s1, and a of s2
+        assertEquals(6, table.countEntries());
+
+        TObjectIntMap<TransitStop> stops = table.getNearbyStops(c, 250);
+        assertEquals(2, stops.size());
+        assertEquals(200, stops.get(s1));
+        assertEquals(100, stops.get(s2));
+
+        stops = table.getNearbyStops(b, 150);
+        assertEquals(1, stops.size());
+        assertEquals(100, stops.get(s1));
+        assertFalse(stops.containsKey(s2));
+    }
+
+    @Test
+    public void testTemporaryVertex() {
+        StopAccessTable.Builder builder = new StopAccessTable.Builder(250);
+        // Entries may arrive in any order
+        builder.add(c, s1, 200);
+        builder.add(d, s2, 0);
+        builder.add(c, s2, 100);
+        StopAccessTable table = builder.build();
+
+        // A vertex that is not in the graph, as created for the origin of a request
+        IntersectionVertex origin = new IntersectionVertex(null, "origin", -74.0, 40.0022);
+        LineString geom = GeometryUtils.getGeometryFactory().createLineString(
+                new Coordinate[] { origin.getCoordinate(), c.getCoordinate() });
+        new StreetEdge(origin, c, geom, "temp", 20, StreetTraversalPermission.ALL, false);
+        TObjectIntMap<TransitStop> stops = table.getNearbyStops(origin, 200);
+        assertEquals(1, stops.size());
+        assertEquals(120, stops.get(s2));
+        assertEquals(2, table.getNearbyStops(origin, 1000).size());
+        // a is not in this table, but links directly to s1
+        stops = table.getNearbyStops(a, 1000);
+        assertEquals(1, stops.size());
+        assertEquals(0, stops.get(s1));
+    }
+
+}
@@ -0,0 +1,126 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.impl.ned;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.geometry.Envelope2D;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Test;
+import org.opengis.coverage.Coverage;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.common.geometry.PackedCoordinateSequence;
+import org.opentripplanner.graph_builder.services.ned.ElevationGridCoverageFactory;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.edgetype.StreetWithElevationEdge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+/** Check that sampling elevations on several threads gives the same profiles as one thread. */
+public class ElevationGraphBuilderImplTest {
+
+    private static final double WEST = -122.70, SOUTH = 45.50, SIZE = 0.2;
+
+    private static final int N = 20;
+
+    @Test
+    public void testThreadsGiveSameElevations() {
+        GridCoverage2D coverage = makeCoverage();
+        assertSameProfiles(coverage);
+        assertSameProfiles(new UnifiedGridCoverage("dem", coverage, Collections.singletonList(
+                new VerticalDatum(WEST - 1, SOUTH - 1, 2 + SIZE, 2 + SIZE, new float[2][2]))));
+    }
+
+    private void assertSameProfiles(Coverage coverage) {
+        List<StreetWithElevationEdge> single = sample(coverage, 1);
+        List<StreetWithElevationEdge> multi = sample(coverage, 4);
+        assertEquals(single.size(), multi.size());
+        for (int i = 0; i < single.size(); i++) {
+            PackedCoordinateSequence expected = single.get(i).getElevationProfile();
+            PackedCoordinateSequence actual = multi.get(i).getElevationProfile();
+            assertNotNull(expected);
+            assertNotNull(actual);
+            assertEquals(expected.size(), actual.size());
+            for (int j = 0; j < expected.size(); j++) {
+                assertEquals(expected.getX(j), actual.getX(j), 0);
+                assertEquals(expected.getY(j), actual.getY(j), 0);
+            }
+        }
+    }
+
+    /** A gently varying surface, so that interpolation differences would show. */
+    private static GridCoverage2D makeCoverage() {
+        float[][] heights = new float[100][100];
+        for (int row = 0; row < heights.length; row++) {
+            for (int col = 0; col < heights[row].length; col++) {
+                heights[row][col] = (float) (100 + 3 * row + 2 * col + 10 * Math.sin(row * col / 50.0));
+            }
+        }
+        Envelope2D envelope = new Envelope2D(DefaultGeographicCRS.WGS84, WEST, SOUTH, SIZE, SIZE);
+        return new GridCoverageFactory().create("dem", heights, envelope);
+    }
+
+    /**
+     * Build a grid of streets spanning several sampling tiles, and sample their elevations.
+     * @return the edges in the order they were created.
+     */
+    private static List<StreetWithElevationEdge> sample(final Coverage coverage, int threads) {
+        Graph graph = new Graph();
+        double step = SIZE / (N + 1);
+        IntersectionVertex[][] vertices = new IntersectionVertex[N][N];
+        for (int i = 0; i < N; i++) {
+            for (int j = 0; j < N; j++) {
+                double x = WEST + step * (i + 1), y = SOUTH + step * (j + 1);
+                vertices[i][j] = new IntersectionVertex(graph, i + "_" + j, x, y);
+            }
+        }
+        List<StreetWithElevationEdge> edges = new ArrayList<StreetWithElevationEdge>();
+        for (int i = 0; i < N; i++) {
+            for (int j = 0; j < N; j++) {
+                if (i + 1 < N) edges.add(street(vertices[i][j], vertices[i + 1][j]));
+                if (j + 1 < N) edges.add(street(vertices[i][j], vertices[i][j + 1]));
+            }
+        }
+        ElevationGraphBuilderImpl builder = new ElevationGraphBuilderImpl(new ElevationGridCoverageFactory() {
+            @Override
+            public Coverage getGridCoverage() {
+                return coverage;
+            }
+            @Override
+            public void checkInputs() {
+            }
+            @Override
+            public void setGraph(Graph graph) {
+            }
+        });
+        builder.threads = threads;
+        builder.buildGraph(graph, new HashMap<Class<?>, Object>());
+        return edges;
+    }
+
+    private static StreetWithElevationEdge street(IntersectionVertex from, IntersectionVertex to) {
+        return new StreetWithElevationEdge(from, to, GeometryUtils.makeLineString(from.getX(), from.getY(),
+                to.getX(), to.getY()), from.getLabel() + " " + to.getLabel(), 1000,
+                StreetTraversalPermission.ALL, false);
+    }
+
+}
@@ -0,0 +1,112 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.graph_builder.impl.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.URLDecoder;
+
+import org.junit.Test;
+import org.opentripplanner.openstreetmap.impl.AnyFileBasedOpenStreetMapProviderImpl;
+import org.opentripplanner.openstreetmap.model.OSMNode;
+import org.opentripplanner.openstreetmap.model.OSMWay;
+
+public class CompactNodeStoreTest {
+
+    @Test
+    public void testPutAndGet() {
+        CompactNodeStore store = new CompactNodeStore();
+        for (long id = 1; id <= 5000; id++) {
+            OSMNode node = new OSMNode();
+            node.setId(id * 7);
+            node.lat = 52.0 + id * 1e-6;
+            node.lon = -id * 3.3e-5;
+            if (id % 10 == 0) {
+                node.addTag("highway", "traffic_signals");
+                node.addTag("name", "Node " + (id % 100));
+            }
+            store.put(node.getId(), node);
+        }
+        assertEquals(5000, store.size());
+        // highway, traffic_signals, name and ten distinct names
+        assertEquals(13, store.getDictionarySize());
+        assertFalse(store.containsKey(8L));
+        assertNull(store.get(8L));
+
+        OSMNode node = store.get(70L);
+        assertEquals(70L, node.getId());
+        assertEquals(52.00001, node.lat, 1e-9);
+        assertEquals(-3.3e-4, node.lon, 1e-9);
+        assertTrue(node.hasTrafficLight());
+        assertEquals("Node 10", node.getTag("name"));
+        assertNull(store.get(63L).getTags());
+
+        // Lookups produce new objects that are nevertheless equal
+        assertNotSame(node, store.get(70L));
+        assertEquals(node, store.get(70L));
+        assertEquals(node.hashCode(), store.get(70L).hashCode());
+
+        OSMNode replacement = new OSMNode();
+        replacement.setId(70L);
+        replacement.lat = 1.5;
+        store.put(70L, replacement);
+        assertEquals(5000, store.size());
+        assertEquals(1.5, store.get(70L).lat, 0);
+        assertFalse(store.get(70L).hasTrafficLight());
+
+        int count = 0;
+        for (OSMNode n : store.values()) {
+            assertEquals(n, store.get(n.getId()));
+            count++;
+        }
+        assertEquals(5000, count);
+    }
+
+    @Test
+    public void testDatabaseWithCompactNodes() throws Exception {
+        File file = new File(URLDecoder.decode(getClass().getResource("map.osm.gz").getPath(),
+                "UTF-8"));
+        OSMDatabase plain = new OSMDatabase();
+        new AnyFileBasedOpenStreetMapProviderImpl(file).readOSM(plain);
+        OSMDatabase compact = new OSMDatabase(true);
+        new AnyFileBasedOpenStreetMapProviderImpl(file).readOSM(compact);
+
+        assertEquals(plain.getWays().size(), compact.getWays().size());
+        int nodes = 0;
+        for (OSMWay way : plain.getWays()) {
+            for (Long nodeId : way.getNodeRefs()) {
+                OSMNode expected = plain.getNode(nodeId);
+                OSMNode actual = compact.getNode(nodeId);
+                if (expected == null) {
+                    assertNull(actual);
+                    continue;
+                }
+                assertEquals(expected, actual);
+                assertEquals(expected.lat, actual.lat, 1e-7);
+                assertEquals(expected.lon, actual.lon, 1e-7);
+                assertEquals(expected.getTags(), actual.getTags());
+                assertEquals(plain.isNodeBelongsToWay(nodeId), compact.isNodeBelongsToWay(nodeId));
+                nodes++;
+            }
+        }
+        assertTrue(nodes > 0);
+    }
+
+}
@@ -48,6 +48,17 @@ public class OpenStreetMapParserTest {
         testParser(map);
     }
 
+    @Test
+    public void testAFBinaryParserThreadsAndBufferedWays() throws Exception {
+        AnyFileBasedOpenStreetMapProviderImpl pr = new AnyFileBasedOpenStreetMapProviderImpl();
+        OSMMap map = new OSMMap();
+        pr.setPath(new File(URLDecoder.decode(getClass().getResource("map.osm.pbf").getPath(), "UTF-8")));
+        pr.setThreads(1);
+        pr.setBufferWays(true);
+        pr.readOSM(map);
+        testParser(map);
+    }
+
     @Test
     public void testAFXMLParser() throws Exception {
         AnyFileBasedOpenStreetMapProviderImpl pr = new AnyFileBasedOpenStreetMapProviderImpl();
@@ -66,6 +77,19 @@ public class OpenStreetMapParserTest {
         testParser(map);
     }
 
+    @Test
+    public void testBinaryParserThreadsAndBufferedWays() throws Exception {
+        for (boolean bufferWays : new boolean[] { false, true }) {
+            BinaryFileBasedOpenStreetMapProviderImpl pr = new BinaryFileBasedOpenStreetMapProviderImpl();
+            OSMMap map = new OSMMap();
+            pr.setPath(new File(URLDecoder.decode(getClass().getResource("map.osm.pbf").getPath(), "UTF-8")));
+            pr.setThreads(4);
+            pr.setBufferWays(bufferWays);
+            pr.readOSM(map);
+            testParser(map);
+        }
+    }
+
     @Test
     public void testXMLParser() throws Exception {
         FileBasedOpenStreetMapProviderImpl pr = new FileBasedOpenStreetMapProviderImpl();
@@ -29,6 +29,7 @@ import org.opentripplanner.openstreetmap.model.OSMWay;
 import org.opentripplanner.openstreetmap.model.OSMWithTags;
 import org.opentripplanner.openstreetmap.impl.FileBasedOpenStreetMapProviderImpl;
 import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.AreaEdge;
 import org.opentripplanner.routing.edgetype.StreetEdge;
 import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
 import org.opentripplanner.routing.graph.Edge;
@@ -267,6 +268,57 @@ public class TestOpenStreetMapGraphBuilder extends TestCase {
                 namer.generateCreativeName(way));
     }
 
+    /**
+     * The visibility graphs of walkable areas are computed concurrently when the builder has
+     * several threads, but the edges must still come out the same. The file holds two L-shaped
+     * plazas, each reached by three footways. In each plaza the west entrance sees the other two,
+     * but the inner corner of the L hides the south-east and north entrances from each other.
+     */
+    @Test
+    public void testWalkableAreaThreads() throws Exception {
+        File file = new File(URLDecoder.decode(getClass().getResource("pedestrian_areas.osm").getFile(), "UTF-8"));
+        Set<String> expected = new HashSet<String>();
+        // Entrance node ids of the first plaza; those of the second plaza are 100 lower.
+        final int eastEntrance = -3, northEntrance = -7, westEntrance = -9;
+        for (int plazaOffset : new int[] { 0, -100 }) {
+            String east = "osm:node:" + (eastEntrance + plazaOffset);
+            String north = "osm:node:" + (northEntrance + plazaOffset);
+            String west = "osm:node:" + (westEntrance + plazaOffset);
+            expected.add(east + " " + west);
+            expected.add(west + " " + east);
+            expected.add(north + " " + west);
+            expected.add(west + " " + north);
+        }
+        Graph serial = buildWithThreads(file, 1);
+        Graph parallel = buildWithThreads(file, 4);
+        assertEquals(expected, getAreaEdges(serial));
+        assertEquals(expected, getAreaEdges(parallel));
+        assertEquals(serial.getVertices().size(), parallel.getVertices().size());
+        assertEquals(serial.countEdges(), parallel.countEdges());
+    }
+
+    private Graph buildWithThreads(File file, int threads) {
+        Graph gg = new Graph();
+        OpenStreetMapGraphBuilderImpl loader = new OpenStreetMapGraphBuilderImpl();
+        loader.setDefaultWayPropertySetSource(new DefaultWayPropertySetSource());
+        loader.threads = threads;
+        FileBasedOpenStreetMapProviderImpl provider = new FileBasedOpenStreetMapProviderImpl();
+        provider.setPath(file);
+        loader.setProvider(provider);
+        loader.buildGraph(gg, extra);
+        return gg;
+    }
+
+    /** @return the area edges of the graph, each as the labels of its two vertices, checking there are no duplicates. */
+    private Set<String> getAreaEdges(Graph graph) {
+        Set<String> edges = new HashSet<String>();
+        for (Edge e : graph.getEdges()) {
+            if (e instanceof AreaEdge)
+                assertTrue(edges.add(e.getFromVertex().getLabel() + " " + e.getToVertex().getLabel()));
+        }
+        return edges;
+    }
+
     // disabled pending discussion with author (AMB)
     // @Test
     // public void testMultipolygon() throws Exception {
@@ -0,0 +1,216 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.inspector;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+
+public class VectorTileManagerTest {
+
+    private Graph graph;
+
+    private StreetEdge longStreet;
+
+    @Before
+    public void setUp() {
+        graph = new Graph();
+        IntersectionVertex a = new IntersectionVertex(graph, "a", -122.680, 45.520);
+        IntersectionVertex b = new IntersectionVertex(graph, "b", -122.670, 45.520);
+        IntersectionVertex c = new IntersectionVertex(graph, "c", -122.67001, 45.52001);
+        // A slightly wiggly street, whose middle point disappears at lower zoom levels
+        LineString geometry = GeometryUtils.getGeometryFactory().createLineString(new Coordinate[] {
+                new Coordinate(-122.680, 45.520), new Coordinate(-122.675, 45.52001),
+                new Coordinate(-122.670, 45.520) });
+        longStreet = new StreetEdge(a, b, geometry, "Burnside", 780, StreetTraversalPermission.ALL, false);
+        longStreet.setBicycleSafetyFactor(1.234f);
+        // A street of about one meter, too short to be seen at zoom level 13
+        new StreetEdge(b, c, GeometryUtils.makeLineString(-122.670, 45.520, -122.67001, 45.52001),
+                "Stub", 1, StreetTraversalPermission.PEDESTRIAN, false);
+        graph.index(new DefaultStreetVertexIndexFactory());
+    }
+
+    @Test
+    public void testTileArithmetic() {
+        int z = 16;
+        int x = (int) VectorTileManager.lonToTile(-122.675, z);
+        int y = (int) VectorTileManager.latToTile(45.52, z);
+        assertEquals(10435, x);
+        assertEquals(23440, y);
+        assertTrue(VectorTileManager.tileToLon(x, z) <= -122.675);
+        assertTrue(VectorTileManager.tileToLon(x + 1, z) > -122.675);
+        assertTrue(VectorTileManager.tileToLat(y, z) >= 45.52);
+        assertTrue(VectorTileManager.tileToLat(y + 1, z) < 45.52);
+        assertTrue(VectorTileManager.isValidTile(0, 0, 0));
+        assertFalse(VectorTileManager.isValidTile(1, 2, 0));
+        assertFalse(VectorTileManager.isValidTile(23, 0, 0));
+    }
+
+    @Test
+    public void testSimplify() {
+        int[] line = { 0, 0, 10, 1, 20, 0, 30, 10, 40, 0 };
+        assertArrayEquals(new int[] { 0, 0, 20, 0, 30, 10, 40, 0 }, VectorTileManager.simplify(line, 2));
+        assertArrayEquals(new int[] { 0, 0, 40, 0 }, VectorTileManager.simplify(line, 20));
+        int[] loop = { 0, 0, 10, 10, 0, 0 };
+        assertArrayEquals(loop, VectorTileManager.simplify(loop, 2));
+    }
+
+    @Test
+    public void testTile() throws IOException {
+        VectorTileManager manager = new VectorTileManager(graph);
+        int z = 17;
+        int x = (int) VectorTileManager.lonToTile(-122.675, z);
+        int y = (int) VectorTileManager.latToTile(45.52, z);
+        byte[] tile = manager.getTile(z, x, y);
+        assertSame(tile, manager.getTile(z, x, y));
+        Layer layer = decode(tile);
+        assertEquals(VectorTileManager.LAYER_NAME, layer.name);
+        assertEquals(2, layer.version);
+        assertEquals(VectorTileManager.EXTENT, layer.extent);
+        assertEquals(java.util.Arrays.asList(VectorTileManager.KEYS), layer.keys);
+        assertEquals(1, layer.features.size());
+
+        Feature feature = layer.features.get(0);
+        assertEquals(longStreet.getId(), feature.id);
+        assertEquals(2, feature.type);
+        assertEquals("Burnside", layer.values.get(feature.tags.get(1)));
+        assertEquals("ALL", layer.values.get(feature.tags.get(3)));
+        assertEquals(1.23, layer.values.get(feature.tags.get(5)));
+        assertEquals(true, layer.values.get(feature.tags.get(7)));
+        // No maxSlope, so the next key is back
+        assertEquals(5, (int) feature.tags.get(8));
+        assertEquals(false, layer.values.get(feature.tags.get(9)));
+
+        // MoveTo one point, then LineTo two points, all at full resolution
+        assertEquals(9, (int) feature.geometry.get(0));
+        assertEquals(2 | (2 << 3), (int) feature.geometry.get(3));
+        int firstX = zigZag(feature.geometry.get(1));
+        double lon = VectorTileManager.tileToLon(x + (double) firstX / VectorTileManager.EXTENT, z);
+        assertEquals(-122.680, lon, 1e-5);
+
+        // Tiles below the minimum zoom level are empty.
+        assertEquals(0, manager.getTile(VectorTileManager.MIN_ZOOM - 1, 0, 0).length);
+    }
+
+    @Test
+    public void testSimplifiedLevel() throws IOException {
+        VectorTileManager manager = new VectorTileManager(graph);
+        int z = VectorTileManager.MIN_ZOOM;
+        int x = (int) VectorTileManager.lonToTile(-122.675, z);
+        int y = (int) VectorTileManager.latToTile(45.52, z);
+        Layer layer = decode(manager.getTile(z, x, y));
+        // The stub is hidden, and the long street is reduced to a straight line.
+        assertEquals(1, layer.features.size());
+        assertEquals(2 | (1 << 3), (int) layer.features.get(0).geometry.get(3));
+        assertEquals(6, layer.features.get(0).geometry.size());
+    }
+
+    private static int zigZag(int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private static class Layer {
+        String name;
+        int version;
+        int extent;
+        List<String> keys = new ArrayList<String>();
+        List<Object> values = new ArrayList<Object>();
+        List<Feature> features = new ArrayList<Feature>();
+    }
+
+    private static class Feature {
+        long id;
+        int type;
+        List<Integer> tags = new ArrayList<Integer>();
+        List<Integer> geometry = new ArrayList<Integer>();
+    }
+
+    private static Layer decode(byte[] tile) throws IOException {
+        CodedInputStream tileInput = CodedInputStream.newInstance(tile);
+        assertEquals(3, tileInput.readTag() >>> 3);
+        CodedInputStream in = CodedInputStream.newInstance(tileInput.readBytes().toByteArray());
+        assertTrue(tileInput.isAtEnd());
+        Layer layer = new Layer();
+        for (int tag = in.readTag(); tag != 0; tag = in.readTag()) {
+            switch (tag >>> 3) {
+            case 1: layer.name = in.readString(); break;
+            case 2: layer.features.add(decodeFeature(in.readBytes())); break;
+            case 3: layer.keys.add(in.readString()); break;
+            case 4: layer.values.add(decodeValue(in.readBytes())); break;
+            case 5: layer.extent = in.readUInt32(); break;
+            case 15: layer.version = in.readUInt32(); break;
+            default: throw new AssertionError("Unexpected layer field " + (tag >>> 3));
+            }
+        }
+        return layer;
+    }
+
+    private static Feature decodeFeature(ByteString bytes) throws IOException {
+        CodedInputStream in = bytes.newCodedInput();
+        Feature feature = new Feature();
+        for (int tag = in.readTag(); tag != 0; tag = in.readTag()) {
+            switch (tag >>> 3) {
+            case 1: feature.id = in.readUInt64(); break;
+            case 2: readPacked(in, feature.tags); break;
+            case 3: feature.type = in.readEnum(); break;
+            case 4: readPacked(in, feature.geometry); break;
+            default: throw new AssertionError("Unexpected feature field " + (tag >>> 3));
+            }
+        }
+        return feature;
+    }
+
+    private static void readPacked(CodedInputStream in, List<Integer> values) throws IOException {
+        int limit = in.pushLimit(in.readRawVarint32());
+        while (in.getBytesUntilLimit() > 0) {
+            values.add(in.readRawVarint32());
+        }
+        in.popLimit(limit);
+    }
+
+    private static Object decodeValue(ByteString bytes) throws IOException {
+        CodedInputStream in = bytes.newCodedInput();
+        int tag = in.readTag();
+        Object value;
+        switch (tag >>> 3) {
+        case 1: value = in.readString(); break;
+        case 3: value = in.readDouble(); break;
+        case 7: value = in.readBool(); break;
+        default: throw new AssertionError("Unexpected value field " + (tag >>> 3));
+        }
+        assertTrue(in.isAtEnd());
+        return value;
+    }
+
+}
@@ -17,6 +17,7 @@ import java.io.File;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.Set;
 
 import junit.framework.TestCase;
 
@@ -32,11 +33,18 @@ import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.impl.AlertPatchServiceImpl;
 import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
 import org.opentripplanner.routing.spt.GraphPath;
 import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.updater.alerts.AlertsUpdateHandler;
 import org.opentripplanner.util.TestUtils;
 
+import com.google.transit.realtime.GtfsRealtime;
+import com.google.transit.realtime.GtfsRealtime.EntitySelector;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+
 public class AlertPatchTest extends TestCase {
     private Graph graph;
 
@@ -184,4 +192,53 @@ public class AlertPatchTest extends TestCase {
         }
         assertEquals(expectedAlerts, actualAlerts);
     }
+    /** Each feed message must be published as a single snapshot, even while it replaces earlier alerts. */
+    public void testFeedUpdateIsPublishedOnce() {
+        final AlertPatchIndex[] published = new AlertPatchIndex[1];
+        AlertPatchServiceImpl alertPatchService = new AlertPatchServiceImpl(graph) {
+            @Override
+            public synchronized void apply(AlertPatch alertPatch) {
+                super.apply(alertPatch);
+                assertSame(published[0], graph.getAlertPatchIndex());
+            }
+            @Override
+            public synchronized void expire(Set<String> purge) {
+                super.expire(purge);
+                assertSame(published[0], graph.getAlertPatchIndex());
+            }
+        };
+        AlertsUpdateHandler handler = new AlertsUpdateHandler();
+        handler.setDefaultAgencyId("agency");
+        handler.setAlertPatchService(alertPatchService);
+
+        Vertex stop_a = graph.getVertex("agency:A");
+        Vertex stop_b = graph.getVertex("agency:B");
+        Edge edge_a = stop_a.getOutgoing().iterator().next();
+        Edge edge_b = stop_b.getOutgoing().iterator().next();
+
+        published[0] = graph.getAlertPatchIndex();
+        handler.update(alertMessage("first", "A", "B"));
+        assertNotSame(published[0], graph.getAlertPatchIndex());
+        assertEquals(1, graph.getAlertPatches(edge_a).length);
+        assertEquals(1, graph.getAlertPatches(edge_b).length);
+
+        published[0] = graph.getAlertPatchIndex();
+        handler.update(alertMessage("second", "B"));
+        assertEquals(0, graph.getAlertPatches(edge_a).length);
+        assertEquals("second", graph.getAlertPatches(edge_b)[0].getAlert().alertHeaderText.getSomeTranslation());
+    }
+
+    private static FeedMessage alertMessage(String text, String... stopIds) {
+        FeedMessage.Builder message = FeedMessage.newBuilder();
+        message.setHeader(FeedHeader.newBuilder().setGtfsRealtimeVersion("1.0"));
+        GtfsRealtime.Alert.Builder alert = GtfsRealtime.Alert.newBuilder();
+        alert.setHeaderText(GtfsRealtime.TranslatedString.newBuilder().addTranslation(
+                GtfsRealtime.TranslatedString.Translation.newBuilder().setText(text)));
+        for (String stopId : stopIds) {
+            alert.addInformedEntity(EntitySelector.newBuilder().setStopId(stopId));
+        }
+        message.addEntityBuilder().setId(text).setAlert(alert);
+        return message.build();
+    }
+
 }
@@ -16,6 +16,7 @@ package org.opentripplanner.routing.algorithm;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 import java.util.HashSet;
 import java.util.List;
@@ -23,6 +24,7 @@ import java.util.Set;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.opentripplanner.api.resource.SearchStats;
 import org.opentripplanner.routing.algorithm.strategies.MultiTargetTerminationStrategy;
 import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
 import org.opentripplanner.routing.core.State;
@@ -114,6 +116,59 @@ public class AStarTest {
         assertEquals("leary_20th", states.get(6).getVertex().getLabel());
     }
 
+    @Test
+    public void testAbortedSearch() {
+        RoutingRequest options = new RoutingRequest();
+        options.walkSpeed = 1.0;
+        options.setRoutingContext(_graph, _graph.getVertex("56th_24th"), _graph.getVertex("leary_20th"));
+        options.abortSearch();
+        ShortestPathTree tree = new GenericAStar().getShortestPathTree(options);
+        assertTrue(options.rctx.debugOutput.timedOut);
+        assertTrue(tree == null || tree.getPath(_graph.getVertex("leary_20th"), false) == null);
+    }
+
+    @Test
+    public void testSearchStats() {
+        RoutingRequest options = new RoutingRequest();
+        options.walkSpeed = 1.0;
+        options.setRoutingContext(_graph, _graph.getVertex("56th_24th"), _graph.getVertex("leary_20th"));
+        new GenericAStar().getShortestPathTree(options);
+        assertNull(options.rctx.debugOutput.searchStats);
+        long visited = options.rctx.debugOutput.statesVisited;
+        assertTrue(visited > 0);
+
+        options = new RoutingRequest();
+        options.walkSpeed = 1.0;
+        options.searchStats = true;
+        options.setRoutingContext(_graph, _graph.getVertex("56th_24th"), _graph.getVertex("leary_20th"));
+        new GenericAStar().getShortestPathTree(options);
+        SearchStats stats = options.rctx.debugOutput.searchStats;
+        assertEquals(visited, options.rctx.debugOutput.statesVisited);
+        long traversals = 0;
+        for (long count : stats.getEdgeTraversals().values()) {
+            traversals += count;
+        }
+        assertTrue(traversals >= visited);
+        assertTrue(stats.statesCreated > 0 && stats.statesCreated <= traversals);
+        assertTrue(stats.heuristicEvaluations > 0 && stats.heuristicEvaluations <= stats.statesCreated);
+        assertTrue(stats.maxQueueSize > 0);
+        // Every created state was pruned, dominated or enqueued, and all but the first enqueued state came from an edge.
+        assertTrue(stats.statesPrunedByHeuristic + stats.statesPrunedByLimits + stats.statesDominatedOnArrival
+                < stats.statesCreated);
+        assertEquals(0, stats.boardingsAttempted);
+
+        // States beyond the time limit are pruned without evaluating the heuristic.
+        options = new RoutingRequest();
+        options.walkSpeed = 1.0;
+        options.searchStats = true;
+        options.setRoutingContext(_graph, _graph.getVertex("56th_24th"), _graph.getVertex("leary_20th"));
+        options.worstTime = options.dateTime + 300;
+        new GenericAStar().getShortestPathTree(options);
+        stats = options.rctx.debugOutput.searchStats;
+        assertTrue(stats.statesPrunedByLimits > 0);
+        assertEquals(stats.statesCreated - stats.statesPrunedByLimits, stats.heuristicEvaluations);
+    }
+
     @Test
     public void testBack() {
 
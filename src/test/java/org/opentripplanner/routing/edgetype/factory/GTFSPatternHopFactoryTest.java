@@ -13,17 +13,24 @@
 
 package org.opentripplanner.routing.edgetype.factory;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.junit.Test;
 import org.onebusaway.gtfs.services.MockGtfs;
+import org.opentripplanner.ConstantsForTests;
 import org.opentripplanner.gtfs.GtfsLibrary;
+import org.opentripplanner.routing.edgetype.PatternHop;
 import org.opentripplanner.routing.edgetype.TransitBoardAlight;
 import org.opentripplanner.routing.edgetype.TripPattern;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.trippattern.TripTimes;
 
 public class GTFSPatternHopFactoryTest {
 
@@ -52,4 +59,50 @@ public class GTFSPatternHopFactoryTest {
         }
     }
 
+    @Test
+    public void testThreadsGiveSameResult() throws IOException {
+        Graph single = buildGraph(1);
+        Graph parallel = buildGraph(4);
+        assertEquals(single.getBuilderAnnotations().size(), parallel.getBuilderAnnotations().size());
+
+        Map<String, TripPattern> expectedPatterns = patternsByCode(single);
+        Map<String, TripPattern> actualPatterns = patternsByCode(parallel);
+        assertTrue(expectedPatterns.size() > 1);
+        assertEquals(expectedPatterns.keySet(), actualPatterns.keySet());
+        for (TripPattern expected : expectedPatterns.values()) {
+            TripPattern actual = actualPatterns.get(expected.code);
+            assertEquals(expected.getTrips(), actual.getTrips());
+            int nTrips = expected.scheduledTimetable.tripTimes.size();
+            assertEquals(nTrips, actual.scheduledTimetable.tripTimes.size());
+            for (int t = 0; t < nTrips; t++) {
+                TripTimes expectedTimes = expected.scheduledTimetable.tripTimes.get(t);
+                TripTimes actualTimes = actual.scheduledTimetable.tripTimes.get(t);
+                for (int s = 0; s < expectedTimes.getNumStops(); s++) {
+                    assertEquals(expectedTimes.getScheduledDepartureTime(s),
+                            actualTimes.getScheduledDepartureTime(s));
+                }
+            }
+        }
+    }
+
+    private static Graph buildGraph(int threads) throws IOException {
+        GTFSPatternHopFactory factory = new GTFSPatternHopFactory(GtfsLibrary.readGtfs(new File(
+                ConstantsForTests.CALTRAIN_GTFS)));
+        factory.setThreads(threads);
+        Graph graph = new Graph();
+        factory.run(graph);
+        return graph;
+    }
+
+    private static Map<String, TripPattern> patternsByCode(Graph graph) {
+        Map<String, TripPattern> patterns = new HashMap<String, TripPattern>();
+        for (Edge edge : graph.getEdges()) {
+            if (edge instanceof PatternHop) {
+                TripPattern pattern = ((PatternHop) edge).getPattern();
+                patterns.put(pattern.code, pattern);
+            }
+        }
+        return patterns;
+    }
+
 }
@@ -0,0 +1,137 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.google.common.io.ByteStreams;
+
+public class BlockCompressedStreamTest extends TestCase {
+
+    private static byte[] compress(byte[] data, int threads) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BlockCompressedOutputStream out = new BlockCompressedOutputStream(bytes, threads);
+        // write in uneven pieces so that blocks end in the middle of writes
+        int off = 0;
+        while (off < data.length) {
+            int n = Math.min(data.length - off, 77777);
+            out.write(data, off, n);
+            off += n;
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] sample(int length) {
+        Random random = new Random(42);
+        byte[] data = new byte[length];
+        // compressible but not trivial
+        for (int i = 0; i < length; i++)
+            data[i] = (byte) (random.nextInt(16) + (i / 1000) % 7);
+        return data;
+    }
+
+    public void testRoundTrip() throws IOException {
+        byte[] data = sample(BlockCompressedOutputStream.BLOCK_SIZE * 5 + 1234);
+        byte[] compressed = compress(data, 3);
+        assertTrue(compressed.length < data.length);
+        InputStream in = BlockCompressedInputStream.decompressIfNeeded(
+                new ByteArrayInputStream(compressed), compressed.length);
+        assertTrue(in instanceof BlockCompressedInputStream);
+        try {
+            assertTrue(Arrays.equals(data, ByteStreams.toByteArray(in)));
+            // the pool must be released at the end of the stream, even before close()
+            assertTrue(((BlockCompressedInputStream) in).executor.isShutdown());
+        } finally {
+            in.close();
+        }
+    }
+
+    public void testEmpty() throws IOException {
+        byte[] compressed = compress(new byte[0], 2);
+        InputStream in = BlockCompressedInputStream.decompressIfNeeded(
+                new ByteArrayInputStream(compressed), -1);
+        try {
+            assertEquals(-1, in.read());
+            assertTrue(((BlockCompressedInputStream) in).executor.isShutdown());
+        } finally {
+            in.close();
+        }
+    }
+
+    public void testPlainStreamPassesThrough() throws IOException {
+        byte[] data = sample(1000);
+        InputStream in = BlockCompressedInputStream.decompressIfNeeded(
+                new ByteArrayInputStream(data), -1);
+        assertTrue(Arrays.equals(data, ByteStreams.toByteArray(in)));
+    }
+
+    public void testCorruptionIsDetected() throws IOException {
+        byte[] data = sample(BlockCompressedOutputStream.BLOCK_SIZE * 2);
+        byte[] compressed = compress(data, 2);
+        // flip a bit in the stored checksum of the first block
+        compressed[8 + 8] ^= 1;
+        InputStream in = BlockCompressedInputStream.decompressIfNeeded(
+                new ByteArrayInputStream(compressed), -1);
+        try {
+            ByteStreams.toByteArray(in);
+            fail("corrupt block was not detected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("Checksum"));
+            assertTrue(((BlockCompressedInputStream) in).executor.isShutdown());
+        } finally {
+            in.close();
+        }
+    }
+
+    public void testGraphRoundTrip() throws Exception {
+        Graph graph = new Graph();
+        Vertex previous = null;
+        for (int i = 0; i < 100; i++) {
+            Vertex v = new SimpleConcreteVertex(graph, "v" + i, i * 0.001, 0);
+            if (previous != null)
+                new SimpleConcreteEdge(previous, v);
+            previous = v;
+        }
+        File file = File.createTempFile("Graph", ".obj");
+        try {
+            graph.save(file);
+            byte[] head = new byte[4];
+            InputStream in = new FileInputStream(file);
+            ByteStreams.readFully(in, head);
+            in.close();
+            assertTrue(Arrays.equals(BlockCompressedOutputStream.MAGIC, head));
+
+            Graph loaded = Graph.load(file, Graph.LoadLevel.FULL);
+            assertEquals(100, loaded.countVertices());
+            assertEquals(99, loaded.countEdges());
+            assertNotNull(loaded.getVertex("v99"));
+
+            Graph basic = Graph.load(file, Graph.LoadLevel.BASIC);
+            assertNotNull(basic);
+        } finally {
+            file.delete();
+        }
+    }
+
+}
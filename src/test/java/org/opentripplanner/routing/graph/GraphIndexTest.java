@@ -5,16 +5,26 @@ import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.gtfs.model.Route;
 import org.onebusaway.gtfs.model.Stop;
 import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
 import org.opentripplanner.GtfsTest;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.index.model.StopTimesInPattern;
+import org.opentripplanner.index.model.TripTimeShort;
+import org.opentripplanner.routing.edgetype.TimetableResolver;
 import org.opentripplanner.routing.edgetype.TripPattern;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.vertextype.TransitStop;
+import org.opentripplanner.util.TestUtils;
 
+import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeUpdate;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 
+import java.util.Calendar;
 import java.util.List;
+import java.util.TimeZone;
 
 /**
  * Check that the graph index is created, that GTFS elements can be found in the index, and that
@@ -103,4 +113,95 @@ public class GraphIndexTest extends GtfsTest {
         // graph.index.luceneIndex
     }
 
+    /** Departures at stop J: 08:10 on route 5, 12:10 and 13:10 on route 6, 12:20 and 13:20 on route 7, daily. */
+    public void testStopTimesForStop() {
+        Stop stopJ = graph.index.stopForId.get(new AgencyAndId("agency", "J"));
+        long noon = TestUtils.dateInSeconds("America/New_York", 2014, Calendar.JUNE, 2, 12, 0, 0);
+        long midnight = TestUtils.dateInSeconds("America/New_York", 2014, Calendar.JUNE, 2, 0, 0, 0);
+        List<StopTimesInPattern> times = graph.index.stopTimesForStop(stopJ, noon, 3);
+        // Grouped by pattern, in order of the first departure of each pattern
+        assertEquals(2, times.size());
+        assertEquals(2, times.get(0).times.size());
+        assertEquals(1, times.get(1).times.size());
+        TripTimeShort first = times.get(0).times.get(0);
+        assertEquals(new AgencyAndId("agency", "6.1"), first.tripId);
+        assertEquals(midnight, first.serviceDay);
+        assertEquals(12 * 3600 + 600, first.scheduledDeparture);
+        assertEquals(first.scheduledDeparture, first.realtimeDeparture);
+        assertFalse(first.realtime);
+        assertEquals(new AgencyAndId("agency", "6.2"), times.get(0).times.get(1).tripId);
+        assertEquals(new AgencyAndId("agency", "7.1"), times.get(1).times.get(0).tripId);
+
+        // After the last departure of the day, the first departure of the next day
+        long evening = TestUtils.dateInSeconds("America/New_York", 2014, Calendar.JUNE, 2, 20, 0, 0);
+        times = graph.index.stopTimesForStop(stopJ, evening, 1);
+        assertEquals(1, times.size());
+        first = times.get(0).times.get(0);
+        assertEquals(new AgencyAndId("agency", "5.1"), first.tripId);
+        assertEquals(midnight + 24 * 3600, first.serviceDay);
+        assertEquals(8 * 3600 + 600, first.scheduledDeparture);
+        assertEquals(5, graph.index.departureIndex.size(stopJ));
+    }
+
+    /** Trip 15.1 leaves stop U hourly from 06:00 to 10:00 and from 14:00 to 18:00. */
+    public void testFrequencyStopTimes() {
+        Stop stopU = graph.index.stopForId.get(new AgencyAndId("agency", "U"));
+        long time = TestUtils.dateInSeconds("America/New_York", 2014, Calendar.JUNE, 2, 9, 30, 0);
+        List<StopTimesInPattern> times = graph.index.stopTimesForStop(stopU, time, 3);
+        assertEquals(1, times.size());
+        assertEquals(3, times.get(0).times.size());
+        assertEquals(10 * 3600, times.get(0).times.get(0).scheduledDeparture);
+        assertEquals(14 * 3600, times.get(0).times.get(1).scheduledDeparture);
+        assertEquals(15 * 3600, times.get(0).times.get(2).scheduledDeparture);
+    }
+
+    public void testRealtimeStopTimes() {
+        Stop stopJ = graph.index.stopForId.get(new AgencyAndId("agency", "J"));
+        ServiceDate serviceDate = new ServiceDate(2014, 6, 2);
+        TimeZone timeZone = TimeZone.getTimeZone("America/New_York");
+        long noon = TestUtils.dateInSeconds("America/New_York", 2014, Calendar.JUNE, 2, 12, 0, 0);
+        TimetableResolver resolver = new TimetableResolver();
+
+        // Trip 6.1 leaves stop J a quarter of an hour late, after trip 7.1.
+        TripUpdate.Builder delay = TripUpdate.newBuilder();
+        delay.setTrip(TripDescriptor.newBuilder().setTripId("6.1"));
+        StopTimeUpdate.Builder stopTimeUpdate = delay.addStopTimeUpdateBuilder();
+        stopTimeUpdate.setStopSequence(2);
+        stopTimeUpdate.getArrivalBuilder().setDelay(900);
+        stopTimeUpdate.getDepartureBuilder().setDelay(900);
+        TripPattern pattern6 = graph.index.patternForTrip.get(graph.index.tripForId.get(new AgencyAndId("agency", "6.1")));
+        assertTrue(resolver.update(pattern6, delay.build(), "agency", timeZone, serviceDate));
+
+        // Trip 7.2 is canceled.
+        TripUpdate.Builder cancel = TripUpdate.newBuilder();
+        cancel.setTrip(TripDescriptor.newBuilder().setTripId("7.2")
+                .setScheduleRelationship(TripDescriptor.ScheduleRelationship.CANCELED));
+        TripPattern pattern7 = graph.index.patternForTrip.get(graph.index.tripForId.get(new AgencyAndId("agency", "7.2")));
+        assertTrue(resolver.update(pattern7, cancel.build(), "agency", timeZone, serviceDate));
+        TimetableResolver snapshot = resolver.commit();
+
+        List<StopTimesInPattern> times = graph.index.departureIndex.stopTimesForStop(stopJ, noon, 3, snapshot);
+        assertEquals(2, times.size());
+        assertEquals(pattern7.code, times.get(0).pattern.id);
+        TripTimeShort delayed = times.get(1).times.get(0);
+        assertEquals(new AgencyAndId("agency", "6.1"), delayed.tripId);
+        assertTrue(delayed.realtime);
+        assertEquals(900, delayed.departureDelay);
+        assertEquals(12 * 3600 + 25 * 60, delayed.realtimeDeparture);
+        assertEquals(new AgencyAndId("agency", "6.2"), times.get(1).times.get(1).tripId);
+
+        // A delayed vehicle is still shown after its scheduled departure time.
+        long late = TestUtils.dateInSeconds("America/New_York", 2014, Calendar.JUNE, 2, 12, 21, 0);
+        times = graph.index.departureIndex.stopTimesForStop(stopJ, late, 1, snapshot);
+        assertEquals(new AgencyAndId("agency", "6.1"), times.get(0).times.get(0).tripId);
+
+        // The canceled trip is skipped, so the next departure after 13:15 is the next day's.
+        long afternoon = TestUtils.dateInSeconds("America/New_York", 2014, Calendar.JUNE, 2, 13, 15, 0);
+        times = graph.index.departureIndex.stopTimesForStop(stopJ, afternoon, 1, snapshot);
+        assertEquals(new AgencyAndId("agency", "5.1"), times.get(0).times.get(0).tripId);
+        // Without realtime data it is not skipped.
+        times = graph.index.departureIndex.stopTimesForStop(stopJ, afternoon, 1, null);
+        assertEquals(new AgencyAndId("agency", "7.2"), times.get(0).times.get(0).tripId);
+    }
+
 }
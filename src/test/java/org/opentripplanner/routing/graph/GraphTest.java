@@ -15,6 +15,7 @@ package org.opentripplanner.routing.graph;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.opentripplanner.util.ArrayUtils.contains;
 
@@ -124,4 +125,53 @@ public class GraphTest {
         assertFalse(contains (alertPatches[9], alertPatch2));
         assertFalse(contains (alertPatches[9], alertPatch3));
     }
+
+    @Test
+    public final void testAlertPatchBatchUpdate() {
+        Graph graph = new Graph();
+        Vertex vertex0 = new SimpleConcreteVertex(graph, "Vertex 0", 0, 0);
+        Vertex vertex1 = new SimpleConcreteVertex(graph, "Vertex 1", 0, 180);
+        Edge edge0 = new SimpleConcreteEdge(vertex0, vertex1);
+        Edge edge1 = new SimpleConcreteEdge(vertex1, vertex0);
+        AlertPatch alertPatch = new AlertPatch();
+        alertPatch.setId("A");
+
+        assertEquals(0, graph.getAlertPatches(edge0).length);
+
+        graph.beginAlertPatchUpdate();
+        graph.addAlertPatch(edge0, alertPatch);
+        graph.addAlertPatch(edge1, alertPatch);
+        // Changes are not visible until the batch is committed
+        assertEquals(0, graph.getAlertPatches(edge0).length);
+        assertEquals(0, graph.getAlertPatches(edge1).length);
+        graph.commitAlertPatchUpdate();
+
+        assertTrue(contains(graph.getAlertPatches(edge0), alertPatch));
+        assertTrue(contains(graph.getAlertPatches(edge1), alertPatch));
+        assertFalse(graph.getAlertPatchIndex().isEmpty());
+
+        graph.beginAlertPatchUpdate();
+        graph.removeAlertPatch(edge0, alertPatch);
+        graph.removeAlertPatch(edge1, alertPatch);
+        assertTrue(contains(graph.getAlertPatches(edge0), alertPatch));
+        graph.commitAlertPatchUpdate();
+
+        assertEquals(0, graph.getAlertPatches(edge0).length);
+        assertEquals(0, graph.getAlertPatches(edge1).length);
+        assertTrue(graph.getAlertPatchIndex().isEmpty());
+    }
+
+    @Test
+    public final void testMergeSharesDeduplicatedObjects() {
+        Graph graph = new Graph();
+        Graph staged = new Graph();
+        new SimpleConcreteVertex(staged, "Vertex 0", 0, 0);
+        int[] times = staged.deduplicator.deduplicateIntArray(new int[] { 1, 2, 3 });
+        String name = staged.deduplicator.deduplicateString("Main Street");
+        graph.merge(staged);
+        assertEquals(1, graph.getVertices().size());
+        // Arrays interned by the staged builder are still shared after merging
+        assertSame(times, graph.deduplicator.deduplicateIntArray(new int[] { 1, 2, 3 }));
+        assertSame(name, graph.deduplicator.deduplicateString(new String("Main Street")));
+    }
 }
@@ -0,0 +1,139 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.spt;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.StateEditor;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+
+public class MultiShortestPathTreeTest {
+
+    private Graph graph;
+    private IntersectionVertex v0, v1;
+    private StreetEdge edge;
+    private State s0;
+
+    @Before
+    public void before() {
+        graph = new Graph();
+        v0 = new IntersectionVertex(graph, "v0", 0.0, 0.0);
+        v1 = new IntersectionVertex(graph, "v1", 0.0, 0.001);
+        LineString geom = GeometryUtils.getGeometryFactory().createLineString(
+                new Coordinate[] { v0.getCoordinate(), v1.getCoordinate() });
+        edge = new StreetEdge(v0, v1, geom, "v0_v1", 100, StreetTraversalPermission.ALL, false);
+
+        RoutingRequest options = new RoutingRequest();
+        options.setRoutingContext(graph, v0, v1);
+        s0 = new State(options);
+    }
+
+    /** Make a state at v1 with the given weight, elapsed time and walk distance. */
+    private State state(double weight, int seconds, double walkDistance) {
+        StateEditor editor = s0.edit(edge);
+        editor.incrementWeight(weight);
+        editor.incrementTimeInSeconds(seconds);
+        editor.incrementWalkDistance(walkDistance);
+        return editor.makeState();
+    }
+
+    private MultiShortestPathTree spt(DominanceFunction dominanceFunction) {
+        RoutingRequest options = s0.getOptions().clone();
+        options.dominanceFunction = dominanceFunction;
+        return new MultiShortestPathTree(options);
+    }
+
+    @Test
+    public void testParetoKeepsCodominantStates() {
+        MultiShortestPathTree spt = spt(new DominanceFunction.Pareto(
+                DominanceFunction.WEIGHT | DominanceFunction.TIME));
+        State fastExpensive = state(500, 100, 100);
+        State slowCheap = state(200, 400, 100);
+        State dominated = state(600, 500, 100);
+
+        assertTrue(spt.add(fastExpensive));
+        assertTrue(spt.add(slowCheap));
+        assertFalse(spt.add(dominated));
+        assertEquals(2, spt.getStates(v1).size());
+        assertTrue(spt.visit(fastExpensive));
+        assertTrue(spt.visit(slowCheap));
+        assertFalse(spt.visit(dominated));
+    }
+
+    @Test
+    public void testNewStateEvictsDominatedStates() {
+        MultiShortestPathTree spt = spt(new DominanceFunction.Pareto(
+                DominanceFunction.WEIGHT | DominanceFunction.TIME));
+        State a = state(500, 100, 100);
+        State b = state(200, 400, 100);
+        State best = state(100, 50, 100);
+
+        assertTrue(spt.add(a));
+        assertTrue(spt.add(b));
+        assertTrue(spt.add(best));
+        assertEquals(1, spt.getStates(v1).size());
+        assertFalse(spt.visit(a));
+        assertFalse(spt.visit(b));
+        assertTrue(spt.visit(best));
+        assertSame(best, spt.getState(v1));
+    }
+
+    @Test
+    public void testTiesAreRejected() {
+        MultiShortestPathTree spt = spt(new DominanceFunction.MinimumWeight());
+        State a = state(300, 100, 100);
+        State b = state(300, 900, 500);
+        assertTrue(spt.add(a));
+        assertFalse(spt.add(b));
+    }
+
+    @Test
+    public void testCriteriaSelection() {
+        State a = state(300, 100, 800);
+        State b = state(400, 200, 100);
+        // With weight and time only, a dominates b. Adding walk distance makes them codominant.
+        DominanceFunction weightTime = new DominanceFunction.Pareto(
+                DominanceFunction.WEIGHT | DominanceFunction.TIME);
+        DominanceFunction withWalk = DominanceFunction.forName("pareto");
+        assertTrue(weightTime.betterOrEqualAndComparable(a, b));
+        assertFalse(withWalk.betterOrEqualAndComparable(a, b));
+        assertFalse(withWalk.betterOrEqualAndComparable(b, a));
+    }
+
+    @Test
+    public void testHopefulMatchesLegacyRule() {
+        DominanceFunction hopeful = new DominanceFunction.Hopeful();
+        State a = state(1000, 1000, 100);
+        State b = state(1010, 1010, 102);
+        // Without transit both states have the same (empty) route sequence, so only weight and
+        // time are compared strictly.
+        assertTrue(hopeful.betterOrEqualAndComparable(a, b));
+        assertFalse(hopeful.betterOrEqualAndComparable(b, a));
+        assertEquals(hopeful.betterOrEqualAndComparable(b, a), MultiShortestPathTree.dominates(b, a));
+        // The initial state is never dominated
+        assertFalse(hopeful.betterOrEqualAndComparable(a, s0));
+    }
+
+}
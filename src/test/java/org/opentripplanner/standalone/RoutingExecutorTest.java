@@ -0,0 +1,135 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.standalone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RoutingExecutorTest {
+
+    @Test
+    public void testLoadShedding() throws Exception {
+        RoutingExecutor executor = new RoutingExecutor(1, 2, 0);
+        try {
+            final CountDownLatch started = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            Runnable blocking = new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            Runnable noop = new Runnable() {
+                @Override
+                public void run() { }
+            };
+
+            Future<?> running = executor.submit(blocking);
+            assertNotNull(running);
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            // one thread busy, two queue slots
+            Future<?> queued = executor.submit(noop);
+            assertNotNull(queued);
+            assertNotNull(executor.submit(noop));
+            assertNull(executor.submit(noop));
+
+            RoutingExecutor.Status status = executor.getStatus();
+            assertEquals(2, status.queueDepth);
+            assertEquals(2, status.queueCapacity);
+            assertEquals(1, status.active);
+            assertEquals(1, status.rejected);
+
+            // withdrawing a waiting task frees its slot
+            executor.cancel(queued);
+            assertTrue(queued.isCancelled());
+            assertEquals(1, executor.getStatus().queueDepth);
+            assertNotNull(executor.submit(noop));
+
+            release.countDown();
+            running.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSubmitIfIdle() throws Exception {
+        RoutingExecutor executor = new RoutingExecutor(2, 2, 0);
+        try {
+            final CountDownLatch started = new CountDownLatch(2);
+            final CountDownLatch release = new CountDownLatch(1);
+            Runnable blocking = new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            Future<?> running = executor.submit(blocking);
+
+            // one of the two threads is idle
+            Future<?> helper = executor.submitIfIdle(blocking);
+            assertNotNull(helper);
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            // both threads are now taken, and the queue is left to requests
+            assertNull(executor.submitIfIdle(blocking));
+            assertEquals(0, executor.getStatus().queueDepth);
+            assertEquals(0, executor.getStatus().rejected);
+            // a running task cannot be withdrawn
+            assertFalse(executor.cancel(helper));
+            assertFalse(helper.isCancelled());
+
+            release.countDown();
+            running.get(10, TimeUnit.SECONDS);
+            helper.get(10, TimeUnit.SECONDS);
+            assertFalse(executor.cancel(helper));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDeadline() {
+        RoutingExecutor executor = new RoutingExecutor(1, 1, 5000);
+        try {
+            long now = System.currentTimeMillis();
+            long deadline = executor.deadline();
+            assertTrue(deadline >= now + 5000 && deadline <= System.currentTimeMillis() + 5000);
+            assertEquals(0, new RoutingExecutor(1, 1, 0).deadline());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
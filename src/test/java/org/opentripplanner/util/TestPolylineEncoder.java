@@ -18,6 +18,8 @@ import java.util.List;
 
 import org.opentripplanner.util.model.EncodedPolylineBean;
 
+import org.opentripplanner.common.geometry.PackedCoordinateSequence;
+
 import com.vividsolutions.jts.geom.Coordinate;
 
 import junit.framework.TestCase;
@@ -35,4 +37,28 @@ public class TestPolylineEncoder extends TestCase {
         assertEquals(3, eplb.getLength());
         assertNull(eplb.getLevels());
     }
+
+    public void testBuilder() {
+        List<Coordinate> points = new ArrayList<Coordinate>();
+        points.add(new Coordinate(-73.85062, 40.903125));
+        points.add(new Coordinate(-73.85136, 40.902261));
+        points.add(new Coordinate(-73.85151, 40.902066));
+        points.add(new Coordinate(-73.85151, 40.902066));
+        points.add(new Coordinate(-73.8602, 40.9011));
+        EncodedPolylineBean expected = PolylineEncoder.createEncodings(points);
+
+        // Two pieces sharing their junction point, which must only be added once
+        PolylineEncoder.Builder builder = new PolylineEncoder.Builder();
+        builder.addPoints(new PackedCoordinateSequence.Double(
+                points.subList(0, 3).toArray(new Coordinate[3])), 0);
+        assertEquals(3, builder.size());
+        builder.addPoints(new PackedCoordinateSequence.Double(
+                points.subList(2, 5).toArray(new Coordinate[3])), 1);
+        EncodedPolylineBean eplb = builder.build();
+        assertEquals(expected.getPoints(), eplb.getPoints());
+        assertEquals(5, eplb.getLength());
+        assertNull(eplb.getLevels());
+
+        assertEquals("", new PolylineEncoder.Builder().build().getPoints());
+    }
 }
@@ -0,0 +1,103 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.util.monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+    @Test
+    public void testBucketBoundaries() {
+        // Small values are exact, larger ones are split into 16 sub-buckets per power of two.
+        for (long v = 0; v < 32; v++) {
+            assertEquals(v, Histogram.bucketIndex(v));
+            assertEquals(v, Histogram.lowestEquivalentValue((int) v));
+        }
+        assertEquals(32, Histogram.bucketIndex(32));
+        assertEquals(32, Histogram.bucketIndex(33));
+        assertEquals(33, Histogram.bucketIndex(34));
+        assertEquals(47, Histogram.bucketIndex(63));
+        assertEquals(48, Histogram.bucketIndex(64));
+        assertEquals(Histogram.BUCKETS - 1, Histogram.bucketIndex(Long.MAX_VALUE));
+
+        // Every bucket starts right after the previous one ends, and values map back to their bucket.
+        for (int i = 1; i < Histogram.BUCKETS; i++) {
+            long lowest = Histogram.lowestEquivalentValue(i);
+            assertEquals(Histogram.highestEquivalentValue(i - 1) + 1, lowest);
+            assertEquals(i, Histogram.bucketIndex(lowest));
+            assertEquals(i, Histogram.bucketIndex(Histogram.highestEquivalentValue(i)));
+        }
+    }
+
+    @Test
+    public void testRelativeError() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+            int bucket = Histogram.bucketIndex(value);
+            long lowest = Histogram.lowestEquivalentValue(bucket);
+            long highest = Histogram.highestEquivalentValue(bucket);
+            assertTrue(lowest <= value && value <= highest);
+            assertTrue(highest - lowest <= value / 16);
+        }
+    }
+
+    @Test
+    public void testQuantiles() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getValueAtQuantile(0.5));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        histogram.record(-5);
+        assertEquals(1001, histogram.getCount());
+        assertEquals(500500, histogram.getSum());
+        assertEquals(0, histogram.getValueAtQuantile(0));
+        assertWithinBucket(500, histogram.getValueAtQuantile(0.5));
+        assertWithinBucket(990, histogram.getValueAtQuantile(0.99));
+        assertWithinBucket(1000, histogram.getValueAtQuantile(1));
+    }
+
+    private static void assertWithinBucket(long expected, long actual) {
+        assertEquals(Histogram.bucketIndex(expected), Histogram.bucketIndex(actual));
+    }
+
+    @Test
+    public void testConcurrentRecording() throws InterruptedException {
+        final Histogram histogram = new Histogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record(i % 100);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, histogram.getCount());
+        assertEquals(4 * 100 * 4950, histogram.getSum());
+    }
+
+}
@@ -0,0 +1,133 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.util.monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+import org.opentripplanner.util.monitoring.MetricsRegistry.Samples;
+import org.opentripplanner.util.monitoring.MetricsRegistry.Type;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void testCounter() throws InterruptedException {
+        final Counter counter = new Counter();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        counter.inc();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        counter.add(5);
+        assertEquals(80005, counter.get());
+    }
+
+    @Test
+    public void testLookup() {
+        MetricsRegistry registry = new MetricsRegistry();
+        Counter counter = registry.counter("requests_total", "Requests.", "router", "a");
+        assertSame(counter, registry.counter("requests_total", "Requests.", "router", "a"));
+        try {
+            registry.histogram("requests_total", "Requests.", 1, "router", "a");
+            fail("A name may only be used for one type of metric.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            registry.counter("requests_total", "Requests.", "router");
+            fail("Labels come in pairs.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testPrometheusText() throws IOException {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("requests_total", "Requests.", "router", "b").add(3);
+        registry.counter("requests_total", "Requests.", "router", "a\"\\").inc();
+        Histogram histogram = registry.histogram("latency_seconds", "Latency.", 0.5, "router", "a");
+        histogram.record(1);
+        histogram.record(3);
+        histogram.record(3);
+        histogram.record(4);
+        histogram.record(9);
+        registry.addCollector(new MetricsRegistry.Collector() {
+            @Override
+            public void collect(Samples samples) {
+                samples.add("queue_depth", Type.GAUGE, "Queued.", 2.5);
+            }
+        });
+
+        StringWriter writer = new StringWriter();
+        registry.write(writer);
+        String text = writer.toString();
+
+        // Families are sorted by name; samples within a family may come in any order.
+        String histogramText = "# HELP latency_seconds Latency.\n"
+                + "# TYPE latency_seconds histogram\n"
+                // Each bucket counts the values up to and including its bound: 4 * 0.5 = 2 is
+                // above 1.5 and counted from 3.5 on.
+                + "latency_seconds_bucket{router=\"a\",le=\"0.5\"} 1\n"
+                + "latency_seconds_bucket{router=\"a\",le=\"1.5\"} 3\n"
+                + "latency_seconds_bucket{router=\"a\",le=\"3.5\"} 4\n"
+                + "latency_seconds_bucket{router=\"a\",le=\"7.5\"} 5\n"
+                + "latency_seconds_bucket{router=\"a\",le=\"+Inf\"} 5\n"
+                + "latency_seconds_sum{router=\"a\"} 10\n"
+                + "latency_seconds_count{router=\"a\"} 5\n";
+        String gaugeText = "# HELP queue_depth Queued.\n"
+                + "# TYPE queue_depth gauge\n"
+                + "queue_depth 2.5\n";
+        assertEquals(histogramText + gaugeText, text.substring(0, histogramText.length() + gaugeText.length()));
+        String counterText = text.substring(histogramText.length() + gaugeText.length());
+        String[] lines = counterText.split("\n");
+        assertEquals(4, lines.length);
+        assertEquals("# HELP requests_total Requests.", lines[0]);
+        assertEquals("# TYPE requests_total counter", lines[1]);
+        String a = "requests_total{router=\"a\\\"\\\\\"} 1";
+        String b = "requests_total{router=\"b\"} 3";
+        if (lines[2].equals(a)) {
+            assertEquals(b, lines[3]);
+        } else {
+            assertEquals(b, lines[2]);
+            assertEquals(a, lines[3]);
+        }
+    }
+
+    @Test
+    public void testFormatValue() {
+        assertEquals("42", MetricsRegistry.formatValue(42));
+        assertEquals("0.001", MetricsRegistry.formatValue(0.001));
+        assertEquals("+Inf", MetricsRegistry.formatValue(Double.POSITIVE_INFINITY));
+        assertEquals("NaN", MetricsRegistry.formatValue(Double.NaN));
+        assertEquals("0.001023", MetricsRegistry.formatBound(1023 * 1e-6));
+        assertEquals("2047", MetricsRegistry.formatBound(2047));
+    }
+
+}